@@ -0,0 +1,139 @@
+package pls.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Benchmarks of {@link Expression#eval} for the main kinds of expression.
+ * <p>Each expression is evaluated with integer and with floating point context values (the
+ * <code>type</code> parameter), since these take different paths through the arithmetic operators.
+ * Run with the GC profiler (<code>-prof gc</code>) to report the allocation rate of each evaluation.
+ *
+ * @author Peter Smith
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvalBenchmark {
+
+    /** The type of the numeric context values */
+
+    @Param({ "int", "double" })
+    public String type;
+
+
+    /** The evaluation context */
+
+    private ExpressionContext context;
+
+
+    /* The benchmarked expressions */
+
+    private Expression arithmetic;
+    private Expression relational;
+    private Expression string;
+    private Expression in;
+    private Expression member;
+    private Expression function;
+    private Predicate predicate;
+
+
+
+    @Setup
+    public void setup() throws ExpressionError {
+        Functions.registerStringFunctions();
+        Functions.registerMathFunctions();
+        Parser parser = new Parser();
+
+        boolean integer = type.equals("int");
+        context = new ExpressionContext();
+        context.set("x", integer ? (Object) 17 : (Object) 17.5);
+        context.set("y", integer ? (Object) 4 : (Object) 4.25);
+        context.set("name", "widget");
+        context.set("category", "Tools/Hand");
+
+        Map<String, Object> customer = new HashMap<String, Object>();
+        customer.put("tier", integer ? (Object) 2 : (Object) 2.0);
+        Map<String, Object> order = new HashMap<String, Object>();
+        order.put("customer", customer);
+        context.set("order", order);
+
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < 50; ++i) list.append(i == 0 ? "" : ", ").append(integer ? String.valueOf(i * 3) : (i * 3) + ".5");
+
+        arithmetic = parser.parse("x * 3 + y / 2 - (x - y) * 2");
+        relational = parser.parse("x > 10 and y <= 20 or x == y");
+        string = parser.parse("name == \"widget\" and tolower(category) =~ \"^tools\"");
+        in = parser.parse("x in [" + list + "]");
+        member = parser.parse("order.customer.tier > 1");
+        function = parser.parse("floor(sqrt(x) * cos(rad(y))) + int(x)");
+        predicate = parser.parsePredicate("x > 10 and y <= 20 or x == y");
+    }
+
+
+
+    @Benchmark
+    public Object arithmetic() throws ExpressionError {
+        return arithmetic.eval(context);
+    }
+
+
+
+    @Benchmark
+    public Object relational() throws ExpressionError {
+        return relational.eval(context);
+    }
+
+
+
+    @Benchmark
+    public Object string() throws ExpressionError {
+        return string.eval(context);
+    }
+
+
+
+    @Benchmark
+    public Object in() throws ExpressionError {
+        return in.eval(context);
+    }
+
+
+
+    @Benchmark
+    public Object member() throws ExpressionError {
+        return member.eval(context);
+    }
+
+
+
+    @Benchmark
+    public Object function() throws ExpressionError {
+        return function.eval(context);
+    }
+
+
+
+    @Benchmark
+    public boolean predicate() throws ExpressionError {
+        return predicate.test(context);
+    }
+}
@@ -0,0 +1,81 @@
+package pls.expression;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Benchmarks of {@link Parser#parse}.
+ * <p>A short expression measures the fixed cost of a parse, while a long expression (many clauses joined
+ * by logical operators, as found in generated filters) measures how the parse cost grows with length.
+ *
+ * @author Peter Smith
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    /** A short expression */
+
+    private static final String SHORT = "3.2 * x / 2.2 * (y + 1.4) > 10";
+
+
+    /** The number of clauses in the long expression */
+
+    private static final int CLAUSES = 100;
+
+
+    /** The parser */
+
+    private Parser parser;
+
+
+    /** A long expression */
+
+    private String longExpression;
+
+
+
+    @Setup
+    public void setup() {
+        Functions.registerStringFunctions();
+        Functions.registerMathFunctions();
+        parser = new Parser();
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < CLAUSES; ++i) {
+            if (i > 0) text.append(i % 2 == 0 ? " or " : " and ");
+            text.append("(x").append(i).append(" > ").append(i).append(" and name").append(i).append(" =~ \"^a.*\")");
+        }
+        longExpression = text.toString();
+    }
+
+
+
+    @Benchmark
+    public Expression parseShort() throws ExpressionError {
+        return parser.parse(SHORT);
+    }
+
+
+
+    @Benchmark
+    public Expression parseLong() throws ExpressionError {
+        return parser.parse(longExpression);
+    }
+}
@@ -1,5 +1,8 @@
 package pls.expression;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 
 
 /**
@@ -11,6 +14,12 @@ package pls.expression;
  * conversion if the operands are of different types. Note that for arithmetic
  * operations, both the left and right hand arguments are always evalutated (unlike logical
  * operators which may only evaluate the left hand argument depending upon circumstances).
+ * <p>Operators may also be given operations for long and decimal ({@link BigDecimal}) values. Operands are
+ * converted to the narrowest type that holds both exactly - two Integers use the integer operation, Integers
+ * and Longs use the long operation, and any mix of Integers, Longs, BigIntegers and BigDecimals uses the
+ * decimal operation. A Double (or any other type of number) makes the operation floating point. If the
+ * operator has no long or decimal operation, the floating point operation is used instead. The default operators'
+ * long operations fail with an arithmetic error rather than overflow (integer operations overflow, as in Java).
  *
  * @see ArithmeticOperationI
  * @see ArithmeticOperationF
@@ -58,6 +67,267 @@ class ArithmeticOperator extends BinaryOperator {
 
 
 
+    /**
+    * Lambda interface used to implement arithmetic operations on integer values, returning an integer.
+    * <p>This interface is usually used when registering arithmetic operations with the
+    * {@link Parser} using the {@link Operators#createNumeric Operators.createNumeric} utility method.
+    */
+    @FunctionalInterface
+    public static interface IntOperation {
+        /**
+        * Performs an arthimetic operation on integer values.
+        * 
+        * @param l  the left hand operand
+        * @param r  the right hand operand
+        * @return   the result of the operation on the two operands
+        * @throws ExpressionError if the operation could not be performed
+        */
+        int op(int l, int r) throws ExpressionError;
+    }
+
+
+
+    /**
+    * Lambda interface used to implement arithmetic operations on floating point values, returning a floating point value.
+    * <p>This interface is usually used when registering arithmetic operations with the
+    * {@link Parser} using the {@link Operators#createNumeric Operators.createNumeric} utility method.
+    */
+    @FunctionalInterface
+    public static interface DoubleOperation {
+        /**
+        * Performs an arthimetic operation on floating point values.
+        * 
+        * @param l  the left hand operand
+        * @param r  the right hand operand
+        * @return   the result of the operation on the two operands
+        * @throws ExpressionError if the operation could not be performed
+        */
+        double op(double l, double r) throws ExpressionError;
+    }
+
+
+
+    /**
+    * Lambda interface used to implement arithmetic operations on long values, returning a long.
+    * <p>This interface is usually used when registering arithmetic operations with the
+    * {@link Parser} using the {@link Operators#createNumeric Operators.createNumeric} utility method.
+    */
+    @FunctionalInterface
+    public static interface LongOperation {
+        /**
+        * Performs an arthimetic operation on long values.
+        * 
+        * @param l  the left hand operand
+        * @param r  the right hand operand
+        * @return   the result of the operation on the two operands
+        * @throws ExpressionError if the operation could not be performed
+        */
+        long op(long l, long r) throws ExpressionError;
+    }
+
+
+
+    /**
+    * Lambda interface used to implement arithmetic operations on decimal values, returning a decimal.
+    * <p>This interface is usually used when registering arithmetic operations with the
+    * {@link Parser} using the {@link Operators#createNumeric Operators.createNumeric} utility method.
+    */
+    @FunctionalInterface
+    public static interface DecimalOperation {
+        /**
+        * Performs an arthimetic operation on decimal values.
+        * 
+        * @param l  the left hand operand
+        * @param r  the right hand operand
+        * @return   the result of the operation on the two operands
+        * @throws ExpressionError if the operation could not be performed
+        */
+        BigDecimal op(BigDecimal l, BigDecimal r) throws ExpressionError;
+    }
+
+
+
+    /**
+    * Lambda interface used to implement comparisons of integer values.
+    * <p>This interface is usually used when registering comparison operators with the
+    * {@link Parser} using the {@link Operators#createComparison Operators.createComparison} utility method.
+    */
+    @FunctionalInterface
+    public static interface IntComparison {
+        /**
+        * Compares integer values.
+        * 
+        * @param l  the left hand operand
+        * @param r  the right hand operand
+        * @return   the result of the comparison
+        * @throws ExpressionError if the comparison could not be performed
+        */
+        boolean op(int l, int r) throws ExpressionError;
+    }
+
+
+
+    /**
+    * Lambda interface used to implement comparisons of floating point values.
+    * <p>This interface is usually used when registering comparison operators with the
+    * {@link Parser} using the {@link Operators#createComparison Operators.createComparison} utility method.
+    */
+    @FunctionalInterface
+    public static interface DoubleComparison {
+        /**
+        * Compares floating point values.
+        * 
+        * @param l  the left hand operand
+        * @param r  the right hand operand
+        * @return   the result of the comparison
+        * @throws ExpressionError if the comparison could not be performed
+        */
+        boolean op(double l, double r) throws ExpressionError;
+    }
+
+
+
+    /**
+    * Lambda interface used to implement comparisons of long values.
+    * <p>This interface is usually used when registering comparison operators with the
+    * {@link Parser} using the {@link Operators#createComparison Operators.createComparison} utility method.
+    */
+    @FunctionalInterface
+    public static interface LongComparison {
+        /**
+        * Compares long values.
+        * 
+        * @param l  the left hand operand
+        * @param r  the right hand operand
+        * @return   the result of the comparison
+        * @throws ExpressionError if the comparison could not be performed
+        */
+        boolean op(long l, long r) throws ExpressionError;
+    }
+
+
+
+    /**
+    * Lambda interface used to implement comparisons of decimal values.
+    * <p>This interface is usually used when registering comparison operators with the
+    * {@link Parser} using the {@link Operators#createComparison Operators.createComparison} utility method.
+    */
+    @FunctionalInterface
+    public static interface DecimalComparison {
+        /**
+        * Compares decimal values.
+        * 
+        * @param l  the left hand operand
+        * @param r  the right hand operand
+        * @return   the result of the comparison
+        * @throws ExpressionError if the comparison could not be performed
+        */
+        boolean op(BigDecimal l, BigDecimal r) throws ExpressionError;
+    }
+
+
+
+    /* Static result types, used to select evaluation paths that avoid boxing */
+
+    /** Result type is not known until evaluation */
+
+    static final int UNKNOWN = 0;
+
+
+    /** Result is always an Integer */
+
+    static final int INTEGER = 1;
+
+
+    /** Result is always a Double */
+
+    static final int FLOAT = 2;
+
+
+    /** Result is always a Boolean */
+
+    static final int BOOLEAN = 3;
+
+
+    /* Operand types used to select the operation at evaluation time (never static result types) */
+
+    /** Operands are Integers and Longs */
+
+    static final int LONG = 4;
+
+
+    /** Operands are exact numbers, at least one of which is a BigDecimal or BigInteger */
+
+    static final int DECIMAL = 5;
+
+
+
+    /** The operation used for integer operands */
+
+    private ArithmeticOperationI iOp;
+
+
+    /** The operation used for floating point operands */
+
+    private ArithmeticOperationF fOp;
+
+
+    /** The primitive operation used for integer operands (null if not available) */
+
+    private IntOperation intOp;
+
+
+    /** The primitive operation used for floating point operands (null if not available) */
+
+    private DoubleOperation doubleOp;
+
+
+    /** The primitive comparison used for integer operands (null if not available) */
+
+    private IntComparison intCmp;
+
+
+    /** The primitive comparison used for floating point operands (null if not available) */
+
+    private DoubleComparison doubleCmp;
+
+
+    /** The operation used for long operands (null if not available) */
+
+    private LongOperation longOp;
+
+
+    /** The operation used for decimal operands (null if not available) */
+
+    private DecimalOperation decimalOp;
+
+
+    /** The comparison used for long operands (null if not available) */
+
+    private LongComparison longCmp;
+
+
+    /** The comparison used for decimal operands (null if not available) */
+
+    private DecimalComparison decimalCmp;
+
+
+    /** The static result type of this operator */
+
+    private int type = UNKNOWN;
+
+
+    /** The static result type of the left hand operand */
+
+    private int leftType = UNKNOWN;
+
+
+    /** The static result type of the right hand operand */
+
+    private int rightType = UNKNOWN;
+
+
+
     /**
      * Creates an ArithmeticOperator instance with the given name, operands, and operator.
      *
@@ -74,35 +344,503 @@ class ArithmeticOperator extends BinaryOperator {
             Object r1 = l.eval(context);
             Object r2 = r.eval(context);
 
-            /* Check that the operands are numeric. We allow integer/float conversion to make life easier */
-
-            if (r1 != null && r2 != null) {
-                Class<?> c1 = r1.getClass();
-                Class<?> c2 = r2.getClass();
-                if (!(r1 instanceof Number) || !(r2 instanceof Number)) {
-                    throw new ExpressionError(
-                        String.format("Invalid type for arithmetic operator: (%s) %s %s (%s) %s", 
-                            c1.getSimpleName(),
-                            r1.toString(), 
-                            name,
-                            c2.getSimpleName(),
-                            r2.toString()));
-                }
-
-                /* Execute the arithmetic operator */
-
-                try {
-                    if (c1 == c2 && c1 == Integer.class)
-                        return iOp.op(((Number) r1).intValue(), ((Number) r2).intValue());
-                    else
-                        return fOp.op(((Number) r1).doubleValue(), ((Number) r2).doubleValue());
-                }
-                catch (ArithmeticException x) {
-                    throw new ExpressionError("Arithmetic error: " + x.getMessage());
-                }
+            /* Execute the arithmetic operator */
+
+            try {
+                if (isInteger(r1, r2, name))
+                    return iOp.op(((Number) r1).intValue(), ((Number) r2).intValue());
+                else
+                    return fOp.op(((Number) r1).doubleValue(), ((Number) r2).doubleValue());
+            }
+            catch (ArithmeticException x) {
+                throw arithmeticError(x);
             }
-            else /* Otherwise error - cannot perform arithmetic ops on nulls */
-                throw new ExpressionError(String.format("Invalid null argument passed to '%s' operator", name));
         });
+        this.iOp = iOp;
+        this.fOp = fOp;
+    }
+
+
+
+    /**
+     * Creates an ArithmeticOperator instance using primitive operations.
+     * <p>Operators created this way can be evaluated without boxing intermediate results (see
+     * {@link Expression#evalDouble}).
+     *
+     * @param name   the name of the operation (this will be used for serialization)
+     * @param left   the expression that will be used to generate the left hand operand
+     * @param right  the expression that will be used to generate the right hand operand
+     * @param iOp    the operation to perform on integer values
+     * @param fOp    the operation to perform on floating point values
+     */
+    public ArithmeticOperator(String name, Expression left, Expression right, IntOperation iOp, DoubleOperation fOp) {
+        this(name, left, right, (ArithmeticOperationI) (l, r) -> iOp.op(l, r), (ArithmeticOperationF) (l, r) -> fOp.op(l, r));
+        this.intOp = iOp;
+        this.doubleOp = fOp;
+        this.leftType = numericTypeOf(left);
+        this.rightType = numericTypeOf(right);
+
+        /* Integer results need both operands to be integers, but a single floating point operand forces a floating point result */
+
+        if (leftType == INTEGER && rightType == INTEGER)
+            this.type = INTEGER;
+        else if (leftType == FLOAT || rightType == FLOAT)
+            this.type = FLOAT;
+    }
+
+
+
+    /**
+     * Creates an ArithmeticOperator instance for a comparison, using primitive comparisons.
+     * <p>Operators created this way can be evaluated without boxing intermediate results (see
+     * {@link Expression#evalBoolean}).
+     *
+     * @param name   the name of the operation (this will be used for serialization)
+     * @param left   the expression that will be used to generate the left hand operand
+     * @param right  the expression that will be used to generate the right hand operand
+     * @param iOp    the comparison to perform on integer values
+     * @param fOp    the comparison to perform on floating point values
+     */
+    public ArithmeticOperator(String name, Expression left, Expression right, IntComparison iOp, DoubleComparison fOp) {
+        this(name, left, right, (ArithmeticOperationI) (l, r) -> iOp.op(l, r), (ArithmeticOperationF) (l, r) -> fOp.op(l, r));
+        this.intCmp = iOp;
+        this.doubleCmp = fOp;
+        this.leftType = numericTypeOf(left);
+        this.rightType = numericTypeOf(right);
+        this.type = BOOLEAN;
+    }
+
+
+
+    /**
+     * Creates an ArithmeticOperator instance using primitive operations, and operations for long and decimal values.
+     *
+     * @param name   the name of the operation (this will be used for serialization)
+     * @param left   the expression that will be used to generate the left hand operand
+     * @param right  the expression that will be used to generate the right hand operand
+     * @param iOp    the operation to perform on integer values
+     * @param lOp    the operation to perform on long values
+     * @param fOp    the operation to perform on floating point values
+     * @param dOp    the operation to perform on decimal values
+     */
+    public ArithmeticOperator(String name, Expression left, Expression right, IntOperation iOp, LongOperation lOp, DoubleOperation fOp, DecimalOperation dOp) {
+        this(name, left, right, iOp, fOp);
+        this.longOp = lOp;
+        this.decimalOp = dOp;
+    }
+
+
+
+    /**
+     * Creates an ArithmeticOperator instance for a comparison, using primitive comparisons, and comparisons
+     * for long and decimal values.
+     *
+     * @param name   the name of the operation (this will be used for serialization)
+     * @param left   the expression that will be used to generate the left hand operand
+     * @param right  the expression that will be used to generate the right hand operand
+     * @param iOp    the comparison to perform on integer values
+     * @param lOp    the comparison to perform on long values
+     * @param fOp    the comparison to perform on floating point values
+     * @param dOp    the comparison to perform on decimal values
+     */
+    public ArithmeticOperator(String name, Expression left, Expression right, IntComparison iOp, LongComparison lOp, DoubleComparison fOp, DecimalComparison dOp) {
+        this(name, left, right, iOp, fOp);
+        this.longCmp = lOp;
+        this.decimalCmp = dOp;
+    }
+
+
+
+    /**
+     * Evaluates the arithmetic operation.
+     * <p>If the result type is known in advance, the result is computed without boxing the operands
+     * and boxed only once.
+     *
+     * @param context  the expression context.
+     * @return the result of the arithmetic operation.
+     * @throws ExpressionError if an error occurred during execution of the operation.
+     */
+    @Override
+    public Object eval(ExpressionContext context) throws ExpressionError {
+        switch (type) {
+            case INTEGER: return Integer.valueOf((int) compute(context));
+            case FLOAT: return Double.valueOf(compute(context));
+            case BOOLEAN: return Boolean.valueOf(compute(context) != 0);
+            default: return operate(getLeft().eval(context), getRight().eval(context));
+        }
+    }
+
+
+
+    /**
+     * Performs the operation on evaluated operands, selecting the operation from the operand types.
+     *
+     * @param r1  the evaluated left hand operand
+     * @param r2  the evaluated right hand operand
+     * @return the result of the operation
+     * @throws ExpressionError if either operand is invalid, or the operation failed
+     */
+    Object operate(Object r1, Object r2) throws ExpressionError {
+        try {
+            if (isInteger(r1, r2, getName()))
+                return iOp.op(((Number) r1).intValue(), ((Number) r2).intValue());
+
+            switch (numericType(r1, r2)) {
+                case LONG:
+                    if (longOp != null) return Long.valueOf(longOp.op(((Number) r1).longValue(), ((Number) r2).longValue()));
+                    if (longCmp != null) return Boolean.valueOf(longCmp.op(((Number) r1).longValue(), ((Number) r2).longValue()));
+                    break;
+
+                case DECIMAL:
+                    if (decimalOp != null) return decimalOp.op(Operators.toDecimal(r1), Operators.toDecimal(r2));
+                    if (decimalCmp != null) return Boolean.valueOf(decimalCmp.op(Operators.toDecimal(r1), Operators.toDecimal(r2)));
+                    break;
+            }
+            return fOp.op(((Number) r1).doubleValue(), ((Number) r2).doubleValue());
+        }
+        catch (ArithmeticException x) {
+            throw arithmeticError(x);
+        }
+    }
+
+
+
+    /**
+     * Evaluates the expression as a floating point value.
+     * <p>An operator created with primitive operations computes its result without boxing its operands
+     * or its result.
+     *
+     * @param context  the context in which the expression is being evaluated
+     * @return         the numeric result of the operation as a double
+     * @throws ExpressionError if either operand is invalid, or the operation failed
+     */
+    @Override
+    public double evalDouble(ExpressionContext context) throws ExpressionError {
+        return intOp != null ? compute(context) : super.evalDouble(context);
+    }
+
+
+
+    /**
+     * Evaluates the expression as an integer value.
+     * <p>An operator created with primitive operations computes its result without boxing, then
+     * truncates it to an int.
+     *
+     * @param context  the context in which the expression is being evaluated
+     * @return         the numeric result of the operation as an int
+     * @throws ExpressionError if either operand is invalid, or the operation failed
+     */
+    @Override
+    public int evalInt(ExpressionContext context) throws ExpressionError {
+        return intOp != null ? (int) compute(context) : super.evalInt(context);
+    }
+
+
+
+    /**
+     * Evaluates the expression as a boolean value.
+     * <p>A primitive comparison is computed without boxing. The result of a primitive operation is
+     * true if it is not zero, as {@link Operators#toBoolean Operators.toBoolean} would convert it.
+     *
+     * @param context  the context in which the expression is being evaluated
+     * @return         the result of the operation as a boolean
+     * @throws ExpressionError if either operand is invalid, or the operation failed
+     */
+    @Override
+    public boolean evalBoolean(ExpressionContext context) throws ExpressionError {
+        return (intOp != null || intCmp != null) ? compute(context) != 0 : super.evalBoolean(context);
+    }
+
+
+
+    /**
+     * Computes the result of a primitive operation or comparison.
+     * <p>Operands whose type is known in advance are evaluated as primitives. Other operands are evaluated
+     * as objects and checked in exactly the same way as {@link #eval} would. Integer results are exactly
+     * representable as doubles, so a double is returned in all cases. Comparisons return 1 (true) or 0 (false).
+     *
+     * @param context  the expression context.
+     * @return the result of the operation.
+     * @throws ExpressionError if an error occurred during execution of the operation.
+     */
+    private double compute(ExpressionContext context) throws ExpressionError {
+        Expression left = getLeft();
+        Expression right = getRight();
+
+        if (leftType == INTEGER && rightType == INTEGER)
+            return apply(true, left.evalInt(context), right.evalInt(context));
+        else if (leftType != UNKNOWN && rightType != UNKNOWN)
+            return apply(false, left.evalDouble(context), right.evalDouble(context));
+
+        /* At least one operand type is only known at evaluation time */
+
+        Object r1 = null;
+        Object r2 = null;
+        double l = 0;
+        double r = 0;
+
+        if (leftType == UNKNOWN) r1 = left.eval(context); else l = left.evalDouble(context);
+        if (rightType == UNKNOWN) r2 = right.eval(context); else r = right.evalDouble(context);
+
+        if ((leftType == UNKNOWN && !(r1 instanceof Number)) || (rightType == UNKNOWN && !(r2 instanceof Number))) {
+            isInteger(box(r1, l, leftType), box(r2, r, rightType), getName()); /* Reports the invalid operand */
+        }
+
+        /* Operands other than Integers and Doubles (e.g. Longs and BigDecimals) are rare, and are evaluated as objects */
+
+        if ((leftType == UNKNOWN && r1.getClass() != Integer.class && r1.getClass() != Double.class)
+                || (rightType == UNKNOWN && r2.getClass() != Integer.class && r2.getClass() != Double.class)) {
+            Object result = operate(box(r1, l, leftType), box(r2, r, rightType));
+            return result instanceof Boolean ? ((Boolean) result ? 1 : 0) : Operators.toFloat(result);
+        }
+
+        if (leftType == UNKNOWN) l = ((Number) r1).doubleValue();
+        if (rightType == UNKNOWN) r = ((Number) r2).doubleValue();
+
+        boolean integer = (leftType == INTEGER || r1 instanceof Integer) && (rightType == INTEGER || r2 instanceof Integer);
+        return apply(integer, l, r);
+    }
+
+
+
+    /**
+     * Applies the primitive operation or comparison.
+     *
+     * @param integer  true to apply the integer operation, false for the floating point operation
+     * @param l        the left hand operand
+     * @param r        the right hand operand
+     * @return the result of the operation (1 or 0 for comparisons)
+     * @throws ExpressionError if an error occurred during execution of the operation.
+     */
+    private double apply(boolean integer, double l, double r) throws ExpressionError {
+        try {
+            if (intCmp != null)
+                return (integer ? intCmp.op((int) l, (int) r) : doubleCmp.op(l, r)) ? 1 : 0;
+            else
+                return integer ? intOp.op((int) l, (int) r) : doubleOp.op(l, r);
+        }
+        catch (ArithmeticException x) {
+            throw arithmeticError(x);
+        }
+    }
+
+
+
+    /**
+     * Boxes an operand value (used only for error reporting).
+     *
+     * @param value  the operand value if evaluated as an object
+     * @param d      the operand value if evaluated as a primitive
+     * @param type   the static type of the operand
+     * @return the operand value as an object
+     */
+    private static Object box(Object value, double d, int type) {
+        switch (type) {
+            case INTEGER: return Integer.valueOf((int) d);
+            case FLOAT: return Double.valueOf(d);
+            default: return value;
+        }
+    }
+
+
+
+    /**
+     * Determines the static numeric type of an operand.
+     * <p>Non-numeric operands are treated as {@link #UNKNOWN} - they are evaluated as objects and then
+     * rejected in the same way as any other invalid operand.
+     *
+     * @param e  the operand expression
+     * @return {@link #INTEGER}, {@link #FLOAT}, or {@link #UNKNOWN}
+     */
+    private static int numericTypeOf(Expression e) {
+        int t = typeOf(e);
+        return (t == INTEGER || t == FLOAT) ? t : UNKNOWN;
+    }
+
+
+
+    /**
+     * Determines the static result type of an expression.
+     * <p>The static type is known for numeric constants and for arithmetic operators created with
+     * primitive operations. Parentheses, instrumented nodes (see {@link Profiler}), and shared subexpressions
+     * (see {@link ExpressionSet}) have the type of the expression they contain.
+     *
+     * @param e  the expression
+     * @return the static result type (e.g. {@link #INTEGER}), or {@link #UNKNOWN}
+     */
+    static int typeOf(Expression e) {
+        while (true) {
+            if (e instanceof Parenthesis)
+                e = ((Parenthesis) e).getExpression();
+            else if (e instanceof Profile.Node)
+                e = ((Profile.Node) e).getExpression();
+            else if (e instanceof ExpressionSet.Shared)
+                e = ((ExpressionSet.Shared) e).getExpression();
+            else
+                break;
+        }
+
+        if (e instanceof Constant) {
+            Object value = ((Constant) e).getValue();
+            if (value instanceof Integer) return INTEGER;
+            if (value instanceof Double) return FLOAT;
+            if (value instanceof Boolean) return BOOLEAN;
+        }
+        else if (e instanceof ArithmeticOperator) {
+            return ((ArithmeticOperator) e).type;
+        }
+        return UNKNOWN;
+    }
+
+
+
+    /**
+     * Verifies the operands of an arithmetic operator and determines the type of operation to perform.
+     * <p>Both operands must be non-null numbers. We allow integer/float conversion to make life easier, so
+     * an integer operation is only performed if both operands are integers.
+     *
+     * @param r1    the evaluated left hand operand
+     * @param r2    the evaluated right hand operand
+     * @param name  the name of the operator (used for error reporting)
+     * @return true if an integer operation should be performed, false for a floating point operation
+     * @throws ExpressionError if either operand is null or non-numeric
+     */
+    static boolean isInteger(Object r1, Object r2, String name) throws ExpressionError {
+
+        /* Cannot perform arithmetic ops on nulls */
+
+        if (r1 == null || r2 == null)
+            throw ExpressionError.lazy("Invalid null argument passed to '%s' operator", name);
+
+        /* Check that the operands are numeric */
+
+        Class<?> c1 = r1.getClass();
+        Class<?> c2 = r2.getClass();
+        if (!(r1 instanceof Number) || !(r2 instanceof Number)) {
+            throw ExpressionError.lazy("Invalid type for arithmetic operator: (%s) %s %s (%s) %s",
+                c1.getSimpleName(),
+                r1,
+                name,
+                c2.getSimpleName(),
+                r2);
+        }
+        return c1 == c2 && c1 == Integer.class;
+    }
+
+
+
+    /**
+     * Determines the type of operation to perform on numeric operands.
+     * <p>This is the narrowest type that holds both operands exactly, or floating point if either operand is
+     * a Double (or an unsupported type of number).
+     *
+     * @param r1  the evaluated left hand operand (a non-null number)
+     * @param r2  the evaluated right hand operand (a non-null number)
+     * @return {@link #INTEGER}, {@link #LONG}, {@link #DECIMAL} or {@link #FLOAT}
+     */
+    static int numericType(Object r1, Object r2) {
+        Class<?> c1 = r1.getClass();
+        Class<?> c2 = r2.getClass();
+        if (c1 == Double.class || c2 == Double.class) return FLOAT;
+
+        boolean l1 = c1 == Integer.class || c1 == Long.class;
+        boolean l2 = c2 == Integer.class || c2 == Long.class;
+        if (l1 && l2) return (c1 == Integer.class && c2 == Integer.class) ? INTEGER : LONG;
+
+        boolean d1 = l1 || r1 instanceof BigDecimal || r1 instanceof BigInteger;
+        boolean d2 = l2 || r2 instanceof BigDecimal || r2 instanceof BigInteger;
+        return (d1 && d2) ? DECIMAL : FLOAT;
+    }
+
+
+
+    /**
+     * Converts an arithmetic exception raised by an operation into an expression error.
+     * <p>Once code dividing by zero has been compiled, the JVM may throw a preallocated exception without a
+     * message, so an exception without a message is reported as a division by zero (the only arithmetic
+     * exception the JVM raises itself).
+     *
+     * @param x  the arithmetic exception (e.g. divide by zero)
+     * @return an expression error describing the failure
+     */
+    static ExpressionError arithmeticError(ArithmeticException x) {
+        return ExpressionError.lazy("Arithmetic error: %s", x.getMessage() != null ? x.getMessage() : "/ by zero");
+    }
+
+
+
+    /**
+     * Returns the primitive operation used for integer operands.
+     *
+     * @return the integer operation, or null if this operator was not created with primitive operations
+     */
+    IntOperation getIntOp() {
+        return this.intOp;
+    }
+
+
+
+    /**
+     * Returns the primitive operation used for floating point operands.
+     *
+     * @return the floating point operation, or null if this operator was not created with primitive operations
+     */
+    DoubleOperation getDoubleOp() {
+        return this.doubleOp;
+    }
+
+
+
+    /**
+     * Returns the primitive comparison used for integer operands.
+     *
+     * @return the integer comparison, or null if this operator is not a primitive comparison
+     */
+    IntComparison getIntComparison() {
+        return this.intCmp;
+    }
+
+
+
+    /**
+     * Returns the primitive comparison used for floating point operands.
+     *
+     * @return the floating point comparison, or null if this operator is not a primitive comparison
+     */
+    DoubleComparison getDoubleComparison() {
+        return this.doubleCmp;
+    }
+
+
+
+    /**
+     * Determines whether this operator has operations (or comparisons) for long or decimal operands.
+     *
+     * @return true if long or decimal operands are not simply converted to floating point
+     */
+    boolean isExact() {
+        return longOp != null || decimalOp != null || longCmp != null || decimalCmp != null;
+    }
+
+
+
+    /**
+     * Returns the operation used for integer operands.
+     *
+     * @return the integer arithmetic operation
+     */
+    ArithmeticOperationI getIntOperation() {
+        return this.iOp;
+    }
+
+
+
+    /**
+     * Returns the operation used for floating point operands.
+     *
+     * @return the floating point arithmetic operation
+     */
+    ArithmeticOperationF getFloatOperation() {
+        return this.fOp;
     }
 }
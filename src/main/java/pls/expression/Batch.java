@@ -0,0 +1,245 @@
+package pls.expression;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/**
+ * A batch of records, stored as columns.
+ * <p>A batch holds the values of context variables for a number of records, with the values of each
+ * variable held in a primitive (or string) array - a column - indexed by record. Batches are evaluated
+ * using a {@link BatchEvaluator}, which evaluates an expression for every record in the batch, e.g.
+ * <pre>{@code
+ *   Batch batch = new Batch(prices.length)
+ *       .set("price", prices)
+ *       .set("quantity", quantities);
+ *
+ *   double[] totals = new double[prices.length];
+ *   new BatchEvaluator().evalDouble(expression, batch, totals);
+ * }</pre>
+ * Each column must hold at least as many values as the batch size. Arrays are used as is (they are not
+ * copied), so a batch can be refilled and evaluated again without being rebuilt. A batch can also have an
+ * expression context, holding values shared by every record (e.g. thresholds or other parameters).
+ * Variables that have no column are looked up in this context.
+ * <p>Batches are not thread safe.
+ *
+ * @author Peter Smith
+ * @see BatchEvaluator
+ */
+public class Batch {
+
+    /** The number of records in the batch */
+
+    private int size;
+
+
+    /** The columns (int[], double[], boolean[], or String[]), keyed by variable name */
+
+    private Map<String, Object> columns = new HashMap<String, Object>();
+
+
+    /** Context holding values shared by every record (may be null) */
+
+    private ExpressionContext context;
+
+
+
+    /**
+     * Creates a batch.
+     *
+     * @param size  the number of records in the batch
+     */
+    public Batch(int size) {
+        this(size, null);
+    }
+
+
+
+    /**
+     * Creates a batch with values shared by every record.
+     *
+     * @param size     the number of records in the batch
+     * @param context  context holding the values of variables that have no column (may be null)
+     */
+    public Batch(int size, ExpressionContext context) {
+        if (size < 0) throw new IllegalArgumentException("Invalid batch size: " + size);
+        this.size = size;
+        this.context = context;
+    }
+
+
+
+    /**
+     * Sets a floating point column.
+     *
+     * @param name    the variable name
+     * @param values  the variable value for each record
+     * @return a reference to this Batch instance
+     */
+    public Batch set(String name, double[] values) {
+        return setColumn(name, values, values.length);
+    }
+
+
+
+    /**
+     * Sets an integer column.
+     *
+     * @param name    the variable name
+     * @param values  the variable value for each record
+     * @return a reference to this Batch instance
+     */
+    public Batch set(String name, int[] values) {
+        return setColumn(name, values, values.length);
+    }
+
+
+
+    /**
+     * Sets a boolean column.
+     *
+     * @param name    the variable name
+     * @param values  the variable value for each record
+     * @return a reference to this Batch instance
+     */
+    public Batch set(String name, boolean[] values) {
+        return setColumn(name, values, values.length);
+    }
+
+
+
+    /**
+     * Sets a string column.
+     *
+     * @param name    the variable name
+     * @param values  the variable value for each record (values may be null)
+     * @return a reference to this Batch instance
+     */
+    public Batch set(String name, String[] values) {
+        return setColumn(name, values, values.length);
+    }
+
+
+
+    /**
+     * Sets a column.
+     *
+     * @param name    the variable name
+     * @param values  the column array
+     * @param length  the length of the column array
+     * @return a reference to this Batch instance
+     */
+    private Batch setColumn(String name, Object values, int length) {
+        assert name != null : "Null column name";
+        if (length < size) throw new IllegalArgumentException(String.format("Column '%s' has %d values - batch size is %d", name, length, size));
+
+        columns.put(name, values);
+        return this;
+    }
+
+
+
+    /**
+     * Removes a column.
+     *
+     * @param name  the variable name
+     * @return a reference to this Batch instance
+     */
+    public Batch remove(String name) {
+        columns.remove(name);
+        return this;
+    }
+
+
+
+    /**
+     * Returns a column.
+     *
+     * @param name  the variable name
+     * @return the column array (int[], double[], boolean[], or String[]), or null if there is no column for the variable
+     */
+    public Object getColumn(String name) {
+        return columns.get(name);
+    }
+
+
+
+    /**
+     * Returns the number of records in the batch.
+     *
+     * @return the batch size
+     */
+    public int getSize() {
+        return size;
+    }
+
+
+
+    /**
+     * Changes the number of records in the batch.
+     * <p>This allows the final, partially filled, batch of a run to be evaluated using the same columns.
+     *
+     * @param size  the number of records in the batch
+     * @return a reference to this Batch instance
+     */
+    public Batch setSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("Invalid batch size: " + size);
+
+        for (Map.Entry<String, Object> column : columns.entrySet()) {
+            if (Array.getLength(column.getValue()) < size) {
+                throw new IllegalArgumentException(String.format("Column '%s' has fewer than %d values", column.getKey(), size));
+            }
+        }
+        this.size = size;
+        return this;
+    }
+
+
+
+    /**
+     * Returns the context holding values shared by every record.
+     *
+     * @return the shared context, or null if there is none
+     */
+    public ExpressionContext getContext() {
+        return context;
+    }
+
+
+
+    /**
+     * Returns the value of a variable for a record.
+     *
+     * @param name  the variable name
+     * @param row   the record
+     * @return the value from the variable's column, or the shared context if the variable has no column
+     */
+    Object value(Object name, int row) {
+        Object column = columns.get(name);
+
+        if (column instanceof int[])
+            return ((int[]) column)[row];
+        else if (column instanceof double[])
+            return ((double[]) column)[row];
+        else if (column instanceof boolean[])
+            return ((boolean[]) column)[row];
+        else if (column != null)
+            return ((String[]) column)[row];
+        else
+            return (context == null) ? null : context.get(name);
+    }
+
+
+
+    /**
+     * Determines whether a variable has a value for a record.
+     *
+     * @param name  the variable name
+     * @return true if the variable has a column, or is in the shared context
+     */
+    boolean contains(Object name) {
+        return columns.containsKey(name) || (context != null && context.containsKey(name));
+    }
+}
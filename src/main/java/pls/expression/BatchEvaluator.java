@@ -0,0 +1,782 @@
+package pls.expression;
+
+import java.util.Arrays;
+
+
+
+/**
+ * Evaluates expressions over batches of records.
+ * <p>Evaluating an expression with {@link Expression#eval} for a large number of records requires a context
+ * to be filled, and the expression tree to be walked, for each record. A batch evaluator instead walks the
+ * expression tree once per {@link Batch}, evaluating each node for every record in the batch. Values are
+ * passed between nodes as columns (primitive arrays where possible), so each node is evaluated by a simple
+ * loop over its operand columns:
+ * <pre>{@code
+ *   Batch batch = new Batch(n).set("cost", costs).set("count", counts);
+ *   boolean[] matched = new boolean[n];
+ *
+ *   new BatchEvaluator().evalBoolean(new Parser().parse("cost * count > 100"), batch, matched);
+ * }</pre>
+ * The following nodes are evaluated a column at a time:
+ * <ul>
+ * <li>Constants, and context values that have an int, double, boolean, or string column (or that are
+ * held in the batch's shared context).</li>
+ * <li>Numeric operators and comparisons (as created by {@link Operators#createNumeric} and
+ * {@link Operators#createComparison}) whose operands are numeric columns.</li>
+ * <li>The default logical operators ('and', 'or', and '!') and negation of numeric columns.</li>
+ * </ul>
+ * Any other node (e.g. a function call, or an operator applied to string values) is evaluated a record
+ * at a time, using a context that reads the record's values from the batch. The 'and' and 'or' operators
+ * only evaluate their right hand operand for the records that need it, so functions and operators are
+ * evaluated for exactly the records they would be if each record were evaluated with {@link Expression#eval}.
+ * <p>The results are the same as evaluating the expression for each record with {@link Expression#eval}
+ * (or {@link Expression#evalDouble}, etc), and converting the result in the same way. If the expression
+ * fails for any record, the records before the failing record are evaluated again as a batch, and the records
+ * from the failing record on are evaluated a record at a time, so that the error reported is the one that would
+ * be reported for the first failing record (results for the records before it are written to the output column).
+ * <p>The default arithmetic operators and comparisons ('+', '-', '*', '/', '&lt;', '&lt;=', '&gt;', and '&gt;=')
+ * are evaluated by loops specialised for each operator, rather than calling the operator's function for each
+ * record.
+ * <p>The BatchEvaluator class uses no mutable state and is thread safe (though a batch should only be
+ * evaluated by one thread at a time).
+ *
+ * @author Peter Smith
+ * @see Batch
+ */
+public class BatchEvaluator {
+
+    /* Column types, in addition to the static types of ArithmeticOperator */
+
+    /** The node is evaluated a record at a time, producing an Object[] column */
+
+    private static final int ROW = ArithmeticOperator.UNKNOWN;
+
+
+    /** The node produces an Object[] column without being evaluated a record at a time */
+
+    private static final int OBJECT = ArithmeticOperator.DECIMAL + 1;
+
+
+    /** The error raised when a numeric column holds other values */
+
+    private static final ExpressionError NOT_NUMERIC = ExpressionError.lazy("Expected numeric result");
+
+
+
+    /**
+     * Context used to evaluate nodes a record at a time.
+     * <p>Values are read from the current record of the batch.
+     */
+    @SuppressWarnings("serial")
+    private static class RowContext extends ExpressionContext {
+
+        /** The batch being evaluated */
+
+        private Batch batch;
+
+
+        /** The current record (or, after an error, the record that failed) */
+
+        private int row;
+
+
+        RowContext(Batch batch) {
+            this.batch = batch;
+        }
+
+
+        @Override
+        public Object get(Object key) {
+            return batch.value(key, row);
+        }
+
+
+        @Override
+        public boolean containsKey(Object key) {
+            return batch.contains(key);
+        }
+    }
+
+
+
+    /**
+     * Evaluates an expression for each record in a batch.
+     *
+     * @param expression  the expression to evaluate
+     * @param batch       the batch of records
+     * @param out         the output column, which receives the result for each record
+     * @throws ExpressionError if the expression failed for any record
+     * @see Expression#eval
+     */
+    public void eval(Expression expression, Batch batch, Object[] out) throws ExpressionError {
+        evaluate(expression, batch, out, out.length);
+    }
+
+
+
+    /**
+     * Evaluates an expression as a floating point value for each record in a batch.
+     *
+     * @param expression  the expression to evaluate
+     * @param batch       the batch of records
+     * @param out         the output column, which receives the result for each record
+     * @throws ExpressionError if the expression failed for any record, or a result was not numeric
+     * @see Expression#evalDouble
+     */
+    public void evalDouble(Expression expression, Batch batch, double[] out) throws ExpressionError {
+        evaluate(expression, batch, out, out.length);
+    }
+
+
+
+    /**
+     * Evaluates an expression as an integer value for each record in a batch.
+     *
+     * @param expression  the expression to evaluate
+     * @param batch       the batch of records
+     * @param out         the output column, which receives the result for each record
+     * @throws ExpressionError if the expression failed for any record, or a result was not numeric
+     * @see Expression#evalInt
+     */
+    public void evalInt(Expression expression, Batch batch, int[] out) throws ExpressionError {
+        evaluate(expression, batch, out, out.length);
+    }
+
+
+
+    /**
+     * Evaluates an expression as a boolean value for each record in a batch.
+     *
+     * @param expression  the expression to evaluate
+     * @param batch       the batch of records
+     * @param out         the output column, which receives the result for each record
+     * @throws ExpressionError if the expression failed for any record
+     * @see Expression#evalBoolean
+     */
+    public void evalBoolean(Expression expression, Batch batch, boolean[] out) throws ExpressionError {
+        evaluate(expression, batch, out, out.length);
+    }
+
+
+
+    /**
+     * Evaluates an expression for each record in a batch, storing the results in an output column.
+     *
+     * @param expression  the expression to evaluate
+     * @param batch       the batch of records
+     * @param out         the output column
+     * @param length      the length of the output column
+     * @throws ExpressionError if the expression failed for any record
+     */
+    private void evaluate(Expression expression, Batch batch, Object out, int length) throws ExpressionError {
+        assert expression != null : "Null expression";
+        int n = batch.getSize();
+        if (length < n) throw new IllegalArgumentException(String.format("Output column has %d values - batch size is %d", length, n));
+
+        RowContext context = new RowContext(batch);
+        boolean[] active = null;
+        int end = n;
+
+        /* Each failure is for an earlier record than the last, until the records before it succeed */
+
+        while (end > 0) {
+            try {
+                store(column(expression, batch, active, context), out, end, context);
+                break;
+            }
+            catch (ExpressionError x) {
+                end = (context.row < end) ? context.row : 0;
+                active = new boolean[n];
+                Arrays.fill(active, 0, end, true);
+            }
+        }
+
+        if (end < n) {
+            /* Evaluate the remaining records one at a time, which throws the error for the first failing record */
+
+            for (int i = end; i < n; ++i) {
+                context.row = i;
+
+                if (out instanceof double[])
+                    ((double[]) out)[i] = expression.evalDouble(context);
+                else if (out instanceof int[])
+                    ((int[]) out)[i] = expression.evalInt(context);
+                else if (out instanceof boolean[])
+                    ((boolean[]) out)[i] = expression.evalBoolean(context);
+                else
+                    ((Object[]) out)[i] = expression.eval(context);
+            }
+        }
+    }
+
+
+
+    /**
+     * Converts the result column of an expression into an output column.
+     *
+     * @param column   the result column
+     * @param out      the output column
+     * @param n        the number of records
+     * @param context  the context, which receives the record that could not be converted
+     * @throws ExpressionError if a result could not be converted (the exact error is determined by evaluating
+     *                         a record at a time)
+     */
+    private static void store(Object column, Object out, int n, RowContext context) throws ExpressionError {
+        if (out instanceof Object[]) {
+            Object[] o = (Object[]) out;
+            if (column instanceof int[]) {
+                int[] c = (int[]) column;
+                for (int i = 0; i < n; ++i) o[i] = Integer.valueOf(c[i]);
+            }
+            else if (column instanceof double[]) {
+                double[] c = (double[]) column;
+                for (int i = 0; i < n; ++i) o[i] = Double.valueOf(c[i]);
+            }
+            else if (column instanceof boolean[]) {
+                boolean[] c = (boolean[]) column;
+                for (int i = 0; i < n; ++i) o[i] = Boolean.valueOf(c[i]);
+            }
+            else {
+                System.arraycopy(column, 0, o, 0, n);
+            }
+        }
+        else if (out instanceof boolean[]) {
+            System.arraycopy(toBooleans(column, n), 0, out, 0, n);
+        }
+        else if (column instanceof boolean[]) {
+            context.row = 0;
+            throw NOT_NUMERIC;
+        }
+        else if (out instanceof double[]) {
+            double[] o = (double[]) out;
+            if (column instanceof Object[]) {
+                Object[] c = (Object[]) column;
+                for (int i = 0; i < n; ++i) {
+                    context.row = i;
+                    if (!(c[i] instanceof Number)) throw NOT_NUMERIC;
+                    o[i] = ((Number) c[i]).doubleValue();
+                }
+            }
+            else {
+                System.arraycopy(toDoubles(column, n), 0, o, 0, n);
+            }
+        }
+        else {
+            int[] o = (int[]) out;
+            if (column instanceof int[]) {
+                System.arraycopy(column, 0, o, 0, n);
+            }
+            else if (column instanceof double[]) {
+                double[] c = (double[]) column;
+                for (int i = 0; i < n; ++i) o[i] = (int) c[i];
+            }
+            else {
+                Object[] c = (Object[]) column;
+                for (int i = 0; i < n; ++i) {
+                    context.row = i;
+                    if (!(c[i] instanceof Number)) throw NOT_NUMERIC;
+                    o[i] = ((Number) c[i]).intValue();
+                }
+            }
+        }
+    }
+
+
+
+    /**
+     * Determines the column type produced by a node.
+     *
+     * @param e      the expression node
+     * @param batch  the batch of records
+     * @return the column type (e.g. {@link ArithmeticOperator#INTEGER}), or {@link #ROW} if the node is
+     *         evaluated a record at a time
+     */
+    private static int typeOf(Expression e, Batch batch) {
+        while (e instanceof Parenthesis) e = ((Parenthesis) e).getExpression();
+
+        if (e instanceof Constant) {
+            return typeOfValue(((Constant) e).getValue());
+        }
+        else if (e instanceof ContextValue) {
+            Object column = batch.getColumn(((ContextValue) e).getName());
+
+            if (column instanceof int[]) return ArithmeticOperator.INTEGER;
+            if (column instanceof double[]) return ArithmeticOperator.FLOAT;
+            if (column instanceof boolean[]) return ArithmeticOperator.BOOLEAN;
+            return (column != null) ? OBJECT : typeOfValue(shared((ContextValue) e, batch));
+        }
+        else if (e instanceof ArithmeticOperator) {
+            ArithmeticOperator a = (ArithmeticOperator) e;
+            if (a.getIntOp() == null && a.getIntComparison() == null) return ROW;
+
+            int l = typeOf(a.getLeft(), batch);
+            int r = typeOf(a.getRight(), batch);
+            if (!isNumeric(l) || !isNumeric(r)) return ROW;
+
+            if (a.getIntComparison() != null) return ArithmeticOperator.BOOLEAN;
+            return (l == ArithmeticOperator.INTEGER && r == ArithmeticOperator.INTEGER) ? ArithmeticOperator.INTEGER : ArithmeticOperator.FLOAT;
+        }
+        else if (e instanceof UnaryOperator) {
+            UnaryOperator u = (UnaryOperator) e;
+
+            if (u.getOperation() == Operators.NOT) return ArithmeticOperator.BOOLEAN;
+            if (u.getOperation() == Operators.NEG) {
+                int t = typeOf(u.getOperand(), batch);
+                return isNumeric(t) ? t : ROW;
+            }
+        }
+        else if (e instanceof BinaryOperator) {
+            BinaryOperator.BinaryOperation op = ((BinaryOperator) e).getOperation();
+            if (op == Operators.AND || op == Operators.OR) return ArithmeticOperator.BOOLEAN;
+        }
+        return ROW;
+    }
+
+
+
+    /**
+     * Evaluates a node for every record in a batch.
+     *
+     * @param e        the expression node
+     * @param batch    the batch of records
+     * @param active   the records to evaluate (null for all records) - values for other records are undefined
+     * @param context  context used to evaluate nodes a record at a time
+     * @return the result column (int[], double[], boolean[], or Object[]), which must not be modified
+     * @throws ExpressionError if the node failed for any record
+     */
+    private static Object column(Expression e, Batch batch, boolean[] active, RowContext context) throws ExpressionError {
+        while (e instanceof Parenthesis) e = ((Parenthesis) e).getExpression();
+
+        int n = batch.getSize();
+        int type = typeOf(e, batch);
+
+        if (type == ROW) {
+            Object[] values = new Object[n];
+            for (int i = 0; i < n; ++i) {
+                if (active == null || active[i]) {
+                    context.row = i;
+                    values[i] = e.eval(context);
+                }
+            }
+            return values;
+        }
+        else if (e instanceof Constant) {
+            return fill(((Constant) e).getValue(), type, n);
+        }
+        else if (e instanceof ContextValue) {
+            Object column = batch.getColumn(((ContextValue) e).getName());
+            return (column != null) ? column : fill(shared((ContextValue) e, batch), type, n);
+        }
+        else if (e instanceof ArithmeticOperator) {
+            return arithmetic((ArithmeticOperator) e, batch, active, context);
+        }
+        else if (e instanceof UnaryOperator) {
+            UnaryOperator u = (UnaryOperator) e;
+            Object operand = column(u.getOperand(), batch, active, context);
+
+            if (u.getOperation() == Operators.NOT) {
+                boolean[] values = toBooleans(operand, n);
+                boolean[] result = new boolean[n];
+                for (int i = 0; i < n; ++i) result[i] = !values[i];
+                return result;
+            }
+            else if (operand instanceof int[]) {
+                int[] values = (int[]) operand;
+                int[] result = new int[n];
+                for (int i = 0; i < n; ++i) result[i] = -values[i];
+                return result;
+            }
+            else {
+                double[] values = (double[]) operand;
+                double[] result = new double[n];
+                for (int i = 0; i < n; ++i) result[i] = -values[i];
+                return result;
+            }
+        }
+        else {
+            return logical((BinaryOperator) e, batch, active, context);
+        }
+    }
+
+
+
+    /**
+     * Evaluates a numeric operator or comparison for every record in a batch.
+     *
+     * @param a        the operator
+     * @param batch    the batch of records
+     * @param active   the records to evaluate (null for all records)
+     * @param context  context used to evaluate nodes a record at a time
+     * @return the result column
+     * @throws ExpressionError if the operation failed for any record
+     */
+    private static Object arithmetic(ArithmeticOperator a, Batch batch, boolean[] active, RowContext context) throws ExpressionError {
+        int n = batch.getSize();
+        Object left = column(a.getLeft(), batch, active, context);
+        Object right = column(a.getRight(), batch, active, context);
+        boolean integer = (left instanceof int[]) && (right instanceof int[]);
+
+        try {
+            if (a.getIntComparison() != null) {
+                if (integer) return compare(a.getIntComparison(), (int[]) left, (int[]) right, active, n);
+                return compare(a.getDoubleComparison(), toDoubles(left, n), toDoubles(right, n), active, n);
+            }
+            else if (integer) {
+                return operate(a.getIntOp(), (int[]) left, (int[]) right, active, n);
+            }
+            else {
+                return operate(a.getDoubleOp(), toDoubles(left, n), toDoubles(right, n), active, n);
+            }
+        }
+        catch (ArithmeticException x) {
+            context.row = failure(a, left, right, active, n);
+            throw ArithmeticOperator.arithmeticError(x);
+        }
+        catch (ExpressionError x) {
+            context.row = failure(a, left, right, active, n);
+            throw x;
+        }
+    }
+
+
+
+    /**
+     * Performs an integer operation for every record in a batch.
+     * <p>The default operators (other than division, which may fail for records that are not evaluated) are
+     * applied to every record by a loop specialised for the operator.
+     *
+     * @param op      the operation
+     * @param l       the left hand operand column
+     * @param r       the right hand operand column
+     * @param active  the records to evaluate (null for all records)
+     * @param n       the number of records
+     * @return the result column
+     * @throws ExpressionError if the operation failed for any record
+     */
+    private static int[] operate(ArithmeticOperator.IntOperation op, int[] l, int[] r, boolean[] active, int n) throws ExpressionError {
+        int[] result = new int[n];
+        if (op == Operators.ADD_INT) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] + r[i];
+        }
+        else if (op == Operators.SUBTRACT_INT) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] - r[i];
+        }
+        else if (op == Operators.MULTIPLY_INT) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] * r[i];
+        }
+        else if (active != null) {
+            for (int i = 0; i < n; ++i) if (active[i]) result[i] = op.op(l[i], r[i]);
+        }
+        else if (op == Operators.DIVIDE_INT) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] / r[i];
+        }
+        else {
+            for (int i = 0; i < n; ++i) result[i] = op.op(l[i], r[i]);
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Performs a floating point operation for every record in a batch.
+     * <p>The default operators are applied to every record by a loop specialised for the operator.
+     *
+     * @param op      the operation
+     * @param l       the left hand operand column
+     * @param r       the right hand operand column
+     * @param active  the records to evaluate (null for all records)
+     * @param n       the number of records
+     * @return the result column
+     * @throws ExpressionError if the operation failed for any record
+     */
+    private static double[] operate(ArithmeticOperator.DoubleOperation op, double[] l, double[] r, boolean[] active, int n) throws ExpressionError {
+        double[] result = new double[n];
+        if (op == Operators.ADD_DOUBLE) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] + r[i];
+        }
+        else if (op == Operators.SUBTRACT_DOUBLE) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] - r[i];
+        }
+        else if (op == Operators.MULTIPLY_DOUBLE) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] * r[i];
+        }
+        else if (op == Operators.DIVIDE_DOUBLE) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] / r[i];
+        }
+        else if (active != null) {
+            for (int i = 0; i < n; ++i) if (active[i]) result[i] = op.op(l[i], r[i]);
+        }
+        else {
+            for (int i = 0; i < n; ++i) result[i] = op.op(l[i], r[i]);
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Performs an integer comparison for every record in a batch.
+     * <p>The default comparisons are applied to every record by a loop specialised for the comparison.
+     *
+     * @param op      the comparison
+     * @param l       the left hand operand column
+     * @param r       the right hand operand column
+     * @param active  the records to evaluate (null for all records)
+     * @param n       the number of records
+     * @return the result column
+     * @throws ExpressionError if the operation failed for any record
+     */
+    private static boolean[] compare(ArithmeticOperator.IntComparison op, int[] l, int[] r, boolean[] active, int n) throws ExpressionError {
+        boolean[] result = new boolean[n];
+        if (op == Operators.LESS_INT) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] < r[i];
+        }
+        else if (op == Operators.LESS_EQUAL_INT) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] <= r[i];
+        }
+        else if (op == Operators.GREATER_INT) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] > r[i];
+        }
+        else if (op == Operators.GREATER_EQUAL_INT) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] >= r[i];
+        }
+        else if (active != null) {
+            for (int i = 0; i < n; ++i) if (active[i]) result[i] = op.op(l[i], r[i]);
+        }
+        else {
+            for (int i = 0; i < n; ++i) result[i] = op.op(l[i], r[i]);
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Performs a floating point comparison for every record in a batch.
+     * <p>The default comparisons are applied to every record by a loop specialised for the comparison.
+     *
+     * @param op      the comparison
+     * @param l       the left hand operand column
+     * @param r       the right hand operand column
+     * @param active  the records to evaluate (null for all records)
+     * @param n       the number of records
+     * @return the result column
+     * @throws ExpressionError if the operation failed for any record
+     */
+    private static boolean[] compare(ArithmeticOperator.DoubleComparison op, double[] l, double[] r, boolean[] active, int n) throws ExpressionError {
+        boolean[] result = new boolean[n];
+        if (op == Operators.LESS_DOUBLE) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] < r[i];
+        }
+        else if (op == Operators.LESS_EQUAL_DOUBLE) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] <= r[i];
+        }
+        else if (op == Operators.GREATER_DOUBLE) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] > r[i];
+        }
+        else if (op == Operators.GREATER_EQUAL_DOUBLE) {
+            for (int i = 0; i < n; ++i) result[i] = l[i] >= r[i];
+        }
+        else if (active != null) {
+            for (int i = 0; i < n; ++i) if (active[i]) result[i] = op.op(l[i], r[i]);
+        }
+        else {
+            for (int i = 0; i < n; ++i) result[i] = op.op(l[i], r[i]);
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Finds the first record for which a numeric operator or comparison fails.
+     *
+     * @param a       the operator
+     * @param left    the left hand operand column
+     * @param right   the right hand operand column
+     * @param active  the records to evaluate (null for all records)
+     * @param n       the number of records
+     * @return the first failing record (0 if no record fails when evaluated on its own)
+     */
+    private static int failure(ArithmeticOperator a, Object left, Object right, boolean[] active, int n) {
+        boolean integer = (left instanceof int[]) && (right instanceof int[]);
+        double[] l = integer ? null : toDoubles(left, n);
+        double[] r = integer ? null : toDoubles(right, n);
+
+        for (int i = 0; i < n; ++i) {
+            if (active != null && !active[i]) continue;
+            try {
+                if (!integer && a.getIntComparison() != null)
+                    a.getDoubleComparison().op(l[i], r[i]);
+                else if (!integer)
+                    a.getDoubleOp().op(l[i], r[i]);
+                else if (a.getIntComparison() != null)
+                    a.getIntComparison().op(((int[]) left)[i], ((int[]) right)[i]);
+                else
+                    a.getIntOp().op(((int[]) left)[i], ((int[]) right)[i]);
+            }
+            catch (ArithmeticException | ExpressionError x) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+
+
+    /**
+     * Evaluates an 'and' or 'or' operator for every record in a batch.
+     * <p>The right hand operand is only evaluated for the records where the left hand operand does not
+     * determine the result.
+     *
+     * @param b        the operator
+     * @param batch    the batch of records
+     * @param active   the records to evaluate (null for all records)
+     * @param context  context used to evaluate nodes a record at a time
+     * @return the result column
+     * @throws ExpressionError if an operand failed for any record
+     */
+    private static Object logical(BinaryOperator b, Batch batch, boolean[] active, RowContext context) throws ExpressionError {
+        int n = batch.getSize();
+        boolean and = (b.getOperation() == Operators.AND);
+        boolean[] left = toBooleans(column(b.getLeft(), batch, active, context), n);
+
+        /* Find the records that need the right hand operand */
+
+        boolean[] next = new boolean[n];
+        boolean any = false;
+        for (int i = 0; i < n; ++i) {
+            next[i] = (active == null || active[i]) && (left[i] == and);
+            any |= next[i];
+        }
+
+        boolean[] result = Arrays.copyOf(left, n);
+        if (any) {
+            boolean[] right = toBooleans(column(b.getRight(), batch, next, context), n);
+            for (int i = 0; i < n; ++i) if (next[i]) result[i] = right[i];
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Converts a column to boolean values (in the same way as {@link Operators#toBoolean}).
+     *
+     * @param column  the column
+     * @param n       the number of records
+     * @return the boolean column (which may be the original column)
+     */
+    private static boolean[] toBooleans(Object column, int n) {
+        if (column instanceof boolean[]) return (boolean[]) column;
+
+        boolean[] result = new boolean[n];
+        if (column instanceof int[]) {
+            int[] c = (int[]) column;
+            for (int i = 0; i < n; ++i) result[i] = c[i] != 0;
+        }
+        else if (column instanceof double[]) {
+            double[] c = (double[]) column;
+            for (int i = 0; i < n; ++i) result[i] = c[i] != 0;
+        }
+        else {
+            Object[] c = (Object[]) column;
+            for (int i = 0; i < n; ++i) result[i] = Operators.toBoolean(c[i]);
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Converts a numeric column to floating point values.
+     *
+     * @param column  the column (int[] or double[])
+     * @param n       the number of records
+     * @return the floating point column (which may be the original column)
+     */
+    private static double[] toDoubles(Object column, int n) {
+        if (column instanceof double[]) return (double[]) column;
+
+        int[] c = (int[]) column;
+        double[] result = new double[n];
+        for (int i = 0; i < n; ++i) result[i] = c[i];
+        return result;
+    }
+
+
+
+    /**
+     * Creates a column holding the same value for every record.
+     *
+     * @param value  the value
+     * @param type   the column type
+     * @param n      the number of records
+     * @return the column
+     */
+    private static Object fill(Object value, int type, int n) {
+        switch (type) {
+            case ArithmeticOperator.INTEGER: {
+                int[] column = new int[n];
+                Arrays.fill(column, (Integer) value);
+                return column;
+            }
+            case ArithmeticOperator.FLOAT: {
+                double[] column = new double[n];
+                Arrays.fill(column, (Double) value);
+                return column;
+            }
+            case ArithmeticOperator.BOOLEAN: {
+                boolean[] column = new boolean[n];
+                Arrays.fill(column, (Boolean) value);
+                return column;
+            }
+            default: {
+                Object[] column = new Object[n];
+                Arrays.fill(column, value);
+                return column;
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the value of a context value that has no column.
+     *
+     * @param e      the context value
+     * @param batch  the batch of records
+     * @return the value from the batch's shared context, or null
+     */
+    private static Object shared(ContextValue e, Batch batch) {
+        return ContextValue.value(batch.getContext(), e.getSymbols(), e.getSlot(), e.getName());
+    }
+
+
+
+    /**
+     * Returns the column type of a value.
+     *
+     * @param value  the value
+     * @return the column type
+     */
+    private static int typeOfValue(Object value) {
+        if (value instanceof Integer) return ArithmeticOperator.INTEGER;
+        if (value instanceof Double) return ArithmeticOperator.FLOAT;
+        if (value instanceof Boolean) return ArithmeticOperator.BOOLEAN;
+        return OBJECT;
+    }
+
+
+
+    /**
+     * Determines whether a column type is numeric.
+     *
+     * @param type  the column type
+     * @return true for integer and floating point columns
+     */
+    private static boolean isNumeric(int type) {
+        return type == ArithmeticOperator.INTEGER || type == ArithmeticOperator.FLOAT;
+    }
+}
@@ -70,6 +70,39 @@ public class BinaryOperator extends NamedExpression {
 
 
 
+    /**
+     * Returns the left hand expression.
+     *
+     * @return the left hand operand expression
+     */
+    Expression getLeft() {
+        return this.left;
+    }
+
+
+
+    /**
+     * Returns the right hand expression.
+     *
+     * @return the right hand operand expression
+     */
+    Expression getRight() {
+        return this.right;
+    }
+
+
+
+    /**
+     * Returns the binary operation implementing this operator.
+     *
+     * @return the binary operation
+     */
+    BinaryOperation getOperation() {
+        return this.op;
+    }
+
+
+
     /**
      * Evaluates the binary operation.
      * 
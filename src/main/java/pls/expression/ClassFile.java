@@ -0,0 +1,769 @@
+package pls.expression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+/**
+ * A minimal JVM class file writer.
+ * <p>This provides just enough of the class file format to allow the {@link ExpressionCompiler} to generate
+ * simple classes - a constant pool, fields, and methods with code and exception tables. It has no
+ * dependencies outside of the JDK. Classes are written using class file version 49 (Java 5) so that
+ * no stack map frames are required; such classes are verified using the type inferencing verifier
+ * and load on any Java 8 or later JVM.
+ *
+ * @author Peter Smith
+ */
+final class ClassFile {
+
+    /* Access flags */
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+
+    /* Opcodes used by the compiler */
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int ISTORE = 0x36;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int DUP = 0x59;
+    static final int IFEQ = 0x99;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int ANEWARRAY = 0xbd;
+    static final int ATHROW = 0xbf;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+
+
+    /* Constant pool tags */
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACEMETHODREF = 11;
+    private static final int CONSTANT_NAMEANDTYPE = 12;
+
+
+    /** The maximum size of a method body we are prepared to generate (keeps all branch offsets in range) */
+
+    static final int MAX_CODE_SIZE = Short.MAX_VALUE;
+
+
+    /** Serialized constant pool entries */
+
+    private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+
+    /** Writer for the constant pool */
+
+    private DataOutputStream poolOut = new DataOutputStream(pool);
+
+
+    /** Lookup of existing constant pool entries, used to avoid duplicates */
+
+    private Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+
+
+    /** The next free constant pool index */
+
+    private int poolSize = 1;
+
+
+    /** The constant pool index of this class */
+
+    private int thisClass;
+
+
+    /** The constant pool index of the super class */
+
+    private int superClass;
+
+
+    /** The constant pool indices of implemented interfaces */
+
+    private int[] interfaces;
+
+
+    /** Serialized field definitions */
+
+    private List<int[]> fields = new ArrayList<int[]>();
+
+
+    /** Method definitions */
+
+    private List<Code> methods = new ArrayList<Code>();
+
+
+
+    /**
+     * Creates a class file writer.
+     *
+     * @param name        the internal name of the class (e.g. pls/expression/Foo)
+     * @param superName   the internal name of the super class
+     * @param interfaces  the internal names of any implemented interfaces
+     */
+    ClassFile(String name, String superName, String ...interfaces) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.interfaces = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; ++i) this.interfaces[i] = classRef(interfaces[i]);
+    }
+
+
+
+    /**
+     * Adds a field to the class.
+     *
+     * @param access      the field access flags
+     * @param name        the field name
+     * @param descriptor  the field type descriptor
+     */
+    void addField(int access, String name, String descriptor) {
+        fields.add(new int[] { access, utf8(name), utf8(descriptor) });
+    }
+
+
+
+    /**
+     * Adds a method to the class.
+     *
+     * @param access      the method access flags
+     * @param name        the method name
+     * @param descriptor  the method descriptor
+     * @param arguments   the number of local variable slots used by the receiver and arguments
+     * @return a code writer for the method body
+     */
+    Code addMethod(int access, String name, String descriptor, int arguments) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), arguments);
+        methods.add(code);
+        return code;
+    }
+
+
+
+    /**
+     * Serializes the class to the class file format.
+     *
+     * @return the class file bytes
+     * @throws ExpressionError if the class is too large to be represented
+     */
+    byte[] toByteArray() throws ExpressionError {
+        int codeAttribute = utf8("Code");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(49);
+
+            if (poolSize > 0xffff) throw new ExpressionError("Compiled expression exceeds the constant pool limit");
+            out.writeShort(poolSize);
+            pool.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) out.writeShort(i);
+
+            out.writeShort(fields.size());
+            for (int[] field : fields) {
+                out.writeShort(field[0]);
+                out.writeShort(field[1]);
+                out.writeShort(field[2]);
+                out.writeShort(0);
+            }
+
+            out.writeShort(methods.size());
+            for (Code code : methods) code.write(out, codeAttribute);
+            out.writeShort(0);
+        }
+        catch (IOException x) {
+            throw new ExpressionError("Unable to write class file: " + x.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+
+
+    /**
+     * Returns the constant pool index of a UTF8 entry.
+     *
+     * @param value  the string value
+     * @return the constant pool index
+     */
+    int utf8(String value) {
+        return entry("U" + value, (out) -> { out.writeByte(CONSTANT_UTF8); out.writeUTF(value); });
+    }
+
+
+
+    /**
+     * Returns the constant pool index of a class entry.
+     *
+     * @param name  the internal class name
+     * @return the constant pool index
+     */
+    int classRef(String name) {
+        int index = utf8(name);
+        return entry("C" + name, (out) -> { out.writeByte(CONSTANT_CLASS); out.writeShort(index); });
+    }
+
+
+
+    /**
+     * Returns the constant pool index of a string entry.
+     *
+     * @param value  the string value
+     * @return the constant pool index
+     */
+    int string(String value) {
+        int index = utf8(value);
+        return entry("S" + value, (out) -> { out.writeByte(CONSTANT_STRING); out.writeShort(index); });
+    }
+
+
+
+    /**
+     * Returns the constant pool index of an integer entry.
+     *
+     * @param value  the integer value
+     * @return the constant pool index
+     */
+    int integer(int value) {
+        return entry("I" + value, (out) -> { out.writeByte(CONSTANT_INTEGER); out.writeInt(value); });
+    }
+
+
+
+    /**
+     * Returns the constant pool index of a member (field or method) reference.
+     *
+     * @param tag         the constant pool tag of the reference
+     * @param owner       the internal name of the owning class
+     * @param name        the member name
+     * @param descriptor  the member descriptor
+     * @return the constant pool index
+     */
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + " " + descriptor,
+            (out) -> { out.writeByte(CONSTANT_NAMEANDTYPE); out.writeShort(nameIndex); out.writeShort(typeIndex); });
+
+        return entry(tag + owner + "." + name + " " + descriptor,
+            (out) -> { out.writeByte(tag); out.writeShort(ownerIndex); out.writeShort(nameAndType); });
+    }
+
+
+
+    /**
+     * Lambda interface used to serialize a constant pool entry.
+     */
+    @FunctionalInterface
+    private static interface PoolWriter {
+        /**
+         * Writes the constant pool entry.
+         *
+         * @param out  the constant pool stream
+         * @throws IOException on write failure
+         */
+        void write(DataOutputStream out) throws IOException;
+    }
+
+
+
+    /**
+     * Looks up or adds a constant pool entry.
+     *
+     * @param key     a unique key for the entry
+     * @param writer  used to serialize the entry if it does not already exist
+     * @return the constant pool index
+     */
+    private int entry(String key, PoolWriter writer) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+
+        try {
+            writer.write(poolOut);
+        }
+        catch (IOException x) {
+            throw new IllegalStateException(x); /* Cannot happen - writing to memory */
+        }
+        poolIndex.put(key, poolSize);
+        return poolSize++;
+    }
+
+
+
+    /**
+     * Computes the number of operand stack slots used by the arguments of a method descriptor.
+     *
+     * @param descriptor  the method descriptor
+     * @return the number of stack slots used by the arguments
+     */
+    static int argumentSize(String descriptor) {
+        int size = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'J' || c == 'D') {
+                size += 2;
+                ++i;
+            }
+            else {
+                ++size;
+                while (descriptor.charAt(i) == '[') ++i;
+                i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+            }
+        }
+        return size;
+    }
+
+
+
+    /**
+     * Computes the number of operand stack slots used by a type or method return descriptor.
+     *
+     * @param descriptor  the field or method descriptor
+     * @return the number of stack slots used by the (return) type
+     */
+    static int typeSize(String descriptor) {
+        char c = descriptor.charAt(descriptor.lastIndexOf(')') + 1);
+        return c == 'V' ? 0 : (c == 'J' || c == 'D') ? 2 : 1;
+    }
+
+
+
+    /**
+     * A jump target within a method body.
+     */
+    static final class Label {
+
+        /** The bytecode offset of the label, or -1 if not yet placed */
+
+        private int position = -1;
+
+
+        /** Pending branch instructions as (instruction offset, operand offset) pairs */
+
+        private List<int[]> fixups = new ArrayList<int[]>();
+    }
+
+
+
+    /**
+     * Writer for a single method body.
+     * <p>The writer tracks the operand stack depth and local variable usage as instructions are
+     * appended so that the max_stack and max_locals values can be computed. Callers are responsible
+     * for resetting the tracked stack depth (see {@link #setStack}) at the start of code that is only
+     * reachable via a branch.
+     */
+    final class Code {
+
+        /** The method access flags */
+
+        private int access;
+
+
+        /** The constant pool index of the method name */
+
+        private int name;
+
+
+        /** The constant pool index of the method descriptor */
+
+        private int descriptor;
+
+
+        /** The bytecode */
+
+        private ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+
+        /** Branch offsets that must be patched once the code is complete */
+
+        private List<int[]> patches = new ArrayList<int[]>();
+
+
+        /** Exception table entries (start, end, handler, type) */
+
+        private List<Object[]> handlers = new ArrayList<Object[]>();
+
+
+        /** The current operand stack depth */
+
+        private int stack = 0;
+
+
+        /** The maximum operand stack depth */
+
+        private int maxStack = 0;
+
+
+        /** The number of local variable slots in use */
+
+        private int locals;
+
+
+        /** The maximum number of local variable slots in use at any point */
+
+        private int maxLocals;
+
+
+
+        /**
+         * Creates a method body writer.
+         *
+         * @param access      the method access flags
+         * @param name        the constant pool index of the method name
+         * @param descriptor  the constant pool index of the method descriptor
+         * @param arguments   the number of local variable slots used by the receiver and arguments
+         */
+        private Code(int access, int name, int descriptor, int arguments) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.locals = arguments;
+            this.maxLocals = arguments;
+        }
+
+
+
+        /**
+         * Allocates a new local variable slot.
+         *
+         * @param size  the size of the local (2 for long and double, otherwise 1)
+         * @return the index of the allocated local variable
+         */
+        int newLocal(int size) {
+            int local = locals;
+            locals += size;
+            maxLocals = Math.max(maxLocals, locals);
+            return local;
+        }
+
+
+
+        /**
+         * Frees a local variable slot, and all slots allocated after it, so that they can be reused.
+         * <p>Locals are allocated and freed in stack order, so a local is only freed once the code
+         * that uses it (including any locals allocated by nested expressions) is complete.
+         *
+         * @param local  the index of the first local variable to free
+         */
+        void freeLocals(int local) {
+            locals = local;
+        }
+
+
+
+        /**
+         * Returns the current operand stack depth.
+         *
+         * @return the stack depth
+         */
+        int getStack() {
+            return stack;
+        }
+
+
+
+        /**
+         * Sets the current operand stack depth.
+         * <p>This is required after an unconditional jump, where the following instructions are only
+         * reachable via a branch from elsewhere.
+         *
+         * @param depth  the operand stack depth
+         */
+        void setStack(int depth) {
+            stack = depth;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+
+
+        /**
+         * Returns the current bytecode offset.
+         *
+         * @return the bytecode offset
+         */
+        int position() {
+            return code.size();
+        }
+
+
+
+        /**
+         * Appends a single byte instruction.
+         *
+         * @param opcode  the instruction opcode
+         * @param delta   the change in operand stack depth caused by the instruction
+         */
+        void op(int opcode, int delta) {
+            code.write(opcode);
+            setStack(stack + delta);
+        }
+
+
+
+        /**
+         * Appends an instruction with a 16 bit constant pool operand.
+         *
+         * @param opcode  the instruction opcode
+         * @param index   the constant pool index
+         * @param delta   the change in operand stack depth caused by the instruction
+         */
+        private void op(int opcode, int index, int delta) {
+            code.write(opcode);
+            code.write(index >> 8);
+            code.write(index);
+            setStack(stack + delta);
+        }
+
+
+
+        /**
+         * Appends a local variable load or store instruction.
+         *
+         * @param opcode  the load or store opcode (e.g. ALOAD, ISTORE)
+         * @param local   the local variable index
+         */
+        void var(int opcode, int local) {
+            int delta = (opcode == DLOAD) ? 2 : (opcode == DSTORE) ? -2 : (opcode < ISTORE) ? 1 : -1;
+
+            if (local <= 3) { /* Use the compact <op>_<n> forms, e.g. iload_0 (0x1a) or astore_3 (0x4e) */
+                int base = (opcode < ISTORE) ? 0x1a + (opcode - ILOAD) * 4 : 0x3b + (opcode - ISTORE) * 4;
+                op(base + local, delta);
+            }
+            else if (local <= 255) {
+                code.write(opcode);
+                code.write(local);
+                setStack(stack + delta);
+            }
+            else { /* Indices above 255 need the wide form, with a 16 bit index */
+                code.write(WIDE);
+                code.write(opcode);
+                code.write(local >> 8);
+                code.write(local);
+                setStack(stack + delta);
+            }
+        }
+
+
+
+        /**
+         * Pushes an integer constant.
+         *
+         * @param value  the value to push
+         */
+        void push(int value) {
+            if (value >= -1 && value <= 5)
+                op(ICONST_0 + value, 1);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(value);
+                setStack(stack + 1);
+            }
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+                op(SIPUSH, value & 0xffff, 1);
+            else
+                ldc(integer(value));
+        }
+
+
+
+        /**
+         * Pushes a string constant.
+         *
+         * @param value  the string to push
+         */
+        void push(String value) {
+            ldc(string(value));
+        }
+
+
+
+        /**
+         * Appends a load constant instruction.
+         *
+         * @param index  the constant pool index
+         */
+        private void ldc(int index) {
+            if (index <= 0xff) {
+                code.write(LDC);
+                code.write(index);
+                setStack(stack + 1);
+            }
+            else
+                op(LDC_W, index, 1);
+        }
+
+
+
+        /**
+         * Appends a type instruction (e.g. CHECKCAST, ANEWARRAY).
+         *
+         * @param opcode  the instruction opcode
+         * @param type    the internal name of the type
+         */
+        void type(int opcode, String type) {
+            op(opcode, classRef(type), 0);
+        }
+
+
+
+        /**
+         * Appends a field access instruction.
+         *
+         * @param opcode      GETFIELD or PUTFIELD
+         * @param owner       the internal name of the owning class
+         * @param name        the field name
+         * @param descriptor  the field type descriptor
+         */
+        void field(int opcode, String owner, String name, String descriptor) {
+            int size = typeSize(descriptor);
+            op(opcode, memberRef(CONSTANT_FIELDREF, owner, name, descriptor), opcode == GETFIELD ? size - 1 : -size - 1);
+        }
+
+
+
+        /**
+         * Appends a method invocation instruction.
+         *
+         * @param opcode      INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC or INVOKEINTERFACE
+         * @param owner       the internal name of the owning class or interface
+         * @param name        the method name
+         * @param descriptor  the method descriptor
+         */
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            int args = argumentSize(descriptor);
+            int delta = typeSize(descriptor) - args - (opcode == INVOKESTATIC ? 0 : 1);
+
+            if (opcode == INVOKEINTERFACE) {
+                op(opcode, memberRef(CONSTANT_INTERFACEMETHODREF, owner, name, descriptor), delta);
+                code.write(args + 1);
+                code.write(0);
+            }
+            else
+                op(opcode, memberRef(CONSTANT_METHODREF, owner, name, descriptor), delta);
+        }
+
+
+
+        /**
+         * Appends a branch instruction.
+         *
+         * @param opcode  the branch opcode (e.g. GOTO, IFEQ)
+         * @param target  the branch target
+         */
+        void jump(int opcode, Label target) {
+            int at = position();
+            op(opcode, 0, opcode == GOTO ? 0 : -1);
+            if (target.position >= 0)
+                patches.add(new int[] { at + 1, target.position - at });
+            else
+                target.fixups.add(new int[] { at, at + 1 });
+        }
+
+
+
+        /**
+         * Places a label at the current position.
+         *
+         * @param label  the label to place
+         */
+        void mark(Label label) {
+            label.position = position();
+            for (int[] fixup : label.fixups) patches.add(new int[] { fixup[1], label.position - fixup[0] });
+            label.fixups.clear();
+        }
+
+
+
+        /**
+         * Adds an exception handler.
+         *
+         * @param start    the start of the protected range (inclusive)
+         * @param end      the end of the protected range (exclusive)
+         * @param handler  the start of the handler code
+         * @param type     the internal name of the exception type caught
+         */
+        void handler(Label start, Label end, Label handler, String type) {
+            handlers.add(new Object[] { start, end, handler, classRef(type) });
+        }
+
+
+
+        /**
+         * Serializes the method.
+         *
+         * @param out            the class file stream
+         * @param codeAttribute  the constant pool index of the 'Code' attribute name
+         * @throws IOException on write failure
+         * @throws ExpressionError if the method is too large
+         */
+        private void write(DataOutputStream out, int codeAttribute) throws IOException, ExpressionError {
+            byte[] bytes = code.toByteArray();
+            if (bytes.length > MAX_CODE_SIZE) throw new ExpressionError("Compiled expression exceeds the maximum method size");
+
+            for (int[] patch : patches) {
+                bytes[patch[0]] = (byte) (patch[1] >> 8);
+                bytes[patch[0] + 1] = (byte) patch[1];
+            }
+
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + bytes.length + handlers.size() * 8);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(handlers.size());
+            for (Object[] h : handlers) {
+                out.writeShort(((Label) h[0]).position);
+                out.writeShort(((Label) h[1]).position);
+                out.writeShort(((Label) h[2]).position);
+                out.writeShort((Integer) h[3]);
+            }
+            out.writeShort(0);
+        }
+    }
+}
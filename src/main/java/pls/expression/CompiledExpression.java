@@ -0,0 +1,127 @@
+package pls.expression;
+
+
+
+/**
+ * Base class for expressions generated by the {@link ExpressionCompiler}.
+ * <p>The compiler generates a new JVM class extending this class for each expression tree it compiles.
+ * The generated class evaluates the expression using straight line code rather than walking the
+ * expression tree. The original expression tree is retained, and is used for serialization back
+ * to a string.
+ * <p>The static methods provided by this class are runtime support for generated code and are not
+ * intended to be called directly. They are public only because generated classes are defined by a
+ * separate class loader and hence cannot access package private members.
+ *
+ * @author Peter Smith
+ * @see ExpressionCompiler
+ */
+public abstract class CompiledExpression implements Expression {
+
+    /** The expression tree this expression was compiled from */
+
+    private Expression source;
+
+
+
+    /**
+     * Construct a compiled expression instance.
+     *
+     * @param source  the expression tree this expression was compiled from
+     */
+    protected CompiledExpression(Expression source) {
+        this.source = source;
+    }
+
+
+
+    /**
+     * Returns the expression tree this expression was compiled from.
+     *
+     * @return the source expression tree
+     */
+    public Expression getSource() {
+        return source;
+    }
+
+
+
+    /**
+     * Converts this expression back to a string.
+     *
+     * @return a string representation of the source expression
+     */
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+
+
+
+    /**
+     * Runtime support: verifies the operands of an arithmetic operator.
+     *
+     * @param left   the evaluated left hand operand
+     * @param right  the evaluated right hand operand
+     * @param name   the name of the operator
+     * @return true if an integer operation should be performed, false for a floating point operation
+     * @throws ExpressionError if either operand is null or non-numeric
+     */
+    public static boolean isInteger(Object left, Object right, String name) throws ExpressionError {
+        return ArithmeticOperator.isInteger(left, right, name);
+    }
+
+
+
+    /**
+     * Runtime support: determines whether the long or decimal operation of an arithmetic operator should be
+     * performed (for operands that are not both integers).
+     *
+     * @param left   the evaluated left hand operand
+     * @param right  the evaluated right hand operand
+     * @return true if the operands are exact numbers, at least one of which is a long or decimal
+     */
+    public static boolean isExact(Object left, Object right) {
+        return ArithmeticOperator.numericType(left, right) != ArithmeticOperator.FLOAT;
+    }
+
+
+
+    /**
+     * Runtime support: performs an arithmetic operation on long or decimal operands.
+     *
+     * @param operator  the arithmetic operator
+     * @param left      the evaluated left hand operand
+     * @param right     the evaluated right hand operand
+     * @return the result of the operation
+     * @throws ExpressionError if the operation failed
+     */
+    public static Object arithmetic(Expression operator, Object left, Object right) throws ExpressionError {
+        return ((ArithmeticOperator) operator).operate(left, right);
+    }
+
+
+
+    /**
+     * Runtime support: converts an arithmetic exception into an expression error.
+     *
+     * @param x  the arithmetic exception
+     * @return an expression error describing the failure
+     */
+    public static ExpressionError arithmeticError(ArithmeticException x) {
+        return ArithmeticOperator.arithmeticError(x);
+    }
+
+
+
+    /**
+     * Runtime support: verifies the operands of a relational operator.
+     *
+     * @param left   the evaluated left hand operand
+     * @param right  the evaluated right hand operand
+     * @param name   the name of the operator
+     * @throws ExpressionError if the operands are of different types
+     */
+    public static void checkTypes(Object left, Object right, String name) throws ExpressionError {
+        RelationalOperator.checkTypes(left, right, name);
+    }
+}
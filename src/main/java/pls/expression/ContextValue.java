@@ -4,16 +4,66 @@ package pls.expression;
 
 /**
  * Expression to retrieve a value from the expression context.
+ * <p>A context value may be bound to a slot in a {@link SymbolTable}, in which case the value is
+ * retrieved directly from the slot when evaluated with an {@link IndexedContext} using the same
+ * symbol table. Otherwise the value is looked up by name.
+ * <p>When evaluated with a {@link ShapedContext}, the variable's slot in the context's shape is looked up once,
+ * and the value is then read directly from the slot for every context with the same shape. The values of int and
+ * double slots are read without boxing by {@link #evalInt} and {@link #evalDouble}.
  * 
  * @author Peter Smith
  */
 class ContextValue implements Expression {
 
-    /* The name of the context value to retrieve */
+    /**
+     * The slot of the variable in a shape.
+     */
+    private static final class Binding {
+
+        /** The shape */
+
+        final Shape shape;
+
+
+        /** The slot of the variable (-1 if the variable is not part of the shape) */
+
+        final int slot;
+
+
+        /** The type of the slot (e.g. {@link Shape#INT}), or -1 if the variable is not part of the shape */
+
+        final int type;
+
+
+        Binding(Shape shape, int slot) {
+            this.shape = shape;
+            this.slot = slot;
+            this.type = slot >= 0 ? shape.type(slot) : -1;
+        }
+    }
+
+
+
+    /** The name of the context value to retrieve */
 
     private String name;
 
 
+    /** The symbol table the variable is bound to (null if unbound) */
+
+    private SymbolTable symbols;
+
+
+    /** The slot of the variable in the symbol table (-1 if unbound) */
+
+    private int slot = -1;
+
+
+    /** The slot of the variable in the shape it was last evaluated with (null if none) */
+
+    private Binding binding;
+
+
 
     /**
      * Creates an instance of a context value expression.
@@ -28,6 +78,55 @@ class ContextValue implements Expression {
 
 
 
+    /**
+     * Creates an instance of a context value expression bound to a slot in a symbol table.
+     *
+     * @param name     the name of the context variable whos value is to be returned
+     * @param symbols  the symbol table to bind the variable to. If null, the variable is unbound.
+     */
+    public ContextValue(final String name, final SymbolTable symbols) {
+        this(name);
+        if (symbols != null) {
+            this.symbols = symbols;
+            this.slot = symbols.define(name);
+        }
+    }
+
+
+
+    /**
+     * Returns the name of the context variable.
+     *
+     * @return the context variable name
+     */
+    String getName() {
+        return name;
+    }
+
+
+
+    /**
+     * Returns the symbol table this variable is bound to.
+     *
+     * @return the symbol table, or null if the variable is not bound to a slot
+     */
+    SymbolTable getSymbols() {
+        return symbols;
+    }
+
+
+
+    /**
+     * Returns the slot this variable is bound to.
+     *
+     * @return the slot, or -1 if the variable is not bound to a slot
+     */
+    int getSlot() {
+        return slot;
+    }
+
+
+
     /**
      * Evaluates the expression.
      * <p>This simply returns the value of the named context variable.
@@ -37,8 +136,90 @@ class ContextValue implements Expression {
      *                 does not exist
      */
     public Object eval(final ExpressionContext context) throws ExpressionError {
+        if (context instanceof ShapedContext) {
+            ShapedContext shaped = (ShapedContext) context;
+            Binding b = bind(shaped);
+            return b.slot >= 0 ? shaped.getSlot(b.slot) : context.get(name);
+        }
+        return value(context, symbols, slot, name);
+    }
+
+
+
+    /**
+     * Evaluates the expression as a floating point value.
+     * <p>The value of an int or double slot of a {@link ShapedContext} is read without boxing it.
+     *
+     * @param context  the context in which the expression is being evaluated
+     * @return         the value of the named context variable as a double
+     * @throws ExpressionError if the value is not numeric
+     */
+    @Override
+    public double evalDouble(final ExpressionContext context) throws ExpressionError {
+        if (context instanceof ShapedContext) {
+            ShapedContext shaped = (ShapedContext) context;
+            Binding b = bind(shaped);
+            if (b.type == Shape.DOUBLE) return shaped.getDouble(b.slot);
+            if (b.type == Shape.INT) return shaped.getInt(b.slot);
+        }
+        return Expression.super.evalDouble(context);
+    }
+
+
+
+    /**
+     * Evaluates the expression as an integer value.
+     * <p>The value of an int or double slot of a {@link ShapedContext} is read without boxing it.
+     *
+     * @param context  the context in which the expression is being evaluated
+     * @return         the value of the named context variable as an int
+     * @throws ExpressionError if the value is not numeric
+     */
+    @Override
+    public int evalInt(final ExpressionContext context) throws ExpressionError {
+        if (context instanceof ShapedContext) {
+            ShapedContext shaped = (ShapedContext) context;
+            Binding b = bind(shaped);
+            if (b.type == Shape.INT) return shaped.getInt(b.slot);
+            if (b.type == Shape.DOUBLE) return (int) shaped.getDouble(b.slot);
+        }
+        return Expression.super.evalInt(context);
+    }
+
+
+
+    /**
+     * Returns the binding of the variable to a slot in the shape of a context, creating it if the variable
+     * was last evaluated with a context of another shape.
+     * <p>Bindings are immutable, so a binding replaced by another thread is harmless.
+     *
+     * @param context  the context
+     * @return the binding for the context's shape
+     */
+    private Binding bind(ShapedContext context) {
+        Binding b = binding;
+        if (b == null || b.shape != context.getShape()) binding = b = new Binding(context.getShape(), context.getShape().indexOf(name));
+        return b;
+    }
+
+
+
+    /**
+     * Retrieves a variable value from a context.
+     * <p>If the variable is bound to a slot and the context is an {@link IndexedContext} using the same
+     * symbol table, the value is read directly from the slot. Otherwise it is looked up by name.
+     *
+     * @param context  the context in which the expression is being evaluated
+     * @param symbols  the symbol table the variable is bound to (may be null)
+     * @param slot     the slot the variable is bound to
+     * @param name     the name of the variable
+     * @return         the value of the variable or null if it does not exist
+     */
+    static Object value(ExpressionContext context, SymbolTable symbols, int slot, String name) {
         if (context == null)
             return null;
+        else if (symbols != null && context instanceof IndexedContext && ((IndexedContext) context).getSymbols() == symbols)
+            return ((IndexedContext) context).getSlot(slot);
         else
             return context.get(name);
     }
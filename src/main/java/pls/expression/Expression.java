@@ -20,4 +20,57 @@ public interface Expression {
      * @throws ExpressionError if an error occurred during evaluation
      */
     public abstract Object eval(ExpressionContext context) throws ExpressionError;
+
+
+
+    /**
+     * Evaluates the expression as a floating point value.
+     * <p>The result is the same as evaluating the expression with {@link #eval} and converting the
+     * (numeric) result to a double. Expression nodes that can compute their value without boxing (e.g.
+     * arithmetic operators) override this method, allowing numeric expressions to be evaluated
+     * without allocating intermediate results.
+     *
+     * @param context  the context in which the expression is being evaluated
+     * @return         the numeric result of the evaluation as a double
+     * @throws ExpressionError if an error occurred during evaluation, or the result is not numeric
+     */
+    public default double evalDouble(ExpressionContext context) throws ExpressionError {
+        Object value = eval(context);
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        throw ExpressionError.lazy("Expected numeric result - found %s", value);
+    }
+
+
+
+    /**
+     * Evaluates the expression as an integer value.
+     * <p>The result is the same as evaluating the expression with {@link #eval} and converting the
+     * (numeric) result to an int (floating point values are truncated).
+     *
+     * @param context  the context in which the expression is being evaluated
+     * @return         the numeric result of the evaluation as an int
+     * @throws ExpressionError if an error occurred during evaluation, or the result is not numeric
+     * @see #evalDouble
+     */
+    public default int evalInt(ExpressionContext context) throws ExpressionError {
+        Object value = eval(context);
+        if (value instanceof Number) return ((Number) value).intValue();
+        throw ExpressionError.lazy("Expected numeric result - found %s", value);
+    }
+
+
+
+    /**
+     * Evaluates the expression as a boolean value.
+     * <p>The result is the same as evaluating the expression with {@link #eval} and converting the
+     * result using {@link Operators#toBoolean Operators.toBoolean}.
+     *
+     * @param context  the context in which the expression is being evaluated
+     * @return         the result of the evaluation as a boolean
+     * @throws ExpressionError if an error occurred during evaluation
+     * @see #evalDouble
+     */
+    public default boolean evalBoolean(ExpressionContext context) throws ExpressionError {
+        return Operators.toBoolean(eval(context));
+    }
 }
\ No newline at end of file
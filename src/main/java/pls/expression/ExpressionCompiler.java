@@ -0,0 +1,543 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static pls.expression.ClassFile.*;
+
+
+
+/**
+ * The expression compiler.
+ * <p>This class converts an expression tree (as returned by {@link Parser#parse Parser.parse}) into a
+ * generated JVM class that evaluates the expression using straight line code. Each compiled expression
+ * gets its own class, so the calls made to operator and function implementations (the lambdas registered
+ * with the parser) are made from call sites unique to that expression. This allows the JIT to inline them,
+ * which is not possible when evaluating the tree, where every operator node shares the same call sites.
+ * <p>Compilation is intended for expressions that are evaluated many times - compiling an expression is
+ * considerably more expensive than parsing it. The compiled expression evaluates to exactly the same results
+ * (and errors) as the tree it was compiled from, and serializes to the same string.
+ * <pre>{@code
+ *   Expression e = new ExpressionCompiler().compile(new Parser().parse("3.2 * x / 2.2 * (y + 1.4)"));
+ *   e.eval(context);
+ * }</pre>
+ * Nodes the compiler does not recognize (e.g. custom {@link Expression} implementations) are evaluated by
+ * calling the node directly from the generated code. Operators that take unevaluated operands (e.g. 'and',
+ * 'or', unary operators) are passed separately compiled operand expressions.
+ * <p>The generated classes use no JDK features beyond Java 8 and have no external dependencies. The ExpressionCompiler
+ * class uses no local storage and is thread safe, as are the compiled expressions.
+ *
+ * @author Peter Smith
+ * @see CompiledExpression
+ */
+public class ExpressionCompiler {
+
+    /** Package for generated classes */
+
+    private static final String PACKAGE = "pls/expression/generated/";
+
+
+    /* Internal names of types referenced by generated code */
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String EXPRESSION = "pls/expression/Expression";
+    private static final String CONTEXT = "pls/expression/ExpressionContext";
+    private static final String COMPILED = "pls/expression/CompiledExpression";
+
+
+    /** Descriptor of the Expression.eval method */
+
+    private static final String EVAL = "(L" + CONTEXT + ";)L" + OBJECT + ";";
+
+
+    /** Counter used to generate unique class names */
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+
+
+    /**
+     * Class loader used to define generated classes.
+     * <p>A new loader is created for each compilation, allowing the generated classes to be unloaded
+     * once the compiled expression is no longer referenced.
+     */
+    private static final class Loader extends ClassLoader {
+
+        /**
+         * Creates a loader delegating to the loader of the expression library.
+         */
+        Loader() {
+            super(ExpressionCompiler.class.getClassLoader());
+        }
+
+
+        /**
+         * Defines a generated class.
+         *
+         * @param name   the binary name of the class
+         * @param bytes  the class file bytes
+         * @return the defined class
+         */
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+
+
+    /**
+     * Compiles an expression tree.
+     *
+     * @param expression  the expression tree to compile
+     * @return an expression that evaluates identically to the given tree
+     * @throws ExpressionError if the expression could not be compiled (e.g. it is too large)
+     */
+    public Expression compile(Expression expression) throws ExpressionError {
+        assert expression != null : "Null expression";
+
+        if (expression instanceof CompiledExpression) return expression;
+        return new Generator(new Loader()).compile(expression);
+    }
+
+
+
+    /**
+     * Generates a single compiled expression class.
+     */
+    private static final class Generator {
+
+        /** The class loader used to define the generated classes */
+
+        private Loader loader;
+
+
+        /** The internal name of the class being generated */
+
+        private String className;
+
+
+        /** The class being generated */
+
+        private ClassFile cf;
+
+
+        /** The code for the generated eval method */
+
+        private ClassFile.Code code;
+
+
+        /** Objects referenced by the generated code (lambdas, constants, and other expressions) */
+
+        private List<Object> refs = new ArrayList<Object>();
+
+
+        /** The internal type names of the fields holding the referenced objects */
+
+        private List<String> refTypes = new ArrayList<String>();
+
+
+
+        /**
+         * Creates a generator.
+         *
+         * @param loader  the class loader used to define the generated classes
+         */
+        Generator(Loader loader) {
+            this.loader = loader;
+            this.className = PACKAGE + "CompiledExpression" + counter.incrementAndGet();
+            this.cf = new ClassFile(className, COMPILED);
+            this.code = cf.addMethod(ACC_PUBLIC, "eval", EVAL, 2);
+        }
+
+
+
+        /**
+         * Generates, loads, and instantiates a class for the given expression tree.
+         *
+         * @param expression  the expression tree
+         * @return an instance of the generated class
+         * @throws ExpressionError if the class could not be generated
+         */
+        Expression compile(Expression expression) throws ExpressionError {
+            generate(expression);
+            code.op(ARETURN, -1);
+
+            /* Now we know what references are needed, generate the fields and a constructor to initialize them */
+
+            String init = "(L" + EXPRESSION + ";[L" + OBJECT + ";)V";
+            ClassFile.Code ctor = cf.addMethod(ACC_PUBLIC, "<init>", init, 3);
+            ctor.var(ALOAD, 0);
+            ctor.var(ALOAD, 1);
+            ctor.invoke(INVOKESPECIAL, COMPILED, "<init>", "(L" + EXPRESSION + ";)V");
+
+            for (int i = 0; i < refs.size(); ++i) {
+                String type = refTypes.get(i);
+                cf.addField(ACC_PRIVATE | ACC_FINAL, "r" + i, "L" + type + ";");
+                ctor.var(ALOAD, 0);
+                ctor.var(ALOAD, 2);
+                ctor.push(i);
+                ctor.op(AALOAD, -1);
+                if (!type.equals(OBJECT)) ctor.type(CHECKCAST, type);
+                ctor.field(PUTFIELD, className, "r" + i, "L" + type + ";");
+            }
+            ctor.op(RETURN, 0);
+
+            try {
+                Class<?> c = loader.define(className.replace('/', '.'), cf.toByteArray());
+                return (Expression) c.getConstructor(Expression.class, Object[].class).newInstance(expression, refs.toArray());
+            }
+            catch (ReflectiveOperationException | LinkageError x) {
+                throw new ExpressionError("Unable to load compiled expression: " + x);
+            }
+        }
+
+
+
+        /**
+         * Generates code to evaluate an expression node, leaving the result on the operand stack.
+         *
+         * @param e  the expression node
+         * @throws ExpressionError if code could not be generated
+         */
+        private void generate(Expression e) throws ExpressionError {
+            if (e instanceof Parenthesis)
+                generate(((Parenthesis) e).getExpression());
+            else if (e instanceof Constant)
+                constant(((Constant) e).getValue());
+            else if (e instanceof ContextValue)
+                contextValue((ContextValue) e);
+            else if (e instanceof pls.expression.List)
+                list((pls.expression.List) e);
+            else if (e.getClass() == ArithmeticOperator.class)
+                arithmetic((ArithmeticOperator) e);
+            else if (e.getClass() == RelationalOperator.class)
+                relational((RelationalOperator) e);
+            else if (e.getClass() == BinaryOperator.class)
+                binary((BinaryOperator) e);
+            else if (e.getClass() == UnaryOperator.class)
+                unary((UnaryOperator) e);
+            else if (e instanceof Function)
+                function((Function) e);
+            else
+                opaque(e);
+        }
+
+
+
+        /**
+         * Generates code to push a constant value.
+         *
+         * @param value  the constant value
+         */
+        private void constant(Object value) {
+            if (value == null)
+                code.op(ACONST_NULL, 1);
+            else
+                ref(value, OBJECT);
+        }
+
+
+
+        /**
+         * Generates code to retrieve a value from the expression context.
+         * <p>The value is read by the context value node itself, so slot bound variables are read from an
+         * {@link IndexedContext}, and the node's shape binding is used to read the slot of a {@link ShapedContext}.
+         *
+         * @param e  the context value node
+         */
+        private void contextValue(ContextValue e) {
+            ref(e, EXPRESSION);
+            code.var(ALOAD, 1);
+            code.invoke(INVOKEINTERFACE, EXPRESSION, "eval", EVAL);
+        }
+
+
+
+        /**
+         * Generates code to build a list (object array).
+         * <p>A list of constants is evaluated once, by the list node itself, rather than being rebuilt
+         * by each evaluation.
+         *
+         * @param e  the list node
+         * @throws ExpressionError if code could not be generated
+         */
+        private void list(pls.expression.List e) throws ExpressionError {
+            if (e.getConstants() != null) {
+                opaque(e);
+                return;
+            }
+            Expression[] values = e.getValues();
+
+            code.push(values.length);
+            code.type(ANEWARRAY, OBJECT);
+            for (int i = 0; i < values.length; ++i) {
+                code.op(DUP, 1);
+                code.push(i);
+                generate(values[i]);
+                code.op(AASTORE, -3);
+            }
+        }
+
+
+
+        /**
+         * Generates code for an arithmetic operator.
+         * <p>This mirrors {@link ArithmeticOperator}, selecting the integer or floating point operation
+         * depending upon the operand types, and converting arithmetic exceptions into expression errors.
+         * If the operator has long or decimal operations, operands of those types are passed back to the
+         * operator itself.
+         *
+         * @param e  the arithmetic operator node
+         * @throws ExpressionError if code could not be generated
+         */
+        private void arithmetic(ArithmeticOperator e) throws ExpressionError {
+            int left = evaluateToLocal(e.getLeft());
+            int right = evaluateToLocal(e.getRight());
+
+            ClassFile.Label start = new ClassFile.Label();
+            ClassFile.Label floating = new ClassFile.Label();
+            ClassFile.Label doubles = new ClassFile.Label();
+            ClassFile.Label end = new ClassFile.Label();
+            ClassFile.Label handler = new ClassFile.Label();
+            ClassFile.Label done = new ClassFile.Label();
+
+            code.var(ALOAD, left);
+            code.var(ALOAD, right);
+            code.push(e.getName());
+            code.invoke(INVOKESTATIC, COMPILED, "isInteger", "(L" + OBJECT + ";L" + OBJECT + ";Ljava/lang/String;)Z");
+            code.jump(IFEQ, floating);
+            int depth = code.getStack();
+
+            /* Integer operation (both operands are known to be Integer) */
+
+            String iOp = "pls/expression/ArithmeticOperator$ArithmeticOperationI";
+            code.mark(start);
+            ref(e.getIntOperation(), iOp);
+            unbox(left, "java/lang/Integer", "intValue", "()I");
+            unbox(right, "java/lang/Integer", "intValue", "()I");
+            code.invoke(INVOKEINTERFACE, iOp, "op", "(II)L" + OBJECT + ";");
+            code.jump(GOTO, done);
+
+            /* Long or decimal operation (performed by the operator) */
+
+            code.setStack(depth);
+            code.mark(floating);
+            if (e.isExact()) {
+                code.var(ALOAD, left);
+                code.var(ALOAD, right);
+                code.invoke(INVOKESTATIC, COMPILED, "isExact", "(L" + OBJECT + ";L" + OBJECT + ";)Z");
+                code.jump(IFEQ, doubles);
+                ref(e, EXPRESSION);
+                code.var(ALOAD, left);
+                code.var(ALOAD, right);
+                code.invoke(INVOKESTATIC, COMPILED, "arithmetic", "(L" + EXPRESSION + ";L" + OBJECT + ";L" + OBJECT + ";)L" + OBJECT + ";");
+                code.jump(GOTO, done);
+                code.setStack(depth);
+            }
+
+            /* Floating point operation */
+
+            String fOp = "pls/expression/ArithmeticOperator$ArithmeticOperationF";
+            code.mark(doubles);
+            ref(e.getFloatOperation(), fOp);
+            unbox(left, "java/lang/Number", "doubleValue", "()D");
+            unbox(right, "java/lang/Number", "doubleValue", "()D");
+            code.invoke(INVOKEINTERFACE, fOp, "op", "(DD)L" + OBJECT + ";");
+            code.mark(end);
+            code.jump(GOTO, done);
+
+            /* Convert arithmetic exceptions (e.g. divide by zero) thrown by either operation */
+
+            code.setStack(1);
+            code.mark(handler);
+            code.invoke(INVOKESTATIC, COMPILED, "arithmeticError", "(Ljava/lang/ArithmeticException;)Lpls/expression/ExpressionError;");
+            code.op(ATHROW, -1);
+            code.handler(start, end, handler, "java/lang/ArithmeticException");
+
+            code.setStack(depth + 1);
+            code.mark(done);
+            code.freeLocals(left);
+        }
+
+
+
+        /**
+         * Generates code for a relational operator.
+         *
+         * @param e  the relational operator node
+         * @throws ExpressionError if code could not be generated
+         */
+        private void relational(RelationalOperator e) throws ExpressionError {
+            int left = evaluateToLocal(e.getLeft());
+            int right = evaluateToLocal(e.getRight());
+
+            code.var(ALOAD, left);
+            code.var(ALOAD, right);
+            code.push(e.getName());
+            code.invoke(INVOKESTATIC, COMPILED, "checkTypes", "(L" + OBJECT + ";L" + OBJECT + ";Ljava/lang/String;)V");
+
+            String type = "pls/expression/RelationalOperator$RelationalOperation";
+            ref(e.getRelationalOperation(), type);
+            code.var(ALOAD, left);
+            code.var(ALOAD, right);
+            code.invoke(INVOKEINTERFACE, type, "exec", "(L" + OBJECT + ";L" + OBJECT + ";)L" + OBJECT + ";");
+            code.freeLocals(left);
+        }
+
+
+
+        /**
+         * Generates code for a generic binary operator.
+         * <p>Binary operations are passed their operands unevaluated (so that they can control evaluation,
+         * e.g. short circuit logic operators), so the operands are compiled separately.
+         *
+         * @param e  the binary operator node
+         * @throws ExpressionError if code could not be generated
+         */
+        private void binary(BinaryOperator e) throws ExpressionError {
+            String type = "pls/expression/BinaryOperator$BinaryOperation";
+            ref(e.getOperation(), type);
+            code.var(ALOAD, 1);
+            ref(operand(e.getLeft()), EXPRESSION);
+            ref(operand(e.getRight()), EXPRESSION);
+            code.invoke(INVOKEINTERFACE, type, "exec", "(L" + CONTEXT + ";L" + EXPRESSION + ";L" + EXPRESSION + ";)L" + OBJECT + ";");
+        }
+
+
+
+        /**
+         * Generates code for a unary operator.
+         *
+         * @param e  the unary operator node
+         * @throws ExpressionError if code could not be generated
+         */
+        private void unary(UnaryOperator e) throws ExpressionError {
+            String type = "pls/expression/UnaryOperator$UnaryOperation";
+            ref(e.getOperation(), type);
+            code.var(ALOAD, 1);
+            ref(operand(e.getOperand()), EXPRESSION);
+            code.invoke(INVOKEINTERFACE, type, "exec", "(L" + CONTEXT + ";L" + EXPRESSION + ";)L" + OBJECT + ";");
+        }
+
+
+
+        /**
+         * Generates code for a function call.
+         *
+         * @param e  the function node
+         * @throws ExpressionError if code could not be generated
+         */
+        private void function(Function e) throws ExpressionError {
+            Expression[] args = e.getArguments();
+            String type;
+            Object fn;
+
+            if (e instanceof Function.Call0) {
+                type = "pls/expression/Functions$Function0";
+                fn = ((Function.Call0) e).getFunction();
+            }
+            else if (e instanceof Function.Call1) {
+                type = "pls/expression/Functions$Function1";
+                fn = ((Function.Call1) e).getFunction();
+            }
+            else if (e instanceof Function.Call2) {
+                type = "pls/expression/Functions$Function2";
+                fn = ((Function.Call2) e).getFunction();
+            }
+            else {
+                opaque(e);
+                return;
+            }
+
+            ref(fn, type);
+            code.var(ALOAD, 1);
+            StringBuilder descriptor = new StringBuilder("(L" + CONTEXT + ";");
+            for (Expression arg : args) {
+                generate(arg);
+                descriptor.append("L" + OBJECT + ";");
+            }
+            code.invoke(INVOKEINTERFACE, type, "eval", descriptor + ")L" + OBJECT + ";");
+        }
+
+
+
+        /**
+         * Generates code to evaluate an expression node the compiler knows nothing about.
+         *
+         * @param e  the expression node
+         */
+        private void opaque(Expression e) {
+            ref(e, EXPRESSION);
+            code.var(ALOAD, 1);
+            code.invoke(INVOKEINTERFACE, EXPRESSION, "eval", EVAL);
+        }
+
+
+
+        /**
+         * Prepares an unevaluated operand for an operator.
+         * <p>Leaf nodes are used as is, anything else is compiled into a separate class.
+         *
+         * @param e  the operand expression
+         * @return the expression to pass to the operator
+         * @throws ExpressionError if the operand could not be compiled
+         */
+        private Expression operand(Expression e) throws ExpressionError {
+            if (e instanceof Constant || e instanceof ContextValue || e instanceof CompiledExpression)
+                return e;
+            else
+                return new Generator(loader).compile(e);
+        }
+
+
+
+        /**
+         * Generates code to evaluate an expression and store the result in a new local variable.
+         * <p>The caller frees the local (with {@link ClassFile.Code#freeLocals}) once it has been used.
+         *
+         * @param e  the expression to evaluate
+         * @return the local variable index
+         * @throws ExpressionError if code could not be generated
+         */
+        private int evaluateToLocal(Expression e) throws ExpressionError {
+            generate(e);
+            int local = code.newLocal(1);
+            code.var(ASTORE, local);
+            return local;
+        }
+
+
+
+        /**
+         * Generates code to unbox a numeric value held in a local variable.
+         *
+         * @param local       the local variable index
+         * @param type        the internal name of the type to cast to
+         * @param method      the unboxing method
+         * @param descriptor  the unboxing method descriptor
+         */
+        private void unbox(int local, String type, String method, String descriptor) {
+            code.var(ALOAD, local);
+            code.type(CHECKCAST, type);
+            code.invoke(INVOKEVIRTUAL, type, method, descriptor);
+        }
+
+
+
+        /**
+         * Generates code to push a referenced object, held in a field of the generated class.
+         *
+         * @param value  the object to reference
+         * @param type   the internal name of the field type
+         */
+        private void ref(Object value, String type) {
+            int index = refs.size();
+            refs.add(value);
+            refTypes.add(type);
+
+            code.var(ALOAD, 0);
+            code.field(GETFIELD, className, "r" + index, "L" + type + ";");
+        }
+    }
+}
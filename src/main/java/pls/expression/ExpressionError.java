@@ -1,15 +1,38 @@
 package pls.expression;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
 
 
 /**
  * Error class used to report failures in the parsing or processing
  * of an expression.
+ * <p>Errors raised while evaluating an expression by the supplied operators (e.g. type mismatches) are created
+ * using {@link #lazy}, so they have no stack trace and their messages are only formatted when requested. This
+ * keeps errors cheap for expressions that fail for a large proportion of records, such as rules that treat an
+ * error as no match.
  *
  * @author Peter Smith
  */
 public class ExpressionError extends Exception {
 
+    /** The message (null until formatted, for errors whose messages are formatted lazily) */
+
+    private String message;
+
+
+    /** The format of the message (null if the message is not formatted lazily) */
+
+    private transient String format;
+
+
+    /** The arguments of the message */
+
+    private transient Object[] args;
+
+
+
     /**
      * Creates a new instance of an ExpressionError.
      *
@@ -17,5 +40,69 @@ public class ExpressionError extends Exception {
      */
     public ExpressionError(String message) {
         super(message);
+        this.message = message;
+    }
+
+
+
+    /**
+     * Creates an error without a stack trace, whose message is formatted when first requested.
+     *
+     * @param format  the format of the message
+     * @param args    the arguments of the message
+     */
+    private ExpressionError(String format, Object[] args) {
+        super(null, null, false, false);
+        this.format = format;
+        this.args = args;
+    }
+
+
+
+    /**
+     * Creates an error for a failure during evaluation, e.g.
+     * <pre>{@code
+     *   throw ExpressionError.lazy("Invalid value for %s: %s", name, value);
+     * }</pre>
+     * The error has no stack trace, and its message is formatted (using {@link String#format}) only when it is first
+     * requested, so the arguments should not be modified after the error is thrown. An error without arguments holds
+     * no other state, so can be created once and thrown many times.
+     *
+     * @param format  the format of the message (or the message itself, if there are no arguments)
+     * @param args    the arguments of the message
+     * @return the error
+     */
+    public static ExpressionError lazy(String format, Object ...args) {
+        return new ExpressionError(format, args);
+    }
+
+
+
+    /**
+     * Returns the error message, formatting it if necessary.
+     *
+     * @return the error message
+     */
+    @Override
+    public String getMessage() {
+        String m = message;
+        if (m == null && format != null) {
+            m = (args.length == 0) ? format : String.format(format, args);
+            message = m;
+        }
+        return m;
+    }
+
+
+
+    /**
+     * Formats the message (if necessary) before the error is serialized.
+     *
+     * @param out  the stream the error is written to
+     * @throws IOException if the error could not be written
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getMessage();
+        out.defaultWriteObject();
     }
-}
\ No newline at end of file
+}
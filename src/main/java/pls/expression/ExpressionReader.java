@@ -0,0 +1,247 @@
+package pls.expression;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static pls.expression.ExpressionWriter.*;
+
+
+
+/**
+ * Reads expression trees written by an {@link ExpressionWriter}.
+ * <p>Each tree is rebuilt directly from its binary form, without parsing, using the operator and function
+ * factories held in a {@link Registry} - the resulting expression is the same as that returned by parsing
+ * the original expression with the same registry, e.g.
+ * <pre>{@code
+ *   try (ExpressionReader reader = new ExpressionReader(new FileInputStream("rules.bin"))) {
+ *       Expression rule;
+ *       while ((rule = reader.read()) != null) rules.add(rule);
+ *   }
+ * }</pre>
+ * An expression that uses an operator or function that is not registered is refused, in the same way that
+ * the parser would refuse it. Context values are bound to slots in a {@link SymbolTable} if one is given
+ * (see {@link Parser#Parser(SymbolTable)}).
+ * <p>Readers are not thread safe.
+ *
+ * @author Peter Smith
+ * @see ExpressionWriter
+ */
+public class ExpressionReader implements Closeable {
+
+    /** The input stream */
+
+    private DataInputStream in;
+
+
+    /** The symbol table context values are bound to (null if unbound) */
+
+    private SymbolTable symbols;
+
+
+    /** The registry holding the operators and functions */
+
+    private Registry registry;
+
+
+    /** The strings read so far, in the order they were written */
+
+    private ArrayList<String> strings = new ArrayList<String>();
+
+
+
+    /**
+     * Creates a reader that rebuilds expressions using the parser's default registry.
+     *
+     * @param in  the input stream to read from
+     * @throws IOException if the stream header could not be read, or is not valid
+     */
+    public ExpressionReader(InputStream in) throws IOException {
+        this(in, null, null);
+    }
+
+
+
+    /**
+     * Creates a reader that rebuilds expressions using a given registry.
+     *
+     * @param in        the input stream to read from
+     * @param registry  the registry holding the operators and functions (may be null, in which case
+     *                  the parser's default registry is used)
+     * @throws IOException if the stream header could not be read, or is not valid
+     */
+    public ExpressionReader(InputStream in, Registry registry) throws IOException {
+        this(in, null, registry);
+    }
+
+
+
+    /**
+     * Creates a reader that rebuilds expressions using a given registry, binding context values to slots in a
+     * symbol table.
+     *
+     * @param in        the input stream to read from
+     * @param symbols   the symbol table to bind context values to (may be null)
+     * @param registry  the registry holding the operators and functions (may be null, in which case
+     *                  the parser's default registry is used)
+     * @throws IOException if the stream header could not be read, or is not valid
+     */
+    public ExpressionReader(InputStream in, SymbolTable symbols, Registry registry) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.symbols = symbols;
+        this.registry = registry != null ? registry : Parser.getDefaultRegistry();
+
+        if (this.in.readInt() != MAGIC) throw new IOException("Invalid expression data - missing header");
+
+        int version = this.in.readUnsignedByte();
+        if (version != VERSION) throw new IOException(String.format("Unsupported expression data version %d", version));
+    }
+
+
+
+    /**
+     * Reads the next expression.
+     *
+     * @return the expression, or null at the end of the stream
+     * @throws IOException if the expression could not be read from the stream, or is not valid
+     * @throws ExpressionError if the expression uses an operator or function that is not registered
+     */
+    public Expression read() throws IOException, ExpressionError {
+        int type = in.read();
+        return type < 0 ? null : readNode(type);
+    }
+
+
+
+    /**
+     * Reads an expression node and its operands.
+     *
+     * @param type  the node type
+     * @return the expression node
+     * @throws IOException if the node could not be read from the stream, or is not valid
+     * @throws ExpressionError if the node uses an operator or function that is not registered
+     */
+    private Expression readNode(int type) throws IOException, ExpressionError {
+        switch (type) {
+            case NULL: return new Constant(null);
+            case INTEGER: return new Constant(in.readInt());
+            case LONG: return new Constant(in.readLong());
+            case FLOAT: return new Constant(in.readDouble());
+            case TRUE: return new Constant(true);
+            case FALSE: return new Constant(false);
+            case STRING: return new Constant(readString());
+            case VALUE: return new ContextValue(readString());
+            case BOUND_VALUE: return new ContextValue(readString(), symbols);
+            case PARENTHESIS: return new Parenthesis(readNode());
+            case LIST: return new pls.expression.List(readNodes());
+
+            case UNARY: {
+                String name = readString();
+                Factory factory = registry.getOperator(name, true);
+                if (factory == null) throw new ExpressionError(String.format("Unexpected unary operator '%s'", name));
+                return factory.create(readNode());
+            }
+
+            case BINARY: {
+                String name = readString();
+                Factory factory = registry.getOperator(name, false);
+                if (factory == null) throw new ExpressionError(String.format("Unsupported operator '%s'", name));
+
+                Expression left = readNode();
+                return factory.create(left, readNode());
+            }
+
+            case FUNCTION: {
+                String name = readString();
+                Factory factory = registry.getFunction(name);
+                if (factory == null) throw new ExpressionError(String.format("Unsupported function '%s'", name));
+                return factory.create(readNodes());
+            }
+
+            default:
+                throw new IOException(String.format("Invalid expression data - unknown node type %d", type));
+        }
+    }
+
+
+
+    /**
+     * Reads the next expression node and its operands.
+     *
+     * @return the expression node
+     * @throws IOException if the node could not be read from the stream, or is not valid
+     * @throws ExpressionError if the node uses an operator or function that is not registered
+     */
+    private Expression readNode() throws IOException, ExpressionError {
+        return readNode(in.readUnsignedByte());
+    }
+
+
+
+    /**
+     * Reads a set of function arguments or list elements.
+     *
+     * @return the expression nodes
+     * @throws IOException if the nodes could not be read from the stream, or are not valid
+     * @throws ExpressionError if a node uses an operator or function that is not registered
+     */
+    private Expression[] readNodes() throws IOException, ExpressionError {
+        Expression[] values = new Expression[readNumber()];
+        for (int i = 0; i < values.length; ++i) values[i] = readNode();
+        return values;
+    }
+
+
+
+    /**
+     * Reads a string, or a reference to a string already read.
+     *
+     * @return the string
+     * @throws IOException if the string could not be read from the stream, or is not valid
+     * @see ExpressionWriter
+     */
+    private String readString() throws IOException {
+        int index = readNumber();
+        if (index > strings.size()) throw new IOException(String.format("Invalid expression data - unknown string %d", index - 1));
+        if (index > 0) return strings.get(index - 1);
+
+        byte[] bytes = new byte[readNumber()];
+        in.readFully(bytes);
+
+        String s = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(s);
+        return s;
+    }
+
+
+
+    /**
+     * Reads a variable length unsigned integer.
+     *
+     * @return the number
+     * @throws IOException if the number could not be read from the stream, or is not valid
+     */
+    private int readNumber() throws IOException {
+        int n = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            n |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (n < 0) break;
+                return n;
+            }
+        }
+        throw new IOException("Invalid expression data - number out of range");
+    }
+
+
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
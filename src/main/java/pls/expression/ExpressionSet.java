@@ -0,0 +1,562 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+
+/**
+ * A set of named expressions evaluated together, sharing common subexpressions.
+ * <p>Large sets of expressions (e.g. rules) often repeat the same subexpressions, such as
+ * <code>tolower(user.name)</code> or <code>amount * rate</code>. When a set is created, structurally identical
+ * subexpressions are merged, so the expressions form a single graph. Operators and functions used by more
+ * than one expression (or more than once within an expression) are then evaluated at most once each time the set
+ * is evaluated, e.g.
+ * <pre>{@code
+ *   Map<String, Expression> rules = new LinkedHashMap<String, Expression>();
+ *   rules.put("vip", parser.parse("tolower(user.name) in vips and amount * rate > 1000"));
+ *   rules.put("staff", parser.parse("tolower(user.name) =~ '^admin' or amount * rate > 50000"));
+ *
+ *   ExpressionSet set = new ExpressionSet(rules);
+ *   Map<String, Object> results = set.eval(context);
+ * }</pre>
+ * A shared subexpression is evaluated when it is first needed, so the logical operators still short circuit
+ * in the same way, and evaluates to the same result (or error) for each expression that uses it. Only
+ * operators and functions marked as pure (see {@link Factory#isPure}), whose operands are also pure, are shared.
+ * <p>Subexpressions are identical if they use the same registered operator or function with identical
+ * operands, or are equal constants or the same context value. Nodes are rebuilt using the factories held in
+ * a {@link Registry}, so the expressions should be parsed using the same registry (by default, the parser's
+ * default registry). Nodes not created by a registered factory (e.g. custom {@link Expression} implementations)
+ * are never shared.
+ * <p>Expression sets are immutable, and may be evaluated concurrently across multiple threads.
+ *
+ * @author Peter Smith
+ */
+public class ExpressionSet {
+
+    /**
+     * A subexpression that is evaluated at most once each time the set is evaluated.
+     * <p>Evaluated outside of the set (e.g. using an expression from {@link #getExpression}), the subexpression
+     * is evaluated as normal.
+     */
+    static final class Shared implements Expression {
+
+        /** The set the subexpression belongs to */
+
+        private ExpressionSet set;
+
+
+        /** The index of the subexpression's result in an evaluation frame */
+
+        private int index;
+
+
+        /** The subexpression */
+
+        private Expression expression;
+
+
+
+        /**
+         * Creates a shared subexpression.
+         *
+         * @param set         the set the subexpression belongs to
+         * @param index       the index of the subexpression's result
+         * @param expression  the subexpression
+         */
+        Shared(ExpressionSet set, int index, Expression expression) {
+            this.set = set;
+            this.index = index;
+            this.expression = expression;
+        }
+
+
+
+        /**
+         * Returns the subexpression.
+         *
+         * @return the shared subexpression
+         */
+        Expression getExpression() {
+            return expression;
+        }
+
+
+
+        @Override
+        public Object eval(ExpressionContext context) throws ExpressionError {
+            Frame frame = frames.get();
+            if (frame == null || frame.set != set || frame.context != context) return expression.eval(context);
+
+            switch (frame.state[index]) {
+                case Frame.VALUE: return frame.values[index];
+                case Frame.ERROR: throw frame.errors[index];
+            }
+
+            try {
+                Object value = expression.eval(context);
+                frame.values[index] = value;
+                frame.state[index] = Frame.VALUE;
+                return value;
+            }
+            catch (ExpressionError x) {
+                frame.errors[index] = x;
+                frame.state[index] = Frame.ERROR;
+                throw x;
+            }
+        }
+
+
+
+        /**
+         * Serializes the subexpression to a string.
+         *
+         * @return the string form of the subexpression
+         */
+        @Override
+        public String toString() {
+            return expression.toString();
+        }
+    }
+
+
+
+    /**
+     * The results of the shared subexpressions for a single evaluation of a set.
+     */
+    private static final class Frame {
+
+        /* The state of each result */
+
+        static final byte PENDING = 0;
+        static final byte VALUE = 1;
+        static final byte ERROR = 2;
+
+
+        /** The set being evaluated */
+
+        ExpressionSet set;
+
+
+        /** The context the set is being evaluated in */
+
+        ExpressionContext context;
+
+
+        /* The results of each shared subexpression */
+
+        byte[] state;
+        Object[] values;
+        ExpressionError[] errors;
+
+
+
+        /**
+         * Creates a frame.
+         *
+         * @param set      the set being evaluated
+         * @param context  the context the set is being evaluated in
+         */
+        Frame(ExpressionSet set, ExpressionContext context) {
+            this.set = set;
+            this.context = context;
+            this.state = new byte[set.shared];
+            this.values = new Object[set.shared];
+            this.errors = new ExpressionError[set.shared];
+        }
+    }
+
+
+
+    /**
+     * The structure of a subexpression, used to find identical subexpressions.
+     * <p>Operands are merged before the nodes that use them, so operands are compared by identity.
+     */
+    private static final class Key {
+
+        /** The kind of node - the factory for operators and functions, or the node class (or node itself, if it cannot be rebuilt) */
+
+        private Object kind;
+
+
+        /** The constant value or context value name */
+
+        private Object value;
+
+
+        /** The operands */
+
+        private Key[] operands;
+
+
+        /** The original node */
+
+        private Expression node;
+
+
+        /** Whether the subexpression is pure (always gives the same result for the same context values) */
+
+        private boolean pure;
+
+
+        /** The number of distinct nodes (or expressions in the set) using the subexpression */
+
+        private int uses;
+
+
+        /** The rebuilt subexpression */
+
+        private Expression built;
+
+
+
+        /**
+         * Creates a key.
+         *
+         * @param kind      the kind of node
+         * @param value     the constant value or context value name (or null)
+         * @param operands  the (merged) operands
+         * @param node      the original node
+         * @param pure      whether the node itself is pure
+         */
+        Key(Object kind, Object value, Key[] operands, Expression node, boolean pure) {
+            this.kind = kind;
+            this.value = value;
+            this.operands = operands;
+            this.node = node;
+            this.pure = pure;
+            for (Key operand : operands) this.pure &= operand.pure;
+        }
+
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            if (kind != key.kind || !Objects.equals(value, key.value) || operands.length != key.operands.length) return false;
+
+            for (int i = 0; i < operands.length; ++i) {
+                if (operands[i] != key.operands[i]) return false;
+            }
+            return true;
+        }
+
+
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(kind) * 31 + Objects.hashCode(value);
+            for (Key operand : operands) hash = hash * 31 + System.identityHashCode(operand);
+            return hash;
+        }
+    }
+
+
+
+    /** The evaluation frame of the set being evaluated by each thread */
+
+    private static ThreadLocal<Frame> frames = new ThreadLocal<Frame>();
+
+
+    /** No operands */
+
+    private static final Key[] NONE = new Key[0];
+
+
+    /** The names of the expressions */
+
+    private String[] names;
+
+
+    /** The expressions, sharing common subexpressions */
+
+    private Expression[] expressions;
+
+
+    /** The expressions, by name */
+
+    private Map<String, Expression> index = new HashMap<String, Expression>();
+
+
+    /** The number of shared subexpressions */
+
+    private int shared;
+
+
+
+    /**
+     * Creates a set of expressions, using the parser's default registry to rebuild nodes.
+     *
+     * @param expressions  the expressions, by name (the set is evaluated in the iteration order of the map)
+     * @throws ExpressionError if a node could not be rebuilt
+     */
+    public ExpressionSet(Map<String, ? extends Expression> expressions) throws ExpressionError {
+        this(expressions, null);
+    }
+
+
+
+    /**
+     * Creates a set of expressions, using a given registry to rebuild nodes.
+     *
+     * @param expressions  the expressions, by name (the set is evaluated in the iteration order of the map)
+     * @param registry     the registry holding the operators and functions (may be null, in which case
+     *                     the parser's default registry is used)
+     * @throws ExpressionError if a node could not be rebuilt
+     */
+    public ExpressionSet(Map<String, ? extends Expression> expressions, Registry registry) throws ExpressionError {
+        if (registry == null) registry = Parser.getDefaultRegistry();
+
+        /* Merge identical subexpressions, then count the uses of each */
+
+        Map<Key, Key> keys = new HashMap<Key, Key>();
+        ArrayList<Key> roots = new ArrayList<Key>();
+        for (Expression e : expressions.values()) {
+            assert e != null : "Null expression";
+
+            roots.add(merge(e, keys, registry));
+        }
+        for (Key root : roots) count(root);
+
+        /* Rebuild the expressions */
+
+        this.names = expressions.keySet().toArray(new String[expressions.size()]);
+        this.expressions = new Expression[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            this.expressions[i] = build(roots.get(i));
+            this.index.put(names[i], this.expressions[i]);
+        }
+    }
+
+
+
+    /**
+     * Finds the merged subexpression for an expression node, merging its operands first.
+     *
+     * @param e         the expression node
+     * @param keys      the subexpressions merged so far
+     * @param registry  the registry used to rebuild nodes
+     * @return the merged subexpression
+     */
+    private static Key merge(Expression e, Map<Key, Key> keys, Registry registry) {
+        Key key;
+
+        if (e instanceof Constant) {
+            key = new Key(Constant.class, ((Constant) e).getValue(), NONE, e, true);
+        }
+        else if (e instanceof ContextValue) {
+            ContextValue v = (ContextValue) e;
+            key = new Key(v.getSymbols() != null ? v.getSymbols() : ContextValue.class, v.getName(), NONE, e, true);
+        }
+        else if (e instanceof Parenthesis) {
+            key = new Key(Parenthesis.class, null, merge(new Expression[] { ((Parenthesis) e).getExpression() }, keys, registry), e, true);
+        }
+        else if (e instanceof pls.expression.List) {
+            key = new Key(pls.expression.List.class, null, merge(((pls.expression.List) e).getValues(), keys, registry), e, true);
+        }
+        else {
+            Factory factory = null;
+            Expression[] operands = null;
+
+            if (e instanceof Function) {
+                factory = registry.getFunction(((Function) e).getName());
+                operands = ((Function) e).getArguments();
+            }
+            else if (e instanceof UnaryOperator) {
+                factory = registry.getOperator(((UnaryOperator) e).getName(), true);
+                operands = new Expression[] { ((UnaryOperator) e).getOperand() };
+            }
+            else if (e instanceof BinaryOperator) {
+                factory = registry.getOperator(((BinaryOperator) e).getName(), false);
+                operands = new Expression[] { ((BinaryOperator) e).getLeft(), ((BinaryOperator) e).getRight() };
+            }
+
+            /* Nodes not created by a registered factory cannot be rebuilt, so are only identical to themselves */
+
+            if (factory == null) return new Key(e, null, NONE, e, false);
+            key = new Key(factory, null, merge(operands, keys, registry), e, factory.isPure());
+        }
+
+        Key existing = keys.putIfAbsent(key, key);
+        return existing != null ? existing : key;
+    }
+
+
+
+    /**
+     * Finds the merged subexpressions for a set of operands.
+     *
+     * @param values    the operands
+     * @param keys      the subexpressions merged so far
+     * @param registry  the registry used to rebuild nodes
+     * @return the merged subexpressions
+     */
+    private static Key[] merge(Expression[] values, Map<Key, Key> keys, Registry registry) {
+        Key[] result = new Key[values.length];
+        for (int i = 0; i < values.length; ++i) result[i] = merge(values[i], keys, registry);
+        return result;
+    }
+
+
+
+    /**
+     * Counts a use of a merged subexpression.
+     * <p>The operands of a subexpression are counted once, however many times the subexpression is used, since it
+     * is only evaluated once if it is shared. Parentheses and lists are never shared, so their operands are
+     * counted each time they are used.
+     *
+     * @param key  the merged subexpression
+     */
+    private static void count(Key key) {
+        if (++key.uses == 1 || key.kind == Parenthesis.class || key.kind == pls.expression.List.class) {
+            for (Key operand : key.operands) count(operand);
+        }
+    }
+
+
+
+    /**
+     * Rebuilds a merged subexpression, sharing it if it is used more than once.
+     *
+     * @param key  the merged subexpression
+     * @return the rebuilt subexpression
+     * @throws ExpressionError if the node could not be rebuilt
+     */
+    private Expression build(Key key) throws ExpressionError {
+        if (key.built != null) return key.built;
+
+        Expression[] operands = new Expression[key.operands.length];
+        for (int i = 0; i < operands.length; ++i) operands[i] = build(key.operands[i]);
+
+        Expression e;
+        if (key.kind == Parenthesis.class)
+            e = new Parenthesis(operands[0]);
+        else if (key.kind == pls.expression.List.class)
+            e = new pls.expression.List(operands);
+        else if (key.kind instanceof Factory)
+            e = ((Factory) key.kind).create(operands);
+        else
+            e = key.node;
+
+        /* Only operators and functions are worth sharing - constants, context values, and lists are cheap to evaluate */
+
+        if (key.uses > 1 && key.pure && key.kind instanceof Factory) e = new Shared(this, shared++, e);
+
+        key.built = e;
+        return e;
+    }
+
+
+
+    /**
+     * Returns the names of the expressions in the set.
+     *
+     * @return the expression names, in evaluation order
+     */
+    public java.util.List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+
+
+    /**
+     * Returns an expression in the set.
+     * <p>The expression may be evaluated on its own, in which case shared subexpressions are evaluated as normal.
+     *
+     * @param name  the name of the expression
+     * @return the expression, or null if there is no expression with the name
+     */
+    public Expression getExpression(String name) {
+        return index.get(name);
+    }
+
+
+
+    /**
+     * Returns the number of expressions in the set.
+     *
+     * @return the number of expressions
+     */
+    public int size() {
+        return names.length;
+    }
+
+
+
+    /**
+     * Returns the number of distinct subexpressions shared between (or within) the expressions in the set.
+     *
+     * @return the number of shared subexpressions
+     */
+    public int getSharedCount() {
+        return shared;
+    }
+
+
+
+    /**
+     * Evaluates the expressions in the set.
+     *
+     * @param context  the context in which the expressions are evaluated
+     * @return the result of each expression, by name (in evaluation order)
+     * @throws ExpressionError if an error occurred evaluating any of the expressions
+     */
+    public Map<String, Object> eval(ExpressionContext context) throws ExpressionError {
+        Object[] results = new Object[names.length];
+        eval(context, results);
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < names.length; ++i) map.put(names[i], results[i]);
+        return map;
+    }
+
+
+
+    /**
+     * Evaluates the expressions in the set, storing the results in an array.
+     *
+     * @param context  the context in which the expressions are evaluated
+     * @param results  the array to hold the result of each expression, in the order given by {@link #getNames}
+     * @throws ExpressionError if an error occurred evaluating any of the expressions (the results of the
+     *                         expressions before the failing expression are stored)
+     */
+    public void eval(ExpressionContext context, Object[] results) throws ExpressionError {
+        Frame previous = frames.get();
+        frames.set(new Frame(this, context));
+        try {
+            for (int i = 0; i < expressions.length; ++i) results[i] = expressions[i].eval(context);
+        }
+        finally {
+            frames.set(previous);
+        }
+    }
+
+
+
+    /**
+     * Evaluates the expressions in the set as boolean values (e.g. rule conditions), storing the results in an array.
+     *
+     * @param context  the context in which the expressions are evaluated
+     * @param results  the array to hold the result of each expression, in the order given by {@link #getNames}
+     * @throws ExpressionError if an error occurred evaluating any of the expressions (the results of the
+     *                         expressions before the failing expression are stored)
+     * @see Expression#evalBoolean
+     */
+    public void evalBoolean(ExpressionContext context, boolean[] results) throws ExpressionError {
+        Frame previous = frames.get();
+        frames.set(new Frame(this, context));
+        try {
+            for (int i = 0; i < expressions.length; ++i) results[i] = expressions[i].evalBoolean(context);
+        }
+        finally {
+            frames.set(previous);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package pls.expression;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/**
+ * Writes expression trees in a compact binary form.
+ * <p>Expressions written by this class are read back using an {@link ExpressionReader}, which rebuilds
+ * each tree directly, without parsing it. This is considerably faster than parsing, which matters when
+ * very many stored expressions must be loaded, e.g.
+ * <pre>{@code
+ *   try (ExpressionWriter writer = new ExpressionWriter(new FileOutputStream("rules.bin"))) {
+ *       for (String rule : rules) writer.write(parser.parse(rule));
+ *   }
+ * }</pre>
+ * The stream starts with a header (a 4 byte magic number and a 1 byte format version), followed by each
+ * expression in turn. An expression is written as a tree of nodes, each node being a 1 byte type followed by
+ * its data and then its operands. Operators and functions are identified by their registered names, and
+ * context values by their names. Each distinct string (names and string constants) is written in full
+ * once, the first time it is used - later uses refer back to it by number. Numbers (counts and string
+ * references) are written as variable length unsigned integers, using 7 bits per byte.
+ * <p>Expressions can be written for any tree built by the {@link Parser} or {@link Optimizer}. Other nodes
+ * (e.g. compiled expressions or custom {@link Expression} implementations) cannot be written.
+ * <p>Writers are not thread safe.
+ *
+ * @author Peter Smith
+ * @see ExpressionReader
+ */
+public class ExpressionWriter implements Closeable, Flushable {
+
+    /** The magic number at the start of the stream ("PLSX") */
+
+    static final int MAGIC = 0x504C5358;
+
+
+    /** The current format version (version 2 added long constants) */
+
+    static final int VERSION = 2;
+
+
+    /* The node types */
+
+    static final int NULL = 0;
+    static final int INTEGER = 1;
+    static final int FLOAT = 2;
+    static final int TRUE = 3;
+    static final int FALSE = 4;
+    static final int STRING = 5;
+    static final int VALUE = 6;
+    static final int BOUND_VALUE = 7;
+    static final int PARENTHESIS = 8;
+    static final int LIST = 9;
+    static final int UNARY = 10;
+    static final int BINARY = 11;
+    static final int FUNCTION = 12;
+    static final int LONG = 13;
+
+
+    /** The output stream */
+
+    private DataOutputStream out;
+
+
+    /** The number assigned to each string written so far */
+
+    private Map<String, Integer> strings = new HashMap<String, Integer>();
+
+
+
+    /**
+     * Creates a writer, and writes the stream header.
+     *
+     * @param out  the output stream to write to
+     * @throws IOException if the header could not be written
+     */
+    public ExpressionWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+    }
+
+
+
+    /**
+     * Writes an expression.
+     *
+     * @param expression  the expression to write
+     * @throws IOException if the expression could not be written to the stream
+     * @throws ExpressionError if the expression contains a node that cannot be written
+     */
+    public void write(Expression expression) throws IOException, ExpressionError {
+        assert expression != null : "Null expression";
+        writeNode(expression);
+    }
+
+
+
+    /**
+     * Writes an expression node and its operands.
+     *
+     * @param e  the expression node
+     * @throws IOException if the node could not be written to the stream
+     * @throws ExpressionError if the node cannot be written
+     */
+    private void writeNode(Expression e) throws IOException, ExpressionError {
+        if (e instanceof Constant) {
+            Object value = ((Constant) e).getValue();
+
+            if (value == null) {
+                out.writeByte(NULL);
+            }
+            else if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            }
+            else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            }
+            else if (value instanceof Double) {
+                out.writeByte(FLOAT);
+                out.writeDouble((Double) value);
+            }
+            else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            }
+            else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            }
+            else {
+                throw new ExpressionError(String.format("Cannot write constant of type %s", value.getClass().getSimpleName()));
+            }
+        }
+        else if (e instanceof ContextValue) {
+            ContextValue v = (ContextValue) e;
+            out.writeByte(v.getSymbols() != null ? BOUND_VALUE : VALUE);
+            writeString(v.getName());
+        }
+        else if (e instanceof Parenthesis) {
+            out.writeByte(PARENTHESIS);
+            writeNode(((Parenthesis) e).getExpression());
+        }
+        else if (e instanceof pls.expression.List) {
+            Expression[] values = ((pls.expression.List) e).getValues();
+            out.writeByte(LIST);
+            writeNumber(values.length);
+            for (Expression value : values) writeNode(value);
+        }
+        else if (e instanceof UnaryOperator) {
+            UnaryOperator u = (UnaryOperator) e;
+            out.writeByte(UNARY);
+            writeString(u.getName());
+            writeNode(u.getOperand());
+        }
+        else if (e instanceof BinaryOperator) {
+            BinaryOperator b = (BinaryOperator) e;
+            out.writeByte(BINARY);
+            writeString(b.getName());
+            writeNode(b.getLeft());
+            writeNode(b.getRight());
+        }
+        else if (e instanceof Function) {
+            Function f = (Function) e;
+            Expression[] arguments = f.getArguments();
+            out.writeByte(FUNCTION);
+            writeString(f.getName());
+            writeNumber(arguments.length);
+            for (Expression argument : arguments) writeNode(argument);
+        }
+        else {
+            throw new ExpressionError(String.format("Cannot write expression '%s'", e));
+        }
+    }
+
+
+
+    /**
+     * Writes a string, or a reference to it if it has already been written.
+     * <p>A reference is written as the string's number plus one. A new string is written as zero, followed
+     * by its length (in bytes) and UTF-8 encoding.
+     *
+     * @param s  the string
+     * @throws IOException if the string could not be written to the stream
+     */
+    private void writeString(String s) throws IOException {
+        Integer index = strings.get(s);
+        if (index != null) {
+            writeNumber(index + 1);
+            return;
+        }
+        strings.put(s, strings.size());
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeNumber(0);
+        writeNumber(bytes.length);
+        out.write(bytes);
+    }
+
+
+
+    /**
+     * Writes a variable length unsigned integer.
+     *
+     * @param n  the (non-negative) number
+     * @throws IOException if the number could not be written to the stream
+     */
+    private void writeNumber(int n) throws IOException {
+        while ((n & ~0x7F) != 0) {
+            out.writeByte((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+
+
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -16,6 +16,16 @@ public abstract class Factory {
     private String name;
 
 
+    /** Indicates whether expressions created by this factory are pure */
+
+    private boolean pure;
+
+
+    /** The cache holding the results of functions created by this factory (null if not cached) */
+
+    private ResultCache cache;
+
+
     /**
      * Construct a factory instance.
      *
@@ -40,6 +50,72 @@ public abstract class Factory {
 
 
 
+    /**
+     * Determines whether expressions created by this factory are pure.
+     * <p>A pure function or operator always produces the same result for the same operand values, does
+     * not read the expression context (other than by evaluating its operands), and has no side effects.
+     * Pure expressions with constant operands can be evaluated once, ahead of time, by the {@link Optimizer}.
+     * Factories are not pure unless explicitly marked as such.
+     *
+     * @return true if expressions created by this factory are pure
+     */
+    public boolean isPure() {
+        return this.pure;
+    }
+
+
+
+    /**
+     * Marks expressions created by this factory as pure (or not), e.g.
+     * <pre>{@code
+     *  Parser.registerFunction(Functions.create("sqrt", (context, v) -> Math.sqrt(Operators.toFloat(v))).setPure(true));
+     * }</pre>
+     *
+     * @param pure  true if expressions created by this factory are pure
+     * @return a reference to this Factory instance
+     * @see #isPure
+     */
+    public Factory setPure(boolean pure) {
+        this.pure = pure;
+        return this;
+    }
+
+
+
+    /**
+     * Returns the cache holding the results of functions created by this factory.
+     *
+     * @return the result cache, or null if results are not cached
+     * @see #setCached
+     */
+    public ResultCache getCache() {
+        return this.cache;
+    }
+
+
+
+    /**
+     * Marks functions created by this factory as pure, and caches their results, e.g.
+     * <pre>{@code
+     *  Parser.registerFunction(Functions.create("region", (context, code) -> lookupRegion(code)).setCached(10000));
+     * }</pre>
+     * The results of every function created by this factory are held in a single {@link ResultCache}, so its hit
+     * and miss counts show the effectiveness of caching the function. Only functions created using the
+     * {@link Functions#create Functions.create} utility methods are cached, and only those created after this
+     * method is called.
+     *
+     * @param capacity  the maximum number of results to cache, or 0 to stop caching results
+     * @return a reference to this Factory instance
+     * @see #isPure
+     */
+    public Factory setCached(int capacity) {
+        this.cache = capacity > 0 ? new ResultCache(capacity) : null;
+        if (capacity > 0) this.pure = true;
+        return this;
+    }
+
+
+
    /**
      * Creates an instance of an expression for performing an operation on the provided
      * expression input. 
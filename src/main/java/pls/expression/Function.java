@@ -0,0 +1,201 @@
+package pls.expression;
+
+import java.util.Arrays;
+
+
+
+/**
+ * Base class for function call nodes created by the {@link Functions#create Functions.create} utility methods.
+ * <p>A function node holds the (unevaluated) argument expressions along with the lambda implementing the
+ * function. Concrete subclasses exist for each of the supported lambda arities. Keeping these as named classes
+ * (rather than anonymous ones) allows other components, such as the {@link ExpressionCompiler}, to inspect the
+ * function and its arguments.
+ *
+ * @author Peter Smith
+ * @see Functions
+ */
+abstract class Function extends NamedExpression {
+
+    /** The argument expressions passed to the function */
+
+    private Expression[] args;
+
+
+
+    /**
+     * Construct a function instance.
+     *
+     * @param name  the name of the function
+     * @param args  the argument expressions
+     */
+    Function(String name, Expression[] args) {
+        super(name);
+        this.args = args;
+    }
+
+
+
+    /**
+     * Returns the argument expressions of this function.
+     *
+     * @return the (unevaluated) argument expressions
+     */
+    Expression[] getArguments() {
+        return this.args;
+    }
+
+
+
+    /**
+     * Converts this expression back to a string.
+     *
+     * @return a string representation of this function call
+     */
+    @Override
+    public String toString() {
+        return getName() + "("
+            + String.join(",", Arrays.stream(args).map((e) -> e.toString()).toArray(String[]::new))
+            + ")";
+    }
+
+
+
+    /**
+     * Function node for lambdas that take no arguments.
+     */
+    static class Call0 extends Function {
+
+        /** The function implementation */
+
+        private Functions.Function0 fn;
+
+
+        /**
+         * Creates a function node.
+         *
+         * @param name  the name of the function
+         * @param fn    the function implementation
+         */
+        Call0(String name, Functions.Function0 fn) {
+            super(name, new Expression[0]);
+            this.fn = fn;
+        }
+
+
+        /**
+         * Returns the function implementation.
+         *
+         * @return the lambda implementing this function
+         */
+        Functions.Function0 getFunction() {
+            return this.fn;
+        }
+
+
+        @Override
+        public Object eval(ExpressionContext context) throws ExpressionError {
+            return fn.eval(context);
+        }
+    }
+
+
+
+    /**
+     * Function node for lambdas that take a single argument.
+     */
+    static class Call1 extends Function {
+
+        /** The function implementation */
+
+        private Functions.Function1 fn;
+
+
+        /** The argument expression */
+
+        private Expression arg1;
+
+
+        /**
+         * Creates a function node.
+         *
+         * @param name  the name of the function
+         * @param fn    the function implementation
+         * @param arg1  the argument expression
+         */
+        Call1(String name, Functions.Function1 fn, Expression arg1) {
+            super(name, new Expression[] { arg1 });
+            this.fn = fn;
+            this.arg1 = arg1;
+        }
+
+
+        /**
+         * Returns the function implementation.
+         *
+         * @return the lambda implementing this function
+         */
+        Functions.Function1 getFunction() {
+            return this.fn;
+        }
+
+
+        @Override
+        public Object eval(ExpressionContext context) throws ExpressionError {
+            return fn.eval(context, arg1.eval(context));
+        }
+    }
+
+
+
+    /**
+     * Function node for lambdas that take two arguments.
+     */
+    static class Call2 extends Function {
+
+        /** The function implementation */
+
+        private Functions.Function2 fn;
+
+
+        /** The first argument expression */
+
+        private Expression arg1;
+
+
+        /** The second argument expression */
+
+        private Expression arg2;
+
+
+        /**
+         * Creates a function node.
+         *
+         * @param name  the name of the function
+         * @param fn    the function implementation
+         * @param arg1  the first argument expression
+         * @param arg2  the second argument expression
+         */
+        Call2(String name, Functions.Function2 fn, Expression arg1, Expression arg2) {
+            super(name, new Expression[] { arg1, arg2 });
+            this.fn = fn;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+
+
+        /**
+         * Returns the function implementation.
+         *
+         * @return the lambda implementing this function
+         */
+        Functions.Function2 getFunction() {
+            return this.fn;
+        }
+
+
+        @Override
+        public Object eval(ExpressionContext context) throws ExpressionError {
+            return fn.eval(context, arg1.eval(context), arg2.eval(context));
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package pls.expression;
 
-import java.util.Arrays;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import java.lang.reflect.Method;
 
@@ -15,6 +15,12 @@ import java.lang.reflect.Method;
  * Provides basic sets of functions that can be registered (if desired).
  */
 public class Functions {
+
+    /** Cache of patterns used by the regex matching operators for non-constant regular expressions */
+
+    private static final PatternCache patterns = new PatternCache();
+
+
     /**
     * Lambda interface used to implement a functional expression which takes a no
     * arguments.
@@ -75,9 +81,23 @@ public class Functions {
      * all expressions.
      */
     public static void registerDefaultFunctions() {
-        Parser.registerFunction(Functions.create("float", (context, arg) -> Operators.toFloat(arg)));
-        Parser.registerFunction(Functions.create("int", (context, arg) -> Operators.toInt(arg)));
-        Parser.registerFunction(Functions.create("not", (context, arg) -> !Operators.toBoolean(arg)));
+        Parser.updateDefaultRegistry(Functions::registerDefaultFunctions);
+    }
+
+
+
+    /**
+     * Adds the default functions to a registry builder.
+     *
+     * @param builder  the registry builder
+     * @see #registerDefaultFunctions()
+     */
+    public static void registerDefaultFunctions(Registry.Builder builder) {
+        builder.function(Functions.create("float", (context, arg) -> Operators.toFloat(arg)).setPure(true));
+        builder.function(Functions.create("int", (context, arg) -> Operators.toInt(arg)).setPure(true));
+        builder.function(Functions.create("long", (context, arg) -> Operators.toLong(arg)).setPure(true));
+        builder.function(Functions.create("decimal", (context, arg) -> Operators.toDecimal(arg)).setPure(true));
+        builder.function(Functions.create("not", (context, arg) -> !Operators.toBoolean(arg)).setPure(true));
     }
 
 
@@ -87,14 +107,26 @@ public class Functions {
      * <p>This method is not invoked by default - it must be explicity called.
      */
     public static void registerStringFunctions() {
+        Parser.updateDefaultRegistry(Functions::registerStringFunctions);
+    }
+
+
+
+    /**
+     * Adds the string manipulation functions and operators to a registry builder.
+     *
+     * @param builder  the registry builder
+     * @see #registerStringFunctions()
+     */
+    public static void registerStringFunctions(Registry.Builder builder) {
 
         /* String 'concat' takes a variable number of arguments and requires special handling */
 
-        Parser.registerFunction(
+        builder.function(
             new Factory("concat") {
                 @Override
                 public Expression create(Expression ...input) throws ExpressionError {
-                    return new NamedExpression("concat") {
+                    return new Function("concat", input) {
                         @Override
                         public Object eval(ExpressionContext context) throws ExpressionError {
                             String[] values = new String[input.length];
@@ -103,25 +135,19 @@ public class Functions {
                             }
                             return String.join("", values);
                         }
-                        @Override
-                        public String toString() {
-                            return "concat(" + 
-                                String.join(",", Arrays.stream(input).map((e) -> e.toString()).toArray(String[]::new))
-                                + ")";
-                        }
                     };
                 }
-            }
+            }.setPure(true)
         );
 
-        Parser.registerFunction(Functions.create("tolower", (context, arg1) -> arg1.toString().toLowerCase()));
-        Parser.registerFunction(Functions.create("toupper", (context, arg1) -> arg1.toString().toUpperCase()));
-        Parser.registerFunction(Functions.create("length", (context, arg1) -> arg1 == null ? 0 : arg1.toString().length()));
+        builder.function(Functions.create("tolower", (context, arg1) -> arg1.toString().toLowerCase()).setPure(true));
+        builder.function(Functions.create("toupper", (context, arg1) -> arg1.toString().toUpperCase()).setPure(true));
+        builder.function(Functions.create("length", (context, arg1) -> arg1 == null ? 0 : arg1.toString().length()).setPure(true));
 
         /* Technically, this is an operator but it behaves like a function in that it needs both sides evaluated */
 
-        Parser.registerOperator(Operators.createBinary("=~", (c, l, r) -> Functions.matches(l.eval(c), r.eval(c))), 3);
-        Parser.registerOperator(Operators.createBinary("matches", (c, l, r) -> Functions.matches(l.eval(c), r.eval(c))), 3);
+        builder.operator(Functions.createMatches("=~"), 3);
+        builder.operator(Functions.createMatches("matches"), 3);
     }
     
 
@@ -131,34 +157,47 @@ public class Functions {
      * <p>This method is not invoked by default - it must be explicity called.
      */
     public static void registerMathFunctions() {
+        Parser.updateDefaultRegistry(Functions::registerMathFunctions);
+    }
+
+
+
+    /**
+     * Adds the math functions to a registry builder.
+     *
+     * @param builder  the registry builder
+     * @see #registerMathFunctions()
+     */
+    public static void registerMathFunctions(Registry.Builder builder) {
 
         /* Trigonometric functions */
 
-        Parser.registerFunction(Functions.create("cos", (context, arg1) -> Math.cos(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("sin", (context, arg1) -> Math.sin(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("tan", (context, arg1) -> Math.tan(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("acos", (context, arg1) -> Math.acos(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("asin", (context, arg1) -> Math.asin(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("atan", (context, arg1) -> Math.atan(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("cosh", (context, arg1) -> Math.cosh(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("sinh", (context, arg1) -> Math.sinh(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("tanh", (context, arg1) -> Math.tanh(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("rad", (context, arg1) -> Math.toRadians(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("deg", (context, arg1) -> Math.toDegrees(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("exp", (context, arg1) -> Math.exp(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("log", (context, arg1) -> Math.log(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("sqrt", (context, arg1) -> Math.sqrt(Operators.toFloat(arg1))));
+        builder.function(Functions.create("cos", (context, arg1) -> Math.cos(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("sin", (context, arg1) -> Math.sin(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("tan", (context, arg1) -> Math.tan(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("acos", (context, arg1) -> Math.acos(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("asin", (context, arg1) -> Math.asin(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("atan", (context, arg1) -> Math.atan(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("cosh", (context, arg1) -> Math.cosh(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("sinh", (context, arg1) -> Math.sinh(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("tanh", (context, arg1) -> Math.tanh(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("rad", (context, arg1) -> Math.toRadians(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("deg", (context, arg1) -> Math.toDegrees(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("exp", (context, arg1) -> Math.exp(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("log", (context, arg1) -> Math.log(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("sqrt", (context, arg1) -> Math.sqrt(Operators.toFloat(arg1))).setPure(true));
 
         /* Rounding/conversion functions */
 
-        Parser.registerFunction(Functions.create("floor", (context, arg1) -> Math.floor(Operators.toFloat(arg1))));
-        Parser.registerFunction(Functions.create("ceil", (context, arg1) -> Math.ceil(Operators.toFloat(arg1))));
+        builder.function(Functions.create("floor", (context, arg1) -> Math.floor(Operators.toFloat(arg1))).setPure(true));
+        builder.function(Functions.create("ceil", (context, arg1) -> Math.ceil(Operators.toFloat(arg1))).setPure(true));
     }
 
 
 
     /**
      * Creates a function factory for functions that take no arguments.
+     * <p>The results of the function can be cached (see {@link Factory#setCached}).
      *
      * @param name  the name of the function
      * @param fn    the interface/lambda function to execute
@@ -168,16 +207,8 @@ public class Functions {
         return new Factory(name) {
             @Override
             public Expression create(Expression ...input) throws ExpressionError {
-                return new NamedExpression(name) {
-                    @Override
-                    public Object eval(ExpressionContext context) throws ExpressionError {
-                        return fn.eval(context);
-                    }
-                    @Override
-                    public String toString() {
-                        return name + "()";
-                    }
-                };
+                checkArguments(name, input, 0);
+                return new Function.Call0(name, getCache() != null ? getCache().cache(fn) : fn);
             }
         };
     }
@@ -185,6 +216,7 @@ public class Functions {
 
     /**
      * Creates a function factory for functions that take one argument.
+     * <p>The results of the function can be cached (see {@link Factory#setCached}).
      *
      * @param name  the name of the function
      * @param fn    the interface/lambda function to execute
@@ -194,16 +226,8 @@ public class Functions {
         return new Factory(name) {
             @Override
             public Expression create(Expression ...input) throws ExpressionError {
-                return new NamedExpression(name) {
-                    @Override
-                    public Object eval(ExpressionContext context) throws ExpressionError {
-                        return fn.eval(context, input[0].eval(context));
-                    }
-                    @Override
-                    public String toString() {
-                        return name + "(" + input[0].toString() + ")";
-                    }
-                };
+                checkArguments(name, input, 1);
+                return new Function.Call1(name, getCache() != null ? getCache().cache(fn) : fn, input[0]);
             }
         };
     }
@@ -211,6 +235,7 @@ public class Functions {
 
     /**
      * Creates a function factory for functions that take two arguments.
+     * <p>The results of the function can be cached (see {@link Factory#setCached}).
      *
      * @param name  the name of the function
      * @param fn    the interface/lambda function to execute
@@ -220,22 +245,87 @@ public class Functions {
         return new Factory(name) {
             @Override
             public Expression create(Expression ...input) throws ExpressionError {
-                return new NamedExpression(name) {
-                    @Override
-                    public Object eval(ExpressionContext context) throws ExpressionError {
-                        return fn.eval(context, input[0].eval(context), input[1].eval(context));
-                    }
-                    @Override
-                    public String toString() {
-                        return name + "(" + input[0].toString() + "," + input[1].toString() + ")";
-                    }
-                };
+                checkArguments(name, input, 2);
+                return new Function.Call2(name, getCache() != null ? getCache().cache(fn) : fn, input[0], input[1]);
             }
         };
     }
 
 
 
+    /**
+     * Verifies the number of arguments passed to a fixed arity function.
+     *
+     * @param name      the name of the function
+     * @param input     the argument expressions
+     * @param expected  the number of arguments the function requires
+     * @throws ExpressionError if the number of arguments is incorrect
+     */
+    private static void checkArguments(String name, Expression[] input, int expected) throws ExpressionError {
+        if (input.length != expected)
+            throw new ExpressionError(String.format("Function '%s' expects %d argument(s) - found %d", name, expected, input.length));
+    }
+
+
+
+    /**
+     * Returns the cache of compiled patterns used by the regex matching operators.
+     * <p>This holds regular expressions that are not constant (e.g. taken from the expression context).
+     * Constant regular expressions are compiled when the expression is parsed and are not cached.
+     *
+     * @return the pattern cache
+     */
+    public static PatternCache getPatternCache() {
+        return patterns;
+    }
+
+
+
+    /**
+     * Creates an operator factory for a regex matching operator.
+     * <p>If the regular expression (the right hand operand) is a constant, it is compiled once, when the
+     * operator is created. Otherwise, the compiled pattern is retrieved from the {@link #getPatternCache pattern cache}
+     * each time the operator is evaluated.
+     *
+     * @param name  the name of the operator
+     * @return a Factory instance for creating regex matching expressions
+     */
+    private static Factory createMatches(String name) {
+        return new Factory(name) {
+            @Override
+            public Expression create(Expression ...input) throws ExpressionError {
+                Pattern pattern = compile(input[1]);
+                if (pattern == null) {
+                    return new BinaryOperator(name, input[0], input[1], (c, l, r) -> Functions.matches(l.eval(c), r.eval(c)));
+                }
+                return new BinaryOperator(name, input[0], input[1], (c, l, r) -> Functions.matches(l.eval(c), pattern));
+            }
+        }.setPure(true);
+    }
+
+
+
+    /**
+     * Compiles a constant regular expression.
+     *
+     * @param e  the regular expression operand
+     * @return the compiled pattern, or null if the operand is not a constant, or not a valid regular expression
+     *         (in which case, any error is reported when the expression is evaluated)
+     */
+    private static Pattern compile(Expression e) {
+        while (e instanceof Parenthesis) e = ((Parenthesis) e).getExpression();
+        if (!(e instanceof Constant) || ((Constant) e).getValue() == null) return null;
+
+        try {
+            return Pattern.compile(((Constant) e).getValue().toString());
+        }
+        catch (PatternSyntaxException x) {
+            return null;
+        }
+    }
+
+
+
     /**
      * Regex matching function used in some string operators.
      * 
@@ -244,6 +334,19 @@ public class Functions {
      * @return       true if the match succeeds, false otherwise
      */
     private static Boolean matches(Object left, Object right) {
-        return Pattern.compile(right.toString()).matcher(left.toString()).find();
+        return patterns.get(right.toString()).matcher(left.toString()).find();
+    }
+
+
+
+    /**
+     * Regex matching function used with precompiled patterns.
+     * 
+     * @param left     the operand to match against
+     * @param pattern  the compiled regular expression to match with
+     * @return         true if the match succeeds, false otherwise
+     */
+    private static Boolean matches(Object left, Pattern pattern) {
+        return pattern.matcher(left.toString()).find();
     }
 }
\ No newline at end of file
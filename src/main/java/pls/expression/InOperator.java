@@ -0,0 +1,146 @@
+package pls.expression;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+
+
+/**
+ * The 'in' operator, for a list of constant values.
+ * <p>The list is converted into a lookup structure when the operator is created, so that the cost of
+ * evaluating the operator does not depend upon the length of the list:
+ * <ul>
+ * <li>A list of integers is held as a sorted int array, and a list of floating point values as a sorted
+ * double array, searched using a binary search. If the left hand operand is known to be of the same
+ * type (see {@link ArithmeticOperator#typeOf}), it is evaluated as a primitive, without boxing.</li>
+ * <li>Any other list is held as a hash set.</li>
+ * </ul>
+ * The result is exactly the same as that of searching the list - a value is in the list if it is equal
+ * (using {@link Object#equals}) to any value in the list. In particular, an Integer is never equal to a
+ * Double.
+ *
+ * @author Peter Smith
+ * @see List
+ */
+class InOperator extends BinaryOperator {
+
+    /**
+     * Lookup structure holding the list values.
+     */
+    private static class Values {
+
+        /** The sorted values, if all values are Integers (otherwise null) */
+
+        private int[] ints;
+
+
+        /** The sorted values, if all values are Doubles (otherwise null) */
+
+        private double[] doubles;
+
+
+        /** The values, if the values are not all Integers or all Doubles (otherwise null) */
+
+        private Set<Object> set;
+
+
+
+        /**
+         * Creates the lookup structure for a list.
+         *
+         * @param list  the list values
+         */
+        Values(Object[] list) {
+            if (Arrays.stream(list).allMatch((value) -> value instanceof Integer)) {
+                ints = Arrays.stream(list).mapToInt((value) -> (Integer) value).sorted().toArray();
+            }
+            else if (Arrays.stream(list).allMatch((value) -> value instanceof Double)) {
+                doubles = Arrays.stream(list).mapToDouble((value) -> (Double) value).toArray();
+                Arrays.sort(doubles);
+            }
+            else {
+                set = new HashSet<Object>(Arrays.asList(list));
+            }
+        }
+
+
+
+        /**
+         * Determines whether a value is in the list.
+         *
+         * @param value  the value
+         * @return true if the value is equal to any value in the list
+         */
+        boolean contains(Object value) {
+            if (ints != null)
+                return (value instanceof Integer) && Arrays.binarySearch(ints, (Integer) value) >= 0;
+            else if (doubles != null)
+                return (value instanceof Double) && Arrays.binarySearch(doubles, (Double) value) >= 0;
+            else
+                return set.contains(value);
+        }
+    }
+
+
+
+    /** The list values */
+
+    private Values values;
+
+
+    /** The static result type of the left hand operand */
+
+    private int leftType;
+
+
+
+    /**
+     * Creates an 'in' operator for a list of constants.
+     *
+     * @param name    the name of the operator
+     * @param left    the expression used to generate the value to search for
+     * @param right   the list expression
+     * @param list    the list values (the constant values of the list expression)
+     */
+    InOperator(String name, Expression left, Expression right, Object[] list) {
+        this(name, left, right, new Values(list));
+    }
+
+
+
+    /**
+     * Creates an 'in' operator for a lookup structure.
+     *
+     * @param name    the name of the operator
+     * @param left    the expression used to generate the value to search for
+     * @param right   the list expression
+     * @param values  the lookup structure
+     */
+    private InOperator(String name, Expression left, Expression right, Values values) {
+        super(name, left, right, (context, l, r) -> values.contains(l.eval(context)));
+        this.values = values;
+        this.leftType = ArithmeticOperator.typeOf(left);
+    }
+
+
+
+    @Override
+    public Object eval(ExpressionContext context) throws ExpressionError {
+        return Boolean.valueOf(evalBoolean(context));
+    }
+
+
+
+    @Override
+    public boolean evalBoolean(ExpressionContext context) throws ExpressionError {
+        Expression left = getLeft();
+
+        if (values.ints != null && leftType == ArithmeticOperator.INTEGER)
+            return Arrays.binarySearch(values.ints, left.evalInt(context)) >= 0;
+        else if (values.doubles != null && leftType == ArithmeticOperator.FLOAT)
+            return Arrays.binarySearch(values.doubles, left.evalDouble(context)) >= 0;
+        else
+            return values.contains(left.eval(context));
+    }
+}
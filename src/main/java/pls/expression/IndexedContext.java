@@ -0,0 +1,607 @@
+package pls.expression;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+
+
+/**
+ * Array backed expression context.
+ * <p>An indexed context stores the values of variables defined in a {@link SymbolTable} in an
+ * array, indexed by slot. Expressions parsed using the same symbol table retrieve these values
+ * directly from the array rather than looking them up by name.
+ * <p>The name keyed {@link ExpressionContext} API continues to work - getting, setting, or removing a value
+ * by name (using any of the Map methods, such as <code>putAll</code> or <code>compute</code>) for a variable
+ * defined in the symbol table reads or writes the corresponding slot, while names not in the symbol table
+ * are stored in the underlying map as usual. This means an indexed context can be passed to any expression,
+ * including expressions parsed without a symbol table. The map views (keySet, entrySet, etc) of the context
+ * include each slot that holds a (non-null) value, followed by the entries of the underlying map.
+ * <p>When evaluating many records, a single context can be reused by setting each slot (or calling
+ * {@link #clear}) per record.
+ *
+ * @author Peter Smith
+ * @see SymbolTable
+ */
+public class IndexedContext extends ExpressionContext {
+
+    /** The symbol table used to map names to slots */
+
+    private SymbolTable symbols;
+
+
+    /** The slot values */
+
+    private Object[] values;
+
+
+
+    /**
+     * Creates an indexed context for the variables in the given symbol table.
+     *
+     * @param symbols  the symbol table
+     */
+    public IndexedContext(SymbolTable symbols) {
+        assert symbols != null : "Null symbol table";
+        this.symbols = symbols;
+        this.values = new Object[symbols.size()];
+    }
+
+
+
+    /**
+     * Returns the symbol table used by this context.
+     *
+     * @return the symbol table
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+
+
+    /**
+     * Returns the value of a slot.
+     *
+     * @param slot  the slot
+     * @return the slot value, or null if the slot has not been set
+     */
+    public Object getSlot(int slot) {
+        Object[] v = values;
+        return slot < v.length ? v[slot] : null;
+    }
+
+
+
+    /**
+     * Sets the value of a slot.
+     *
+     * @param slot   the slot (as returned by {@link SymbolTable#indexOf})
+     * @param value  the value to set
+     * @return a reference to this IndexedContext instance
+     */
+    public IndexedContext setSlot(int slot, Object value) {
+        if (slot >= values.length) { /* The symbol table has grown since this context was created */
+            values = Arrays.copyOf(values, Math.max(slot + 1, symbols.size()));
+        }
+        values[slot] = value;
+        return this;
+    }
+
+
+
+    /**
+     * Retrieves a value by name.
+     * <p>Names defined in the symbol table are read from their slot.
+     *
+     * @param key  the variable name
+     * @return the variable value, or null if not set
+     */
+    @Override
+    public Object get(Object key) {
+        int slot = slot(key);
+        return slot >= 0 ? getSlot(slot) : super.get(key);
+    }
+
+
+
+    /**
+     * Retrieves a value by name, or a default value if no value is set.
+     *
+     * @param key           the variable name
+     * @param defaultValue  the default value
+     * @return the variable value, or the default value if not set
+     */
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        int slot = slot(key);
+        if (slot < 0) return super.getOrDefault(key, defaultValue);
+
+        Object value = getSlot(slot);
+        return value != null ? value : defaultValue;
+    }
+
+
+
+    /**
+     * Determines whether a value has been set for the given name.
+     *
+     * @param key  the variable name
+     * @return true if a (non-null) value is set for a slot variable, or the name exists in the map
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = slot(key);
+        return slot >= 0 ? getSlot(slot) != null : super.containsKey(key);
+    }
+
+
+
+    /**
+     * Stores a value by name.
+     * <p>Names defined in the symbol table are written to their slot.
+     *
+     * @param key    the variable name
+     * @param value  the value to set
+     * @return the previous value
+     */
+    @Override
+    public Object put(String key, Object value) {
+        int slot = symbols.indexOf(key);
+        if (slot < 0) return super.put(key, value);
+
+        Object previous = getSlot(slot);
+        setSlot(slot, value);
+        return previous;
+    }
+
+
+
+    /**
+     * Stores a value by name if no value is set.
+     *
+     * @param key    the variable name
+     * @param value  the value to set
+     * @return the current value (null if the value was set)
+     */
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        int slot = symbols.indexOf(key);
+        if (slot < 0) return super.putIfAbsent(key, value);
+
+        Object previous = getSlot(slot);
+        if (previous == null) setSlot(slot, value);
+        return previous;
+    }
+
+
+
+    /**
+     * Stores each of the values of a map by name.
+     *
+     * @param values  the values to set
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> values) {
+        for (Map.Entry<? extends String, ? extends Object> entry : values.entrySet()) put(entry.getKey(), entry.getValue());
+    }
+
+
+
+    /**
+     * Replaces a value by name, if a value is set.
+     *
+     * @param key    the variable name
+     * @param value  the value to set
+     * @return the previous value, or null if no value was set
+     */
+    @Override
+    public Object replace(String key, Object value) {
+        int slot = symbols.indexOf(key);
+        if (slot < 0) return super.replace(key, value);
+
+        Object previous = getSlot(slot);
+        if (previous != null) setSlot(slot, value);
+        return previous;
+    }
+
+
+
+    /**
+     * Replaces a value by name, if it is set to the given value.
+     *
+     * @param key       the variable name
+     * @param oldValue  the expected value
+     * @param newValue  the value to set
+     * @return true if the value was replaced
+     */
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        int slot = symbols.indexOf(key);
+        if (slot < 0) return super.replace(key, oldValue, newValue);
+
+        Object previous = getSlot(slot);
+        if (previous == null || !previous.equals(oldValue)) return false;
+        setSlot(slot, newValue);
+        return true;
+    }
+
+
+
+    /**
+     * Removes a value by name.
+     *
+     * @param key  the variable name
+     * @return the previous value
+     */
+    @Override
+    public Object remove(Object key) {
+        int slot = slot(key);
+        if (slot < 0) return super.remove(key);
+
+        Object previous = getSlot(slot);
+        if (previous != null) values[slot] = null;
+        return previous;
+    }
+
+
+
+    /**
+     * Removes a value by name, if it is set to the given value.
+     *
+     * @param key    the variable name
+     * @param value  the expected value
+     * @return true if the value was removed
+     */
+    @Override
+    public boolean remove(Object key, Object value) {
+        int slot = slot(key);
+        if (slot < 0) return super.remove(key, value);
+
+        Object previous = getSlot(slot);
+        if (previous == null || !previous.equals(value)) return false;
+        values[slot] = null;
+        return true;
+    }
+
+
+
+    /**
+     * Computes a value by name.
+     * <p>If the function returns null, the value is removed.
+     *
+     * @param key       the variable name
+     * @param function  the function computing the new value from the current value (null if not set)
+     * @return the new value
+     */
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> function) {
+        int slot = symbols.indexOf(key);
+        if (slot < 0) return super.compute(key, function);
+
+        Object value = function.apply(key, getSlot(slot));
+        setSlot(slot, value);
+        return value;
+    }
+
+
+
+    /**
+     * Computes a value by name, if no value is set.
+     *
+     * @param key       the variable name
+     * @param function  the function computing the value
+     * @return the current value, or the computed value if no value was set
+     */
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ? extends Object> function) {
+        int slot = symbols.indexOf(key);
+        if (slot < 0) return super.computeIfAbsent(key, function);
+
+        Object value = getSlot(slot);
+        if (value == null) {
+            value = function.apply(key);
+            if (value != null) setSlot(slot, value);
+        }
+        return value;
+    }
+
+
+
+    /**
+     * Computes a value by name, if a value is set.
+     * <p>If the function returns null, the value is removed.
+     *
+     * @param key       the variable name
+     * @param function  the function computing the new value from the current value
+     * @return the new value, or null if no value was set
+     */
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> function) {
+        int slot = symbols.indexOf(key);
+        if (slot < 0) return super.computeIfPresent(key, function);
+
+        Object value = getSlot(slot);
+        if (value != null) {
+            value = function.apply(key, value);
+            setSlot(slot, value);
+        }
+        return value;
+    }
+
+
+
+    /**
+     * Merges a value with the value set by name.
+     * <p>If the function returns null, the value is removed.
+     *
+     * @param key       the variable name
+     * @param value     the value to set if no value is set, or to merge with the current value
+     * @param function  the function merging the current value with the given value
+     * @return the new value
+     */
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> function) {
+        int slot = symbols.indexOf(key);
+        if (slot < 0) return super.merge(key, value, function);
+
+        Object previous = getSlot(slot);
+        Object merged = (previous != null) ? function.apply(previous, value) : value;
+        setSlot(slot, merged);
+        return merged;
+    }
+
+
+
+    /**
+     * Returns the number of values in this context, including slots holding a (non-null) value.
+     *
+     * @return the number of values
+     */
+    @Override
+    public int size() {
+        int size = super.size();
+        for (Object value : values) if (value != null) ++size;
+        return size;
+    }
+
+
+
+    /**
+     * Determines whether this context holds no values.
+     *
+     * @return true if no slot holds a value and the map is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+
+
+    /**
+     * Determines whether a value is held by a slot or in the map.
+     *
+     * @param value  the value
+     * @return true if a slot or the map holds the value
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        for (Object v : values) if (v != null && v.equals(value)) return true;
+        return super.containsValue(value);
+    }
+
+
+
+    /**
+     * Returns a view of the values in this context, including slots holding a (non-null) value.
+     *
+     * @return the entries (slots first, then the entries of the map)
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Entries();
+            }
+
+            @Override
+            public int size() {
+                return IndexedContext.this.size();
+            }
+        };
+    }
+
+
+
+    /**
+     * Returns a view of the names of the values in this context, including slots holding a (non-null) value.
+     *
+     * @return the names
+     */
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Entries entries = new Entries();
+                return new Iterator<String>() {
+                    @Override public boolean hasNext() { return entries.hasNext(); }
+                    @Override public String next() { return entries.next().getKey(); }
+                    @Override public void remove() { entries.remove(); }
+                };
+            }
+
+            @Override
+            public int size() {
+                return IndexedContext.this.size();
+            }
+        };
+    }
+
+
+
+    /**
+     * Returns a view of the values in this context, including slots holding a (non-null) value.
+     *
+     * @return the values
+     */
+    @Override
+    public Collection<Object> values() {
+        return new AbstractCollection<Object>() {
+            @Override
+            public Iterator<Object> iterator() {
+                Entries entries = new Entries();
+                return new Iterator<Object>() {
+                    @Override public boolean hasNext() { return entries.hasNext(); }
+                    @Override public Object next() { return entries.next().getValue(); }
+                    @Override public void remove() { entries.remove(); }
+                };
+            }
+
+            @Override
+            public int size() {
+                return IndexedContext.this.size();
+            }
+        };
+    }
+
+
+
+    /**
+     * Performs an action for each value in this context, including slots holding a (non-null) value.
+     *
+     * @param action  the action performed for each name and value (slots first, then the entries of the map)
+     */
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        Object[] v = values;
+        for (int slot = 0; slot < v.length; ++slot) {
+            if (v[slot] != null) action.accept(symbols.getName(slot), v[slot]);
+        }
+        super.forEach(action);
+    }
+
+
+
+    /**
+     * Replaces each value in this context, including slots holding a (non-null) value, with the result of a function.
+     *
+     * @param function  the function computing the new value from each name and current value
+     */
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function) {
+        Object[] v = values;
+        for (int slot = 0; slot < v.length; ++slot) {
+            if (v[slot] != null) v[slot] = function.apply(symbols.getName(slot), v[slot]);
+        }
+        super.replaceAll(function);
+    }
+
+
+
+    /**
+     * Iterates over the slots holding a (non-null) value, followed by the entries of the map.
+     */
+    private final class Entries implements Iterator<Map.Entry<String, Object>> {
+
+        /** The entries of the map */
+
+        private final Iterator<Map.Entry<String, Object>> map = IndexedContext.super.entrySet().iterator();
+
+
+        /** The next slot to check for a value */
+
+        private int next = 0;
+
+
+        /** The slot of the entry last returned (-1 if it was an entry of the map) */
+
+        private int last = -1;
+
+
+        @Override
+        public boolean hasNext() {
+            while (next < values.length && values[next] == null) ++next;
+            return next < values.length || map.hasNext();
+        }
+
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (next >= values.length) {
+                last = -1;
+                return map.next();
+            }
+
+            int slot = last = next++;
+            return new AbstractMap.SimpleEntry<String, Object>(symbols.getName(slot), values[slot]) {
+                @Override
+                public Object setValue(Object value) {
+                    setSlot(slot, value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                map.remove();
+            }
+            else {
+                values[last] = null;
+                last = -1;
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the slot of a variable name.
+     *
+     * @param key  the variable name
+     * @return the slot, or -1 if the name is not defined in the symbol table
+     */
+    private int slot(Object key) {
+        return (key instanceof String) ? symbols.indexOf((String) key) : -1;
+    }
+
+
+
+    /**
+     * Returns a copy of this context, holding its own copy of the slot values.
+     *
+     * @return the copy
+     */
+    @Override
+    public IndexedContext clone() {
+        IndexedContext copy = (IndexedContext) super.clone();
+        copy.values = values.clone();
+        return copy;
+    }
+
+
+
+    /**
+     * Removes all values from this context, including slot values.
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        super.clear();
+    }
+}
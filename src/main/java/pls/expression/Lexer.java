@@ -0,0 +1,327 @@
+package pls.expression;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import pls.expression.Parser.TokenType;
+
+
+
+/**
+ * The expression lexer.
+ * <p>This splits an expression string into tokens in a single pass over its characters. Each token is
+ * recorded as a type and the start and end positions of its text within the expression - the token
+ * text itself is only extracted (as a string) when the parser asks for it. Tokens are:
+ * <ul>
+ * <li>Quoted strings. A backslash escapes the following character, allowing a string to contain quotes.</li>
+ * <li>The punctuation characters <code>( ) [ ] ,</code></li>
+ * <li>The operator symbols <code>== != =~ &gt;= &lt;= &gt; &lt; + - * / ^ ! @ # $ % &amp;</code> (these never
+ * need to be separated from the surrounding text by spaces).</li>
+ * <li>A '.' between two names (a member operator, e.g. <code>thing.member</code>).</li>
+ * <li>Words - any other run of characters, up to the next space, operator symbol, punctuation, or quote.
+ * Words are names, numbers, true/false/null, or operators that are named with letters (e.g. 'and').</li>
+ * </ul>
+ * The token buffers are reused for each expression tokenized by a lexer instance, so a lexer is not
+ * thread safe - the {@link Parser} uses a lexer per thread.
+ *
+ * @author Peter Smith
+ */
+final class Lexer {
+
+    /** Initial size of the token buffers */
+
+    private static final int INITIAL_SIZE = 32;
+
+
+    /** The type of each token */
+
+    private TokenType[] types = new TokenType[INITIAL_SIZE];
+
+
+    /** The start position of each token */
+
+    private int[] starts = new int[INITIAL_SIZE];
+
+
+    /** The end position (exclusive) of each token */
+
+    private int[] ends = new int[INITIAL_SIZE];
+
+
+    /** The number of tokens */
+
+    private int count;
+
+
+    /** The index of the next token to be read */
+
+    private int next;
+
+
+    /** The expression being tokenized */
+
+    private String source;
+
+
+    /** True while the lexer is being used to parse an expression */
+
+    private boolean busy;
+
+
+
+    /**
+     * Splits an expression into tokens.
+     *
+     * @param source     the expression
+     * @param operators  a test used to determine whether a word or symbol is a registered operator
+     * @throws ExpressionError if the expression contains an unterminated string
+     */
+    void tokenize(String source, Predicate<String> operators) throws ExpressionError {
+        this.source = source;
+        this.count = 0;
+        this.next = 0;
+
+        int length = source.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = source.charAt(i);
+
+            if (isSpace(c)) {
+                ++i;
+            }
+            else if (c == '"') {
+                int start = i++;
+                while (i < length && source.charAt(i) != '"') {
+                    i += (source.charAt(i) == '\\' && i + 1 < length) ? 2 : 1;
+                }
+                if (i >= length) throw new ExpressionError("Unterminated string constant at position " + start);
+                add(TokenType.STRING, start, ++i);
+            }
+            else if (isPunctuation(c)) {
+                add(punctuationType(c), i, ++i);
+            }
+            else if (symbolLength(i) > 0) {
+                int end = i + symbolLength(i);
+                add(classify(i, end, operators), i, end);
+                i = end;
+            }
+            else if (c == '.' && isMember(i)) {
+                add(classify(i, i + 1, operators), i, ++i);
+            }
+            else { /* A word continues until a space, quote, punctuation, symbol, or member operator */
+                int start = i++;
+                while (i < length) {
+                    c = source.charAt(i);
+                    if (isSpace(c) || c == '"' || isPunctuation(c) || symbolLength(i) > 0 || (c == '.' && isMember(i))) break;
+                    ++i;
+                }
+                add(classify(start, i, operators), start, i);
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the type of the next token, without consuming it.
+     *
+     * @return the token type, or {@link TokenType#EOS} if there are no more tokens
+     */
+    TokenType peek() {
+        return next < count ? types[next] : TokenType.EOS;
+    }
+
+
+
+    /**
+     * Consumes the next token.
+     *
+     * @return the token type, or {@link TokenType#EOS} if there are no more tokens
+     */
+    TokenType next() {
+        return next < count ? types[next++] : TokenType.EOS;
+    }
+
+
+
+    /**
+     * Returns the text of the most recently consumed token.
+     *
+     * @return the token text, or null if no token has been consumed or the end of the stream has been reached
+     */
+    String text() {
+        if (next == 0 || next > count) return null;
+
+        switch (types[next - 1]) {
+            case BEGINPAREN: return "(";
+            case ENDPAREN: return ")";
+            case BEGINLIST: return "[";
+            case ENDLIST: return "]";
+            case COMMA: return ",";
+            default: return source.substring(starts[next - 1], ends[next - 1]);
+        }
+    }
+
+
+
+    /**
+     * Marks this lexer as in use.
+     *
+     * @return false if the lexer is already in use (i.e. parsing is re-entrant on this thread)
+     */
+    boolean acquire() {
+        if (busy) return false;
+        busy = true;
+        return true;
+    }
+
+
+
+    /**
+     * Marks this lexer as no longer in use, releasing the expression string.
+     */
+    void release() {
+        busy = false;
+        source = null;
+    }
+
+
+
+    /**
+     * Adds a token.
+     *
+     * @param type   the token type
+     * @param start  the start position of the token
+     * @param end    the end position of the token
+     */
+    private void add(TokenType type, int start, int end) {
+        if (count == types.length) {
+            types = Arrays.copyOf(types, count * 2);
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        types[count] = type;
+        starts[count] = start;
+        ends[count] = end;
+        ++count;
+    }
+
+
+
+    /**
+     * Identifies the type of a word or operator symbol.
+     *
+     * @param start      the start position of the token
+     * @param end        the end position of the token
+     * @param operators  a test used to determine whether the token is a registered operator
+     * @return the token type
+     */
+    private TokenType classify(int start, int end, Predicate<String> operators) {
+        String token = source.substring(start, end);
+
+        if (token.equalsIgnoreCase("null"))
+            return TokenType.NULL;
+        else if (operators.test(token))
+            return TokenType.OPERATOR;
+        else if (token.equalsIgnoreCase("true") || token.equalsIgnoreCase("false"))
+            return TokenType.BOOL;
+
+        /* Numbers are digits with an optional fractional part */
+
+        int i = start;
+        while (i < end && isDigit(source.charAt(i))) ++i;
+        if (i == start) return TokenType.TOKEN;
+        if (i == end) return TokenType.INTEGER;
+        if (source.charAt(i) != '.' || ++i == end) return TokenType.TOKEN;
+
+        while (i < end && isDigit(source.charAt(i))) ++i;
+        return (i == end) ? TokenType.FLOAT : TokenType.TOKEN;
+    }
+
+
+
+    /**
+     * Returns the length of the operator symbol at a position in the expression.
+     *
+     * @param i  the position
+     * @return the length of the symbol (1 or 2), or 0 if there is no symbol at the position
+     */
+    private int symbolLength(int i) {
+        char c = source.charAt(i);
+        char n = (i + 1 < source.length()) ? source.charAt(i + 1) : 0;
+
+        switch (c) {
+            case '=':
+                return (n == '=' || n == '~') ? 2 : 0; /* A single '=' is not an operator */
+            case '!': case '<': case '>':
+                return (n == '=') ? 2 : 1;
+            case '+': case '-': case '*': case '/': case '^': case '@': case '#': case '$': case '%': case '&':
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+
+
+    /**
+     * Determines whether a '.' is a member operator.
+     * <p>A '.' is a member operator if it follows a name (or number) and precedes a name, ignoring any spaces,
+     * e.g. <code>thing.member</code> or <code>thing . member</code>. A '.' followed by a digit is part of a number.
+     *
+     * @param i  the position of the '.'
+     * @return true if the '.' is a member operator
+     */
+    private boolean isMember(int i) {
+        int before = i - 1;
+        while (before >= 0 && isSpace(source.charAt(before))) --before;
+
+        int after = i + 1;
+        while (after < source.length() && isSpace(source.charAt(after))) ++after;
+
+        return before >= 0 && isName(source.charAt(before))
+            && after < source.length() && isName(source.charAt(after)) && !isDigit(source.charAt(after));
+    }
+
+
+
+    /**
+     * Returns the type of a punctuation character.
+     *
+     * @param c  the punctuation character
+     * @return the token type
+     */
+    private static TokenType punctuationType(char c) {
+        switch (c) {
+            case '(': return TokenType.BEGINPAREN;
+            case ')': return TokenType.ENDPAREN;
+            case '[': return TokenType.BEGINLIST;
+            case ']': return TokenType.ENDLIST;
+            default: return TokenType.COMMA;
+        }
+    }
+
+
+
+    /* Character classes */
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0b;
+    }
+
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+
+    private static boolean isName(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
+    }
+
+
+    private static boolean isPunctuation(char c) {
+        return c == '(' || c == ')' || c == '[' || c == ']' || c == ',';
+    }
+}
@@ -8,6 +8,8 @@ import java.util.Arrays;
  * <pre>
  *   [ 'hello', 3 + 2 * 4, 3.14159 ]
  * </pre>
+ * A list whose values are all constants (or lists of constants) is evaluated once, when it is created,
+ * and the same array is returned by every evaluation.
  */
 class List implements Expression {
 
@@ -16,6 +18,11 @@ class List implements Expression {
     private Expression[] values;
 
 
+    /** The evaluated list, if all the values are constants (otherwise null) */
+
+    private Object[] constants;
+
+
 
     /**
      * Creates a new list expression instance with the given values.
@@ -24,6 +31,29 @@ class List implements Expression {
      */
     public List(final Expression[] values) {
         this.values = values;
+        this.constants = constantValues(values);
+    }
+
+
+
+    /**
+     * Returns the list value expressions.
+     *
+     * @return the (unevaluated) list value expressions
+     */
+    Expression[] getValues() {
+        return values;
+    }
+
+
+
+    /**
+     * Returns the evaluated list, if all the list values are constants.
+     *
+     * @return the list values (which must not be modified), or null if any value is not a constant
+     */
+    Object[] getConstants() {
+        return constants;
     }
 
 
@@ -31,12 +61,15 @@ class List implements Expression {
     /**
      * Evaluates this list.
      * <p>This will evaluate each value in the list in turn, returning all the resulting
-     * values as an object array.
+     * values as an object array. If all the values are constants, the array evaluated when the
+     * list was created is returned - the returned array must therefore not be modified.
      *
      * @param context  the context in which the expression is being evaluated
      * @return         the evaluated list
      */
     public Object eval(final ExpressionContext context) throws ExpressionError {
+        if (constants != null) return constants;
+
         Object[] list = new Object[values.length];
         for (int i = 0; i < values.length; ++i) list[i] = values[i].eval(context);
         return list;
@@ -44,6 +77,32 @@ class List implements Expression {
 
 
 
+    /**
+     * Evaluates a list of constant values.
+     *
+     * @param values  the list value expressions
+     * @return the evaluated values, or null if any value is not a constant (or a list of constants)
+     */
+    private static Object[] constantValues(Expression[] values) {
+        if (values == null) return null;
+
+        Object[] list = new Object[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            Expression value = values[i];
+            while (value instanceof Parenthesis) value = ((Parenthesis) value).getExpression();
+
+            if (value instanceof Constant)
+                list[i] = ((Constant) value).getValue();
+            else if (value instanceof List && ((List) value).constants != null)
+                list[i] = ((List) value).constants;
+            else
+                return null;
+        }
+        return list;
+    }
+
+
+
     /**
      * Serializes this expression to a string.
      *
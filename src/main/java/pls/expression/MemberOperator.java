@@ -0,0 +1,320 @@
+package pls.expression;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+
+/**
+ * The '.' (member) operator.
+ * <p>The member name (the right hand operand, which is never evaluated) is converted to a map key when the
+ * operator is created, rather than each time it is evaluated. A chain of member operators, such as
+ * <code>order.customer.address.country</code>, is evaluated as a single path - the operator at the top of the
+ * chain evaluates the object at the start of the chain (<code>order</code>) and looks up each key in turn, without
+ * evaluating the operators below it. The operators below it remain in the tree (see {@link #getLeft}), so the
+ * expression can still be inspected, rewritten, and written in the same way as any other binary operator.
+ * <p>Members of other objects are read using a public accessor method or field, found by the member name -
+ * <code>getName()</code> (or <code>isName()</code> for a boolean), <code>name()</code>, or a field <code>name</code>,
+ * in that order. A <code>name()</code> method is only used if the class declares a field of the same name and type
+ * (e.g. a record component), so methods with side effects (such as <code>poll()</code>) are never called. Methods
+ * declared by <code>Object</code> are never used. Accessors
+ * are found once for each class, and held as method handles. Each member operator remembers the class and
+ * accessor used for each key in its path, so a path evaluated with objects of the same class calls the accessors
+ * directly.
+ * <p>The result (and any error) is exactly the same as that of evaluating each member operator in turn.
+ *
+ * @author Peter Smith
+ * @see Operators#registerDefaultOperators()
+ */
+class MemberOperator extends BinaryOperator {
+
+    /**
+     * Reads a member of the objects of a class.
+     */
+    private static final class Accessor {
+
+        /** The class */
+
+        final Class<?> type;
+
+
+        /** The accessor, of type (Object)Object (null if the class has no such member) */
+
+        final MethodHandle handle;
+
+
+        Accessor(Class<?> type, MethodHandle handle) {
+            this.type = type;
+            this.handle = handle;
+        }
+
+
+
+        /**
+         * Reads a member of an object.
+         *
+         * @param obj  the object (of this accessor's class)
+         * @param key  the member name
+         * @return the value of the member
+         * @throws ExpressionError if the class has no such member, or the accessor failed
+         */
+        Object get(Object obj, String key) throws ExpressionError {
+            if (handle == null) throw ExpressionError.lazy("Unknown member '%s' for %s", key, type.getSimpleName());
+            try {
+                return (Object) handle.invokeExact(obj);
+            }
+            catch (Error x) {
+                throw x;
+            }
+            catch (Throwable x) {
+                throw ExpressionError.lazy("Failed to read member '%s' of %s: %s", key, type.getSimpleName(), x);
+            }
+        }
+    }
+
+
+
+    /** The error raised for a member of a null object */
+
+    private static final ExpressionError NULL_OBJECT = ExpressionError.lazy("Expected map or object for left value in member operator - found null");
+
+
+
+    /** The accessors found for each class, by member name */
+
+    private static final ClassValue<Map<String, Accessor>> accessors = new ClassValue<Map<String, Accessor>>() {
+        @Override
+        protected Map<String, Accessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<String, Accessor>();
+        }
+    };
+
+
+
+    /** The expression evaluated to the object at the start of the path */
+
+    private Expression root;
+
+
+    /** The keys looked up along the path, in order */
+
+    private String[] keys;
+
+
+    /** The accessor last used for each key (accessors are immutable, so may be replaced by any thread) */
+
+    private Accessor[] cache;
+
+
+
+    /**
+     * Creates a member operator.
+     *
+     * @param name   the name of the operator
+     * @param left   the expression used to generate the map
+     * @param right  the member name
+     */
+    MemberOperator(String name, Expression left, Expression right) {
+        super(name, left, right, Operators.MEMBER);
+
+        String key = right == null ? null : right.toString();
+        if (left instanceof MemberOperator) {
+            MemberOperator path = (MemberOperator) left;
+            this.root = path.root;
+            this.keys = Arrays.copyOf(path.keys, path.keys.length + 1);
+            this.keys[path.keys.length] = key;
+        }
+        else {
+            this.root = left;
+            this.keys = new String[] { key };
+        }
+        this.cache = new Accessor[keys.length];
+    }
+
+
+
+    /**
+     * Returns the keys looked up along the path.
+     *
+     * @return the keys, in order
+     */
+    String[] getKeys() {
+        return keys.clone();
+    }
+
+
+
+    @Override
+    public Object eval(ExpressionContext context) throws ExpressionError {
+        if (root == null) throw Operators.NULL_MEMBER;
+
+        Object obj = root.eval(context);
+        for (int i = 0; i < keys.length; ++i) {
+            if (obj instanceof Map) {
+                obj = member(obj, keys[i]);
+            }
+            else {
+                Accessor accessor = cache[i];
+                if (accessor == null || obj == null || accessor.type != obj.getClass()) {
+                    if (obj == null) throw NULL_OBJECT;
+                    cache[i] = accessor = accessor(obj.getClass(), keys[i]);
+                }
+                obj = accessor.get(obj, keys[i]);
+            }
+        }
+        return obj;
+    }
+
+
+
+    /**
+     * Retrieves a member of an object.
+     * <p>Hash maps (including expression contexts) are the most common objects, and are accessed through
+     * their class rather than the Map interface, which allows the access to be inlined.
+     *
+     * @param obj  the object (map)
+     * @param key  the member name
+     * @return the value of the member (null if the map holds no value for the member)
+     * @throws ExpressionError if the object is null, or has no such member
+     */
+    @SuppressWarnings("rawtypes")
+    static Object member(Object obj, String key) throws ExpressionError {
+        if (obj instanceof HashMap) return ((HashMap) obj).get(key);
+        if (obj instanceof Map) return ((Map) obj).get(key);
+
+        if (obj == null) throw NULL_OBJECT;
+        return accessor(obj.getClass(), key).get(obj, key);
+    }
+
+
+
+    /**
+     * Returns the accessor for a member of the objects of a class.
+     *
+     * @param type  the class
+     * @param key   the member name
+     * @return the accessor (with a null handle if the class has no such member)
+     */
+    private static Accessor accessor(Class<?> type, String key) {
+        if (key == null || key.isEmpty()) return new Accessor(type, null);
+
+        Map<String, Accessor> members = accessors.get(type);
+        Accessor accessor = members.get(key);
+        if (accessor == null) {
+            accessor = new Accessor(type, find(type, key));
+            members.put(key, accessor);
+        }
+        return accessor;
+    }
+
+
+
+    /**
+     * Finds the accessor for a member of the objects of a class.
+     *
+     * @param type  the class
+     * @param key   the member name
+     * @return the accessor method handle, of type (Object)Object, or null if the class has no such member
+     */
+    private static MethodHandle find(Class<?> type, String key) {
+        String suffix = Character.toUpperCase(key.charAt(0)) + key.substring(1);
+        MethodHandle handle = null;
+
+        String[] names = new String[] { "get" + suffix, "is" + suffix, key };
+        for (int i = 0; i < names.length; ++i) {
+            try {
+                Method method = type.getMethod(names[i]);
+                if (method.getDeclaringClass() == Object.class || Modifier.isStatic(method.getModifiers())) continue;
+                if (method.getReturnType() == void.class) continue;
+
+                /* Only booleans are read using an 'is' method, and only fields using a method named after them */
+
+                if (i == 1 && method.getReturnType() != boolean.class && method.getReturnType() != Boolean.class) continue;
+                if (i == 2 && !isComponent(type, key, method.getReturnType())) continue;
+
+                handle = unreflect(method);
+                if (handle != null) break;
+            }
+            catch (NoSuchMethodException x) {
+                /* Try the next form */
+            }
+        }
+
+        if (handle == null) {
+            try {
+                Field field = type.getField(key);
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    try {
+                        handle = MethodHandles.publicLookup().unreflectGetter(field);
+                    }
+                    catch (IllegalAccessException x) {
+                        /* A public field of a class that is not public */
+                        field.setAccessible(true);
+                        handle = MethodHandles.lookup().unreflectGetter(field);
+                    }
+                }
+            }
+            catch (NoSuchFieldException | IllegalAccessException | RuntimeException x) {
+                /* No accessible field */
+            }
+        }
+        return handle == null ? null : handle.asType(MethodType.methodType(Object.class, Object.class));
+    }
+
+
+
+    /**
+     * Checks whether a class (or one of its superclasses) declares an instance field, such as a record component,
+     * that is read by a method of the same name.
+     *
+     * @param type       the class
+     * @param key        the member name
+     * @param valueType  the return type of the method
+     * @return true if the class declares a field of the given name and type
+     */
+    private static boolean isComponent(Class<?> type, String key, Class<?> valueType) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(key);
+                return !Modifier.isStatic(field.getModifiers()) && field.getType() == valueType;
+            }
+            catch (NoSuchFieldException x) {
+                /* Try the superclass */
+            }
+        }
+        return false;
+    }
+
+
+
+    /**
+     * Converts a public accessor method to a method handle.
+     * <p>A public method of a class that is not public (e.g. a record declared within another class) cannot be
+     * called through its class without suppressing access checks.
+     *
+     * @param method  the method
+     * @return the method handle, or null if the method is not accessible
+     */
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        }
+        catch (IllegalAccessException x) {
+            try {
+                method.setAccessible(true);
+                return MethodHandles.lookup().unreflect(method);
+            }
+            catch (IllegalAccessException | RuntimeException y) {
+                return null; /* e.g. a class in a module that is not open */
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package pls.expression;
 
-import java.util.Map;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
 import java.util.Objects;
 
 
@@ -12,6 +14,99 @@ import java.util.Objects;
  */
 public class Operators {
 
+    /* Operations used by the default operators (identified by batch evaluation and rule indexing) */
+
+    /** The 'and' operation */
+
+    static final BinaryOperator.BinaryOperation AND = (c, l, r) -> (l.evalBoolean(c) && r.evalBoolean(c));
+
+
+    /** The 'or' operation */
+
+    static final BinaryOperator.BinaryOperation OR = (c, l, r) -> (l.evalBoolean(c) || r.evalBoolean(c));
+
+
+    /** The '!' operation */
+
+    static final UnaryOperator.UnaryOperation NOT = (c, e) -> !e.evalBoolean(c);
+
+
+    /** The unary '-' operation */
+
+    static final UnaryOperator.UnaryOperation NEG = (c, e) -> Operators.neg(e.eval(c));
+
+
+    /** The '==' operation */
+
+    static final RelationalOperator.RelationalOperation EQUALS = (v1, v2) -> Objects.equals(v1, v2);
+
+
+    /** The '!=' operation */
+
+    static final RelationalOperator.RelationalOperation NOT_EQUALS = (v1, v2) -> !Objects.equals(v1, v2);
+
+
+    /** The '.' (member) operation */
+
+    static final BinaryOperator.BinaryOperation MEMBER = (c, l, r) -> Operators.member(c, l, r);
+
+
+    /* Errors raised during evaluation (see ExpressionError#lazy) */
+
+    private static final ExpressionError NEGATE_NULL = ExpressionError.lazy("Arithmetic error - negation of null value");
+    private static final ExpressionError NEGATE_INVALID = ExpressionError.lazy("Attempt to negate a non-numeric value");
+    private static final ExpressionError NULL_LIST = ExpressionError.lazy("Null list passed to 'in' operator");
+    private static final ExpressionError INVALID_LIST = ExpressionError.lazy("Invalid list type passed to 'in' operator");
+    static final ExpressionError NULL_MEMBER = ExpressionError.lazy("Null value passed to member operator");
+
+
+    /** The '<' comparison, for integer and floating point values */
+
+    static final ArithmeticOperator.IntComparison LESS_INT = (l, r) -> l < r;
+    static final ArithmeticOperator.DoubleComparison LESS_DOUBLE = (l, r) -> l < r;
+
+
+    /** The '<=' comparison, for integer and floating point values */
+
+    static final ArithmeticOperator.IntComparison LESS_EQUAL_INT = (l, r) -> l <= r;
+    static final ArithmeticOperator.DoubleComparison LESS_EQUAL_DOUBLE = (l, r) -> l <= r;
+
+
+    /** The '>' comparison, for integer and floating point values */
+
+    static final ArithmeticOperator.IntComparison GREATER_INT = (l, r) -> l > r;
+    static final ArithmeticOperator.DoubleComparison GREATER_DOUBLE = (l, r) -> l > r;
+
+
+    /** The '>=' comparison, for integer and floating point values */
+
+    static final ArithmeticOperator.IntComparison GREATER_EQUAL_INT = (l, r) -> l >= r;
+    static final ArithmeticOperator.DoubleComparison GREATER_EQUAL_DOUBLE = (l, r) -> l >= r;
+
+
+    /** The '+' operation, for integer and floating point values */
+
+    static final ArithmeticOperator.IntOperation ADD_INT = (l, r) -> l + r;
+    static final ArithmeticOperator.DoubleOperation ADD_DOUBLE = (l, r) -> l + r;
+
+
+    /** The '-' operation, for integer and floating point values */
+
+    static final ArithmeticOperator.IntOperation SUBTRACT_INT = (l, r) -> l - r;
+    static final ArithmeticOperator.DoubleOperation SUBTRACT_DOUBLE = (l, r) -> l - r;
+
+
+    /** The '*' operation, for integer and floating point values */
+
+    static final ArithmeticOperator.IntOperation MULTIPLY_INT = (l, r) -> l * r;
+    static final ArithmeticOperator.DoubleOperation MULTIPLY_DOUBLE = (l, r) -> l * r;
+
+
+    /** The '/' operation, for integer and floating point values */
+
+    static final ArithmeticOperator.IntOperation DIVIDE_INT = (l, r) -> l / r;
+    static final ArithmeticOperator.DoubleOperation DIVIDE_DOUBLE = (l, r) -> l / r;
+
 
     /**
      * Registers default operators.
@@ -19,30 +114,42 @@ public class Operators {
      * all expressions.
      */
     public static void registerDefaultOperators() {
-        Parser.registerOperator(Operators.createRelational("==", (v1, v2) -> Objects.equals(v1, v2)), 8);
-        Parser.registerOperator(Operators.createRelational("!=", (v1, v2) -> !Objects.equals(v1, v2)), 8);
+        Parser.updateDefaultRegistry(Operators::registerDefaultOperators);
+    }
+
+
+
+    /**
+     * Adds the default operators to a registry builder.
+     *
+     * @param builder  the registry builder
+     * @see #registerDefaultOperators()
+     */
+    public static void registerDefaultOperators(Registry.Builder builder) {
+        builder.operator(Operators.createRelational("==", EQUALS), 8);
+        builder.operator(Operators.createRelational("!=", NOT_EQUALS), 8);
 
         /* Technically, these are relational operators, but we treat them as arithmetic (since they only work on numbers) */
 
-        Parser.registerOperator(Operators.createArithmetic(">", (l, r) -> l > r, (l, r) -> l > r), 9);
-        Parser.registerOperator(Operators.createArithmetic(">=", (l, r) -> l >= r, (l, r) -> l >= r), 9);
-        Parser.registerOperator(Operators.createArithmetic("<", (l, r) -> l < r, (l, r) -> l < r), 9);
-        Parser.registerOperator(Operators.createArithmetic("<=", (l, r) -> l <= r, (l, r) -> l <= r), 9);
+        builder.operator(Operators.createComparison(">", GREATER_INT, (l, r) -> l > r, GREATER_DOUBLE, (l, r) -> l.compareTo(r) > 0), 9);
+        builder.operator(Operators.createComparison(">=", GREATER_EQUAL_INT, (l, r) -> l >= r, GREATER_EQUAL_DOUBLE, (l, r) -> l.compareTo(r) >= 0), 9);
+        builder.operator(Operators.createComparison("<", LESS_INT, (l, r) -> l < r, LESS_DOUBLE, (l, r) -> l.compareTo(r) < 0), 9);
+        builder.operator(Operators.createComparison("<=", LESS_EQUAL_INT, (l, r) -> l <= r, LESS_EQUAL_DOUBLE, (l, r) -> l.compareTo(r) <= 0), 9);
 
-        Parser.registerOperator(Operators.createBinary("and", (c, l, r) -> (Operators.toBoolean(l.eval(c)) && Operators.toBoolean(r.eval(c)))), 4);
-        Parser.registerOperator(Operators.createBinary("or", (c, l, r) -> (Operators.toBoolean(l.eval(c)) || Operators.toBoolean(r.eval(c)))), 3);
+        builder.operator(Operators.createBinary("and", AND).setPure(true), 4);
+        builder.operator(Operators.createBinary("or", OR).setPure(true), 3);
 
-        Parser.registerOperator(Operators.createArithmetic("+", (l, r) -> l + r, (l, r) -> l + r), 11);
-        Parser.registerOperator(Operators.createArithmetic("-", (l, r) -> l - r, (l, r) -> l - r), 11);
-        Parser.registerOperator(Operators.createArithmetic("*", (l, r) -> l * r, (l, r) -> l * r), 12);
-        Parser.registerOperator(Operators.createArithmetic("/", (l, r) -> l / r, (l, r) -> l / r), 12);
-        Parser.registerOperator(Operators.createArithmetic("^", (l, r) -> (int) Math.pow(l, r), (l, r) -> Math.pow(l, r)), 13);
+        builder.operator(Operators.createNumeric("+", ADD_INT, Math::addExact, ADD_DOUBLE, BigDecimal::add), 11);
+        builder.operator(Operators.createNumeric("-", SUBTRACT_INT, Math::subtractExact, SUBTRACT_DOUBLE, BigDecimal::subtract), 11);
+        builder.operator(Operators.createNumeric("*", MULTIPLY_INT, Math::multiplyExact, MULTIPLY_DOUBLE, BigDecimal::multiply), 12);
+        builder.operator(Operators.createNumeric("/", DIVIDE_INT, (l, r) -> l / r, DIVIDE_DOUBLE, (l, r) -> l.divide(r, MathContext.DECIMAL128)), 12);
+        builder.operator(Operators.createNumeric("^", (l, r) -> (int) Math.pow(l, r), Operators::pow, (l, r) -> Math.pow(l, r), Operators::pow), 13);
 
-        Parser.registerOperator(Operators.createUnary("!", (c, e) -> !Operators.toBoolean(e.eval(c))));
-        Parser.registerOperator(Operators.createUnary("-", (c, e) -> Operators.neg(e.eval(c))));
+        builder.operator(Operators.createUnary("!", NOT).setPure(true));
+        builder.operator(Operators.createUnary("-", NEG).setPure(true));
 
-        Parser.registerOperator(Operators.createBinary("in", (c, l, r) -> Operators.in(l.eval(c), r.eval(c))), 9);
-        Parser.registerOperator(Operators.createBinary(".", (c, l, r) -> Operators.member(c, l, r)), 14);
+        builder.operator(Operators.createIn("in"), 9);
+        builder.operator(Operators.createMember("."), 14);
     }
 
 
@@ -86,6 +193,8 @@ public class Operators {
      * Creates an operator factory instance suitable for registering with the Parser.
      * <p>An operator factory is used to create expression instances for a given operator
      * and set of operands.
+     * Arithmetic operations only act upon their operand values, so the factory is marked as
+     * pure (see {@link Factory#isPure}).
      * e.g.
      * <pre>{@code 
      *   Factory f = Operators.createArithmetic("+", (l, r) -> l + r, (l, r) -> l + r);
@@ -102,13 +211,121 @@ public class Operators {
             public Expression create(Expression ...input) throws ExpressionError {
                 return new ArithmeticOperator(name, input[0], input[1], iOp, fOp);
             }
-        };
+        }.setPure(true);
+    }
+
+
+
+    /**
+     * Creates an operator factory for arithmetic operators implemented with primitive operations.
+     * <p>This is equivalent to {@link #createArithmetic createArithmetic}, except that the operations
+     * return primitive values. This allows expressions using the operator to be evaluated without
+     * boxing intermediate results (see {@link Expression#evalDouble}).
+     * e.g.
+     * <pre>{@code 
+     *   Factory f = Operators.createNumeric("%", (l, r) -> l % r, (l, r) -> l % r);
+     * }</pre>
+     *
+     * @param name  the name of the operator
+     * @param iOp   the operator function for integer values
+     * @param fOp   the operator function for floating point values
+     * @return      a Factory instance for creating arithmetic expressions for inserting into the expression tree
+     */
+    public static Factory createNumeric(String name, ArithmeticOperator.IntOperation iOp, ArithmeticOperator.DoubleOperation fOp) {
+        return new Factory(name) {
+            @Override
+            public Expression create(Expression ...input) throws ExpressionError {
+                return new ArithmeticOperator(name, input[0], input[1], iOp, fOp);
+            }
+        }.setPure(true);
+    }
+
+
+
+    /**
+     * Creates an operator factory for arithmetic operators on integer, long, floating point and decimal values.
+     * <p>This is equivalent to {@link #createNumeric(String, ArithmeticOperator.IntOperation, ArithmeticOperator.DoubleOperation)
+     * createNumeric}, except that long and decimal ({@link BigDecimal}) operands are not converted to floating point
+     * (see {@link ArithmeticOperator}). Integer and floating point operands are evaluated in exactly the same way.
+     * e.g.
+     * <pre>{@code 
+     *   Factory f = Operators.createNumeric("+", (l, r) -> l + r, (l, r) -> l + r, (l, r) -> l + r, BigDecimal::add);
+     * }</pre>
+     *
+     * @param name  the name of the operator
+     * @param iOp   the operator function for integer values
+     * @param lOp   the operator function for long values
+     * @param fOp   the operator function for floating point values
+     * @param dOp   the operator function for decimal values
+     * @return      a Factory instance for creating arithmetic expressions for inserting into the expression tree
+     */
+    public static Factory createNumeric(String name, ArithmeticOperator.IntOperation iOp, ArithmeticOperator.LongOperation lOp,
+            ArithmeticOperator.DoubleOperation fOp, ArithmeticOperator.DecimalOperation dOp) {
+        return new Factory(name) {
+            @Override
+            public Expression create(Expression ...input) throws ExpressionError {
+                return new ArithmeticOperator(name, input[0], input[1], iOp, lOp, fOp, dOp);
+            }
+        }.setPure(true);
+    }
+
+
+
+    /**
+     * Creates an operator factory for numeric comparison operators implemented with primitive comparisons.
+     * <p>Comparison operators behave as arithmetic operators (both operands must be numeric) but return a
+     * boolean result. Expressions using the operator can be evaluated without boxing intermediate results
+     * (see {@link Expression#evalBoolean}).
+     * e.g.
+     * <pre>{@code 
+     *   Factory f = Operators.createComparison(">", (l, r) -> l > r, (l, r) -> l > r);
+     * }</pre>
+     *
+     * @param name  the name of the operator
+     * @param iOp   the comparison function for integer values
+     * @param fOp   the comparison function for floating point values
+     * @return      a Factory instance for creating comparison expressions for inserting into the expression tree
+     */
+    public static Factory createComparison(String name, ArithmeticOperator.IntComparison iOp, ArithmeticOperator.DoubleComparison fOp) {
+        return new Factory(name) {
+            @Override
+            public Expression create(Expression ...input) throws ExpressionError {
+                return new ArithmeticOperator(name, input[0], input[1], iOp, fOp);
+            }
+        }.setPure(true);
+    }
+
+
+
+    /**
+     * Creates an operator factory for comparison operators on integer, long, floating point and decimal values.
+     * <p>This is equivalent to {@link #createComparison(String, ArithmeticOperator.IntComparison, ArithmeticOperator.DoubleComparison)
+     * createComparison}, except that long and decimal ({@link BigDecimal}) operands are compared exactly, rather than
+     * being converted to floating point.
+     *
+     * @param name  the name of the operator
+     * @param iOp   the comparison function for integer values
+     * @param lOp   the comparison function for long values
+     * @param fOp   the comparison function for floating point values
+     * @param dOp   the comparison function for decimal values
+     * @return      a Factory instance for creating comparison expressions for inserting into the expression tree
+     */
+    public static Factory createComparison(String name, ArithmeticOperator.IntComparison iOp, ArithmeticOperator.LongComparison lOp,
+            ArithmeticOperator.DoubleComparison fOp, ArithmeticOperator.DecimalComparison dOp) {
+        return new Factory(name) {
+            @Override
+            public Expression create(Expression ...input) throws ExpressionError {
+                return new ArithmeticOperator(name, input[0], input[1], iOp, lOp, fOp, dOp);
+            }
+        }.setPure(true);
     }
 
 
 
     /**
      * Creates a lambda function for creating expresssions representing relational operators.
+     * <p>Relational operations only act upon their operand values, so the factory is marked as
+     * pure (see {@link Factory#isPure}).
      *
      * @param name  the name of the operator
      * @param fn    the operator function
@@ -120,7 +337,7 @@ public class Operators {
             public Expression create(Expression ...input) throws ExpressionError {
                 return new RelationalOperator(name, input[0], input[1], fn);
             }
-        };
+        }.setPure(true);
     }
 
 
@@ -143,6 +360,10 @@ public class Operators {
             return ((Integer) value).intValue() != 0;
         else if (value instanceof Double)
             return ((Double) value).doubleValue() != 0;
+        else if (value instanceof Long)
+            return ((Long) value).longValue() != 0;
+        else if (value instanceof BigDecimal)
+            return ((BigDecimal) value).signum() != 0;
         else
             return value.toString().length() != 0;
     }
@@ -189,26 +410,164 @@ public class Operators {
     }
 
 
+    /**
+     * Converts a number (or string representation of a number) to a long integer number.
+     *
+     * @param value  the value to convert
+     * @return       the converted value as a long integer number
+     * @throws ExpressionError if the input value could not be converted (e.g. not a valid number)
+     */
+    public static long toLong(Object value) throws ExpressionError {
+        try {
+            if (value instanceof Number)
+                return ((Number) value).longValue();
+            else
+                return new BigDecimal(value.toString().trim()).longValue(); /* Allow parsing of decimal strings */
+        }
+        catch (Exception x) {
+            throw new ExpressionError("Cannot convert value to long: " + x.getMessage());
+        }
+    }
+
+
+    /**
+     * Converts a number (or string representation of a number) to an exact decimal number.
+     * <p>Floating point values are converted using their shortest string representation, so that
+     * <code>0.1</code> becomes the decimal 0.1 rather than the exact value of the nearest double.
+     *
+     * @param value  the value to convert
+     * @return       the converted value as a decimal number
+     * @throws ExpressionError if the input value could not be converted (e.g. not a valid number, or infinite)
+     */
+    public static BigDecimal toDecimal(Object value) throws ExpressionError {
+        try {
+            if (value instanceof BigDecimal)
+                return (BigDecimal) value;
+            else if (value instanceof Integer || value instanceof Long)
+                return BigDecimal.valueOf(((Number) value).longValue());
+            else if (value instanceof BigInteger)
+                return new BigDecimal((BigInteger) value);
+            else if (value instanceof Number)
+                return BigDecimal.valueOf(((Number) value).doubleValue());
+            else
+                return new BigDecimal(value.toString().trim());
+        }
+        catch (Exception x) {
+            throw new ExpressionError("Cannot convert value to decimal: " + x.getMessage());
+        }
+    }
+
+
+    /**
+     * Raises a long value to a power.
+     * <p>Non-negative powers are computed exactly (by repeated squaring), rather than in floating point, which
+     * cannot represent every long value above 2^53. Negative powers are computed in floating point and truncated.
+     *
+     * @param l  the value
+     * @param r  the power
+     * @return   the value raised to the power
+     * @throws ArithmeticException if the result overflows a long
+     */
+    private static long pow(long l, long r) {
+        if (r < 0) return (long) Math.pow(l, r);
+
+        long result = 1;
+        for (long base = l, power = r; power != 0; power >>= 1) {
+            if ((power & 1) != 0) result = Math.multiplyExact(result, base);
+            if (power > 1) base = Math.multiplyExact(base, base);
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Raises a decimal value to a power.
+     * <p>Integer powers are computed to the precision of a 128 bit decimal (so are exact for typical values).
+     * Other powers are computed in floating point.
+     *
+     * @param l  the value
+     * @param r  the power
+     * @return   the value raised to the power
+     * @throws ArithmeticException if the result is undefined, or out of range
+     */
+    private static BigDecimal pow(BigDecimal l, BigDecimal r) {
+        if (r.stripTrailingZeros().scale() <= 0) return l.pow(r.intValueExact(), MathContext.DECIMAL128);
+
+        double d = Math.pow(l.doubleValue(), r.doubleValue());
+        if (Double.isNaN(d) || Double.isInfinite(d)) throw new ArithmeticException("Invalid decimal power");
+        return BigDecimal.valueOf(d);
+    }
+
+
     /**
      * Negates a numeric value.
      *
      * @param value  the value to negate
      * @return       the arithmetic negative value
-     * @throws ExpressionError if the provided value was not numeric
+     * @throws ExpressionError if the provided value was not numeric, or is a long with no long negative
      */    
     public static Object neg(Object value) throws ExpressionError {
-        if (value == null) throw new ExpressionError("Arithmetic error - negation of null value");
+        if (value == null) throw NEGATE_NULL;
 
         if (value instanceof Integer)
             return -((Integer) value).intValue();
         else if (value instanceof Double)
             return -((Double) value).doubleValue();
+        else if (value instanceof Long)
+            return negate((Long) value);
+        else if (value instanceof BigDecimal)
+            return ((BigDecimal) value).negate();
+
+        throw NEGATE_INVALID;
+    }
+
 
-        throw new ExpressionError("Attempt to negate a non-numeric value");
+
+    /**
+     * Negates a long value, failing rather than overflowing (as the long arithmetic operations do).
+     *
+     * @param value  the value to negate
+     * @return       the arithmetic negative value
+     * @throws ExpressionError if the value is Long.MIN_VALUE, which has no long negative
+     */
+    private static long negate(long value) throws ExpressionError {
+        try {
+            return Math.negateExact(value);
+        }
+        catch (ArithmeticException x) {
+            throw ArithmeticOperator.arithmeticError(x);
+        }
     }
    
 
 
+    /**
+     * Creates an operator factory for a value in list operator.
+     * <p>If the list (the right hand operand) only contains constants, an {@link InOperator} is created,
+     * which searches a set of the list values built once, when the operator is created. Otherwise, the
+     * list is evaluated and searched each time the operator is evaluated.
+     *
+     * @param name  the name of the operator
+     * @return a Factory instance for creating value in list expressions
+     */
+    private static Factory createIn(String name) {
+        return new Factory(name) {
+            @Override
+            public Expression create(Expression ...input) throws ExpressionError {
+                Expression list = input[1];
+                while (list instanceof Parenthesis) list = ((Parenthesis) list).getExpression();
+
+                if (list instanceof List && ((List) list).getConstants() != null) {
+                    return new InOperator(name, input[0], input[1], ((List) list).getConstants());
+                }
+                return new BinaryOperator(name, input[0], input[1], (c, l, r) -> Operators.in(l.eval(c), r.eval(c)));
+            }
+        }.setPure(true);
+    }
+
+
+
     /**
      * Value in list operator.
      * <p>This provides an 'in' operator (similar to that in Python) used for determining whether
@@ -220,8 +579,8 @@ public class Operators {
      * @throws ExpressionError if the list is not valid
      */
     private static Boolean in(Object left, Object right) throws ExpressionError {
-        if (right == null) throw new ExpressionError("Null list passed to 'in' operator");
-        if (right.getClass() != Object[].class) throw new ExpressionError("Invalid list type passed to 'in' operator");
+        if (right == null) throw NULL_LIST;
+        if (right.getClass() != Object[].class) throw INVALID_LIST;
 
         for (Object value : (Object[]) right) {
             if (Objects.equals(value, left)) return true;
@@ -230,35 +589,45 @@ public class Operators {
     }
 
 
+    /**
+     * Creates the factory for the member operator.
+     * <p>Member names are converted to keys when the operator is created, and chains of member operators are
+     * evaluated as a single path (see {@link MemberOperator}).
+     *
+     * @param name  the name of the operator
+     * @return      a Factory instance for creating member expressions
+     */
+    private static Factory createMember(String name) {
+        return new Factory(name) {
+            @Override
+            public Expression create(Expression ...input) throws ExpressionError {
+                return new MemberOperator(name, input[0], input[1]);
+            }
+        }.setPure(true);
+    }
+
+
+
     /**
      * Member operator.
-     * <p>This provides a mechanism to access a member of a compound object (map).
+     * <p>This provides a mechanism to access a member of a compound object (a map, or an object with an
+     * accessor for the member - see {@link MemberOperator}).
      *
      * @param context  the expression context in which to evaluate the left expression
-     * @param left     the compound object (map)
+     * @param left     the compound object (map or object)
      * @param right    the member to extract. This is expected to be a plain string and
      *                 does not get evaluated.
-     * @return the value extracted from the map 
+     * @return the value extracted from the map or object
      * @throws ExpressionError if either the map or the member is invalid
      */
     private static Object member(ExpressionContext context, Expression left, Expression right) throws ExpressionError {
-        if (left == null) throw new ExpressionError("Null value passed to member operator");
-
-        /* Evaluate the left hand expression */
-
-        Object obj = left.eval(context);
-
-        if (obj == null) throw new ExpressionError("Expected map for left value in member operator - found null");
-        if (!(obj instanceof Map)) throw new ExpressionError("Expected map for left value in member operator");
+        if (left == null) throw NULL_MEMBER;
 
         /*
          * Note that for the right hand expression, we do not evaluate it. While we expect a string
          * constant (which maps to a ContextValue), technically, it could be any type of expression.
          */
-        Map map = (Map) obj;
-        String key = right == null ? null : right.toString();
-
-        return map.get(key);
+        return MemberOperator.member(left.eval(context), right == null ? null : right.toString());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,371 @@
+package pls.expression;
+
+
+
+/**
+ * The expression optimizer.
+ * <p>This class simplifies an expression tree (as returned by {@link Parser#parse Parser.parse}) so that
+ * it does less work each time it is evaluated. Expressions written to be readable often contain redundant
+ * operations, and the cost of these is paid on every evaluation. The optimizer:
+ * <ul>
+ * <li>Folds operators and functions whose operands are all constants into a single constant, e.g.
+ * {@code cos(rad(45)) ^ 2} or the {@code 2 * 3} in {@code 2 * 3 + x}. Only operators and functions
+ * whose factory is marked as pure (see {@link Factory#isPure}) are folded. Operations that fail (e.g.
+ * {@code 1 / 0}) are left in place, so that they fail at evaluation time as they would have before.</li>
+ * <li>Removes redundant logic, e.g. {@code true and x}, {@code false or x}, and {@code !!x}, where x is known to
+ * be a boolean value, and {@code false and x} or {@code true or x} for any x.</li>
+ * <li>Removes arithmetic identities, e.g. {@code (x + y) * 1}, {@code (x * 2.5) / 1} and {@code -x - 0}, where x is
+ * known to be numeric and the identity leaves its value and type unchanged. {@code x + 0} is kept, since it turns
+ * -0.0 into 0.0.</li>
+ * <li>Removes parentheses that are not needed to preserve the evaluation order, e.g. {@code (x > 1) and (y < 2)}.</li>
+ * </ul>
+ * The optimized expression always evaluates to exactly the same results (and errors) as the original expression.
+ * Rewrites are only applied where this can be determined when the expression is optimized - for example, {@code x * 1}
+ * is not rewritten if x is a context value, since x might not be numeric. Parentheses needed to preserve the evaluation
+ * order are kept, so the optimized expression still converts to a string that parses to the same expression.
+ * <pre>{@code
+ *   Expression e = new Optimizer().optimize(new Parser().parse("x > 2 * 3 and true"));
+ *   e.toString();    // x > 6
+ * }</pre>
+ * Nodes are rebuilt using the factories held in a {@link Registry}, so an expression should be optimized
+ * using the same registry it was parsed with (by default, the parser's default registry). The logical and
+ * arithmetic rewrites assume the standard meaning of the default operators. Nodes the optimizer does not
+ * recognize (e.g. custom {@link Expression} implementations) are left unchanged.
+ * <p>The Optimizer class uses no mutable state and is thread safe.
+ *
+ * @author Peter Smith
+ */
+public class Optimizer {
+
+    /** The type of an operand known to be a number of unknown type (see {@link #numericType}) */
+
+    private static final int NUMERIC = -1;
+
+
+    /** The registry used to rebuild nodes (null to use the default registry) */
+
+    private Registry registry;
+
+
+
+    /**
+     * Creates an optimizer that rebuilds nodes using the parser's default registry.
+     *
+     * @see Parser#getDefaultRegistry
+     */
+    public Optimizer() {
+        this(null);
+    }
+
+
+
+    /**
+     * Creates an optimizer that rebuilds nodes using a given registry.
+     *
+     * @param registry  the registry holding the operators and functions (may be null, in which case
+     *                  the parser's default registry is used)
+     */
+    public Optimizer(Registry registry) {
+        this.registry = registry;
+    }
+
+
+    /**
+     * Optimizes an expression.
+     *
+     * @param expression  the expression to optimize
+     * @return the optimized expression (which may be the original expression if no optimization was possible)
+     * @throws ExpressionError if an optimized node could not be created
+     */
+    public Expression optimize(Expression expression) throws ExpressionError {
+        assert expression != null : "Null expression";
+        return optimize(expression, Integer.MIN_VALUE, registry != null ? registry : Parser.getDefaultRegistry());
+    }
+
+
+
+    /**
+     * Optimizes an expression node and its operands.
+     * <p>Parentheses around a binary operator are removed if the operator's precedence is high enough to
+     * preserve the evaluation order without them. This depends upon where the expression appears - a whole
+     * expression, function argument, or list element never needs parentheses, while the operand of a unary
+     * operator always does.
+     *
+     * @param e           the expression to optimize
+     * @param precedence  the lowest precedence a binary operator can have here without needing parentheses
+     * @param registry    the registry used to rebuild nodes
+     * @return the optimized expression
+     * @throws ExpressionError if an optimized node could not be created
+     */
+    private Expression optimize(Expression e, int precedence, Registry registry) throws ExpressionError {
+        Expression result = e;
+
+        if (e instanceof Parenthesis) {
+            result = optimize(((Parenthesis) e).getExpression(), Integer.MIN_VALUE, registry);
+            if (result instanceof BinaryOperator && registry.getPrecedence(((BinaryOperator) result).getName()) < precedence) {
+                result = new Parenthesis(result);
+            }
+        }
+        else if (e instanceof pls.expression.List) {
+            result = new pls.expression.List(optimize(((pls.expression.List) e).getValues(), registry));
+        }
+        else if (e instanceof Function) {
+            Function f = (Function) e;
+            result = rebuild(e, registry.getFunction(f.getName()), optimize(f.getArguments(), registry));
+        }
+        else if (e instanceof UnaryOperator) {
+            UnaryOperator u = (UnaryOperator) e;
+            result = rebuild(e, registry.getOperator(u.getName(), true), optimize(u.getOperand(), Integer.MAX_VALUE, registry));
+        }
+        else if (e instanceof BinaryOperator) {
+            /* Operators of equal precedence are evaluated left to right, so only need parentheses on the right */
+
+            BinaryOperator b = (BinaryOperator) e;
+            int p = registry.getPrecedence(b.getName());
+            result = rebuild(e, registry.getOperator(b.getName(), false), optimize(b.getLeft(), p, registry), optimize(b.getRight(), p + 1, registry));
+        }
+
+        /* Simplification may leave an operand that no longer needs its parentheses */
+
+        while (precedence == Integer.MIN_VALUE && result instanceof Parenthesis) result = ((Parenthesis) result).getExpression();
+        return result;
+    }
+
+
+
+    /**
+     * Optimizes a set of function arguments or list elements.
+     *
+     * @param values    the expressions to optimize
+     * @param registry  the registry used to rebuild nodes
+     * @return the optimized expressions
+     * @throws ExpressionError if an optimized node could not be created
+     */
+    private Expression[] optimize(Expression[] values, Registry registry) throws ExpressionError {
+        Expression[] result = new Expression[values.length];
+        for (int i = 0; i < values.length; ++i) result[i] = optimize(values[i], Integer.MIN_VALUE, registry);
+        return result;
+    }
+
+
+
+    /**
+     * Rebuilds an operator or function node with optimized operands, then simplifies it.
+     *
+     * @param e         the original node
+     * @param factory   the factory registered for the node (may be null)
+     * @param operands  the optimized operands
+     * @return the simplified node
+     * @throws ExpressionError if the node could not be created
+     */
+    private Expression rebuild(Expression e, Factory factory, Expression ...operands) throws ExpressionError {
+        if (factory == null) return e; /* Not created by a registered factory, so cannot be rebuilt */
+
+        Expression result = factory.create(operands);
+        if (!factory.isPure()) return result;
+
+        /* Fold constant operations */
+
+        boolean constant = true;
+        for (Expression operand : operands) constant &= isConstant(operand);
+        if (constant) return fold(result);
+
+        return simplify(result);
+    }
+
+
+
+    /**
+     * Evaluates an expression with constant operands, replacing it with its result.
+     * <p>Only immutable values are folded (lists, for example, are not). If the evaluation fails, the
+     * expression is left as is so that it fails in the same way when it is evaluated.
+     *
+     * @param e  the expression to fold
+     * @return a constant holding the result of the expression, or the original expression
+     */
+    private static Expression fold(Expression e) {
+        try {
+            Object value = e.eval(null);
+            if (value == null || value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Boolean) {
+                return new Constant(value);
+            }
+        }
+        catch (ExpressionError | RuntimeException x) {
+            /* Leave the error for evaluation time */
+        }
+        return e;
+    }
+
+
+
+    /**
+     * Removes redundant logical operations and arithmetic identities.
+     * <p>Operators are recognized by their operations rather than their names, so the rewrites only apply to the
+     * default operators (whatever name they are registered under), and never to a custom operator that reuses a name.
+     *
+     * @param e  the expression to simplify (with operands that are not all constants)
+     * @return the simplified expression
+     */
+    private static Expression simplify(Expression e) {
+        if (e instanceof UnaryOperator) {
+            UnaryOperator u = (UnaryOperator) e;
+            Expression operand = unwrap(u.getOperand());
+
+            /* !!x == x for boolean x */
+
+            if (u.getOperation() == Operators.NOT && operand instanceof UnaryOperator && ((UnaryOperator) operand).getOperation() == Operators.NOT) {
+                Expression x = ((UnaryOperator) operand).getOperand();
+                if (isBoolean(x)) return x;
+            }
+            return e;
+        }
+        else if (!(e instanceof BinaryOperator)) {
+            return e;
+        }
+
+        BinaryOperator b = (BinaryOperator) e;
+        Expression left = b.getLeft();
+        Expression right = b.getRight();
+        Object l = (left instanceof Constant) ? ((Constant) left).getValue() : null;
+        Object r = (right instanceof Constant) ? ((Constant) right).getValue() : null;
+
+        if (b.getOperation() == Operators.AND) {
+            if (left instanceof Constant) return !Operators.toBoolean(l) ? new Constant(false) : isBoolean(right) ? right : e;
+            if (right instanceof Constant && Operators.toBoolean(r) && isBoolean(left)) return left;
+        }
+        else if (b.getOperation() == Operators.OR) {
+            if (left instanceof Constant) return Operators.toBoolean(l) ? new Constant(true) : isBoolean(right) ? right : e;
+            if (right instanceof Constant && !Operators.toBoolean(r) && isBoolean(left)) return left;
+        }
+        else if (e instanceof ArithmeticOperator) {
+            ArithmeticOperator a = (ArithmeticOperator) e;
+
+            /* x + 0 is kept, since x might be -0.0 (and -0.0 + 0 gives 0.0) */
+
+            if (a.getIntOp() == Operators.MULTIPLY_INT && a.getDoubleOp() == Operators.MULTIPLY_DOUBLE) {
+                if (isIdentity(left, r, 1, NUMERIC)) return left;
+                if (isIdentity(right, l, 1, NUMERIC)) return right;
+            }
+            else if (a.getIntOp() == Operators.SUBTRACT_INT && a.getDoubleOp() == Operators.SUBTRACT_DOUBLE) {
+                if (isIdentity(left, r, 0, NUMERIC)) return left;
+            }
+            else if (a.getIntOp() == Operators.DIVIDE_INT && a.getDoubleOp() == Operators.DIVIDE_DOUBLE) {
+                /* Decimal division rounds its result, so x / 1 may change a decimal value */
+
+                if (isIdentity(left, r, 1, ArithmeticOperator.FLOAT)) return left;
+            }
+        }
+        return e;
+    }
+
+
+
+    /**
+     * Determines whether applying an arithmetic identity to an operand leaves the operand unchanged.
+     * <p>An integer identity (e.g. {@code x * 1}) leaves a value of any numeric type unchanged, except that decimal
+     * division rounds its result. A floating point identity (e.g. {@code x * 1.0}) converts an integer, long or
+     * decimal value to floating point, so only leaves the operand unchanged if it is known to be floating point.
+     *
+     * @param x        the operand (the expression that would remain)
+     * @param identity the value of the other operand
+     * @param value    the identity value (e.g. 1 for multiplication)
+     * @param widest   the widest type of operand the integer identity holds for ({@link #NUMERIC} for any numeric
+     *                 operand, or {@link ArithmeticOperator#FLOAT} for integer and floating point operands)
+     * @return true if the operation can be replaced with the operand x
+     */
+    private static boolean isIdentity(Expression x, Object identity, int value, int widest) {
+        int type = numericType(x);
+
+        if (identity instanceof Integer && (Integer) identity == value) {
+            return type == ArithmeticOperator.INTEGER || type == ArithmeticOperator.FLOAT || type == widest;
+        }
+        else if (identity instanceof Double && identity.equals((double) value)) {
+            return type == ArithmeticOperator.FLOAT;    /* Double.equals distinguishes -0.0 from 0.0 */
+        }
+        return false;
+    }
+
+
+
+    /**
+     * Determines the type of value an expression is known to evaluate to, for arithmetic identities.
+     * <p>The default arithmetic operators (and negation) always evaluate to a number, or fail, so their results are
+     * known to be numeric even when the type of their operands is not known.
+     *
+     * @param e  the expression
+     * @return {@link ArithmeticOperator#INTEGER} or {@link ArithmeticOperator#FLOAT} if the type of number is known,
+     *         {@link #NUMERIC} for a number of unknown type, or {@link ArithmeticOperator#UNKNOWN} otherwise
+     */
+    private static int numericType(Expression e) {
+        int type = ArithmeticOperator.typeOf(e);
+        if (type == ArithmeticOperator.INTEGER || type == ArithmeticOperator.FLOAT) return type;
+
+        e = unwrap(e);
+        if (e instanceof ArithmeticOperator) {
+            ArithmeticOperator.IntOperation op = ((ArithmeticOperator) e).getIntOp();
+            if (op == Operators.ADD_INT || op == Operators.SUBTRACT_INT || op == Operators.MULTIPLY_INT || op == Operators.DIVIDE_INT) return NUMERIC;
+        }
+        else if (e instanceof UnaryOperator && ((UnaryOperator) e).getOperation() == Operators.NEG) {
+            return NUMERIC;
+        }
+        return ArithmeticOperator.UNKNOWN;
+    }
+
+
+
+    /**
+     * Determines whether an expression always evaluates to a boolean value.
+     *
+     * @param e  the expression
+     * @return true if the expression is known to evaluate to a Boolean
+     */
+    private static boolean isBoolean(Expression e) {
+        e = unwrap(e);
+        if (ArithmeticOperator.typeOf(e) == ArithmeticOperator.BOOLEAN) return true;
+
+        if (e instanceof RelationalOperator) {
+            RelationalOperator.RelationalOperation op = ((RelationalOperator) e).getRelationalOperation();
+            return op == Operators.EQUALS || op == Operators.NOT_EQUALS;
+        }
+        else if (e instanceof UnaryOperator) {
+            return ((UnaryOperator) e).getOperation() == Operators.NOT;
+        }
+        else if (e instanceof BinaryOperator) {
+            BinaryOperator.BinaryOperation op = ((BinaryOperator) e).getOperation();
+            return op == Operators.AND || op == Operators.OR;
+        }
+        return false;
+    }
+
+
+
+    /**
+     * Determines whether an expression is a constant (a constant value or a list of constants).
+     *
+     * @param e  the expression
+     * @return true if the expression is constant
+     */
+    private static boolean isConstant(Expression e) {
+        e = unwrap(e);
+        if (e instanceof Constant) return true;
+        if (!(e instanceof pls.expression.List)) return false;
+
+        for (Expression value : ((pls.expression.List) e).getValues()) {
+            if (!isConstant(value)) return false;
+        }
+        return true;
+    }
+
+
+
+    /**
+     * Removes any parentheses wrapping an expression.
+     *
+     * @param e  the expression
+     * @return the wrapped expression
+     */
+    private static Expression unwrap(Expression e) {
+        while (e instanceof Parenthesis) e = ((Parenthesis) e).getExpression();
+        return e;
+    }
+}
@@ -0,0 +1,415 @@
+package pls.expression;
+
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+
+
+/**
+ * Evaluates an expression for a large number of contexts in parallel.
+ * <p>The contexts are divided between the threads of a {@link ForkJoinPool}, and the results are written in the
+ * same order as the contexts, e.g.
+ * <pre>{@code
+ *   ParallelEvaluator.Results results = new ParallelEvaluator().evalAll(expression, contexts);
+ *   for (int i = 0; i < results.size(); ++i) {
+ *       if (results.getError(i) != null) ... else ... results.get(i);
+ *   }
+ * }</pre>
+ * An expression that fails for a context does not stop the others from being evaluated - the error is
+ * recorded for that context, and its result is null. Only {@link ExpressionError}s are recorded in this way;
+ * any other exception (e.g. thrown by a faulty function) stops the evaluation and is rethrown to the caller (as
+ * with any fork/join task, the exception rethrown may be a copy of the exception thrown by the worker thread).
+ * <p>Expression trees, and the functions and operators in the default registries, hold no state that changes
+ * during evaluation, so a single expression may be evaluated by any number of threads at once. Each context
+ * is evaluated by a single thread, but contexts must not be modified while they are being evaluated.
+ * <p>The ParallelEvaluator class uses no mutable state and is thread safe.
+ *
+ * @author Peter Smith
+ */
+public class ParallelEvaluator {
+
+    /** The default number of contexts below which the contexts are not divided between threads */
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+
+
+    /**
+     * The results of evaluating an expression for each of a number of contexts.
+     */
+    public static final class Results {
+
+        /** The result for each context (null if the expression failed) */
+
+        private Object[] values;
+
+
+        /** The error for each context (null if there were no errors) */
+
+        private ExpressionError[] errors;
+
+
+        /** The number of contexts the expression failed for */
+
+        private int errorCount;
+
+
+
+        /**
+         * Creates the results for a number of contexts.
+         *
+         * @param size  the number of contexts
+         */
+        Results(int size) {
+            this.values = new Object[size];
+        }
+
+
+
+        /**
+         * Records the error for a context.
+         *
+         * @param index  the index of the context
+         * @param error  the error
+         */
+        private synchronized void error(int index, ExpressionError error) {
+            if (errors == null) errors = new ExpressionError[values.length];
+            errors[index] = error;
+            ++errorCount;
+        }
+
+
+
+        /**
+         * Returns the number of results.
+         *
+         * @return the number of contexts evaluated
+         */
+        public int size() {
+            return values.length;
+        }
+
+
+
+        /**
+         * Returns the result for a context.
+         *
+         * @param index  the index of the context
+         * @return the result of the expression (null if the expression failed)
+         */
+        public Object get(int index) {
+            return values[index];
+        }
+
+
+
+        /**
+         * Returns the error for a context.
+         *
+         * @param index  the index of the context
+         * @return the error, or null if the expression did not fail
+         */
+        public ExpressionError getError(int index) {
+            return errors == null ? null : errors[index];
+        }
+
+
+
+        /**
+         * Returns the number of contexts the expression failed for.
+         *
+         * @return the number of errors
+         */
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+
+
+        /**
+         * Returns the results for every context.
+         *
+         * @return a copy of the results, in the order of the contexts
+         */
+        public Object[] toArray() {
+            return values.clone();
+        }
+    }
+
+
+
+    /**
+     * Evaluates the contexts in a range of indexes, dividing them between threads.
+     */
+    @SuppressWarnings("serial")
+    private final class RangeTask extends RecursiveAction {
+
+        /** The expression to evaluate */
+
+        private final Expression expression;
+
+
+        /** The contexts */
+
+        private final ExpressionContext[] contexts;
+
+
+        /** The results */
+
+        private final Results results;
+
+
+        /** The first index of the range */
+
+        private final int from;
+
+
+        /** The index following the range */
+
+        private final int to;
+
+
+
+        RangeTask(Expression expression, ExpressionContext[] contexts, Results results, int from, int to) {
+            this.expression = expression;
+            this.contexts = contexts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                for (int i = from; i < to; ++i) eval(expression, contexts[i], results, i);
+            }
+            else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(expression, contexts, results, from, middle),
+                          new RangeTask(expression, contexts, results, middle, to));
+            }
+        }
+    }
+
+
+
+    /**
+     * The results of a task, as a tree of chunks in the order of the contexts.
+     */
+    private static final class Chunk {
+
+        /** The results held by a leaf chunk */
+
+        private Results results;
+
+
+        /** The number of results in the chunk */
+
+        private int size;
+
+
+        /** The chunks holding the first and remaining results (null for a leaf) */
+
+        private Chunk first, rest;
+    }
+
+
+
+    /**
+     * Evaluates the contexts provided by a spliterator, dividing them between threads.
+     */
+    @SuppressWarnings("serial")
+    private final class SplitTask extends RecursiveTask<Chunk> {
+
+        /** The expression to evaluate */
+
+        private final Expression expression;
+
+
+        /** The contexts */
+
+        private final Spliterator<? extends ExpressionContext> contexts;
+
+
+
+        SplitTask(Expression expression, Spliterator<? extends ExpressionContext> contexts) {
+            this.expression = expression;
+            this.contexts = contexts;
+        }
+
+
+
+        @Override
+        protected Chunk compute() {
+            Chunk chunk = new Chunk();
+
+            Spliterator<? extends ExpressionContext> prefix;
+            if (contexts.estimateSize() > threshold && (prefix = contexts.trySplit()) != null) {
+                SplitTask first = new SplitTask(expression, prefix);
+                first.fork();
+                chunk.rest = new SplitTask(expression, contexts).compute();
+                chunk.first = first.join();
+                chunk.size = chunk.first.size + chunk.rest.size;
+            }
+            else {
+                long estimate = contexts.estimateSize();
+                Results results = new Results(estimate < threshold ? (int) estimate : threshold);
+                contexts.forEachRemaining((context) -> {
+                    if (chunk.size == results.values.length) {
+                        results.values = Arrays.copyOf(results.values, 2 * chunk.size + 1);
+                        if (results.errors != null) results.errors = Arrays.copyOf(results.errors, results.values.length);
+                    }
+                    eval(expression, context, results, chunk.size++);
+                });
+                chunk.results = results;
+            }
+            return chunk;
+        }
+    }
+
+
+
+    /** The pool used to evaluate the contexts */
+
+    private ForkJoinPool pool;
+
+
+    /** The number of contexts below which the contexts are not divided between threads */
+
+    private int threshold;
+
+
+
+    /**
+     * Creates an evaluator that uses the common fork/join pool.
+     */
+    public ParallelEvaluator() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+
+
+    /**
+     * Creates an evaluator that uses a given fork/join pool.
+     *
+     * @param pool  the pool used to evaluate the contexts
+     */
+    public ParallelEvaluator(ForkJoinPool pool) {
+        this(pool, DEFAULT_THRESHOLD);
+    }
+
+
+
+    /**
+     * Creates an evaluator that uses a given fork/join pool.
+     *
+     * @param pool       the pool used to evaluate the contexts
+     * @param threshold  the number of contexts below which the contexts are evaluated by a single thread (the
+     *                   cost of dividing the work between threads outweighs the benefit for small numbers of
+     *                   contexts, or very simple expressions)
+     */
+    public ParallelEvaluator(ForkJoinPool pool, int threshold) {
+        if (pool == null) throw new IllegalArgumentException("No fork/join pool");
+        if (threshold < 1) throw new IllegalArgumentException("Invalid threshold " + threshold);
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+
+
+    /**
+     * Evaluates an expression for each of an array of contexts.
+     *
+     * @param expression  the expression to evaluate
+     * @param contexts    the contexts
+     * @return the results, in the order of the contexts
+     */
+    public Results evalAll(Expression expression, ExpressionContext[] contexts) {
+        Results results = new Results(contexts.length);
+        pool.invoke(new RangeTask(expression, contexts, results, 0, contexts.length));
+        return results;
+    }
+
+
+
+    /**
+     * Evaluates an expression for each of a list of contexts.
+     *
+     * @param expression  the expression to evaluate
+     * @param contexts    the contexts
+     * @return the results, in the order of the contexts
+     */
+    public Results evalAll(Expression expression, java.util.List<? extends ExpressionContext> contexts) {
+        if (contexts instanceof RandomAccess) return evalAll(expression, contexts.toArray(new ExpressionContext[contexts.size()]));
+        return evalAll(expression, contexts.spliterator());
+    }
+
+
+
+    /**
+     * Evaluates an expression for each of the contexts provided by a spliterator.
+     * <p>The contexts are divided between threads by splitting the spliterator (see {@link Spliterator#trySplit}),
+     * so the contexts should be provided by a spliterator that splits evenly, such as one obtained from a
+     * collection.
+     *
+     * @param expression  the expression to evaluate
+     * @param contexts    the contexts
+     * @return the results, in the order the spliterator provides the contexts
+     */
+    public Results evalAll(Expression expression, Spliterator<? extends ExpressionContext> contexts) {
+        Chunk chunks = pool.invoke(new SplitTask(expression, contexts));
+
+        Results results = new Results(chunks.size);
+        flatten(chunks, results, 0);
+        return results;
+    }
+
+
+
+    /**
+     * Copies the results held in a tree of chunks.
+     *
+     * @param chunk    the chunk
+     * @param results  the results to copy to
+     * @param offset   the index to copy the first result to
+     */
+    private static void flatten(Chunk chunk, Results results, int offset) {
+        while (chunk.results == null) {
+            flatten(chunk.first, results, offset);
+            offset += chunk.first.size;
+            chunk = chunk.rest;
+        }
+
+        System.arraycopy(chunk.results.values, 0, results.values, offset, chunk.size);
+        if (chunk.results.errors != null) {
+            for (int i = 0; i < chunk.size; ++i) {
+                if (chunk.results.errors[i] != null) results.error(offset + i, chunk.results.errors[i]);
+            }
+        }
+    }
+
+
+
+    /**
+     * Evaluates an expression for a context, recording the result or error.
+     *
+     * @param expression  the expression to evaluate
+     * @param context     the context
+     * @param results     the results
+     * @param index       the index of the context
+     */
+    private static void eval(Expression expression, ExpressionContext context, Results results, int index) {
+        try {
+            results.values[index] = expression.eval(context);
+        }
+        catch (ExpressionError x) {
+            results.error(index, x);
+        }
+    }
+}
@@ -26,6 +26,17 @@ class Parenthesis implements Expression {
 
 
 
+    /**
+     * Returns the expression contained within the parentheses.
+     *
+     * @return the contained expression
+     */
+    Expression getExpression() {
+        return expr;
+    }
+
+
+
     /**
      * Evaluates this expression.
      * <p>This simply returns the result of evaluating the contained expression.
@@ -39,6 +50,45 @@ class Parenthesis implements Expression {
 
 
 
+    /**
+     * Evaluates this expression as a floating point value.
+     * <p>This simply evaluates the contained expression as a floating point value.
+     *
+     * @param context  the context in which the expression is being evaluated
+     */
+    @Override
+    public double evalDouble(final ExpressionContext context) throws ExpressionError {
+        return expr.evalDouble(context);
+    }
+
+
+
+    /**
+     * Evaluates this expression as an integer value.
+     * <p>This simply evaluates the contained expression as an integer value.
+     *
+     * @param context  the context in which the expression is being evaluated
+     */
+    @Override
+    public int evalInt(final ExpressionContext context) throws ExpressionError {
+        return expr.evalInt(context);
+    }
+
+
+
+    /**
+     * Evaluates this expression as a boolean value.
+     * <p>This simply evaluates the contained expression as a boolean value.
+     *
+     * @param context  the context in which the expression is being evaluated
+     */
+    @Override
+    public boolean evalBoolean(final ExpressionContext context) throws ExpressionError {
+        return expr.evalBoolean(context);
+    }
+
+
+
     /**
      * Converts this expression back to a string.
      */
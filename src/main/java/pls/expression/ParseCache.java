@@ -0,0 +1,341 @@
+package pls.expression;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * Bounded cache of parsed expressions, keyed by the expression string.
+ * <p>Parsed expressions hold no evaluation state and can be evaluated any number of times, with any
+ * context, from any number of threads. Applications that receive the same expression strings repeatedly
+ * can therefore use a parse cache to avoid parsing an expression more than once:
+ * <pre>{@code
+ *   ParseCache cache = new ParseCache(new Parser(), 10000);
+ *   ...
+ *   Expression e = cache.parse(filter);
+ *   e.eval(context);
+ * }</pre>
+ * When the cache is full, the least recently used expressions are discarded. Recency is approximate - each
+ * expression records the number of misses when it was last used, rather than being moved within a list - and
+ * expressions are discarded in groups of up to a tenth of the capacity. Expressions can optionally be
+ * held using soft references, allowing the garbage collector to discard cached expressions when memory is
+ * low (an expression discarded this way is simply parsed again when next requested).
+ * <p>Statistics are maintained to allow the effectiveness of the cache to be monitored - the number of hits,
+ * misses, and evictions, and the total parse time saved (the time originally taken to parse each expression
+ * returned from the cache). Expressions that fail to parse are not cached.
+ * <p>Each cached expression is tagged with the {@link Registry} it was parsed with. If the parser's registry
+ * is later replaced (e.g. when operators or functions are registered), expressions parsed with the previous
+ * registry are no longer returned - they are parsed again with the new registry when next requested.
+ * <p>Parse caches are thread safe, and are read without locking. Expressions are parsed outside of the cache, so an
+ * expression may occasionally be parsed more than once if several threads request it at the same time.
+ *
+ * @author Peter Smith
+ * @see Parser
+ */
+public class ParseCache {
+
+    /**
+     * A cached expression.
+     */
+    private static class Cached {
+
+        /** The parsed expression (either an Expression, or a SoftReference to one) */
+
+        private Object value;
+
+
+        /** The time taken to parse the expression, in nanoseconds */
+
+        private long parseTime;
+
+
+        /** The registry in use when the expression was parsed */
+
+        private Registry registry;
+
+
+        /** The value of the clock when the expression was last used */
+
+        private volatile long used;
+
+
+        /**
+         * Creates a cache entry.
+         *
+         * @param expression  the parsed expression
+         * @param parseTime   the time taken to parse the expression, in nanoseconds
+         * @param registry    the registry in use when the expression was parsed
+         * @param soft        true to hold the expression using a soft reference
+         * @param used        the value of the clock when the expression was parsed
+         */
+        Cached(Expression expression, long parseTime, Registry registry, boolean soft, long used) {
+            this.value = soft ? new SoftReference<Expression>(expression) : expression;
+            this.parseTime = parseTime;
+            this.registry = registry;
+            this.used = used;
+        }
+
+
+        /**
+         * Returns the cached expression.
+         *
+         * @return the expression, or null if it has been discarded by the garbage collector
+         */
+        @SuppressWarnings("unchecked")
+        Expression get() {
+            return (value instanceof SoftReference) ? ((SoftReference<Expression>) value).get() : (Expression) value;
+        }
+    }
+
+
+
+    /** The parser used to parse expressions not in the cache */
+
+    private Parser parser;
+
+
+    /** True if expressions are held using soft references */
+
+    private boolean soft;
+
+
+    /** The maximum number of expressions held */
+
+    private int capacity;
+
+
+    /** Cached expressions */
+
+    private Map<String, Cached> entries = new ConcurrentHashMap<String, Cached>();
+
+
+    /** Clock advanced by each miss, used to order expressions by when they were last used */
+
+    private AtomicLong clock = new AtomicLong();
+
+
+    /** The number of requests satisfied from the cache */
+
+    private LongAdder hits = new LongAdder();
+
+
+    /** The number of requests that required an expression to be parsed */
+
+    private LongAdder misses = new LongAdder();
+
+
+    /** The number of expressions discarded to keep the cache within its capacity */
+
+    private LongAdder evictions = new LongAdder();
+
+
+    /** The total parse time saved by cache hits, in nanoseconds */
+
+    private LongAdder timeSaved = new LongAdder();
+
+
+
+    /**
+     * Creates a parse cache holding expressions using strong references.
+     *
+     * @param parser    the parser used to parse expressions
+     * @param capacity  the maximum number of expressions to hold
+     */
+    public ParseCache(Parser parser, int capacity) {
+        this(parser, capacity, false);
+    }
+
+
+
+    /**
+     * Creates a parse cache.
+     *
+     * @param parser    the parser used to parse expressions
+     * @param capacity  the maximum number of expressions to hold
+     * @param soft      true to hold expressions using soft references, allowing them to be discarded when memory is low
+     */
+    public ParseCache(Parser parser, int capacity, boolean soft) {
+        assert parser != null : "Null parser";
+        if (capacity < 1) throw new IllegalArgumentException("Invalid parse cache capacity: " + capacity);
+
+        this.parser = parser;
+        this.capacity = capacity;
+        this.soft = soft;
+    }
+
+
+
+    /**
+     * Parses an expression string, returning a cached expression if the string has been parsed before.
+     *
+     * @param expression  the string expression to parse.
+     * @return an Expression instance that can be used to evaluate the expression.
+     * @throws ExpressionError if an error occurred during parsing.
+     * @see Parser#parse
+     */
+    public Expression parse(String expression) throws ExpressionError {
+        assert expression != null : "Null expression";
+
+        Registry registry = parser.getRegistry();
+
+        Cached entry = entries.get(expression);
+        Expression e = (entry == null || entry.registry != registry) ? null : entry.get();
+        if (e != null) {
+            hits.increment();
+            timeSaved.add(entry.parseTime);
+
+            /* A hit is more recent than the last miss (the entry is only written when that changes) */
+
+            long now = clock.get() + 1;
+            if (entry.used != now) entry.used = now;
+            return e;
+        }
+        misses.increment();
+
+        long start = System.nanoTime();
+        e = parser.parse(expression);
+        long parseTime = System.nanoTime() - start;
+
+        entries.put(expression, new Cached(e, parseTime, registry, soft, clock.incrementAndGet()));
+        if (entries.size() > capacity) evict();
+        return e;
+    }
+
+
+
+    /**
+     * Discards the least recently used expressions, if the cache holds more expressions than its capacity.
+     * <p>Up to a tenth of the capacity is discarded at once, so that expressions are not discarded on every miss.
+     */
+    private synchronized void evict() {
+        if (entries.size() <= capacity) return; /* Already discarded by another thread */
+
+        int target = capacity - capacity / 10;
+        long[] times = new long[entries.size()];
+        int n = 0;
+        for (Cached entry : entries.values()) {
+            if (n == times.length) break;
+            times[n++] = entry.used;
+        }
+        if (n <= target) return;
+
+        Arrays.sort(times, 0, n);
+        long cutoff = times[n - target - 1];
+        int excess = n - target;
+
+        /* Discard the expressions used before the cutoff, then as many used at the cutoff as needed */
+
+        for (Iterator<Cached> values = entries.values().iterator(); values.hasNext() && excess > 0; ) {
+            if (values.next().used < cutoff) {
+                values.remove();
+                evictions.increment();
+                --excess;
+            }
+        }
+        for (Iterator<Cached> values = entries.values().iterator(); values.hasNext() && excess > 0; ) {
+            if (values.next().used == cutoff) {
+                values.remove();
+                evictions.increment();
+                --excess;
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the parser used to parse expressions not in the cache.
+     *
+     * @return the parser
+     */
+    public Parser getParser() {
+        return parser;
+    }
+
+
+
+    /**
+     * Returns the maximum number of expressions held by this cache.
+     *
+     * @return the cache capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+
+    /**
+     * Returns the number of expressions currently held by this cache.
+     * <p>This includes any soft referenced expressions that have been discarded by the garbage collector,
+     * but not yet removed from the cache.
+     *
+     * @return the number of cached expressions
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+
+    /**
+     * Returns the number of requests satisfied from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+
+
+    /**
+     * Returns the number of requests that required an expression to be parsed.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+
+
+    /**
+     * Returns the number of expressions discarded to keep the cache within its capacity.
+     *
+     * @return the eviction count
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+
+
+    /**
+     * Returns the total parse time saved by requests satisfied from the cache.
+     *
+     * @return the time saved, in nanoseconds
+     */
+    public long getTimeSaved() {
+        return timeSaved.sum();
+    }
+
+
+
+    /**
+     * Discards all cached expressions and resets the statistics.
+     */
+    public void clear() {
+        entries.clear();
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        timeSaved.reset();
+    }
+}
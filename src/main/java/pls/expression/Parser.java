@@ -3,12 +3,10 @@ package pls.expression;
 
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 
 
@@ -55,8 +53,10 @@ import java.util.regex.Pattern;
  *
  * For more details on operator precedence, refer to 
  * https://developer.mozilla.org/en-US/docs/Web/JavaScript/Reference/Operators/Operator_Precedence#table.
- * <p>Note that the Parser class uses no local storage and is therefore thread safe - a single
- * instance may be used simultaneously in multiple threads.
+ * <p>The operators and functions recognized by a parser are held in an immutable {@link Registry}. Parsers use
+ * the default registry unless given a registry of their own. Changing a parser's registry, or the default
+ * registry, publishes a new registry without affecting parses in progress, so a single parser
+ * instance may be used simultaneously in multiple threads while operators and functions are registered.
  *
  * <p>Embedding the expression parser into an application can be done with just a few lines of code:
  * <pre>{@code
@@ -87,11 +87,13 @@ public class Parser {
 
 
     /**
-     * Private enumeration used by the parser to represent the type of an expression token.
+     * Enumeration used by the parser to represent the type of an expression token.
      * <p>An expression is parsed by splitting it up into tokens. Each token is evaluated
      * to determine its type, such as a number, quoted string, operator, etc.
+     *
+     * @see Lexer
      */
-    private enum TokenType {
+    enum TokenType {
         /** A quoted string token */
 
         STRING,
@@ -147,70 +149,170 @@ public class Parser {
     };
 
 
-    /** Lookup table of binary operators */
+    /** The registry used by parsers that have no registry of their own (created when first needed) */
+
+    private static class Default {
+        static final AtomicReference<Registry> registry = new AtomicReference<Registry>(Registry.getDefaults());
+    }
+
 
-    private static Map<String, Factory> biOperatorMap = new HashMap<String, Factory>();
+    /** Lexer used by each thread to tokenize expressions (reused between parses) */
 
+    private static ThreadLocal<Lexer> lexers = ThreadLocal.withInitial(Lexer::new);
 
-    /** Operator precedence values */
 
-    private static Map<String, Integer> operatorPrecedence = new HashMap<String, Integer>();
+    /** List of tokens that trigger an exit from the current expression converter level */
 
+    private static List<TokenType> terminals = Arrays.asList(TokenType.COMMA, TokenType.ENDPAREN, TokenType.ENDLIST, TokenType.EOS);
 
-    /** Lookup table of unary operators */
 
-    private static Map<String, Factory> uniOperatorMap = new HashMap<String, Factory>();
+    /** Symbol table used to bind context variables to slots (null if variables are not bound) */
 
+    private SymbolTable symbols;
 
-    /** Lookup table of named functions */
 
-    private static Map<String, Factory> functionMap = new HashMap<String, Factory>();
+    /** The operators and functions used by this parser (null to use the default registry) */
+
+    private volatile Registry registry;
+
+
+
+    /**
+     * Creates a parser.
+     * <p>Context variables in expressions parsed by this parser are looked up by name at evaluation time.
+     */
+    public Parser() {
+        this((SymbolTable) null);
+    }
 
 
-    /** Regular expression used to identify double quoted string constants */
 
-    private static Pattern doubleQuotes = Pattern.compile("\"(\\\\[^\\\\]|[^\"])*\"");
+    /**
+     * Creates a parser that uses a given set of operators and functions.
+     *
+     * @param registry  the registry holding the operators and functions (may be null, in which case the
+     *                  default registry is used)
+     * @see #setRegistry
+     */
+    public Parser(Registry registry) {
+        this(null, registry);
+    }
 
 
-    /** Regular expression used to identify tokens to pad with spaces */
 
-    private static Pattern expansions = Pattern.compile("(\\(|\\)|\\[|\\]|==|!=|=~|>=|>|<=|<|,|\\+|-|\\*|/|!|@|#|\\$|%|^|&)");
+    /**
+     * Creates a parser that binds context variables to slots.
+     * <p>Each context variable in an expression parsed by this parser is assigned a slot in the given
+     * symbol table. When the expression is evaluated with an {@link IndexedContext} using the same symbol
+     * table, variable values are retrieved directly from their slots rather than being looked up by name.
+     * Such expressions can still be evaluated with a plain {@link ExpressionContext}.
+     *
+     * @param symbols  the symbol table to bind variables to (may be null, in which case variables are not bound)
+     * @see IndexedContext
+     */
+    public Parser(SymbolTable symbols) {
+        this(symbols, null);
+    }
 
 
-    /** Regular expression used to identify dot (member) operator */
 
-    private static Pattern dots = Pattern.compile("((\\w\\d*)\\s*\\.\\s*([a-zA-Z_]))");
+    /**
+     * Creates a parser that binds context variables to slots, and uses a given set of operators and functions.
+     *
+     * @param symbols   the symbol table to bind variables to (may be null, in which case variables are not bound)
+     * @param registry  the registry holding the operators and functions (may be null, in which case the
+     *                  default registry is used)
+     */
+    public Parser(SymbolTable symbols, Registry registry) {
+        this.symbols = symbols;
+        this.registry = registry;
+    }
 
 
-    /** Regular expression used to identify integer tokens */
 
-    private static Pattern integerPattern = Pattern.compile("\\d+");
+    /**
+     * Returns the symbol table used to bind context variables.
+     *
+     * @return the symbol table, or null if this parser does not bind variables to slots
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
 
 
-    /** Regular expression used to identify floating point tokens */
 
-    private static Pattern floatPattern = Pattern.compile("\\d+(\\.\\d+)?");
+    /**
+     * Returns the operators and functions used by this parser.
+     *
+     * @return the registry set for this parser, or the default registry if none has been set
+     */
+    public Registry getRegistry() {
+        Registry registry = this.registry;
+        return registry != null ? registry : getDefaultRegistry();
+    }
 
 
-    /** Regular expression used to identify string constants (unquoted strings) */
 
-    private static Pattern constantPattern = Pattern.compile("^_\\d+$");
+    /**
+     * Sets the operators and functions used by this parser.
+     * <p>This may be called while other threads are using the parser - parses already in progress
+     * continue to use the registry they started with, and later parses use the new registry.
+     *
+     * @param registry  the registry holding the operators and functions (may be null, in which case the
+     *                  default registry is used)
+     */
+    public void setRegistry(Registry registry) {
+        this.registry = registry;
+    }
 
 
-    /** List of tokens that trigger an exit from the current expression converter level */
 
-    private static List<TokenType> terminals = Arrays.asList(TokenType.COMMA, TokenType.ENDPAREN, TokenType.ENDLIST, TokenType.EOS);
+    /**
+     * Returns the default registry.
+     * <p>This is used by parsers that have not been given a registry of their own. It initially holds
+     * the default operators and functions (see {@link Registry#getDefaults}).
+     *
+     * @return the default registry
+     */
+    public static Registry getDefaultRegistry() {
+        return Default.registry.get();
+    }
 
 
 
     /**
-     * Registers default operators and functions.
-     * <p>This is used to register the core operators and functions that are most likely needed for
-     * all expressions.
+     * Replaces the default registry.
+     *
+     * @param registry  the new default registry
      */
-    static {
-        Operators.registerDefaultOperators();
-        Functions.registerDefaultFunctions();
+    public static void setDefaultRegistry(Registry registry) {
+        assert registry != null : "Null registry";
+        Default.registry.set(registry);
+    }
+
+
+
+    /**
+     * Adds operators and/or functions to the default registry.
+     * <p>A copy of the default registry is updated, and then published as the new default registry. If
+     * the default registry is replaced by another thread in the meantime, the update is repeated using
+     * the new default registry. The update function should therefore have no side effects other than
+     * adding to the builder, e.g.
+     * <pre>{@code
+     *  Parser.updateDefaultRegistry(Functions::registerMathFunctions);
+     * }</pre>
+     *
+     * @param update  a function that adds operators and functions to a registry builder
+     */
+    public static void updateDefaultRegistry(Consumer<Registry.Builder> update) {
+        Registry current, updated;
+        do {
+            current = Default.registry.get();
+
+            Registry.Builder builder = new Registry.Builder(current);
+            update.accept(builder);
+            updated = builder.build();
+        } while (!Default.registry.compareAndSet(current, updated));
     }
 
 
@@ -218,13 +320,14 @@ public class Parser {
     /**
      * Registers a named binary operator.
      * This method is used to register new binary operators (only binary operators have precedence).
+     * The operator is added to the default registry.
      * 
      * @param precedence  the precedence level (refer to Javascript operator precedence levels)
      * @param factory     a factory that can be used to create an instance of the operator
+     * @see #updateDefaultRegistry
      */
     public static void registerOperator(Factory factory, int precedence) {
-        biOperatorMap.put(factory.getName(), factory);
-        operatorPrecedence.put(factory.getName(), precedence);
+        updateDefaultRegistry((builder) -> builder.operator(factory, precedence));
     }
 
 
@@ -237,12 +340,13 @@ public class Parser {
      *  Parser.registerOperator(f);
      * }</pre>
      * Note that unary operators have no explicit precedence - they are all implicitly higher than all
-     * binary operators (this simplifies the conversion logic).
+     * binary operators (this simplifies the conversion logic). The operator is added to the default registry.
      *
      * @param factory     a factory instance that can be used to create an instance of the operator
+     * @see #updateDefaultRegistry
      */
     public static void registerOperator(Factory factory) {
-        uniOperatorMap.put(factory.getName(), factory);
+        updateDefaultRegistry((builder) -> builder.operator(factory));
     }
     
 
@@ -254,11 +358,13 @@ public class Parser {
      *  Factory f = Functions.create("sqrt", (context, v) -> Math.sqrt(Operators.toFloat(v)));
      *  Parser.registerFunction(f);
      * }</pre>
+     * The function is added to the default registry.
      *
      * @param factory     a factory instance that can be used to create an instance of the function
+     * @see #updateDefaultRegistry
      */
     public static void registerFunction(Factory factory) {
-        functionMap.put(factory.getName(), factory);
+        updateDefaultRegistry((builder) -> builder.function(factory));
     }
 
 
@@ -275,38 +381,41 @@ public class Parser {
     public Expression parse(String expression) throws ExpressionError {
         assert expression != null : "Null expression";
 
-        /*
-         * First thing to do is process string constants (quoted strings), since these may contain spaces that
-         * would impact the tokenization. We temporarily pull them out and store them, replacing them with a
-         * tag that can be used to reinsert later, once tokenization is complete.
-         */
-        List<String> constants = new ArrayList<String>();
-        Matcher m1 = doubleQuotes.matcher(expression);
-        String expr = m1.replaceAll((match) -> String.format( " _%d ", constants.size(), constants.add(m1.group())));
-
-
-        /* Next, expand (insert spaces) around various character sequences to make tokenization easier */
-
-        Matcher m2 = expansions.matcher(expr);
-        expr = m2.replaceAll((match) -> String.format(" %s ", m2.group(1)));
+        /* Use this thread's lexer, unless it is already in use (i.e. a factory is parsing an expression) */
 
-        /* Pad a dot '.' between two words (not numbers) with spaces so it gets interpreted as an operator */
-
-        Matcher m3 = dots.matcher(expr);
-        expr = m3.replaceAll((match) -> String.format("%s . %s", m3.group(2), m3.group(3)));
+        Lexer lexer = lexers.get();
+        if (!lexer.acquire()) {
+            lexer = new Lexer();
+            lexer.acquire();
+        }
 
+        try {
+            /* Split the expression into tokens, then convert the tokens into an expression */
 
-        /* Now tokenize and re-insert quoted strings */
+            Registry registry = getRegistry();
 
-        String[] tokens = Arrays.stream(expr.split("\\s+"))
-            .map((s) -> (constantPattern.matcher(s).matches() ? constants.get(Integer.parseInt(s.substring(1))) : s))
-            .filter((s) -> s.length() > 0)
-            .toArray(String[]::new);
+            lexer.tokenize(expression, registry::isOperator);
+            return this.convert(lexer, registry);
+        }
+        finally {
+            lexer.release();
+        }
+    }
 
 
-        /* Finally, convert the token stream into an expression */
 
-        return this.convert(new TokenStream(tokens));
+    /**
+     * Parses a boolean valued expression string (e.g. a filter or rule condition) into a predicate.
+     * <p>The result of testing the predicate is the same as evaluating the parsed expression with
+     * {@link Expression#evalBoolean}, but the logical operators are evaluated directly as primitive booleans.
+     *
+     * @param expression  the string expression to parse.
+     * @return a Predicate instance that can be used to test the expression.
+     * @throws ExpressionError if an error occurred during parsing.
+     * @see Predicate
+     */
+    public Predicate parsePredicate(String expression) throws ExpressionError {
+        return Predicate.of(parse(expression));
     }
 
 
@@ -317,16 +426,18 @@ public class Parser {
      * expression) into an {@link Expression} tree. It encodes the allowed syntax - constants,
      * operators, functions, lists, argument lists, etc.
      *
-     * @param stream  the token stream to convert
+     * @param stream    the token stream to convert
+     * @param registry  the registry holding the operators and functions
      * @return an Expression instance that can be used to evaluate the expression.
      * @throws ExpressionError if an error occurred during parsing.
      */
-    private Expression convert(final TokenStream stream) throws ExpressionError {
+    private Expression convert(final Lexer stream, final Registry registry) throws ExpressionError {
 
         /* Stores for the expressions and operators */
         
         List<Expression> exprs = new ArrayList<Expression>();
         List<String> ops = new ArrayList<String>();
+        List<Integer> precedences = new ArrayList<Integer>();
         String unaryOp = null;
 
         TokenType type;
@@ -336,63 +447,73 @@ public class Parser {
          * Check to see if the next token is a terminal (e.g. comma, closing parenthesis/list, end of stream). If a terminal,
          * we exit the loop here.
          */
-        while (!terminals.contains(type = getTokenType(stream.peek()))) {
+        while (!terminals.contains(type = stream.peek())) {
 
             /* Consume the token and process */
 
-            String token = stream.next();
+            stream.next();
+            String token = stream.text();
             Expression expr = null;
 
             switch (type) {
                 /* A plain (unquoted) string value is either the start of a function or a context variable */
 
                 case TOKEN: {
-                    if (getTokenType(stream.peek()) == TokenType.BEGINPAREN) {
+                    if (stream.peek() == TokenType.BEGINPAREN) {
 
                         /* This appears to be a function so verify */
 
-                        if (!functionMap.containsKey(token)) throw new ExpressionError(String.format("Unsupported function '%s'", token));
+                        Factory function = registry.getFunction(token);
+                        if (function == null) throw new ExpressionError(String.format("Unsupported function '%s'", token));
                         stream.next(); /* Consume the opening paren */
 
 
                         /* Get the (possibly empty) argument list */
 
                         List<Expression> arguments = new ArrayList<Expression>();
-                        while ((expr = convert(stream)) != null) {
+                        while ((expr = convert(stream, registry)) != null) {
                             arguments.add(expr);
 
-                            if (getTokenType(stream.peek()) == TokenType.ENDPAREN) break;
-                            if (getTokenType(stream.next()) != TokenType.COMMA) throw new ExpressionError("Unexpected token in argument list - expected comma");
+                            if (stream.peek() == TokenType.ENDPAREN) break;
+                            if (stream.next() != TokenType.COMMA) throw new ExpressionError("Unexpected token in argument list - expected comma");
                         }
 
 
                         /* An argument list is complete when a closing paren is found */
 
-                        type = getTokenType(stream.next());
+                        type = stream.next();
                         if (type != TokenType.ENDPAREN) {
                             throw new ExpressionError(String.format("Invalid argument list for function %s", token));
                         }
-                        expr = functionMap.get(token).create(arguments.toArray(new Expression[arguments.size()]));
+                        expr = function.create(arguments.toArray(new Expression[arguments.size()]));
                     }
-                    else { /* This must be a context variable */
-                        expr = new ContextValue(token);
+                    else { /* This must be a context variable. Member names (following a '.') are never bound to slots */
+                        boolean member = !ops.isEmpty() && exprs.size() == ops.size() && ops.get(ops.size() - 1).equals(".");
+                        expr = new ContextValue(token, member ? null : symbols);
                     }
                 }
                 break;
 
                 case OPERATOR: {
                     if (exprs.size() == ops.size()) { /* Check for special case of a unary operator */
-                        if (!uniOperatorMap.containsKey(token)) throw new ExpressionError(String.format("Unexpected unary operator '%s'", token));
+                        if (registry.getOperator(token, true) == null) throw new ExpressionError(String.format("Unexpected unary operator '%s'", token));
                         unaryOp = token;
                     }
                     else { /* We have an expression and are expecting a binary operator */
 
-                        if (!biOperatorMap.containsKey(token)) throw new ExpressionError(String.format("Unsupported operator '%s'", token));
+                        int precedence = registry.getPrecedence(token);
+                        if (precedence < 0) throw new ExpressionError(String.format("Unsupported operator '%s'", token));
 
                         /* We always expect one more expression than operators at this point */
 
                         if (exprs.size() != ops.size() + 1) throw new ExpressionError(String.format("Unexpected operator '%s'", token));
+
+                        /* Reduce any pending operators of higher or equal precedence, since they must be evaluated first */
+
+                        while (!ops.isEmpty() && precedences.get(precedences.size() - 1) >= precedence) reduce(exprs, ops, precedences, registry);
+
                         ops.add(token);
+                        precedences.add(precedence);
                     }
                 }
                 break;
@@ -403,12 +524,12 @@ public class Parser {
                      * in a 'paren' expression which has no impact operationally - it is just a pass thru. However, it does allow
                      * us to preserve the parenthesis when we convert back to a string.
                      */
-                    expr = convert(stream);
+                    expr = convert(stream, registry);
                     if (expr == null) throw new ExpressionError("Empty expression following parenthesis");
                     
                     /* Pop the terminating token and verify it was a closing parenthesis */
 
-                    type = getTokenType(stream.next());
+                    type = stream.next();
                     if (type != TokenType.ENDPAREN) throw new ExpressionError("Invalid expression following parenthesis - not terminated with ')'");
 
                     expr = new Parenthesis(expr);
@@ -420,16 +541,16 @@ public class Parser {
                      * This marks the start of a list of sub-expressions.
                      */
                     List<Expression> elements = new ArrayList<Expression>();
-                    while ((expr = convert(stream)) != null) {
+                    while ((expr = convert(stream, registry)) != null) {
                         elements.add(expr);
 
-                        if (getTokenType(stream.peek()) == TokenType.ENDLIST) break;
-                        if (getTokenType(stream.next()) != TokenType.COMMA) throw new ExpressionError("Unexpected token in list - expected comma");
+                        if (stream.peek() == TokenType.ENDLIST) break;
+                        if (stream.next() != TokenType.COMMA) throw new ExpressionError("Unexpected token in list - expected comma");
                     }
 
                     /* An argument list is complete when a closing paren is found */
 
-                    type = getTokenType(stream.next());
+                    type = stream.next();
                     if (type != TokenType.ENDLIST) {
                         throw new ExpressionError(String.format("Invalid argument list for function %s", token));
                     }
@@ -442,7 +563,7 @@ public class Parser {
 
                 case NULL: expr = new Constant(null); break;
                 case STRING: expr = new Constant(token.substring(1, token.length() - 1)); break;
-                case INTEGER: expr = new Constant(Integer.parseInt(token)); break;
+                case INTEGER: expr = new Constant(integer(token)); break;
                 case FLOAT: expr = new Constant(Double.parseDouble(token)); break;
                 case BOOL: expr = new Constant(Boolean.parseBoolean(token)); break;
             }
@@ -459,7 +580,7 @@ public class Parser {
                  * wrapping the current expression.
                  */
                 if (unaryOp != null) {
-                    expr = uniOperatorMap.get(unaryOp).create(expr);
+                    expr = registry.getOperator(unaryOp, true).create(expr);
                     unaryOp = null;
                 }
                 exprs.add(expr);
@@ -470,99 +591,60 @@ public class Parser {
          * At this point, we should have either:
          * 1) An empty set of expressions/operators
          * 2) A single expression
-         * 3) A list of n operators and n + 1 expressions
-         * In case 3, we need to reduce (collapse) the operators in precedence order.
+         * 3) A list of n operators (in increasing order of precedence) and n + 1 expressions
+         * In case 3, we need to reduce the remaining operators, highest precedence first.
          */
-        Expression e = null; 
-        if (!exprs.isEmpty()) e = collapse(exprs, ops);
+        if (!ops.isEmpty() && exprs.size() == ops.size()) {
+            throw new ExpressionError(String.format("Missing expression following operator '%s'", ops.get(ops.size() - 1)));
+        }
+        while (!ops.isEmpty()) reduce(exprs, ops, precedences, registry);
 
-        return e;
+        return exprs.isEmpty() ? null : exprs.get(0);
     }
 
 
 
     /**
-     * Collapse a stream of expressions and operators down into a single expression.
-     * <p>On entry a list of n expressions (n &gt; 0) and n - 1 operators are provided.
-     * <pre>{@code 
-     *  <expr 1> <op 1> <expr 2> <op 2> <expr 3> .... <expr n-1> <op n-1> <expr n>
-     * }</pre>
-     * Working from left to right, an operator can be collapsed if it is higher or equal
-     * priority to the next operator or there is no additional operator.
+     * Reduces the most recent binary operator.
+     * <p>The operator is removed from the operator stack, along with its two operands from the expression
+     * stack, and replaced on the expression stack with the expression created for the operator. Operators
+     * are added to the stacks as they are read, after reducing any pending operators with a higher or equal
+     * precedence. This builds the expression tree in a single pass, with operators of the same precedence
+     * being evaluated left to right.
      *
-     * @param exprs  a list of expressions
-     * @param ops    a list of operands
-     * @return       a single expression representing the entire set of operations
-     * @throws ExpressionError on failure to collapse the expression list (technically, only throw
-     *                when attempting to create an binary operator expression).
+     * @param exprs        the expression stack
+     * @param ops          the operator stack
+     * @param precedences  the precedence of each operator on the operator stack
+     * @param registry     the registry holding the operators
+     * @throws ExpressionError on failure to create the binary operator expression
      */
-    private Expression collapse(List<Expression> exprs, List<String> ops) throws ExpressionError {
-        assert !exprs.isEmpty();
-
-        /* Work through the list from left to right to see what can be collapsed */
+    private void reduce(List<Expression> exprs, List<String> ops, List<Integer> precedences, Registry registry) throws ExpressionError {
+        int last = exprs.size() - 1;
+        Expression right = exprs.remove(last);
+        Expression left = exprs.get(last - 1);
 
-        while (!ops.isEmpty()) {
-            int numOps = ops.size();
-            int max_i = numOps - 1;
-
-            for (int i = 0; i < numOps; ++i) {
-                /*
-                 * Get the precedence values of expressions i and i + 1. If there is no i + 1 expression,
-                 * set the precedence to very low to force a collapse.
-                 */
-                int prec1 = operatorPrecedence.get(ops.get(i));
-                int prec2 = (i < max_i) ? operatorPrecedence.get(ops.get(i + 1)) : -1;
-
-                if (prec1 >= prec2) {
-                    Expression e = biOperatorMap.get(ops.get(i)).create(exprs.get(i), exprs.get(i + 1));
-                    exprs.set(i, e);
-                    exprs.remove(i + 1);
-                    ops.remove(i);
-                    break;
-                }
-            }
-        }
-
-        assert exprs.size() == 1;
-        return exprs.get(0);
+        precedences.remove(precedences.size() - 1);
+        exprs.set(last - 1, registry.getOperator(ops.remove(ops.size() - 1), false).create(left, right));
     }
 
 
 
     /**
-     * Identifies the type of an expression token.
+     * Converts an integer constant to a value.
+     * <p>Constants are Integers unless they are too large, in which case they are Longs.
      *
-     * @param token  the token string from the expression.
-     * @return the token type as an enumeration value.
-     * @see Parser.TokenType
+     * @param token  the integer constant
+     * @return the Integer or Long value
+     * @throws ExpressionError if the constant is too large for a Long
      */
-    private TokenType getTokenType(String token) {
-        if (token == null)
-            return TokenType.EOS;
-        else if (token.equals("("))
-            return TokenType.BEGINPAREN;
-        else if (token.equals(")"))
-            return TokenType.ENDPAREN;
-        else if (token.equals("["))
-            return TokenType.BEGINLIST;
-        else if (token.equals("]"))
-            return TokenType.ENDLIST;
-        else if (token.equals(","))
-            return TokenType.COMMA;
-        else if (token.equalsIgnoreCase("null"))
-            return TokenType.NULL;
-        else if (biOperatorMap.containsKey(token) || uniOperatorMap.containsKey(token))
-            return TokenType.OPERATOR;
-        else if (token.equalsIgnoreCase("true") || token.equalsIgnoreCase("false"))
-            return TokenType.BOOL;
-        else if (token.startsWith("\"") && token.endsWith("\""))
-            return TokenType.STRING;
-        else if (integerPattern.matcher(token).matches())
-            return TokenType.INTEGER;
-        else if (floatPattern.matcher(token).matches())
-            return TokenType.FLOAT;
-
-        return TokenType.TOKEN;
+    private static Object integer(String token) throws ExpressionError {
+        try {
+            long value = Long.parseLong(token);
+            return (value == (int) value) ? (Object) Integer.valueOf((int) value) : (Object) Long.valueOf(value);
+        }
+        catch (NumberFormatException x) {
+            throw new ExpressionError(String.format("Integer constant out of range: %s", token));
+        }
     }
 
 
@@ -660,15 +742,4 @@ public class Parser {
             x.printStackTrace();
         }
     }
-
-    private Object toValue(String s) throws Exception {
-        if (doubleQuotes.matcher(s).matches())
-            return s;
-        else if (integerPattern.matcher(s).matches())
-            return Integer.parseInt(s);
-        else if (floatPattern.matcher(s).matches())
-            return Double.parseDouble(s);
-        
-        return null;
-    }
 }
\ No newline at end of file
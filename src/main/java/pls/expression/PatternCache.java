@@ -0,0 +1,244 @@
+package pls.expression;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+
+
+/**
+ * Bounded cache of compiled regular expressions.
+ * <p>The regex matching operators ('=~' and 'matches') compile a constant regular expression once,
+ * when the expression is parsed. Regular expressions that are only known at evaluation time (e.g. taken
+ * from the expression context) are looked up in a pattern cache instead, so that the same regular
+ * expression is not recompiled on every evaluation. When the cache is full, the least recently used
+ * patterns are discarded. Recency is approximate - each pattern records the number of misses when it was last
+ * used, rather than being moved within a list - and patterns are discarded in groups of up to a tenth of the
+ * capacity, so that the cost of finding them is shared between many misses.
+ * <p>The cache used by the operators is available from {@link Functions#getPatternCache}. Hit and miss
+ * counts are maintained to allow the effectiveness of the cache to be monitored, e.g.
+ * <pre>{@code
+ *   PatternCache cache = Functions.getPatternCache();
+ *   System.out.println(cache.getHits() + " hits, " + cache.getMisses() + " misses");
+ * }</pre>
+ * Pattern caches are thread safe, and are read without locking. Patterns are compiled outside of the cache, so a
+ * pattern may occasionally be compiled more than once if several threads request it at the same time.
+ *
+ * @author Peter Smith
+ */
+public class PatternCache {
+
+    /**
+     * A compiled pattern, and when it was last used.
+     */
+    private static final class Entry {
+
+        /** The compiled pattern */
+
+        final Pattern pattern;
+
+
+        /** The value of the clock when the pattern was last used */
+
+        volatile long used;
+
+
+        Entry(Pattern pattern, long used) {
+            this.pattern = pattern;
+            this.used = used;
+        }
+    }
+
+
+
+    /** Default maximum number of patterns held */
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+
+    /** Compiled patterns */
+
+    private Map<String, Entry> patterns = new ConcurrentHashMap<String, Entry>();
+
+
+    /** The maximum number of patterns held */
+
+    private volatile int capacity;
+
+
+    /** Clock advanced by each miss, used to order patterns by when they were last used */
+
+    private AtomicLong clock = new AtomicLong();
+
+
+    /** The number of lookups that found a compiled pattern */
+
+    private LongAdder hits = new LongAdder();
+
+
+    /** The number of lookups that required a pattern to be compiled */
+
+    private LongAdder misses = new LongAdder();
+
+
+
+    /**
+     * Creates a pattern cache with the default capacity.
+     */
+    public PatternCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+
+    /**
+     * Creates a pattern cache.
+     *
+     * @param capacity  the maximum number of patterns to hold
+     */
+    public PatternCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Invalid pattern cache capacity: " + capacity);
+        this.capacity = capacity;
+    }
+
+
+
+    /**
+     * Returns the compiled pattern for a regular expression, compiling it if it is not already cached.
+     *
+     * @param regex  the regular expression
+     * @return the compiled pattern
+     * @throws java.util.regex.PatternSyntaxException if the regular expression is invalid
+     */
+    public Pattern get(String regex) {
+        Entry entry = patterns.get(regex);
+        if (entry != null) {
+            hits.increment();
+
+            /* A hit is more recent than the last miss (the entry is only written when that changes) */
+
+            long now = clock.get() + 1;
+            if (entry.used != now) entry.used = now;
+            return entry.pattern;
+        }
+        misses.increment();
+
+        Pattern pattern = Pattern.compile(regex);
+        patterns.put(regex, new Entry(pattern, clock.incrementAndGet()));
+        if (patterns.size() > capacity) evict();
+        return pattern;
+    }
+
+
+
+    /**
+     * Discards the least recently used patterns, if the cache holds more patterns than its capacity.
+     * <p>Up to a tenth of the capacity is discarded at once, so that patterns are not discarded on every miss.
+     */
+    private synchronized void evict() {
+        int limit = capacity;
+        if (patterns.size() <= limit) return; /* Already discarded by another thread */
+
+        int target = limit - limit / 10;
+        long[] times = new long[patterns.size()];
+        int n = 0;
+        for (Entry entry : patterns.values()) {
+            if (n == times.length) break;
+            times[n++] = entry.used;
+        }
+        if (n <= target) return;
+
+        Arrays.sort(times, 0, n);
+        long cutoff = times[n - target - 1];
+        int excess = n - target;
+
+        /* Discard the patterns used before the cutoff, then as many used at the cutoff as needed */
+
+        for (Iterator<Entry> entries = patterns.values().iterator(); entries.hasNext() && excess > 0; ) {
+            if (entries.next().used < cutoff) {
+                entries.remove();
+                --excess;
+            }
+        }
+        for (Iterator<Entry> entries = patterns.values().iterator(); entries.hasNext() && excess > 0; ) {
+            if (entries.next().used == cutoff) {
+                entries.remove();
+                --excess;
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the maximum number of patterns held by this cache.
+     *
+     * @return the cache capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+
+    /**
+     * Sets the maximum number of patterns held by this cache.
+     * <p>If the cache holds more patterns than the new capacity, the least recently used patterns are discarded.
+     *
+     * @param capacity  the maximum number of patterns to hold
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Invalid pattern cache capacity: " + capacity);
+
+        this.capacity = capacity;
+        evict();
+    }
+
+
+
+    /**
+     * Returns the number of patterns currently held by this cache.
+     *
+     * @return the number of cached patterns
+     */
+    public int size() {
+        return patterns.size();
+    }
+
+
+
+    /**
+     * Returns the number of lookups that found an already compiled pattern.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+
+
+    /**
+     * Returns the number of lookups that required a pattern to be compiled.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+
+
+    /**
+     * Discards all cached patterns and resets the hit and miss counts.
+     */
+    public void clear() {
+        patterns.clear();
+        hits.reset();
+        misses.reset();
+    }
+}
@@ -0,0 +1,45 @@
+package pls.expression;
+
+
+/**
+ * A boolean valued expression, such as a filter or rule condition.
+ * <p>A predicate evaluates an expression to a primitive boolean, giving exactly the same result (and errors)
+ * as {@link Expression#evalBoolean}. Predicates are created by {@link Parser#parsePredicate}, or from an
+ * existing (e.g. optimized or compiled) expression using {@link #of}. The logical operators
+ * <code>and</code>, <code>or</code>, and <code>!</code> are evaluated directly as primitive booleans,
+ * without boxing their results or converting them back again, e.g.
+ * <pre>{@code
+ *   Predicate filter = new Parser().parsePredicate("price > 100 and (category == 'tools' or featured)");
+ *   ...
+ *
+ *   if (filter.test(context)) {
+ *       ...
+ *   }
+ * }</pre>
+ * Like expressions, predicates may be used concurrently across multiple threads.
+ *
+ * @author Peter Smith
+ */
+@FunctionalInterface
+public interface Predicate {
+    /**
+     * Evaluates the predicate.
+     *
+     * @param context  the context in which the predicate is being evaluated
+     * @return         the result of the predicate
+     * @throws ExpressionError if an error occurred during evaluation
+     */
+    public abstract boolean test(ExpressionContext context) throws ExpressionError;
+
+
+
+    /**
+     * Creates a predicate from an expression.
+     *
+     * @param expression  the boolean valued expression
+     * @return a predicate evaluating the expression
+     */
+    public static Predicate of(Expression expression) {
+        return Predicates.create(expression);
+    }
+}
@@ -0,0 +1,198 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+
+
+/**
+ * Converts expression trees into predicates.
+ * <p>The logical operators registered by {@link Operators} (<code>and</code>, <code>or</code>, and
+ * <code>!</code>) are replaced by predicate nodes which pass primitive booleans between each other. Chains
+ * of the same logical operator (e.g. <code>a or b or c</code>) are flattened into a single node that tests each
+ * operand in turn, stopping as soon as the result is known, and parentheses are removed. Constants are
+ * converted once. Any other node is tested using {@link Expression#evalBoolean}, which comparison operators
+ * implement without boxing their operands.
+ *
+ * @author Peter Smith
+ */
+final class Predicates {
+
+    /**
+     * A predicate for an expression tree.
+     */
+    private static final class ExpressionPredicate implements Predicate {
+
+        /** The expression */
+
+        private Expression expression;
+
+
+        /** The converted expression */
+
+        private Predicate predicate;
+
+
+
+        /**
+         * Creates a predicate for an expression tree.
+         *
+         * @param expression  the expression
+         * @param predicate   the converted expression
+         */
+        ExpressionPredicate(Expression expression, Predicate predicate) {
+            this.expression = expression;
+            this.predicate = predicate;
+        }
+
+
+
+        @Override
+        public boolean test(ExpressionContext context) throws ExpressionError {
+            return predicate.test(context);
+        }
+
+
+
+        /**
+         * Serializes this predicate to a string.
+         *
+         * @return the string form of the expression
+         */
+        @Override
+        public String toString() {
+            return expression.toString();
+        }
+    }
+
+
+
+    /** Predicate for a constant true value */
+
+    private static final Predicate TRUE = (context) -> true;
+
+
+    /** Predicate for a constant false value */
+
+    private static final Predicate FALSE = (context) -> false;
+
+
+
+    /**
+     * Prevents instantiation.
+     */
+    private Predicates() {
+    }
+
+
+
+    /**
+     * Creates a predicate for an expression tree.
+     *
+     * @param expression  the expression
+     * @return a predicate evaluating the expression
+     */
+    static Predicate create(Expression expression) {
+        return new ExpressionPredicate(expression, convert(expression));
+    }
+
+
+
+    /**
+     * Converts an expression node into a predicate.
+     *
+     * @param e  the expression node
+     * @return a predicate evaluating the node
+     */
+    private static Predicate convert(Expression e) {
+        e = unwrap(e);
+
+        if (e instanceof Constant) {
+            return Operators.toBoolean(((Constant) e).getValue()) ? TRUE : FALSE;
+        }
+        else if (isLogical(e, Operators.AND)) {
+            Predicate[] operands = operands((BinaryOperator) e);
+            if (operands.length == 2) {
+                Predicate left = operands[0];
+                Predicate right = operands[1];
+                return (context) -> left.test(context) && right.test(context);
+            }
+            return (context) -> {
+                for (Predicate operand : operands) {
+                    if (!operand.test(context)) return false;
+                }
+                return true;
+            };
+        }
+        else if (isLogical(e, Operators.OR)) {
+            Predicate[] operands = operands((BinaryOperator) e);
+            if (operands.length == 2) {
+                Predicate left = operands[0];
+                Predicate right = operands[1];
+                return (context) -> left.test(context) || right.test(context);
+            }
+            return (context) -> {
+                for (Predicate operand : operands) {
+                    if (operand.test(context)) return true;
+                }
+                return false;
+            };
+        }
+        else if (e.getClass() == UnaryOperator.class && ((UnaryOperator) e).getOperation() == Operators.NOT) {
+            Predicate operand = convert(((UnaryOperator) e).getOperand());
+            return (context) -> !operand.test(context);
+        }
+        return e::evalBoolean;
+    }
+
+
+
+    /**
+     * Converts the operands of a chain of the same logical operator.
+     * <p>The parser builds chains as left deep trees, so these are followed iteratively to avoid deep recursion
+     * for long chains.
+     *
+     * @param e  the first (outermost) operator in the chain
+     * @return the operands in evaluation order
+     */
+    private static Predicate[] operands(BinaryOperator e) {
+        BinaryOperator.BinaryOperation op = e.getOperation();
+        ArrayList<Predicate> operands = new ArrayList<Predicate>();
+
+        Expression left = e;
+        while (isLogical(left, op)) {
+            BinaryOperator operator = (BinaryOperator) left;
+            operands.add(convert(operator.getRight()));
+            left = unwrap(operator.getLeft());
+        }
+        operands.add(convert(left));
+        Collections.reverse(operands);
+        return operands.toArray(new Predicate[operands.size()]);
+    }
+
+
+
+    /**
+     * Determines whether an expression node is a particular logical operator.
+     *
+     * @param e   the expression node
+     * @param op  the logical operation
+     * @return true if the node is a binary operator implemented by the operation
+     */
+    private static boolean isLogical(Expression e, BinaryOperator.BinaryOperation op) {
+        return e.getClass() == BinaryOperator.class && ((BinaryOperator) e).getOperation() == op;
+    }
+
+
+
+    /**
+     * Removes any parentheses surrounding an expression.
+     *
+     * @param e  the expression
+     * @return the expression within the parentheses
+     */
+    private static Expression unwrap(Expression e) {
+        while (e instanceof Parenthesis) e = ((Parenthesis) e).getExpression();
+        return e;
+    }
+}
@@ -0,0 +1,357 @@
+package pls.expression;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * An instrumented expression, as returned by {@link Profiler#instrument Profiler.instrument}.
+ * <p>A profile evaluates to exactly the same results (and errors) as the expression it was created from,
+ * while recording statistics for each operator, function, and context value in the expression. These
+ * can be retrieved using {@link #getNodes}, or written out as an annotated tree using {@link #report}, e.g.
+ * <pre>{@code
+ *   x > 3 and name == "a"  [count 1000, time 0.412 ms, errors 0, short circuit 62.0%]
+ *     x > 3  [count 1000, time 0.105 ms, errors 0]
+ *       x  [count 1000, time 0.031 ms, errors 0]
+ *     name == "a"  [count 380, time 0.097 ms, errors 0]
+ *       name  [count 380, time 0.022 ms, errors 0]
+ * }</pre>
+ * Statistics are updated atomically, so a profile may be evaluated concurrently across multiple threads.
+ * Recording the statistics adds a considerable overhead to each evaluation, so profiles should only be
+ * used to find the parts of an expression responsible for its cost.
+ *
+ * @author Peter Smith
+ * @see Profiler
+ */
+public class Profile implements Expression {
+
+    /**
+     * An instrumented node, recording the evaluations of an expression node.
+     * <p>Evaluation times include the time taken to evaluate the node's operands.
+     */
+    public static final class Node implements Expression {
+
+        /** The instrumented expression node */
+
+        private Expression expression;
+
+
+        /** The depth of the node in the expression tree (0 for the root) */
+
+        private int depth;
+
+
+        /** The instrumented right hand operand, if the node is an 'and' or 'or' operator (otherwise null) */
+
+        private Node right;
+
+
+        /* The evaluation statistics */
+
+        private LongAdder count = new LongAdder();
+        private LongAdder nanos = new LongAdder();
+        private LongAdder errors = new LongAdder();
+
+
+
+        /**
+         * Creates an instrumented node.
+         *
+         * @param depth  the depth of the node in the expression tree
+         */
+        Node(int depth) {
+            this.depth = depth;
+        }
+
+
+
+        /**
+         * Returns the instrumented expression node.
+         *
+         * @return the expression node
+         */
+        Expression getExpression() {
+            return expression;
+        }
+
+
+
+        /**
+         * Sets the instrumented expression node.
+         *
+         * @param expression  the expression node
+         * @param right       the instrumented right hand operand of an 'and' or 'or' operator (otherwise null)
+         */
+        void setExpression(Expression expression, Node right) {
+            this.expression = expression;
+            this.right = right;
+        }
+
+
+
+        /**
+         * Returns the depth of the node in the expression tree.
+         *
+         * @return the depth of the node (0 for the root)
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+
+
+        /**
+         * Returns the number of times the node has been evaluated.
+         *
+         * @return the evaluation count
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+
+
+        /**
+         * Returns the cumulative time taken evaluating the node.
+         *
+         * @return the evaluation time in nanoseconds
+         */
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+
+
+        /**
+         * Returns the number of evaluations of the node that failed.
+         *
+         * @return the error count
+         */
+        public long getErrors() {
+            return errors.sum();
+        }
+
+
+
+        /**
+         * Returns the number of evaluations of an 'and' or 'or' operator that did not need to evaluate
+         * the right hand operand.
+         *
+         * @return the short circuit count, or -1 if the node is not an 'and' or 'or' operator
+         */
+        public long getShortCircuits() {
+            if (right == null) return -1;
+
+            /* Evaluations that are neither short circuited nor passed to the right operand failed in the left operand */
+
+            long rightErrors = right.getErrors();
+            long rightCount = right.getCount();
+            return getCount() - rightCount - (getErrors() - rightErrors);
+        }
+
+
+
+        /**
+         * Resets the statistics for the node.
+         */
+        void reset() {
+            count.reset();
+            nanos.reset();
+            errors.reset();
+        }
+
+
+
+        @Override
+        public Object eval(ExpressionContext context) throws ExpressionError {
+            long start = System.nanoTime();
+            try {
+                return expression.eval(context);
+            }
+            catch (ExpressionError | RuntimeException x) {
+                errors.increment();
+                throw x;
+            }
+            finally {
+                nanos.add(System.nanoTime() - start);
+                count.increment();
+            }
+        }
+
+
+
+        @Override
+        public double evalDouble(ExpressionContext context) throws ExpressionError {
+            long start = System.nanoTime();
+            try {
+                return expression.evalDouble(context);
+            }
+            catch (ExpressionError | RuntimeException x) {
+                errors.increment();
+                throw x;
+            }
+            finally {
+                nanos.add(System.nanoTime() - start);
+                count.increment();
+            }
+        }
+
+
+
+        @Override
+        public int evalInt(ExpressionContext context) throws ExpressionError {
+            long start = System.nanoTime();
+            try {
+                return expression.evalInt(context);
+            }
+            catch (ExpressionError | RuntimeException x) {
+                errors.increment();
+                throw x;
+            }
+            finally {
+                nanos.add(System.nanoTime() - start);
+                count.increment();
+            }
+        }
+
+
+
+        @Override
+        public boolean evalBoolean(ExpressionContext context) throws ExpressionError {
+            long start = System.nanoTime();
+            try {
+                return expression.evalBoolean(context);
+            }
+            catch (ExpressionError | RuntimeException x) {
+                errors.increment();
+                throw x;
+            }
+            finally {
+                nanos.add(System.nanoTime() - start);
+                count.increment();
+            }
+        }
+
+
+
+        /**
+         * Serializes the instrumented node to a string.
+         *
+         * @return the string form of the expression node
+         */
+        @Override
+        public String toString() {
+            return expression.toString();
+        }
+    }
+
+
+
+    /** The instrumented expression */
+
+    private Expression expression;
+
+
+    /** The instrumented nodes, in depth first order */
+
+    private List<Node> nodes;
+
+
+
+    /**
+     * Creates a profile.
+     *
+     * @param expression  the instrumented expression
+     * @param nodes       the instrumented nodes, in depth first order
+     */
+    Profile(Expression expression, List<Node> nodes) {
+        this.expression = expression;
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+
+
+    /**
+     * Returns the instrumented nodes.
+     *
+     * @return the nodes in depth first order (each node is followed by the nodes of its operands)
+     */
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+
+
+    /**
+     * Resets the statistics for all nodes.
+     */
+    public void reset() {
+        for (Node node : nodes) node.reset();
+    }
+
+
+
+    /**
+     * Writes out the expression tree, annotated with the statistics for each node.
+     * <p>Each node is written on a separate line, in the same string form as the expression, and indented
+     * according to its depth in the tree.
+     *
+     * @return the annotated expression tree
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Node node : nodes) {
+            for (int i = 0; i < node.getDepth(); ++i) report.append("  ");
+
+            long count = node.getCount();
+            long shortCircuits = node.getShortCircuits();
+
+            report.append(String.format("%s  [count %d, time %.3f ms, errors %d", node, count, node.getNanos() / 1e6, node.getErrors()));
+            if (shortCircuits >= 0) report.append(String.format(", short circuit %.1f%%", count == 0 ? 0.0 : 100.0 * shortCircuits / count));
+            report.append("]\n");
+        }
+        return report.toString();
+    }
+
+
+
+    @Override
+    public Object eval(ExpressionContext context) throws ExpressionError {
+        return expression.eval(context);
+    }
+
+
+
+    @Override
+    public double evalDouble(ExpressionContext context) throws ExpressionError {
+        return expression.evalDouble(context);
+    }
+
+
+
+    @Override
+    public int evalInt(ExpressionContext context) throws ExpressionError {
+        return expression.evalInt(context);
+    }
+
+
+
+    @Override
+    public boolean evalBoolean(ExpressionContext context) throws ExpressionError {
+        return expression.evalBoolean(context);
+    }
+
+
+
+    /**
+     * Serializes the expression to a string.
+     *
+     * @return the string form of the expression
+     */
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+}
@@ -0,0 +1,206 @@
+package pls.expression;
+
+import java.util.ArrayList;
+
+
+
+/**
+ * The expression profiler.
+ * <p>This class creates an instrumented copy of an expression tree (see {@link Profile}), which records the
+ * number of evaluations, cumulative evaluation time, and errors for each operator, function, and context
+ * value, and the short circuit rate of each <code>and</code> and <code>or</code> operator. This makes it
+ * possible to see which part of an expression is responsible for its cost, e.g.
+ * <pre>{@code
+ *   Profile profile = new Profiler().instrument(new Parser().parse(rule));
+ *   ...
+ *
+ *   profile.evalBoolean(context);
+ *   ...
+ *
+ *   System.out.println(profile.report());
+ * }</pre>
+ * Nodes are rebuilt using the factories held in a {@link Registry}, so an expression should be instrumented
+ * using the same registry it was parsed with (by default, the parser's default registry). The operands of nodes
+ * not created by a registered factory (e.g. custom {@link Expression} implementations) cannot be rebuilt, so
+ * only the node itself is instrumented. Constants, lists, and parentheses are not instrumented. A chain of member
+ * operators (e.g. <code>order.customer.name</code>) is a single node, whose root (<code>order</code>) is instrumented,
+ * so the path is still evaluated as one, and the member names are never instrumented.
+ * <p>The Profiler class uses no mutable state and is thread safe.
+ *
+ * @author Peter Smith
+ * @see Optimizer
+ */
+public class Profiler {
+
+    /** The registry used to rebuild nodes (null to use the default registry) */
+
+    private Registry registry;
+
+
+
+    /**
+     * Creates a profiler that rebuilds nodes using the parser's default registry.
+     *
+     * @see Parser#getDefaultRegistry
+     */
+    public Profiler() {
+        this(null);
+    }
+
+
+
+    /**
+     * Creates a profiler that rebuilds nodes using a given registry.
+     *
+     * @param registry  the registry holding the operators and functions (may be null, in which case
+     *                  the parser's default registry is used)
+     */
+    public Profiler(Registry registry) {
+        this.registry = registry;
+    }
+
+
+
+    /**
+     * Instruments an expression.
+     *
+     * @param expression  the expression to instrument
+     * @return the instrumented expression
+     * @throws ExpressionError if an instrumented node could not be created
+     */
+    public Profile instrument(Expression expression) throws ExpressionError {
+        assert expression != null : "Null expression";
+
+        ArrayList<Profile.Node> nodes = new ArrayList<Profile.Node>();
+        Expression result = instrument(expression, 0, false, nodes, registry != null ? registry : Parser.getDefaultRegistry());
+        return new Profile(result, nodes);
+    }
+
+
+
+    /**
+     * Instruments an expression node and its operands.
+     *
+     * @param e         the expression to instrument
+     * @param depth     the depth of the node in the expression tree
+     * @param always    true if the node must be instrumented, even if it is a constant
+     * @param nodes     the instrumented nodes, to which the nodes created are added
+     * @param registry  the registry used to rebuild nodes
+     * @return the instrumented expression
+     * @throws ExpressionError if an instrumented node could not be created
+     */
+    private Expression instrument(Expression e, int depth, boolean always, ArrayList<Profile.Node> nodes, Registry registry) throws ExpressionError {
+        if (e instanceof Parenthesis) {
+            return new Parenthesis(instrument(((Parenthesis) e).getExpression(), depth, always, nodes, registry));
+        }
+        else if (e instanceof pls.expression.List) {
+            Expression[] values = ((pls.expression.List) e).getValues();
+            return always ? probe(e, depth, nodes) : new pls.expression.List(instrument(values, depth, nodes, registry));
+        }
+        else if (e instanceof Constant) {
+            return always ? probe(e, depth, nodes) : e;
+        }
+
+        /* Add the node before its operands, so nodes are listed depth first */
+
+        Profile.Node node = new Profile.Node(depth);
+        nodes.add(node);
+
+        Expression result = e;
+        Profile.Node right = null;
+
+        if (e instanceof Function) {
+            Function f = (Function) e;
+            Factory factory = registry.getFunction(f.getName());
+            if (factory != null) result = factory.create(instrument(f.getArguments(), depth + 1, nodes, registry));
+        }
+        else if (e instanceof UnaryOperator) {
+            UnaryOperator u = (UnaryOperator) e;
+            Factory factory = registry.getOperator(u.getName(), true);
+            if (factory != null) result = factory.create(instrument(u.getOperand(), depth + 1, false, nodes, registry));
+        }
+        else if (e instanceof MemberOperator) {
+            MemberOperator m = (MemberOperator) e;
+            Factory factory = registry.getOperator(m.getName(), false);
+            if (factory != null) result = member(m, factory, depth + 1, nodes, registry);
+        }
+        else if (e instanceof BinaryOperator) {
+            /* The right hand operand of a logical operator is always instrumented, to count short circuits */
+
+            BinaryOperator b = (BinaryOperator) e;
+            Factory factory = registry.getOperator(b.getName(), false);
+            boolean logical = b.getClass() == BinaryOperator.class && (b.getOperation() == Operators.AND || b.getOperation() == Operators.OR);
+
+            if (factory != null) {
+                Expression left = instrument(b.getLeft(), depth + 1, false, nodes, registry);
+                Expression r = instrument(b.getRight(), depth + 1, logical, nodes, registry);
+                result = factory.create(left, r);
+
+                while (r instanceof Parenthesis) r = ((Parenthesis) r).getExpression();
+                if (logical) right = (Profile.Node) r;
+            }
+        }
+
+        node.setExpression(result, right);
+        return node;
+    }
+
+
+
+    /**
+     * Rebuilds a chain of member operators with an instrumented root.
+     * <p>The operators below the top of the chain, and the member names, are not instrumented, so the
+     * rebuilt chain is evaluated as a single path.
+     *
+     * @param m         the member operator
+     * @param factory   the factory used to rebuild each member operator
+     * @param depth     the depth of the root of the chain in the expression tree
+     * @param nodes     the instrumented nodes, to which the nodes created are added
+     * @param registry  the registry used to rebuild nodes
+     * @return the rebuilt member operator
+     * @throws ExpressionError if an instrumented node could not be created
+     */
+    private Expression member(MemberOperator m, Factory factory, int depth, ArrayList<Profile.Node> nodes, Registry registry) throws ExpressionError {
+        Expression left = m.getLeft();
+        if (left instanceof MemberOperator)
+            left = member((MemberOperator) left, factory, depth, nodes, registry);
+        else if (left != null)
+            left = instrument(left, depth, false, nodes, registry);
+        return factory.create(left, m.getRight());
+    }
+
+
+
+    /**
+     * Instruments a set of function arguments or list elements.
+     *
+     * @param values    the expressions to instrument
+     * @param depth     the depth of the expressions in the expression tree
+     * @param nodes     the instrumented nodes, to which the nodes created are added
+     * @param registry  the registry used to rebuild nodes
+     * @return the instrumented expressions
+     * @throws ExpressionError if an instrumented node could not be created
+     */
+    private Expression[] instrument(Expression[] values, int depth, ArrayList<Profile.Node> nodes, Registry registry) throws ExpressionError {
+        Expression[] result = new Expression[values.length];
+        for (int i = 0; i < values.length; ++i) result[i] = instrument(values[i], depth, false, nodes, registry);
+        return result;
+    }
+
+
+
+    /**
+     * Instruments a node, without instrumenting its operands.
+     *
+     * @param e      the expression node
+     * @param depth  the depth of the node in the expression tree
+     * @param nodes  the instrumented nodes, to which the node is added
+     * @return the instrumented node
+     */
+    private static Profile.Node probe(Expression e, int depth, ArrayList<Profile.Node> nodes) {
+        Profile.Node node = new Profile.Node(depth);
+        node.setExpression(e, null);
+        nodes.add(node);
+        return node;
+    }
+}
@@ -0,0 +1,272 @@
+package pls.expression;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/**
+ * An immutable set of registered operators and functions.
+ * <p>A registry holds the factories used by a {@link Parser} to create operators and functions, along with
+ * the precedence of each binary operator. Registries cannot be modified once built, so a registry can be
+ * read by any number of parsing threads without locking. Changing the operators or functions used by a
+ * parser is done by building a new registry (typically a copy of an existing registry with some additions)
+ * and publishing it, either to a single parser:
+ * <pre>{@code
+ *   Registry.Builder builder = new Registry.Builder(parser.getRegistry());
+ *   Functions.registerStringFunctions(builder);
+ *   parser.setRegistry(builder.build());
+ * }</pre>
+ * or as the default registry used by all parsers that are not given a registry of their own (see
+ * {@link Parser#setDefaultRegistry}). Parses already in progress continue to use the registry they
+ * started with.
+ * <p>A registry holding only some of the default operators and functions can be built from an empty
+ * builder, e.g.
+ * <pre>{@code
+ *   Registry.Builder builder = new Registry.Builder();
+ *   Operators.registerDefaultOperators(builder);
+ *   Parser parser = new Parser(builder.build());
+ * }</pre>
+ *
+ * @author Peter Smith
+ * @see Parser
+ */
+public final class Registry {
+
+    /**
+     * Builder used to create registries.
+     * <p>A builder is not thread safe, and should only be used by the thread creating the registry.
+     */
+    public static class Builder {
+
+        /** Lookup table of binary operators */
+
+        private Map<String, Factory> biOperatorMap;
+
+
+        /** Operator precedence values */
+
+        private Map<String, Integer> operatorPrecedence;
+
+
+        /** Lookup table of unary operators */
+
+        private Map<String, Factory> uniOperatorMap;
+
+
+        /** Lookup table of named functions */
+
+        private Map<String, Factory> functionMap;
+
+
+
+        /**
+         * Creates a builder with no operators or functions.
+         */
+        public Builder() {
+            this.biOperatorMap = new HashMap<String, Factory>();
+            this.operatorPrecedence = new HashMap<String, Integer>();
+            this.uniOperatorMap = new HashMap<String, Factory>();
+            this.functionMap = new HashMap<String, Factory>();
+        }
+
+
+
+        /**
+         * Creates a builder holding the operators and functions of an existing registry.
+         *
+         * @param registry  the registry to copy
+         */
+        public Builder(Registry registry) {
+            this.biOperatorMap = new HashMap<String, Factory>(registry.biOperatorMap);
+            this.operatorPrecedence = new HashMap<String, Integer>(registry.operatorPrecedence);
+            this.uniOperatorMap = new HashMap<String, Factory>(registry.uniOperatorMap);
+            this.functionMap = new HashMap<String, Factory>(registry.functionMap);
+        }
+
+
+
+        /**
+         * Adds a named binary operator, replacing any binary operator with the same name.
+         *
+         * @param factory     a factory that can be used to create an instance of the operator
+         * @param precedence  the precedence level (refer to Javascript operator precedence levels)
+         * @return a reference to this builder
+         */
+        public Builder operator(Factory factory, int precedence) {
+            biOperatorMap.put(factory.getName(), factory);
+            operatorPrecedence.put(factory.getName(), precedence);
+            return this;
+        }
+
+
+
+        /**
+         * Adds a named unary operator, replacing any unary operator with the same name.
+         *
+         * @param factory  a factory that can be used to create an instance of the operator
+         * @return a reference to this builder
+         */
+        public Builder operator(Factory factory) {
+            uniOperatorMap.put(factory.getName(), factory);
+            return this;
+        }
+
+
+
+        /**
+         * Adds a named function, replacing any function with the same name.
+         *
+         * @param factory  a factory that can be used to create an instance of the function
+         * @return a reference to this builder
+         */
+        public Builder function(Factory factory) {
+            functionMap.put(factory.getName(), factory);
+            return this;
+        }
+
+
+
+        /**
+         * Creates a registry holding the operators and functions added to this builder.
+         * <p>The builder may continue to be used after this - later changes do not affect the registry.
+         *
+         * @return the registry
+         */
+        public Registry build() {
+            return new Registry(this);
+        }
+    }
+
+
+
+    /** The registry holding the default operators and functions (created when first needed) */
+
+    private static class Defaults {
+        static final Registry registry = defaults();
+    }
+
+
+    /** Lookup table of binary operators */
+
+    private final Map<String, Factory> biOperatorMap;
+
+
+    /** Operator precedence values */
+
+    private final Map<String, Integer> operatorPrecedence;
+
+
+    /** Lookup table of unary operators */
+
+    private final Map<String, Factory> uniOperatorMap;
+
+
+    /** Lookup table of named functions */
+
+    private final Map<String, Factory> functionMap;
+
+
+
+    /**
+     * Creates a registry from a builder.
+     *
+     * @param builder  the builder holding the operators and functions
+     */
+    private Registry(Builder builder) {
+        this.biOperatorMap = new HashMap<String, Factory>(builder.biOperatorMap);
+        this.operatorPrecedence = new HashMap<String, Integer>(builder.operatorPrecedence);
+        this.uniOperatorMap = new HashMap<String, Factory>(builder.uniOperatorMap);
+        this.functionMap = new HashMap<String, Factory>(builder.functionMap);
+    }
+
+
+
+    /**
+     * Returns a registry holding the default operators and functions.
+     * <p>These are the operators registered by {@link Operators#registerDefaultOperators()} and the functions
+     * registered by {@link Functions#registerDefaultFunctions()}.
+     *
+     * @return the default registry
+     */
+    public static Registry getDefaults() {
+        return Defaults.registry;
+    }
+
+
+
+    /**
+     * Creates the default registry.
+     *
+     * @return the default registry
+     */
+    private static Registry defaults() {
+        Builder builder = new Builder();
+        Operators.registerDefaultOperators(builder);
+        Functions.registerDefaultFunctions(builder);
+        return builder.build();
+    }
+
+
+
+    /**
+     * Returns the factory registered for a function.
+     *
+     * @param name  the function name
+     * @return the registered factory, or null if no function is registered with the name
+     */
+    public Factory getFunction(String name) {
+        return functionMap.get(name);
+    }
+
+
+
+    /**
+     * Returns the factory registered for an operator.
+     *
+     * @param name   the operator name
+     * @param unary  true to find a unary operator, false for a binary operator
+     * @return the registered factory, or null if no operator is registered with the name
+     */
+    public Factory getOperator(String name, boolean unary) {
+        return unary ? uniOperatorMap.get(name) : biOperatorMap.get(name);
+    }
+
+
+
+    /**
+     * Returns the precedence of a binary operator.
+     *
+     * @param name  the operator name
+     * @return the operator precedence, or -1 if no binary operator is registered with the name
+     */
+    public int getPrecedence(String name) {
+        Integer precedence = operatorPrecedence.get(name);
+        return precedence == null ? -1 : precedence;
+    }
+
+
+
+    /**
+     * Determines whether a unary or binary operator is registered with a name.
+     *
+     * @param name  the operator name
+     * @return true if an operator is registered with the name
+     */
+    public boolean isOperator(String name) {
+        return biOperatorMap.containsKey(name) || uniOperatorMap.containsKey(name);
+    }
+
+
+
+    /**
+     * Returns the names of the registered functions.
+     *
+     * @return the function names (the returned set cannot be modified)
+     */
+    public Set<String> getFunctionNames() {
+        return Collections.unmodifiableSet(functionMap.keySet());
+    }
+}
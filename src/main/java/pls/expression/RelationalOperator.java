@@ -33,6 +33,12 @@ class RelationalOperator extends BinaryOperator {
 
 
 
+    /** The relational operation */
+
+    private RelationalOperation relOp;
+
+
+
     /**
      * Creates a RelationalOperator instance.
      *
@@ -48,25 +54,48 @@ class RelationalOperator extends BinaryOperator {
             Object r1 = l.eval(context);
             Object r2 = r.eval(context);
 
-            /* If we have non null values for both, verify they are the same types. This is an imposed rule (like Java). */
-
-            if (r1 != null && r2 != null) {
-                Class<?> c1 = r1.getClass();
-                Class<?> c2 = r2.getClass();
-                if (c1 != c2) {
-                    throw new ExpressionError(
-                        String.format("Type mismatch : (%s) %s %s (%s) %s", 
-                            c1.getSimpleName(),
-                            r1.toString(), 
-                            name,
-                            c2.getSimpleName(),
-                            r2.toString()));
-                }
-            }
-            
-            /* Execute the relational operator */
-            
+            /* Verify the operand types then execute the relational operator */
+
+            checkTypes(r1, r2, name);
             return relOp.exec(r1, r2);
         });
+        this.relOp = relOp;
+    }
+
+
+
+    /**
+     * Verifies the operands of a relational operator.
+     * <p>If we have non null values for both, verify they are the same types. This is an imposed rule (like Java).
+     *
+     * @param r1    the evaluated left hand operand
+     * @param r2    the evaluated right hand operand
+     * @param name  the name of the operator (used for error reporting)
+     * @throws ExpressionError if the operands are of different types
+     */
+    static void checkTypes(Object r1, Object r2, String name) throws ExpressionError {
+        if (r1 != null && r2 != null) {
+            Class<?> c1 = r1.getClass();
+            Class<?> c2 = r2.getClass();
+            if (c1 != c2) {
+                throw ExpressionError.lazy("Type mismatch : (%s) %s %s (%s) %s",
+                    c1.getSimpleName(),
+                    r1,
+                    name,
+                    c2.getSimpleName(),
+                    r2);
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the relational operation implementing this operator.
+     *
+     * @return the relational operation
+     */
+    RelationalOperation getRelationalOperation() {
+        return this.relOp;
     }
 }
@@ -0,0 +1,272 @@
+package pls.expression;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * Bounded cache of the results of a pure function.
+ * <p>A function that is expensive to evaluate, but is called with a small number of distinct argument values
+ * (e.g. a lookup), can be marked as cached when it is registered:
+ * <pre>{@code
+ *   Factory f = Functions.create("region", (context, code) -> lookupRegion(code)).setCached(10000);
+ *   Parser.registerFunction(f);
+ *   ...
+ *   ResultCache cache = f.getCache();
+ *   System.out.println(cache.getHits() + " hits, " + cache.getMisses() + " misses");
+ * }</pre>
+ * Each call of the function looks up its argument values in the cache, and the function is only evaluated if
+ * the result is not already cached. Argument values are compared using {@link Object#equals} (lists are compared
+ * by their contents), so an Integer argument never matches a Double. Results that are errors are not cached.
+ * When the cache is full, an arbitrary result is discarded to make room for a new one.
+ * <p>Result caches are thread safe, and are read without locking. Results are computed outside of the cache, so a
+ * result may occasionally be computed more than once if several threads request it at the same time.
+ *
+ * @author Peter Smith
+ * @see Factory#setCached
+ */
+public class ResultCache {
+
+    /**
+     * Key holding argument values that cannot be used as keys directly (nulls and lists), or several values.
+     */
+    private static final class Key {
+
+        /** The argument values */
+
+        private final Object[] values;
+
+
+        /** The hash code of the values */
+
+        private final int hash;
+
+
+        Key(Object ...values) {
+            this.values = values;
+            this.hash = Arrays.deepHashCode(values);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.deepEquals(values, ((Key) o).values);
+        }
+    }
+
+
+
+    /** Value used to cache null results */
+
+    private static final Object NULL = new Object();
+
+
+    /** Key used for functions without arguments */
+
+    private static final Key NONE = new Key();
+
+
+
+    /** The cached results */
+
+    private Map<Object, Object> results = new ConcurrentHashMap<Object, Object>();
+
+
+    /** The maximum number of results held */
+
+    private int capacity;
+
+
+    /** The number of calls that found a cached result */
+
+    private LongAdder hits = new LongAdder();
+
+
+    /** The number of calls that required the function to be evaluated */
+
+    private LongAdder misses = new LongAdder();
+
+
+
+    /**
+     * Creates a result cache.
+     *
+     * @param capacity  the maximum number of results to hold
+     */
+    public ResultCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Invalid result cache capacity: " + capacity);
+        this.capacity = capacity;
+    }
+
+
+
+    /**
+     * Returns a function that caches the results of a function taking no arguments.
+     *
+     * @param fn  the function
+     * @return the caching function
+     */
+    Functions.Function0 cache(Functions.Function0 fn) {
+        return (context) -> {
+            Object result = lookup(NONE);
+            return result != null ? unwrap(result) : store(NONE, fn.eval(context));
+        };
+    }
+
+
+
+    /**
+     * Returns a function that caches the results of a function taking one argument.
+     *
+     * @param fn  the function
+     * @return the caching function
+     */
+    Functions.Function1 cache(Functions.Function1 fn) {
+        return (context, arg1) -> {
+            Object key = (arg1 == null || arg1 instanceof Object[]) ? new Key(arg1) : arg1;
+            Object result = lookup(key);
+            return result != null ? unwrap(result) : store(key, fn.eval(context, arg1));
+        };
+    }
+
+
+
+    /**
+     * Returns a function that caches the results of a function taking two arguments.
+     *
+     * @param fn  the function
+     * @return the caching function
+     */
+    Functions.Function2 cache(Functions.Function2 fn) {
+        return (context, arg1, arg2) -> {
+            Key key = new Key(arg1, arg2);
+            Object result = lookup(key);
+            return result != null ? unwrap(result) : store(key, fn.eval(context, arg1, arg2));
+        };
+    }
+
+
+
+    /**
+     * Looks up a cached result.
+     *
+     * @param key  the argument values
+     * @return the cached result (wrapped if null), or null if the result is not cached
+     */
+    private Object lookup(Object key) {
+        Object result = results.get(key);
+        if (result != null) hits.increment(); else misses.increment();
+        return result;
+    }
+
+
+
+    /**
+     * Caches a result, discarding another result if the cache is full.
+     *
+     * @param key     the argument values
+     * @param result  the result
+     * @return the result
+     */
+    private Object store(Object key, Object result) {
+        if (results.size() >= capacity) {
+            Iterator<Object> keys = results.keySet().iterator();
+            if (keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        results.put(key, result == null ? NULL : result);
+        return result;
+    }
+
+
+
+    /**
+     * Converts a cached result back to the function result.
+     *
+     * @param result  the cached result
+     * @return the function result
+     */
+    private static Object unwrap(Object result) {
+        return result == NULL ? null : result;
+    }
+
+
+
+    /**
+     * Returns the maximum number of results held by this cache.
+     *
+     * @return the cache capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+
+    /**
+     * Returns the number of results currently held by this cache.
+     *
+     * @return the number of cached results
+     */
+    public int size() {
+        return results.size();
+    }
+
+
+
+    /**
+     * Returns the number of calls that found a cached result.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+
+
+    /**
+     * Returns the number of calls that required the function to be evaluated.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+
+
+    /**
+     * Returns the proportion of calls that found a cached result.
+     *
+     * @return the hit rate (between 0 and 1), or 0 if the function has not been called
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+
+
+    /**
+     * Discards all cached results and resets the hit and miss counts.
+     */
+    public void clear() {
+        results.clear();
+        hits.reset();
+        misses.reset();
+    }
+}
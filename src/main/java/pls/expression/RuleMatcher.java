@@ -0,0 +1,729 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+
+
+/**
+ * Finds the rules, from a large set of named boolean expressions, that match a context.
+ * <p>Most rules in large rule sets start with a test of a field against a constant, e.g.
+ * <pre>{@code
+ *   channel == "email" and priority > 3
+ *   region in ["eu", "uk"] and amount > 1000
+ * }</pre>
+ * Rather than evaluating every rule, the matcher indexes such rules by the constant values they require.
+ * When a context is matched, the value of each indexed field is looked up, and only the rules that can match
+ * that value (along with any rules that could not be indexed) are evaluated.
+ * <p>A rule is indexed on a test of the form <code>field == constant</code> (or <code>constant == field</code>), or
+ * <code>field in [constants]</code>, appearing anywhere in a chain of <code>and</code> operators at the top of the rule.
+ * Rules without such a test are indexed on the numeric range required by the <code>&lt;</code>, <code>&lt;=</code>,
+ * <code>&gt;</code> and <code>&gt;=</code> comparisons of a field with constants in the chain (e.g.
+ * <code>score &gt;= 10 and score &lt; 20</code>). The field may be a context value or a member of one (e.g.
+ * <code>order.customer.tier</code>). Tests use the semantics of the default operators, so the matches are exactly
+ * the same as evaluating every rule - a rule that fails to evaluate (e.g. because a field has a different type to the
+ * constant it is compared with) does not match, and since such a test could never succeed, neither does a rule that
+ * is not evaluated.
+ * <p>Rule matchers are immutable, and may be used concurrently across multiple threads.
+ *
+ * @author Peter Smith
+ */
+public class RuleMatcher {
+
+    /**
+     * An index of the rules that can match a context.
+     */
+    private static interface Index {
+
+        /**
+         * Adds the rules that can match a context to a set of candidate rules.
+         *
+         * @param context     the context being matched
+         * @param candidates  the candidate rules
+         */
+        void candidates(ExpressionContext context, BitSet candidates);
+    }
+
+
+
+    /**
+     * The rules indexed on the value of a field.
+     */
+    private static final class EqualityIndex implements Index {
+
+        /** The field expression */
+
+        private Expression field;
+
+
+        /** The rules that can match each value of the field */
+
+        private Map<Object, int[]> rules = new HashMap<Object, int[]>();
+
+
+
+        /**
+         * Creates an index.
+         *
+         * @param field  the field expression
+         */
+        EqualityIndex(Expression field) {
+            this.field = field;
+        }
+
+
+
+        /**
+         * Adds a rule to the index.
+         *
+         * @param rule    the index of the rule
+         * @param values  the values of the field the rule can match
+         */
+        void add(int rule, Object[] values) {
+            for (Object value : values) {
+                int[] list = rules.get(value);
+                if (list == null) {
+                    rules.put(value, new int[] { rule });
+                }
+                else if (list[list.length - 1] != rule) { /* Lists may contain duplicate values */
+                    list = Arrays.copyOf(list, list.length + 1);
+                    list[list.length - 1] = rule;
+                    rules.put(value, list);
+                }
+            }
+        }
+
+
+
+        @Override
+        public void candidates(ExpressionContext context, BitSet candidates) {
+            int[] list;
+            try {
+                list = rules.get(field.eval(context));
+            }
+            catch (ExpressionError x) {
+                return; /* None of the rules can match */
+            }
+            if (list != null) for (int rule : list) candidates.set(rule);
+        }
+    }
+
+
+
+    /**
+     * The range of values of a numeric field required by a rule.
+     * <p>Comparisons follow {@link ArithmeticOperator} - integers are compared exactly, and an integer compared with
+     * a floating point value is converted to floating point, so in each case the comparison is the same as comparing
+     * the (exact) floating point values of the operands.
+     */
+    private static final class Range {
+
+        /** The field expression */
+
+        private Expression field;
+
+
+        /** The lower bound */
+
+        private double lower = Double.NEGATIVE_INFINITY;
+
+
+        /** Whether the lower bound is included in the range */
+
+        private boolean lowerInclusive = true;
+
+
+        /** The upper bound */
+
+        private double upper = Double.POSITIVE_INFINITY;
+
+
+        /** Whether the upper bound is included in the range */
+
+        private boolean upperInclusive = true;
+
+
+        /** Whether the range is known to be empty (e.g. compared with NaN) */
+
+        private boolean empty;
+
+
+
+        /**
+         * Creates an unbounded range.
+         *
+         * @param field  the field expression
+         */
+        Range(Expression field) {
+            this.field = field;
+        }
+
+
+
+        /**
+         * Restricts the range to values above a bound.
+         *
+         * @param bound      the lower bound
+         * @param inclusive  true if the bound is included in the range
+         */
+        void above(double bound, boolean inclusive) {
+            if (Double.isNaN(bound)) empty = true;
+            else if (bound > lower || (bound == lower && !inclusive)) {
+                lower = bound + 0.0; /* Treat -0.0 as 0.0, as the comparison does */
+                lowerInclusive = inclusive;
+            }
+        }
+
+
+
+        /**
+         * Restricts the range to values below a bound.
+         *
+         * @param bound      the upper bound
+         * @param inclusive  true if the bound is included in the range
+         */
+        void below(double bound, boolean inclusive) {
+            if (Double.isNaN(bound)) empty = true;
+            else if (bound < upper || (bound == upper && !inclusive)) {
+                upper = bound + 0.0;
+                upperInclusive = inclusive;
+            }
+        }
+
+
+
+        /**
+         * Determines whether the range is bounded at both ends.
+         *
+         * @return true if the range has a finite lower and upper bound
+         */
+        boolean isBounded() {
+            return lower != Double.NEGATIVE_INFINITY && upper != Double.POSITIVE_INFINITY;
+        }
+    }
+
+
+
+    /**
+     * The rules indexed on the range of values of a numeric field.
+     * <p>The bounds of the ranges are held in a sorted array, dividing the numbers into slots - each bound, and
+     * each interval between neighbouring bounds. The slots spanned by each range are held in a segment tree, so
+     * finding the ranges that contain a value is a binary search for its slot, followed by a walk from the root of
+     * the tree to that slot.
+     */
+    private static final class RangeIndex implements Index {
+
+        /** The field expression */
+
+        private Expression field;
+
+
+        /** The rules and their ranges, until the index is built */
+
+        private java.util.List<Object[]> ranges = new ArrayList<Object[]>();
+
+
+        /** The bounds, in ascending order */
+
+        private double[] bounds;
+
+
+        /** The rules in each node of the segment tree (the root is node 1) */
+
+        private int[][] tree;
+
+
+        /** The number of slots */
+
+        private int slots;
+
+
+
+        /**
+         * Creates an index.
+         *
+         * @param field  the field expression
+         */
+        RangeIndex(Expression field) {
+            this.field = field;
+        }
+
+
+
+        /**
+         * Adds a rule to the index.
+         *
+         * @param rule   the index of the rule
+         * @param range  the range of values of the field the rule can match
+         */
+        void add(int rule, Range range) {
+            ranges.add(new Object[] { rule, range });
+        }
+
+
+
+        /**
+         * Builds the index from the rules added.
+         */
+        void build() {
+            TreeSet<Double> set = new TreeSet<Double>();
+            for (Object[] entry : ranges) {
+                Range range = (Range) entry[1];
+                set.add(range.lower);
+                set.add(range.upper);
+            }
+            bounds = new double[set.size()];
+            int i = 0;
+            for (double bound : set) bounds[i++] = bound;
+
+            /* Slot 2i + 1 holds bounds[i], and slot 2i the values between bounds[i - 1] and bounds[i] */
+
+            slots = 2 * bounds.length + 1;
+            tree = new int[4 * slots][];
+
+            for (Object[] entry : ranges) {
+                Range range = (Range) entry[1];
+                int from = 2 * Arrays.binarySearch(bounds, range.lower) + (range.lowerInclusive ? 1 : 2);
+                int to = 2 * Arrays.binarySearch(bounds, range.upper) + (range.upperInclusive ? 1 : 0);
+                if (!range.empty && from <= to) insert(1, 0, slots - 1, from, to, (Integer) entry[0]);
+            }
+            ranges = null;
+        }
+
+
+
+        /**
+         * Adds a rule to the nodes of the segment tree covering a range of slots.
+         *
+         * @param node  the tree node
+         * @param low   the first slot covered by the node
+         * @param high  the last slot covered by the node
+         * @param from  the first slot of the range
+         * @param to    the last slot of the range
+         * @param rule  the index of the rule
+         */
+        private void insert(int node, int low, int high, int from, int to, int rule) {
+            if (from <= low && high <= to) {
+                int[] list = tree[node];
+                list = list == null ? new int[1] : Arrays.copyOf(list, list.length + 1);
+                list[list.length - 1] = rule;
+                tree[node] = list;
+                return;
+            }
+
+            int middle = (low + high) >>> 1;
+            if (from <= middle) insert(2 * node, low, middle, from, to, rule);
+            if (to > middle) insert(2 * node + 1, middle + 1, high, from, to, rule);
+        }
+
+
+
+        @Override
+        public void candidates(ExpressionContext context, BitSet candidates) {
+            Object value;
+            try {
+                value = field.eval(context);
+            }
+            catch (ExpressionError x) {
+                return; /* None of the rules can match */
+            }
+            if (!(value instanceof Number)) return;
+
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d)) return;
+
+            /* Other numbers (e.g. Longs and BigDecimals) may not be exact doubles, so the neighbouring doubles are also matched */
+
+            if (value instanceof Integer || value instanceof Double) {
+                stab(slot(d), candidates);
+            }
+            else {
+                for (int slot = slot(Math.nextDown(d)), last = slot(Math.nextUp(d)); slot <= last; ++slot) stab(slot, candidates);
+            }
+        }
+
+
+
+        /**
+         * Returns the slot holding a value.
+         *
+         * @param d  the value
+         * @return the slot
+         */
+        private int slot(double d) {
+            int i = Arrays.binarySearch(bounds, d + 0.0);
+            return i >= 0 ? 2 * i + 1 : 2 * (-i - 1);
+        }
+
+
+
+        /**
+         * Adds the rules whose ranges include a slot to the candidates.
+         *
+         * @param slot        the slot
+         * @param candidates  the candidate rules
+         */
+        private void stab(int slot, BitSet candidates) {
+            int node = 1, low = 0, high = slots - 1;
+            while (true) {
+                int[] list = tree[node];
+                if (list != null) for (int rule : list) candidates.set(rule);
+                if (low == high) break;
+
+                int middle = (low + high) >>> 1;
+                if (slot <= middle) {
+                    node = 2 * node;
+                    high = middle;
+                }
+                else {
+                    node = 2 * node + 1;
+                    low = middle + 1;
+                }
+            }
+        }
+    }
+
+
+
+    /** The names of the rules */
+
+    private String[] names;
+
+
+    /** The rules */
+
+    private Predicate[] rules;
+
+
+    /** The indexes, by field */
+
+    private Index[] indexes;
+
+
+    /** The rules that are not indexed, and must always be evaluated */
+
+    private BitSet unindexed = new BitSet();
+
+
+
+    /**
+     * Creates a matcher for a set of rules.
+     *
+     * @param rules  the rules, by name (matches are listed in the iteration order of the map)
+     */
+    public RuleMatcher(Map<String, ? extends Expression> rules) {
+        this.names = rules.keySet().toArray(new String[rules.size()]);
+        this.rules = new Predicate[names.length];
+
+        Map<String, EqualityIndex> equalities = new LinkedHashMap<String, EqualityIndex>();
+        Map<String, RangeIndex> ranges = new LinkedHashMap<String, RangeIndex>();
+
+        int i = 0;
+        for (Expression rule : rules.values()) {
+            assert rule != null : "Null rule";
+            this.rules[i] = Predicate.of(rule);
+
+            /* Index the rule on the test that requires the fewest values */
+
+            Expression field = null;
+            Object[] values = null;
+            Map<String, Range> bounds = new LinkedHashMap<String, Range>();
+            for (Expression test : conjuncts(rule)) {
+                Object[] v = values(test);
+                if (v != null && (values == null || v.length < values.length)) {
+                    values = v;
+                    field = field(test);
+                }
+                bound(test, bounds);
+            }
+
+            /* Otherwise, index it on the range of a field, preferring a range with both bounds */
+
+            Range range = null;
+            for (Range r : bounds.values()) {
+                if (range == null || (r.isBounded() && !range.isBounded())) range = r;
+            }
+
+            if (field != null) {
+                EqualityIndex index = equalities.get(field.toString());
+                if (index == null) equalities.put(field.toString(), index = new EqualityIndex(field));
+                index.add(i, values);
+            }
+            else if (range != null) {
+                RangeIndex index = ranges.get(range.field.toString());
+                if (index == null) ranges.put(range.field.toString(), index = new RangeIndex(range.field));
+                index.add(i, range);
+            }
+            else {
+                unindexed.set(i);
+            }
+            ++i;
+        }
+        for (RangeIndex index : ranges.values()) index.build();
+
+        ArrayList<Index> indexes = new ArrayList<Index>(equalities.values());
+        indexes.addAll(ranges.values());
+        this.indexes = indexes.toArray(new Index[indexes.size()]);
+    }
+
+
+
+    /**
+     * Returns the tests in the chain of 'and' operators at the top of a rule.
+     *
+     * @param rule  the rule
+     * @return the tests, in evaluation order
+     */
+    private static java.util.List<Expression> conjuncts(Expression rule) {
+        ArrayList<Expression> tests = new ArrayList<Expression>();
+
+        Expression e = unwrap(rule);
+        while (isAnd(e)) {
+            tests.add(unwrap(((BinaryOperator) e).getRight()));
+            e = unwrap(((BinaryOperator) e).getLeft());
+        }
+        tests.add(e);
+        Collections.reverse(tests);
+        return tests;
+    }
+
+
+
+    /**
+     * Determines whether an expression node is the default 'and' operator.
+     *
+     * @param e  the expression node
+     * @return true if the node is an 'and' operator
+     */
+    private static boolean isAnd(Expression e) {
+        return e.getClass() == BinaryOperator.class && ((BinaryOperator) e).getOperation() == Operators.AND;
+    }
+
+
+
+    /**
+     * Returns the field tested by an indexable test.
+     *
+     * @param test  the test
+     * @return the field expression, or null if the test cannot be indexed
+     */
+    private static Expression field(Expression test) {
+        if (test instanceof RelationalOperator && ((RelationalOperator) test).getRelationalOperation() == Operators.EQUALS) {
+            Expression left = unwrap(((BinaryOperator) test).getLeft());
+            Expression right = unwrap(((BinaryOperator) test).getRight());
+
+            if (isField(left) && constant(right) != null) return left;
+            if (isField(right) && constant(left) != null) return right;
+        }
+        else if (test instanceof InOperator) {
+            Expression left = unwrap(((BinaryOperator) test).getLeft());
+            if (isField(left)) return left;
+        }
+        return null;
+    }
+
+
+
+    /**
+     * Returns the values of the field for which an indexable test can succeed.
+     *
+     * @param test  the test
+     * @return the values, or null if the test cannot be indexed
+     */
+    private static Object[] values(Expression test) {
+        if (field(test) == null) return null;
+
+        if (test instanceof InOperator) {
+            Object[] values = ((pls.expression.List) unwrap(((BinaryOperator) test).getRight())).getConstants();
+
+            /* Nested lists are only ever equal to themselves, so are left to evaluation */
+
+            for (Object value : values) if (value instanceof Object[]) return null;
+            return values;
+        }
+
+        Constant left = constant(((BinaryOperator) test).getLeft());
+        Constant right = constant(((BinaryOperator) test).getRight());
+        return new Object[] { (left != null ? left : right).getValue() };
+    }
+
+
+
+    /**
+     * Restricts the range of a field by a comparison of the field with a constant.
+     *
+     * @param test    the test
+     * @param ranges  the ranges of the fields, by field
+     */
+    private static void bound(Expression test, Map<String, Range> ranges) {
+        if (!(test instanceof ArithmeticOperator)) return;
+        ArithmeticOperator comparison = (ArithmeticOperator) test;
+
+        Expression left = unwrap(comparison.getLeft());
+        Expression right = unwrap(comparison.getRight());
+
+        boolean reversed = !isField(left);
+        Expression field = reversed ? right : left;
+        Constant constant = constant(reversed ? left : right);
+        if (!isField(field) || constant == null) return;
+
+        /* Bounds are held as doubles, so only Integer and Double bounds are exact */
+
+        if (!(constant.getValue() instanceof Integer || constant.getValue() instanceof Double)) return;
+
+        /* Only the default comparisons are known to give the same result for integer and floating point values */
+
+        boolean below, inclusive;
+        ArithmeticOperator.IntComparison intCmp = comparison.getIntComparison();
+        ArithmeticOperator.DoubleComparison doubleCmp = comparison.getDoubleComparison();
+        if (intCmp == Operators.LESS_INT && doubleCmp == Operators.LESS_DOUBLE) {
+            below = true;
+            inclusive = false;
+        }
+        else if (intCmp == Operators.LESS_EQUAL_INT && doubleCmp == Operators.LESS_EQUAL_DOUBLE) {
+            below = true;
+            inclusive = true;
+        }
+        else if (intCmp == Operators.GREATER_INT && doubleCmp == Operators.GREATER_DOUBLE) {
+            below = false;
+            inclusive = false;
+        }
+        else if (intCmp == Operators.GREATER_EQUAL_INT && doubleCmp == Operators.GREATER_EQUAL_DOUBLE) {
+            below = false;
+            inclusive = true;
+        }
+        else {
+            return;
+        }
+
+        Range range = ranges.get(field.toString());
+        if (range == null) ranges.put(field.toString(), range = new Range(field));
+
+        double bound = ((Number) constant.getValue()).doubleValue();
+        if (below != reversed)
+            range.below(bound, inclusive);
+        else
+            range.above(bound, inclusive);
+    }
+
+
+
+    /**
+     * Determines whether an expression is a field - a context value, or a member of a field.
+     *
+     * @param e  the expression
+     * @return true if the expression is a field
+     */
+    private static boolean isField(Expression e) {
+        while (e instanceof BinaryOperator && ((BinaryOperator) e).getOperation() == Operators.MEMBER) {
+            if (!(((BinaryOperator) e).getRight() instanceof ContextValue)) return false;
+            e = unwrap(((BinaryOperator) e).getLeft());
+        }
+        return e instanceof ContextValue;
+    }
+
+
+
+    /**
+     * Returns the constant an expression evaluates to - either a constant, or a negated numeric constant
+     * (e.g. <code>-10</code>).
+     *
+     * @param e  the expression
+     * @return the constant, or null if the expression is not constant
+     */
+    private static Constant constant(Expression e) {
+        e = unwrap(e);
+        if (e instanceof Constant) return (Constant) e;
+
+        if (e instanceof UnaryOperator && ((UnaryOperator) e).getOperation() == Operators.NEG) {
+            Expression operand = unwrap(((UnaryOperator) e).getOperand());
+            if (operand instanceof Constant && ((Constant) operand).getValue() instanceof Number) {
+                try {
+                    return new Constant(Operators.neg(((Constant) operand).getValue()));
+                }
+                catch (ExpressionError x) {
+                    return null; /* Not a type the operator can negate */
+                }
+            }
+        }
+        return null;
+    }
+
+
+
+    /**
+     * Removes any parentheses surrounding an expression.
+     *
+     * @param e  the expression
+     * @return the expression within the parentheses
+     */
+    private static Expression unwrap(Expression e) {
+        while (e instanceof Parenthesis) e = ((Parenthesis) e).getExpression();
+        return e;
+    }
+
+
+
+    /**
+     * Returns the names of the rules.
+     *
+     * @return the rule names
+     */
+    public java.util.List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+
+
+    /**
+     * Returns the number of rules.
+     *
+     * @return the number of rules
+     */
+    public int size() {
+        return names.length;
+    }
+
+
+
+    /**
+     * Returns the number of rules that are indexed.
+     *
+     * @return the number of indexed rules (the remaining rules are evaluated for every context)
+     */
+    public int getIndexedCount() {
+        return names.length - unindexed.cardinality();
+    }
+
+
+
+    /**
+     * Finds the rules that match a context.
+     * <p>A rule matches if it evaluates to true (see {@link Expression#evalBoolean}). Rules that fail to evaluate
+     * do not match.
+     *
+     * @param context  the context to match
+     * @return the names of the matching rules, in rule order
+     */
+    public java.util.List<String> match(ExpressionContext context) {
+        BitSet candidates = (BitSet) unindexed.clone();
+        for (Index index : indexes) index.candidates(context, candidates);
+
+        ArrayList<String> matches = new ArrayList<String>();
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            try {
+                if (rules[i].test(context)) matches.add(names[i]);
+            }
+            catch (ExpressionError x) {
+                /* Rules that fail do not match */
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,268 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/**
+ * The layout of the values held by a {@link ShapedContext}.
+ * <p>When a large number of records with the same variables are evaluated, holding each record in an
+ * {@link ExpressionContext} (a hash map) requires a hash table, an entry for each variable, and a boxed copy of
+ * each numeric value. A shape instead assigns each variable a slot, shared by every record, so each record needs
+ * only an array of values. Integer and floating point variables can be held as primitive values, e.g.
+ * <pre>{@code
+ *   Shape shape = new Shape.Builder()
+ *       .value("name")
+ *       .intValue("quantity")
+ *       .doubleValue("price")
+ *       .build();
+ *
+ *   ShapedContext record = new ShapedContext(shape)
+ *       .setSlot(0, "widget")
+ *       .setInt(1, 4)
+ *       .setDouble(2, 2.5);
+ * }</pre>
+ * Context values in an expression look up their slot the first time they are evaluated with a context of a
+ * given shape, and read the slot directly after that.
+ * <p>Shapes are immutable, and may be shared by any number of threads.
+ *
+ * @author Peter Smith
+ * @see ShapedContext
+ */
+public class Shape {
+
+    /* Slot types */
+
+    /** The slot holds any value */
+
+    static final int OBJECT = 0;
+
+
+    /** The slot holds an int */
+
+    static final int INT = 1;
+
+
+    /** The slot holds a double */
+
+    static final int DOUBLE = 2;
+
+
+
+    /**
+     * Builds a shape.
+     * <p>A builder is not thread safe, and should only be used by the thread creating the shape.
+     */
+    public static class Builder {
+
+        /** The variable names, in slot order */
+
+        private ArrayList<String> names = new ArrayList<String>();
+
+
+        /** The type of each slot */
+
+        private ArrayList<Integer> types = new ArrayList<Integer>();
+
+
+
+        /**
+         * Adds a variable that may hold any value.
+         *
+         * @param name  the variable name
+         * @return a reference to this builder
+         */
+        public Builder value(String name) {
+            return add(name, OBJECT);
+        }
+
+
+
+        /**
+         * Adds a variable that holds an int value.
+         *
+         * @param name  the variable name
+         * @return a reference to this builder
+         */
+        public Builder intValue(String name) {
+            return add(name, INT);
+        }
+
+
+
+        /**
+         * Adds a variable that holds a double value.
+         *
+         * @param name  the variable name
+         * @return a reference to this builder
+         */
+        public Builder doubleValue(String name) {
+            return add(name, DOUBLE);
+        }
+
+
+
+        /**
+         * Adds a variable.
+         *
+         * @param name  the variable name
+         * @param type  the slot type
+         * @return a reference to this builder
+         */
+        private Builder add(String name, int type) {
+            if (name == null || name.isEmpty()) throw new IllegalArgumentException("Invalid variable name");
+            if (names.contains(name)) throw new IllegalArgumentException(String.format("Duplicate variable '%s'", name));
+            names.add(name);
+            types.add(type);
+            return this;
+        }
+
+
+
+        /**
+         * Creates the shape.
+         *
+         * @return the shape holding the variables added, with slots in the order they were added
+         */
+        public Shape build() {
+            return new Shape(this);
+        }
+    }
+
+
+
+    /** The variable names, by slot */
+
+    private String[] names;
+
+
+    /** Lookup of variable name to slot */
+
+    private Map<String, Integer> slots = new HashMap<String, Integer>();
+
+
+    /** The type of each slot */
+
+    private int[] types;
+
+
+    /** The index of each slot's value in the array holding values of its type */
+
+    private int[] offsets;
+
+
+    /** The number of slots of each type */
+
+    private int[] counts = new int[3];
+
+
+
+    /**
+     * Creates a shape.
+     *
+     * @param builder  the builder holding the variables
+     */
+    private Shape(Builder builder) {
+        this.names = builder.names.toArray(new String[builder.names.size()]);
+        this.types = new int[names.length];
+        this.offsets = new int[names.length];
+
+        for (int slot = 0; slot < names.length; ++slot) {
+            slots.put(names[slot], slot);
+            types[slot] = builder.types.get(slot);
+            offsets[slot] = counts[types[slot]]++;
+        }
+    }
+
+
+
+    /**
+     * Returns the slot for a variable name.
+     *
+     * @param name  the variable name
+     * @return the slot assigned to the variable, or -1 if the variable is not part of the shape
+     */
+    public int indexOf(String name) {
+        Integer slot = name == null ? null : slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+
+
+    /**
+     * Returns the variable name assigned to a slot.
+     *
+     * @param slot  the slot
+     * @return the variable name
+     * @throws IndexOutOfBoundsException if the slot is not part of the shape
+     */
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+
+
+    /**
+     * Returns the type of value held by a slot.
+     *
+     * @param slot  the slot
+     * @return <code>int.class</code> or <code>double.class</code> for primitive slots, otherwise <code>Object.class</code>
+     * @throws IndexOutOfBoundsException if the slot is not part of the shape
+     */
+    public Class<?> getType(int slot) {
+        switch (types[slot]) {
+            case INT: return int.class;
+            case DOUBLE: return double.class;
+            default: return Object.class;
+        }
+    }
+
+
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the number of variables in the shape
+     */
+    public int size() {
+        return names.length;
+    }
+
+
+
+    /**
+     * Returns the type of a slot.
+     *
+     * @param slot  the slot
+     * @return {@link #OBJECT}, {@link #INT}, or {@link #DOUBLE}
+     */
+    int type(int slot) {
+        return types[slot];
+    }
+
+
+
+    /**
+     * Returns the index of a slot's value in the array holding values of its type.
+     *
+     * @param slot  the slot
+     * @return the index of the value
+     */
+    int offset(int slot) {
+        return offsets[slot];
+    }
+
+
+
+    /**
+     * Returns the number of slots of a type.
+     *
+     * @param type  the slot type
+     * @return the number of slots
+     */
+    int count(int type) {
+        return counts[type];
+    }
+}
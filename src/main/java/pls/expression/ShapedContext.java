@@ -0,0 +1,751 @@
+package pls.expression;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+
+
+/**
+ * Compact expression context holding the values of the variables in a {@link Shape}.
+ * <p>Values are held in arrays indexed by slot - primitive slots in an <code>int[]</code> or <code>double[]</code>,
+ * and other slots in an <code>Object[]</code> - so a context holding a record needs only a few small arrays,
+ * rather than a hash table with an entry (and boxed value) for each variable. Context values look up their slot
+ * once for each shape they are evaluated with, and then read the slot directly.
+ * <p>As with an {@link IndexedContext}, the name keyed {@link ExpressionContext} API continues to work - getting,
+ * setting, or removing a value by name (using any of the Map methods, such as <code>putAll</code> or
+ * <code>compute</code>) for a variable in the shape reads or writes its slot, while other names are stored in the
+ * underlying map. The map views (keySet, entrySet, etc) of the context include each slot that holds a value,
+ * followed by the entries of the underlying map.
+ * <p>Primitive slots always hold a value (zero until set, or after being removed), and may only be set to a value of
+ * their type. Reading a primitive slot as an object boxes its value, so a primitive slot is always included in the
+ * map views.
+ *
+ * @author Peter Smith
+ * @see Shape
+ */
+public class ShapedContext extends ExpressionContext {
+
+    /** The shape of the context */
+
+    private Shape shape;
+
+
+    /** The values of the object slots (null if there are none) */
+
+    private Object[] objects;
+
+
+    /** The values of the int slots (null if there are none) */
+
+    private int[] ints;
+
+
+    /** The values of the double slots (null if there are none) */
+
+    private double[] doubles;
+
+
+
+    /**
+     * Creates a context for the variables in a shape.
+     *
+     * @param shape  the shape
+     */
+    public ShapedContext(Shape shape) {
+        assert shape != null : "Null shape";
+        this.shape = shape;
+        if (shape.count(Shape.OBJECT) > 0) objects = new Object[shape.count(Shape.OBJECT)];
+        if (shape.count(Shape.INT) > 0) ints = new int[shape.count(Shape.INT)];
+        if (shape.count(Shape.DOUBLE) > 0) doubles = new double[shape.count(Shape.DOUBLE)];
+    }
+
+
+
+    /**
+     * Returns the shape of this context.
+     *
+     * @return the shape
+     */
+    public Shape getShape() {
+        return shape;
+    }
+
+
+
+    /**
+     * Returns the value of a slot.
+     *
+     * @param slot  the slot
+     * @return the slot value (boxed for a primitive slot), or null if an object slot has not been set
+     */
+    public Object getSlot(int slot) {
+        int offset = shape.offset(slot);
+        switch (shape.type(slot)) {
+            case Shape.INT: return ints[offset];
+            case Shape.DOUBLE: return doubles[offset];
+            default: return objects[offset];
+        }
+    }
+
+
+
+    /**
+     * Returns the value of an int slot.
+     *
+     * @param slot  the slot (as returned by {@link Shape#indexOf})
+     * @return the slot value
+     * @throws IllegalArgumentException if the slot is not an int slot
+     */
+    public int getInt(int slot) {
+        if (shape.type(slot) != Shape.INT) throw new IllegalArgumentException(String.format("Not an int slot: '%s'", shape.getName(slot)));
+        return ints[shape.offset(slot)];
+    }
+
+
+
+    /**
+     * Returns the value of a double slot.
+     *
+     * @param slot  the slot (as returned by {@link Shape#indexOf})
+     * @return the slot value
+     * @throws IllegalArgumentException if the slot is not a double slot
+     */
+    public double getDouble(int slot) {
+        if (shape.type(slot) != Shape.DOUBLE) throw new IllegalArgumentException(String.format("Not a double slot: '%s'", shape.getName(slot)));
+        return doubles[shape.offset(slot)];
+    }
+
+
+
+    /**
+     * Sets the value of a slot.
+     *
+     * @param slot   the slot (as returned by {@link Shape#indexOf})
+     * @param value  the value to set (an Integer for an int slot, or a Double for a double slot)
+     * @return a reference to this ShapedContext instance
+     * @throws IllegalArgumentException if the value is not valid for a primitive slot
+     */
+    public ShapedContext setSlot(int slot, Object value) {
+        int offset = shape.offset(slot);
+        switch (shape.type(slot)) {
+            case Shape.INT:
+                if (!(value instanceof Integer)) throw invalid(slot, value);
+                ints[offset] = (Integer) value;
+                break;
+            case Shape.DOUBLE:
+                if (!(value instanceof Double)) throw invalid(slot, value);
+                doubles[offset] = (Double) value;
+                break;
+            default:
+                objects[offset] = value;
+        }
+        return this;
+    }
+
+
+
+    /**
+     * Sets the value of an int slot.
+     *
+     * @param slot   the slot (as returned by {@link Shape#indexOf})
+     * @param value  the value to set
+     * @return a reference to this ShapedContext instance
+     * @throws IllegalArgumentException if the slot is not an int slot
+     */
+    public ShapedContext setInt(int slot, int value) {
+        if (shape.type(slot) != Shape.INT) throw invalid(slot, value);
+        ints[shape.offset(slot)] = value;
+        return this;
+    }
+
+
+
+    /**
+     * Sets the value of a double slot.
+     *
+     * @param slot   the slot (as returned by {@link Shape#indexOf})
+     * @param value  the value to set
+     * @return a reference to this ShapedContext instance
+     * @throws IllegalArgumentException if the slot is not a double slot
+     */
+    public ShapedContext setDouble(int slot, double value) {
+        if (shape.type(slot) != Shape.DOUBLE) throw invalid(slot, value);
+        doubles[shape.offset(slot)] = value;
+        return this;
+    }
+
+
+
+    /**
+     * Creates the exception thrown when a slot is set to a value of the wrong type.
+     *
+     * @param slot   the slot
+     * @param value  the value
+     * @return the exception
+     */
+    private IllegalArgumentException invalid(int slot, Object value) {
+        return new IllegalArgumentException(String.format("Invalid value for %s slot '%s': %s",
+            shape.getType(slot).getSimpleName(), shape.getName(slot), value));
+    }
+
+
+
+    /**
+     * Retrieves a value by name.
+     * <p>Names in the shape are read from their slot.
+     *
+     * @param key  the variable name
+     * @return the variable value, or null if not set
+     */
+    @Override
+    public Object get(Object key) {
+        int slot = slot(key);
+        return slot >= 0 ? getSlot(slot) : super.get(key);
+    }
+
+
+
+    /**
+     * Retrieves a value by name, or a default value if no value is set.
+     *
+     * @param key           the variable name
+     * @param defaultValue  the default value
+     * @return the variable value, or the default value if not set
+     */
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        int slot = slot(key);
+        if (slot < 0) return super.getOrDefault(key, defaultValue);
+
+        Object value = getSlot(slot);
+        return value != null ? value : defaultValue;
+    }
+
+
+
+    /**
+     * Determines whether a value has been set for the given name.
+     *
+     * @param key  the variable name
+     * @return true if the name is a primitive slot, an object slot holding a (non-null) value, or exists in the map
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = slot(key);
+        return slot >= 0 ? getSlot(slot) != null : super.containsKey(key);
+    }
+
+
+
+    /**
+     * Stores a value by name.
+     * <p>Names in the shape are written to their slot.
+     *
+     * @param key    the variable name
+     * @param value  the value to set
+     * @return the previous value
+     * @throws IllegalArgumentException if the value is not valid for a primitive slot
+     */
+    @Override
+    public Object put(String key, Object value) {
+        int slot = shape.indexOf(key);
+        if (slot < 0) return super.put(key, value);
+
+        Object previous = getSlot(slot);
+        setSlot(slot, value);
+        return previous;
+    }
+
+
+
+    /**
+     * Stores a value by name if no value is set.
+     *
+     * @param key    the variable name
+     * @param value  the value to set
+     * @return the current value (null if the value was set)
+     * @throws IllegalArgumentException if the value is not valid for a primitive slot
+     */
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        int slot = shape.indexOf(key);
+        if (slot < 0) return super.putIfAbsent(key, value);
+
+        Object previous = getSlot(slot);
+        if (previous == null) setSlot(slot, value);
+        return previous;
+    }
+
+
+
+    /**
+     * Stores each of the values of a map by name.
+     *
+     * @param values  the values to set
+     * @throws IllegalArgumentException if a value is not valid for a primitive slot
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> values) {
+        for (Map.Entry<? extends String, ? extends Object> entry : values.entrySet()) put(entry.getKey(), entry.getValue());
+    }
+
+
+
+    /**
+     * Replaces a value by name, if a value is set.
+     *
+     * @param key    the variable name
+     * @param value  the value to set
+     * @return the previous value, or null if no value was set
+     * @throws IllegalArgumentException if the value is not valid for a primitive slot
+     */
+    @Override
+    public Object replace(String key, Object value) {
+        int slot = shape.indexOf(key);
+        if (slot < 0) return super.replace(key, value);
+
+        Object previous = getSlot(slot);
+        if (previous != null) setSlot(slot, value);
+        return previous;
+    }
+
+
+
+    /**
+     * Replaces a value by name, if it is set to the given value.
+     *
+     * @param key       the variable name
+     * @param oldValue  the expected value
+     * @param newValue  the value to set
+     * @return true if the value was replaced
+     * @throws IllegalArgumentException if the value is not valid for a primitive slot
+     */
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        int slot = shape.indexOf(key);
+        if (slot < 0) return super.replace(key, oldValue, newValue);
+
+        Object previous = getSlot(slot);
+        if (previous == null || !previous.equals(oldValue)) return false;
+        setSlot(slot, newValue);
+        return true;
+    }
+
+
+
+    /**
+     * Removes a value by name.
+     * <p>A primitive slot is reset to zero.
+     *
+     * @param key  the variable name
+     * @return the previous value
+     */
+    @Override
+    public Object remove(Object key) {
+        int slot = slot(key);
+        if (slot < 0) return super.remove(key);
+
+        Object previous = getSlot(slot);
+        reset(slot);
+        return previous;
+    }
+
+
+
+    /**
+     * Removes a value by name, if it is set to the given value.
+     * <p>A primitive slot is reset to zero.
+     *
+     * @param key    the variable name
+     * @param value  the expected value
+     * @return true if the value was removed
+     */
+    @Override
+    public boolean remove(Object key, Object value) {
+        int slot = slot(key);
+        if (slot < 0) return super.remove(key, value);
+
+        Object previous = getSlot(slot);
+        if (previous == null || !previous.equals(value)) return false;
+        reset(slot);
+        return true;
+    }
+
+
+
+    /**
+     * Computes a value by name.
+     * <p>If the function returns null, the value is removed (a primitive slot is reset to zero).
+     *
+     * @param key       the variable name
+     * @param function  the function computing the new value from the current value (null if not set)
+     * @return the new value
+     * @throws IllegalArgumentException if the new value is not valid for a primitive slot
+     */
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> function) {
+        int slot = shape.indexOf(key);
+        if (slot < 0) return super.compute(key, function);
+
+        return update(slot, function.apply(key, getSlot(slot)));
+    }
+
+
+
+    /**
+     * Computes a value by name, if no value is set.
+     *
+     * @param key       the variable name
+     * @param function  the function computing the value
+     * @return the current value, or the computed value if no value was set
+     * @throws IllegalArgumentException if the new value is not valid for a primitive slot
+     */
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ? extends Object> function) {
+        int slot = shape.indexOf(key);
+        if (slot < 0) return super.computeIfAbsent(key, function);
+
+        Object value = getSlot(slot);
+        if (value == null) {
+            value = function.apply(key);
+            if (value != null) setSlot(slot, value);
+        }
+        return value;
+    }
+
+
+
+    /**
+     * Computes a value by name, if a value is set.
+     * <p>If the function returns null, the value is removed (a primitive slot is reset to zero).
+     *
+     * @param key       the variable name
+     * @param function  the function computing the new value from the current value
+     * @return the new value, or null if no value was set
+     * @throws IllegalArgumentException if the new value is not valid for a primitive slot
+     */
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> function) {
+        int slot = shape.indexOf(key);
+        if (slot < 0) return super.computeIfPresent(key, function);
+
+        Object value = getSlot(slot);
+        return (value != null) ? update(slot, function.apply(key, value)) : null;
+    }
+
+
+
+    /**
+     * Merges a value with the value set by name.
+     * <p>If the function returns null, the value is removed (a primitive slot is reset to zero).
+     *
+     * @param key       the variable name
+     * @param value     the value to set if no value is set, or to merge with the current value
+     * @param function  the function merging the current value with the given value
+     * @return the new value
+     * @throws IllegalArgumentException if the new value is not valid for a primitive slot
+     */
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> function) {
+        int slot = shape.indexOf(key);
+        if (slot < 0) return super.merge(key, value, function);
+
+        Object previous = getSlot(slot);
+        return update(slot, (previous != null) ? function.apply(previous, value) : value);
+    }
+
+
+
+    /**
+     * Returns the number of values in this context, including primitive slots and object slots holding a
+     * (non-null) value.
+     *
+     * @return the number of values
+     */
+    @Override
+    public int size() {
+        int size = super.size() + (ints != null ? ints.length : 0) + (doubles != null ? doubles.length : 0);
+        if (objects != null) for (Object value : objects) if (value != null) ++size;
+        return size;
+    }
+
+
+
+    /**
+     * Determines whether this context holds no values.
+     *
+     * @return true if there are no primitive slots, no object slot holds a value, and the map is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+
+
+    /**
+     * Determines whether a value is held by a slot or in the map.
+     *
+     * @param value  the value
+     * @return true if a slot or the map holds the value
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        for (int slot = 0; slot < shape.size(); ++slot) {
+            Object v = getSlot(slot);
+            if (v != null && v.equals(value)) return true;
+        }
+        return super.containsValue(value);
+    }
+
+
+
+    /**
+     * Returns a view of the values in this context, including slots holding a value.
+     *
+     * @return the entries (slots first, then the entries of the map)
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Entries();
+            }
+
+            @Override
+            public int size() {
+                return ShapedContext.this.size();
+            }
+        };
+    }
+
+
+
+    /**
+     * Returns a view of the names of the values in this context, including slots holding a value.
+     *
+     * @return the names
+     */
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Entries entries = new Entries();
+                return new Iterator<String>() {
+                    @Override public boolean hasNext() { return entries.hasNext(); }
+                    @Override public String next() { return entries.next().getKey(); }
+                    @Override public void remove() { entries.remove(); }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ShapedContext.this.size();
+            }
+        };
+    }
+
+
+
+    /**
+     * Returns a view of the values in this context, including slots holding a value.
+     *
+     * @return the values
+     */
+    @Override
+    public Collection<Object> values() {
+        return new AbstractCollection<Object>() {
+            @Override
+            public Iterator<Object> iterator() {
+                Entries entries = new Entries();
+                return new Iterator<Object>() {
+                    @Override public boolean hasNext() { return entries.hasNext(); }
+                    @Override public Object next() { return entries.next().getValue(); }
+                    @Override public void remove() { entries.remove(); }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ShapedContext.this.size();
+            }
+        };
+    }
+
+
+
+    /**
+     * Performs an action for each value in this context, including slots holding a value.
+     *
+     * @param action  the action performed for each name and value (slots first, then the entries of the map)
+     */
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        for (int slot = 0; slot < shape.size(); ++slot) {
+            Object value = getSlot(slot);
+            if (value != null) action.accept(shape.getName(slot), value);
+        }
+        super.forEach(action);
+    }
+
+
+
+    /**
+     * Replaces each value in this context, including slots holding a value, with the result of a function.
+     * <p>If the function returns null for a slot, its value is removed (a primitive slot is reset to zero).
+     *
+     * @param function  the function computing the new value from each name and current value
+     * @throws IllegalArgumentException if a new value is not valid for a primitive slot
+     */
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function) {
+        for (int slot = 0; slot < shape.size(); ++slot) {
+            Object value = getSlot(slot);
+            if (value != null) update(slot, function.apply(shape.getName(slot), value));
+        }
+        super.replaceAll(function);
+    }
+
+
+
+    /**
+     * Iterates over the slots holding a value, followed by the entries of the map.
+     */
+    private final class Entries implements Iterator<Map.Entry<String, Object>> {
+
+        /** The entries of the map */
+
+        private final Iterator<Map.Entry<String, Object>> map = ShapedContext.super.entrySet().iterator();
+
+
+        /** The next slot to check for a value */
+
+        private int next = 0;
+
+
+        /** The slot of the entry last returned (-1 if it was an entry of the map) */
+
+        private int last = -1;
+
+
+        @Override
+        public boolean hasNext() {
+            while (next < shape.size() && getSlot(next) == null) ++next;
+            return next < shape.size() || map.hasNext();
+        }
+
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (next >= shape.size()) {
+                last = -1;
+                return map.next();
+            }
+
+            int slot = last = next++;
+            return new AbstractMap.SimpleEntry<String, Object>(shape.getName(slot), getSlot(slot)) {
+                @Override
+                public Object setValue(Object value) {
+                    setSlot(slot, value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                map.remove();
+            }
+            else {
+                reset(last);
+                last = -1;
+            }
+        }
+    }
+
+
+
+    /**
+     * Returns the slot of a variable name.
+     *
+     * @param key  the variable name
+     * @return the slot, or -1 if the name is not in the shape
+     */
+    private int slot(Object key) {
+        return (key instanceof String) ? shape.indexOf((String) key) : -1;
+    }
+
+
+
+    /**
+     * Sets the value of a slot, or removes it if the value is null.
+     *
+     * @param slot   the slot
+     * @param value  the value (null to remove the value)
+     * @return the value
+     */
+    private Object update(int slot, Object value) {
+        if (value == null) reset(slot); else setSlot(slot, value);
+        return value;
+    }
+
+
+
+    /**
+     * Removes the value of a slot, resetting a primitive slot to zero.
+     *
+     * @param slot  the slot
+     */
+    private void reset(int slot) {
+        int offset = shape.offset(slot);
+        switch (shape.type(slot)) {
+            case Shape.INT: ints[offset] = 0; break;
+            case Shape.DOUBLE: doubles[offset] = 0; break;
+            default: objects[offset] = null;
+        }
+    }
+
+
+
+    /**
+     * Returns a copy of this context, holding its own copy of the slot values.
+     *
+     * @return the copy
+     */
+    @Override
+    public ShapedContext clone() {
+        ShapedContext copy = (ShapedContext) super.clone();
+        if (objects != null) copy.objects = objects.clone();
+        if (ints != null) copy.ints = ints.clone();
+        if (doubles != null) copy.doubles = doubles.clone();
+        return copy;
+    }
+
+
+
+    /**
+     * Removes all values from this context, resetting primitive slots to zero.
+     */
+    @Override
+    public void clear() {
+        if (objects != null) Arrays.fill(objects, null);
+        if (ints != null) Arrays.fill(ints, 0);
+        if (doubles != null) Arrays.fill(doubles, 0);
+        super.clear();
+    }
+}
@@ -0,0 +1,107 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+
+/**
+ * Symbol table mapping context variable names to integer slots.
+ * <p>A symbol table is used to bind context variables to slots at parse time. When a {@link Parser}
+ * is created with a symbol table, each context variable in a parsed expression is assigned a slot
+ * in the table (names already in the table keep their existing slot). Values can then be provided
+ * during evaluation using an {@link IndexedContext}, which stores them in an array indexed by slot,
+ * so that retrieving a variable value is a simple array access rather than a hash map lookup.
+ * <pre>{@code
+ *   SymbolTable symbols = new SymbolTable();
+ *   Expression e = new Parser(symbols).parse("price * quantity");
+ *
+ *   int price = symbols.indexOf("price");
+ *   int quantity = symbols.indexOf("quantity");
+ *
+ *   IndexedContext context = new IndexedContext(symbols);
+ *   context.setSlot(price, 2.5).setSlot(quantity, 4);
+ *   e.eval(context);
+ * }</pre>
+ * A symbol table may be shared by any number of parsers and expressions, and is thread safe.
+ *
+ * @author Peter Smith
+ * @see IndexedContext
+ */
+public class SymbolTable {
+
+    /** Lookup of variable name to slot */
+
+    private Map<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+
+
+    /** Variable names, indexed by slot */
+
+    private List<String> names = new ArrayList<String>();
+
+
+
+    /**
+     * Returns the slot for a variable name, assigning a new slot if the name is not already defined.
+     *
+     * @param name  the variable name
+     * @return the slot assigned to the variable
+     */
+    public int define(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) return slot;
+
+        synchronized (names) {
+            slot = slots.get(name);
+            if (slot == null) {
+                slot = names.size();
+                names.add(name);
+                slots.put(name, slot);
+            }
+            return slot;
+        }
+    }
+
+
+
+    /**
+     * Returns the slot for a variable name.
+     *
+     * @param name  the variable name
+     * @return the slot assigned to the variable, or -1 if the name is not defined
+     */
+    public int indexOf(String name) {
+        Integer slot = name == null ? null : slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+
+
+    /**
+     * Returns the variable name assigned to a slot.
+     *
+     * @param slot  the slot
+     * @return the variable name
+     * @throws IndexOutOfBoundsException if the slot has not been assigned
+     */
+    public String getName(int slot) {
+        synchronized (names) {
+            return names.get(slot);
+        }
+    }
+
+
+
+    /**
+     * Returns the number of slots assigned.
+     *
+     * @return the number of variables defined in this table
+     */
+    public int size() {
+        synchronized (names) {
+            return names.size();
+        }
+    }
+}
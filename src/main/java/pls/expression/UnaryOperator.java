@@ -55,6 +55,28 @@ public class UnaryOperator extends NamedExpression {
     }
 
 
+    /**
+     * Returns the operand expression.
+     *
+     * @return the (unevaluated) operand expression
+     */
+    Expression getOperand() {
+        return this.expr;
+    }
+
+
+
+    /**
+     * Returns the unary operation implementing this operator.
+     *
+     * @return the unary operation
+     */
+    UnaryOperation getOperation() {
+        return this.op;
+    }
+
+
+
     /**
      * Executes the unary operator.
      *
@@ -25,7 +25,10 @@
  * and recursion to handle construction of the appropriate expression tree for evaluation according
  * to operator precedence.
  * <p>The Expression library is thread safe. The {@link Parser}, as well as the resulting {@link Expression}
- * tree instances used for evaluation may be used concurrently across multiple threads.
+ * tree instances used for evaluation may be used concurrently across multiple threads. Expression trees, and the
+ * default operators and functions, hold no state that changes during evaluation, so the same expression may be
+ * evaluated for different contexts at the same time (see {@link ParallelEvaluator}). Contexts are not thread
+ * safe, and should not be modified while they are being evaluated.
  *
  */
 package pls.expression;
\ No newline at end of file
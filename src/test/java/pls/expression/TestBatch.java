@@ -0,0 +1,240 @@
+package pls.expression;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestBatch {
+
+
+    /** Number of records in each test batch */
+
+    private static final int SIZE = 200;
+
+
+    /**
+     * Creates a batch of random records with columns i (int), d (double), b (boolean), and s (string)
+     */
+    private static Batch createBatch(ExpressionContext context) {
+        Random random = new Random(42);
+
+        int[] i = new int[SIZE];
+        double[] d = new double[SIZE];
+        boolean[] b = new boolean[SIZE];
+        String[] s = new String[SIZE];
+
+        for (int n = 0; n < SIZE; ++n) {
+            i[n] = random.nextInt(21) - 10;
+            d[n] = random.nextDouble() * 20 - 10;
+            b[n] = random.nextBoolean();
+            s[n] = (n % 7 == 0) ? null : "s" + random.nextInt(5);
+        }
+        return new Batch(SIZE, context).set("i", i).set("d", d).set("b", b).set("s", s);
+    }
+
+
+    /**
+     * Returns a context holding the values of a record in a batch
+     */
+    private static ExpressionContext record(Batch batch, int row) {
+        ExpressionContext context = new ExpressionContext();
+        if (batch.getContext() != null) context.putAll(batch.getContext());
+
+        context.set("i", ((int[]) batch.getColumn("i"))[row]);
+        context.set("d", ((double[]) batch.getColumn("d"))[row]);
+        context.set("b", ((boolean[]) batch.getColumn("b"))[row]);
+        context.set("s", ((String[]) batch.getColumn("s"))[row]);
+        return context;
+    }
+
+
+    /**
+     * Test batch results are identical to evaluating each record
+     */
+    @Test public void testMatchesEval() throws ExpressionError {
+
+        Functions.registerStringFunctions();
+
+        String[] expressions = new String[] {
+            "i * 2 + 1",
+            "i * d - 3.5",
+            "-(i + 2) * -d",
+            "(i + 1) / 3",
+            "i > 2 and d < 4.5",
+            "i > 2 or !(d < 4.5) or b",
+            "b and i",
+            "!b or s == \"s1\"",
+            "s == \"s2\" or length(s) > 1",
+            "s == null or toupper(s) == \"S1\"",
+            "i + threshold > d",
+            "i in [1, 2, 3] and d > 0",
+            "scale * d",
+            "2 ^ 3 + i",
+            "missing == null or i > 0",
+            "float(i) / 4"
+        };
+
+        ExpressionContext shared = new ExpressionContext();
+        shared.set("threshold", 2.5);
+        shared.set("scale", 10);
+
+        Batch batch = createBatch(shared);
+        Parser parser = new Parser();
+        BatchEvaluator evaluator = new BatchEvaluator();
+
+        for (String expression : expressions) {
+            Expression e = parser.parse(expression);
+
+            Object[] results = new Object[SIZE];
+            evaluator.eval(e, batch, results);
+
+            boolean[] booleans = new boolean[SIZE];
+            evaluator.evalBoolean(e, batch, booleans);
+
+            for (int n = 0; n < SIZE; ++n) {
+                ExpressionContext context = record(batch, n);
+                assertEquals("Result is correct: " + expression + " record " + n, e.eval(context), results[n]);
+                assertEquals("Boolean result is correct: " + expression + " record " + n, e.evalBoolean(context), booleans[n]);
+            }
+
+            if (results[0] instanceof Number) {
+                double[] doubles = new double[SIZE];
+                int[] ints = new int[SIZE];
+                evaluator.evalDouble(e, batch, doubles);
+                evaluator.evalInt(e, batch, ints);
+
+                for (int n = 0; n < SIZE; ++n) {
+                    ExpressionContext context = record(batch, n);
+                    assertEquals("Double result is correct: " + expression + " record " + n, e.evalDouble(context), doubles[n], 0);
+                    assertEquals("Int result is correct: " + expression + " record " + n, e.evalInt(context), ints[n]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Test the right hand operand of 'and' and 'or' is only evaluated for records that need it
+     */
+    @Test public void testShortCircuit() throws ExpressionError {
+
+        int[] count = new int[1];
+        Registry registry = new Registry.Builder(Registry.getDefaults())
+            .function(Functions.create("counted", (context, arg1) -> { ++count[0]; return arg1; }))
+            .build();
+
+        Batch batch = createBatch(null);
+        Expression e = new Parser(registry).parse("i > 0 and counted(d) > 0");
+
+        int expected = 0;
+        for (int n = 0; n < SIZE; ++n) if (((int[]) batch.getColumn("i"))[n] > 0) ++expected;
+
+        boolean[] results = new boolean[SIZE];
+        new BatchEvaluator().evalBoolean(e, batch, results);
+        assertEquals("Function is evaluated for each selected record", expected, count[0]);
+    }
+
+
+    /**
+     * Test errors are reported for the first failing record
+     */
+    @Test public void testErrors() throws ExpressionError {
+
+        Batch batch = new Batch(4)
+            .set("x", new int[] { 2, 0, 0, 2 })
+            .set("y", new int[] { 1, 1, 1, 0 })
+            .set("s", new String[] { "1", "2", "bad", "4" });
+
+        Parser parser = new Parser();
+        BatchEvaluator evaluator = new BatchEvaluator();
+
+        /* Record 2 fails to convert 's', before record 3 divides by zero */
+
+        boolean[] results = new boolean[4];
+        try {
+            evaluator.evalBoolean(parser.parse("x > 1 and 10 / y > 0 or int(s) > 0"), batch, results);
+            fail("Evaluation should fail");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Cannot convert value to integer: For input string: \"bad\"", x.getMessage());
+        }
+        assertArrayEquals("Results before the failing record are written", new boolean[] { true, true, false, false }, results);
+
+        boolean[] matched = new boolean[4];
+        evaluator.evalBoolean(parser.parse("y == 0 or 10 / y > 5"), batch, matched);
+        assertArrayEquals("Short circuit avoids errors", new boolean[] { true, true, true, true }, matched);
+
+        double[] doubles = new double[4];
+        try {
+            evaluator.evalDouble(parser.parse("x > 1"), batch, doubles);
+            fail("Evaluation should fail");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Expected numeric result - found true", x.getMessage());
+        }
+    }
+
+
+    /**
+     * Test records before the failing record are evaluated again as a batch
+     */
+    @Test public void testFailingRecord() throws ExpressionError {
+
+        int[] count = new int[1];
+        Registry registry = new Registry.Builder(Registry.getDefaults())
+            .function(Functions.create("counted", (context, arg1) -> { ++count[0]; return arg1; }))
+            .build();
+
+        int[] x = new int[SIZE];
+        int[] y = new int[SIZE];
+        for (int n = 0; n < SIZE; ++n) {
+            x[n] = n;
+            y[n] = (n == 150 || n == 180) ? 0 : n % 5 + 1;
+        }
+        Batch batch = new Batch(SIZE).set("x", x).set("y", y);
+
+        boolean[] results = new boolean[SIZE];
+        try {
+            new BatchEvaluator().evalBoolean(new Parser(registry).parse("counted(x) > 0 and x / y > 1"), batch, results);
+            fail("Evaluation should fail");
+        }
+        catch (ExpressionError error) {
+            assertEquals("Error is correct", "Arithmetic error: / by zero", error.getMessage());
+        }
+        for (int n = 0; n < 150; ++n) assertEquals("Result is correct: record " + n, x[n] > 0 && x[n] / y[n] > 1, results[n]);
+        assertEquals("Records after the failing record are not evaluated again", SIZE + 150 + 1, count[0]);
+    }
+
+
+
+    /**
+     * Test batches can be resized and refilled
+     */
+    @Test public void testResize() throws ExpressionError {
+
+        double[] values = new double[] { 1, 2, 3, 4 };
+        Batch batch = new Batch(4).set("v", values);
+        Expression e = new Parser().parse("v * 2");
+
+        double[] results = new double[4];
+        new BatchEvaluator().evalDouble(e, batch, results);
+        assertArrayEquals("Results are correct", new double[] { 2, 4, 6, 8 }, results, 0);
+
+        values[0] = 10;
+        batch.setSize(2);
+        results = new double[2];
+        new BatchEvaluator().evalDouble(e, batch, results);
+        assertArrayEquals("Results are correct", new double[] { 20, 4 }, results, 0);
+
+        try {
+            batch.setSize(5);
+            fail("Columns are too short");
+        }
+        catch (IllegalArgumentException x) {
+            assertEquals("Error is correct", "Column 'v' has fewer than 5 values", x.getMessage());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package pls.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCompiler {
+
+
+    static {
+        Functions.registerStringFunctions();
+        Functions.registerMathFunctions();
+    }
+
+
+    /**
+     * Test compiled expressions evaluate identically to the interpreted expression tree
+     */
+    @Test public void testCompiledMatchesInterpreted() throws ExpressionError {
+
+        String[] expressions = new String[] {
+            "3 + 2",
+            "3.2 * x / 2.2 * (y + 1.4)",
+            "(10 + 100 / 5) * 3 + 10",
+            "x > 3 and y <= 2.5",
+            "x == 5 or name == \"fred\"",
+            "!(x < 2)",
+            "-x + 7",
+            "cos(rad(45)) ^ 2",
+            "concat(name, \" \", tolower(\"SMITH\"))",
+            "x in [1, 2, 5, 7]",
+            "[1, x, \"three\", y * 2]",
+            "name =~ \"re\"",
+            "thing.member_1",
+            "int(y) + float(x)",
+            "missing",
+            "null"
+        };
+
+        Map<String, Object> thing = new HashMap<String, Object>();
+        thing.put("member_1", "hello");
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("y", 2.25);
+        context.set("name", "fred");
+        context.set("thing", thing);
+
+        Parser parser = new Parser();
+        ExpressionCompiler compiler = new ExpressionCompiler();
+
+        for (String expr : expressions) {
+            Expression e = parser.parse(expr);
+            Expression c = compiler.compile(e);
+
+            assertNotEquals("Compiled expression", c, null);
+            assertTrue("Expression is compiled", c instanceof CompiledExpression);
+            assertEquals("Compiled expression toString is correct", e.toString(), c.toString());
+
+            Object expected = e.eval(context);
+            Object result = c.eval(context);
+
+            if (expected instanceof Object[]) {
+                assertEquals("Compiled result value is correct: " + expr,
+                    java.util.Arrays.asList((Object[]) expected), java.util.Arrays.asList((Object[]) result));
+            }
+            else {
+                assertEquals("Compiled result value is correct: " + expr, expected, result);
+            }
+        }
+    }
+
+
+    /**
+     * Test compiled expressions can be repeatedly evaluated with different contexts
+     */
+    @Test public void testCompiledContext() throws ExpressionError {
+
+        Expression e = new ExpressionCompiler().compile(new Parser().parse("cost * count"));
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("cost", 10.0);
+        context.set("count", 103);
+        assertEquals("Expression result value is correct", 1030.0, e.eval(context));
+
+        context.set("cost", 3);
+        context.set("count", 4);
+        assertEquals("Expression result value is correct", 12, e.eval(context));
+        assertEquals("Expression result value is correct", null, new ExpressionCompiler().compile(new Parser().parse("a")).eval(null));
+    }
+
+
+    /**
+     * Test compiled expressions report the same errors as the interpreted expression tree
+     */
+    @Test public void testCompiledErrors() throws ExpressionError {
+
+        String[] expressions = new String[] {
+            "1 / 0",
+            "x + \"hello\"",
+            "missing * 2",
+            "x == 5.0"
+        };
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+
+        Parser parser = new Parser();
+        ExpressionCompiler compiler = new ExpressionCompiler();
+
+        for (String expr : expressions) {
+            Expression e = parser.parse(expr);
+            Expression c = compiler.compile(e);
+
+            String expected = null;
+            try {
+                e.eval(context);
+                fail("Interpreted expression should fail: " + expr);
+            }
+            catch (ExpressionError x) {
+                expected = x.getMessage();
+            }
+
+            try {
+                c.eval(context);
+                fail("Compiled expression should fail: " + expr);
+            }
+            catch (ExpressionError x) {
+                assertEquals("Compiled error is correct", expected, x.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Test long operator chains reuse local variables, and deeply nested operands use wide local indices
+     */
+    @Test public void testCompiledChains() throws ExpressionError {
+
+        StringBuilder chain = new StringBuilder("x");
+        StringBuilder nested = new StringBuilder("x");
+        for (int i = 1; i < 150; ++i) chain.append(i % 2 == 0 ? " + y - " : " * x - ").append(i);
+        for (int i = 1; i < 280; ++i) nested.insert(0, i + " - (").append(')');
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("y", 2.25);
+
+        Parser parser = new Parser();
+        ExpressionCompiler compiler = new ExpressionCompiler();
+
+        for (String expr : new String[] { chain.toString(), nested.toString() }) {
+            Expression e = parser.parse(expr);
+            Expression c = compiler.compile(e);
+            assertTrue("Chain is compiled", c instanceof CompiledExpression);
+            assertEquals("Compiled chain result is correct", e.eval(context), c.eval(context));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package pls.expression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestErrors {
+
+
+    /**
+     * Evaluates an expression that is expected to fail, returning the error
+     */
+    private static ExpressionError fails(Expression e, ExpressionContext context) {
+        try {
+            e.eval(context);
+        }
+        catch (ExpressionError x) {
+            return x;
+        }
+        fail("Expression should fail: " + e);
+        return null;
+    }
+
+
+
+    /**
+     * Test lazily formatted errors
+     */
+    @Test public void testLazy() {
+
+        ExpressionError error = ExpressionError.lazy("Value %d of %s", 5, "x");
+        assertEquals("Message is correct", "Value 5 of x", error.getMessage());
+        assertEquals("String is correct", "pls.expression.ExpressionError: Value 5 of x", error.toString());
+        assertEquals("No stack trace", 0, error.getStackTrace().length);
+
+        assertEquals("Message without arguments is not formatted", "100% wrong", ExpressionError.lazy("100% wrong").getMessage());
+        assertEquals("Stack trace is recorded", true, new ExpressionError("Failed").getStackTrace().length > 0);
+    }
+
+
+
+    /**
+     * Test errors raised during evaluation
+     */
+    @Test public void testEvaluation() throws ExpressionError {
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", "a");
+        context.set("list", 4);
+
+        Parser parser = new Parser();
+        String[][] expressions = new String[][] {
+            { "x == 1", "Type mismatch : (String) a == (Integer) 1" },
+            { "x + 1", "Invalid type for arithmetic operator: (String) a + (Integer) 1" },
+            { "missing * 2", "Invalid null argument passed to '*' operator" },
+            { "1 / 0", "Arithmetic error: / by zero" },
+            { "-x", "Attempt to negate a non-numeric value" },
+            { "1 in list", "Invalid list type passed to 'in' operator" },
+            { "x.size", "Unknown member 'size' for String" }
+        };
+
+        for (String[] expr : expressions) {
+            ExpressionError error = fails(parser.parse(expr[0]), context);
+            assertEquals("Message is correct: " + expr[0], expr[1], error.getMessage());
+            assertEquals("No stack trace: " + expr[0], 0, error.getStackTrace().length);
+        }
+
+        Expression e = parser.parse("1 in missing");
+        ExpressionError error = fails(e, context);
+        assertSame("Error without arguments is shared", error, fails(e, context));
+        error.addSuppressed(new ExpressionError("Other"));
+        assertEquals("Shared error is unchanged", 0, error.getSuppressed().length);
+    }
+
+
+
+    /**
+     * Test lazily formatted errors keep their messages when serialized
+     */
+    @Test public void testSerialization() throws IOException, ClassNotFoundException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(ExpressionError.lazy("Type mismatch : %s", new StringBuilder("value")));
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals("Message is correct", "Type mismatch : value", ((ExpressionError) in.readObject()).getMessage());
+        }
+    }
+
+
+
+    /**
+     * Test rules that fail for most records are cheap to evaluate
+     */
+    @Test public void testAllocation() throws ExpressionError {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+
+        Expression e = new Parser().parse("code == 100 or amount > 10");
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("code", "A100");
+        context.set("amount", 20);
+
+        int errors = 0;
+        for (int i = 0; i < 1000; ++i) errors += fails(e, context) != null ? 1 : 0;
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; ++i) errors += fails(e, context) != null ? 1 : 0;
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals("Every evaluation fails", 101000, errors);
+        assertTrue("Errors are cheap (" + allocated / 100000 + " bytes per error)", allocated < 100000 * 256L);
+    }
+}
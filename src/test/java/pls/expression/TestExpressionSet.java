@@ -0,0 +1,156 @@
+package pls.expression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestExpressionSet {
+
+
+    /**
+     * Formats a result for comparison
+     */
+    private static String format(Object value) {
+        return value instanceof Object[] ? java.util.Arrays.deepToString((Object[]) value) : String.valueOf(value);
+    }
+
+
+    /**
+     * Test sets give the same results as evaluating each expression
+     */
+    @Test public void testMatchesEval() throws ExpressionError {
+
+        Functions.registerStringFunctions();
+
+        String[] expressions = new String[] {
+            "tolower(name) == \"bob\" and amount * rate > 100",
+            "tolower(name) =~ \"^a\" or amount * rate > 500",
+            "(amount * rate) / 2 > 50 and !(tolower(name) == \"bob\")",
+            "amount * rate + amount * rate",
+            "amount * 2 in [1, 2, amount * rate]",
+            "length(tolower(name)) > 3 and amount > 1",
+            "amount * rate > 100 or amount * 1.0 > 100",
+            "[amount * rate, (amount * rate)]"
+        };
+
+        Map<String, Expression> map = new LinkedHashMap<String, Expression>();
+        Parser parser = new Parser();
+        for (int i = 0; i < expressions.length; ++i) map.put("e" + i, parser.parse(expressions[i]));
+
+        ExpressionSet set = new ExpressionSet(map);
+        assertEquals("Size is correct", expressions.length, set.size());
+        assertEquals("Names are correct", "e0", set.getNames().get(0));
+        assertEquals("Shared count is correct", 4, set.getSharedCount());
+
+        Random random = new Random(7);
+        String[] names = new String[] { "Bob", "alice", "Al", "Carol" };
+        for (int n = 0; n < 100; ++n) {
+            ExpressionContext context = new ExpressionContext();
+            context.set("name", names[random.nextInt(names.length)]);
+            context.set("amount", random.nextInt(200));
+            context.set("rate", random.nextDouble() * 5);
+
+            Map<String, Object> results = set.eval(context);
+            boolean[] booleans = new boolean[expressions.length];
+            set.evalBoolean(context, booleans);
+
+            int i = 0;
+            for (Map.Entry<String, Expression> entry : map.entrySet()) {
+                Object expected = entry.getValue().eval(context);
+                Object result = results.get(entry.getKey());
+
+                if (expected instanceof Object[])
+                    assertArrayEquals("Result is correct: " + entry.getValue(), (Object[]) expected, (Object[]) result);
+                else
+                    assertEquals("Result is correct: " + entry.getValue(), expected, result);
+
+                assertEquals("Boolean result is correct: " + entry.getValue(), entry.getValue().evalBoolean(context), booleans[i++]);
+                assertEquals("Expression is unchanged", entry.getValue().toString(), set.getExpression(entry.getKey()).toString());
+                assertEquals("Expression evaluates alone", format(expected), format(set.getExpression(entry.getKey()).eval(context)));
+            }
+        }
+    }
+
+
+
+    /**
+     * Test shared subexpressions are evaluated once, and only when needed
+     */
+    @Test public void testEvaluatedOnce() throws ExpressionError {
+
+        int[] count = new int[1];
+        Registry registry = new Registry.Builder(Registry.getDefaults())
+            .function(Functions.create("counted", (context, arg1) -> { ++count[0]; return arg1; }).setPure(true))
+            .function(Functions.create("impure", (context, arg1) -> { ++count[0]; return arg1; }))
+            .build();
+        Parser parser = new Parser(registry);
+
+        Map<String, Expression> map = new LinkedHashMap<String, Expression>();
+        map.put("a", parser.parse("x > 1 and counted(x + 1) > 3"));
+        map.put("b", parser.parse("counted(x + 1) < 10"));
+        map.put("c", parser.parse("counted(x + 1) * 2 + counted(x + 1)"));
+        ExpressionSet set = new ExpressionSet(map, registry);
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        Map<String, Object> results = set.eval(context);
+        assertEquals("Shared function is evaluated once", 1, count[0]);
+        assertEquals("Result is correct", true, results.get("a"));
+        assertEquals("Result is correct", true, results.get("b"));
+        assertEquals("Result is correct", 18, results.get("c"));
+
+        count[0] = 0;
+        set.eval(context);
+        assertEquals("Shared function is evaluated once per evaluation", 1, count[0]);
+
+        count[0] = 0;
+        set.getExpression("c").eval(context);
+        assertEquals("Expression evaluated alone does not share results", 2, count[0]);
+
+        map.clear();
+        map.put("a", parser.parse("impure(x) > 1"));
+        map.put("b", parser.parse("impure(x) > 1 or counted(impure(x)) > 1"));
+        set = new ExpressionSet(map, registry);
+        assertEquals("Impure functions are not shared", 0, set.getSharedCount());
+
+        count[0] = 0;
+        set.eval(context);
+        assertEquals("Impure functions are evaluated each time", 2, count[0]);
+    }
+
+
+
+    /**
+     * Test errors in shared subexpressions
+     */
+    @Test public void testErrors() throws ExpressionError {
+
+        Parser parser = new Parser();
+        Map<String, Expression> map = new LinkedHashMap<String, Expression>();
+        map.put("a", parser.parse("y == 0 or 10 / y > 1"));
+        map.put("b", parser.parse("10 / y > 1"));
+        ExpressionSet set = new ExpressionSet(map);
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("y", 0);
+
+        Object[] results = new Object[2];
+        try {
+            set.eval(context, results);
+            fail("Evaluation should fail");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Arithmetic error: / by zero", x.getMessage());
+        }
+        assertEquals("Results before the failing expression are stored", true, results[0]);
+
+        context.set("y", 5);
+        set.eval(context, results);
+        assertArrayEquals("Results are correct", new Object[] { true, true }, results);
+    }
+}
@@ -0,0 +1,201 @@
+package pls.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestIndexedContext {
+
+
+    /**
+     * Test parsing with a symbol table assigns slots to context variables
+     */
+    @Test public void testSlotBinding() throws ExpressionError {
+
+        SymbolTable symbols = new SymbolTable();
+        Parser parser = new Parser(symbols);
+
+        String expr = "3.2 * x / 2.2 * (y + 1.4)";
+        Expression e = parser.parse(expr);
+
+        assertNotEquals("Parsed expression", e, null);
+        assertEquals(e.toString(), expr);
+        assertEquals("Symbol table size is correct", 2, symbols.size());
+        assertEquals("Slot is correct", 0, symbols.indexOf("x"));
+        assertEquals("Slot is correct", 1, symbols.indexOf("y"));
+        assertEquals("Slot is correct", -1, symbols.indexOf("z"));
+
+        // Existing names keep their slots
+
+        parser.parse("y + z");
+        assertEquals("Symbol table size is correct", 3, symbols.size());
+        assertEquals("Slot is correct", 1, symbols.indexOf("y"));
+        assertEquals("Slot name is correct", "z", symbols.getName(2));
+    }
+
+
+    /**
+     * Test evaluation using slots
+     */
+    @Test public void testSlotEval() throws ExpressionError {
+
+        SymbolTable symbols = new SymbolTable();
+        Expression e = new Parser(symbols).parse("price * quantity");
+
+        IndexedContext context = new IndexedContext(symbols);
+        context.setSlot(symbols.indexOf("price"), 2.5).setSlot(symbols.indexOf("quantity"), 4);
+
+        assertEquals("Expression result value is correct", 10.0, e.eval(context));
+        assertEquals("Compiled result value is correct", 10.0, new ExpressionCompiler().compile(e).eval(context));
+
+        context.setSlot(symbols.indexOf("price"), 3);
+        assertEquals("Expression result value is correct", 12, e.eval(context));
+
+        context.clear();
+        assertNull("Cleared slot is null", context.getSlot(0));
+    }
+
+
+    /**
+     * Test the name keyed context API continues to work with slot bound expressions
+     */
+    @Test public void testNameAdapter() throws ExpressionError {
+
+        SymbolTable symbols = new SymbolTable();
+        Expression bound = new Parser(symbols).parse("a + b");
+        Expression unbound = new Parser().parse("a + b + c");
+
+        // Name keyed access on an indexed context reads and writes slots
+
+        IndexedContext context = new IndexedContext(symbols);
+        context.set("a", 1).set("b", 2).set("c", 3);
+
+        assertEquals("Slot value is correct", 1, context.getSlot(symbols.indexOf("a")));
+        assertEquals("Named value is correct", 2, context.get("b"));
+        assertEquals("Unbound value is correct", 3, context.get("c"));
+        assertEquals("Bound expression result is correct", 3, bound.eval(context));
+        assertEquals("Unbound expression result is correct", 6, unbound.eval(context));
+
+        // Slot bound expressions can still be evaluated with a plain context
+
+        ExpressionContext plain = new ExpressionContext();
+        plain.set("a", 5).set("b", 6);
+        assertEquals("Bound expression result is correct", 11, bound.eval(plain));
+    }
+
+
+    /**
+     * Test member names are not bound to slots
+     */
+    @Test public void testMemberNotBound() throws ExpressionError {
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("member_1", "hello");
+
+        SymbolTable symbols = new SymbolTable();
+        Expression e = new Parser(symbols).parse("thing.member_1");
+
+        assertEquals("Symbol table size is correct", 1, symbols.size());
+
+        IndexedContext context = new IndexedContext(symbols);
+        context.set("thing", map);
+        assertEquals("Expression result value is correct", "hello", e.eval(context));
+    }
+
+
+    /**
+     * Test the Map methods and views include slot values
+     */
+    @Test public void testMap() {
+
+        SymbolTable symbols = new SymbolTable();
+        symbols.define("a");
+        symbols.define("b");
+
+        IndexedContext context = new IndexedContext(symbols);
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("a", 1);
+        values.put("c", 3);
+        context.putAll(values);
+
+        assertEquals("Value is set by putAll", 1, context.getSlot(0));
+        assertEquals("Size includes slots", 2, context.size());
+        assertEquals("Default is used for an unset slot", 0, context.getOrDefault("b", 0));
+        assertEquals("Value is correct", 1, context.getOrDefault("a", 0));
+
+        assertEquals("Value is computed", 2, context.compute("a", (k, v) -> (Integer) v + 1));
+        assertEquals("Value is merged", 5, context.merge("b", 5, (v1, v2) -> (Integer) v1 + (Integer) v2));
+        assertEquals("Value is merged", 7, context.merge("b", 2, (v1, v2) -> (Integer) v1 + (Integer) v2));
+        assertEquals("Value is present", 2, context.computeIfAbsent("a", k -> 10));
+        assertEquals("Value is computed if present", 3, context.computeIfPresent("a", (k, v) -> (Integer) v + 1));
+        assertEquals("Value is read from the slot", 3, context.getSlot(0));
+
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("a", 3);
+        expected.put("b", 7);
+        expected.put("c", 3);
+        assertEquals("Context is equal to a map holding the same values", expected, context);
+        assertEquals("Map is equal to the context", expected, new HashMap<String, Object>(context));
+        assertEquals("Keys include slots", expected.keySet(), context.keySet());
+        assertEquals("Entries include slots", expected.entrySet(), context.entrySet());
+        assertEquals("Values include slots", true, context.containsValue(7));
+
+        for (Map.Entry<String, Object> entry : context.entrySet()) entry.setValue((Integer) entry.getValue() * 10);
+        assertEquals("Slot is set through its entry", 30, context.getSlot(0));
+        assertEquals("Value is set through its entry", 30, context.get("c"));
+
+        context.keySet().remove("b");
+        assertEquals("Slot is removed through the view", null, context.getSlot(1));
+        assertEquals("Value is removed", 30, context.remove("a"));
+        assertEquals("Value is removed", null, context.getSlot(0));
+        assertEquals("Value is removed by compute", null, context.compute("a", (k, v) -> null));
+        assertEquals("Only the map value is left", 1, context.size());
+    }
+
+
+
+    /**
+     * Test replacing, iterating over, and copying values reads and writes the slots
+     */
+    @Test public void testReplace() {
+
+        SymbolTable symbols = new SymbolTable();
+        symbols.define("a");
+        symbols.define("b");
+
+        IndexedContext context = new IndexedContext(symbols);
+        context.set("a", 1).set("c", 3);
+
+        assertEquals("Previous value is returned", 1, context.replace("a", 2));
+        assertEquals("Slot is replaced", 2, context.getSlot(0));
+        assertEquals("Unset slot is not replaced", null, context.replace("b", 5));
+        assertEquals("Unset slot is unchanged", null, context.getSlot(1));
+        assertEquals("Value is replaced if it matches", true, context.replace("a", 2, 4));
+        assertEquals("Value is not replaced if it differs", false, context.replace("a", 2, 6));
+        assertEquals("Slot is replaced", 4, context.getSlot(0));
+
+        Map<String, Object> seen = new HashMap<String, Object>();
+        context.forEach(seen::put);
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("a", 4);
+        expected.put("c", 3);
+        assertEquals("Each value includes slots", expected, seen);
+
+        context.replaceAll((k, v) -> (Integer) v * 10);
+        assertEquals("Slot is replaced", 40, context.getSlot(0));
+        assertEquals("Value is replaced", 30, context.get("c"));
+
+        IndexedContext copy = context.clone();
+        copy.put("a", 1);
+        copy.setSlot(1, 2);
+        copy.put("c", 5);
+        assertEquals("Copy holds the slot value", 1, copy.get("a"));
+        assertEquals("Original slot is unchanged", 40, context.get("a"));
+        assertEquals("Original slot is unchanged", null, context.getSlot(1));
+        assertEquals("Original value is unchanged", 30, context.get("c"));
+    }
+}
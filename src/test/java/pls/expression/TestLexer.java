@@ -0,0 +1,119 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import pls.expression.Parser.TokenType;
+
+public class TestLexer {
+
+
+    /**
+     * Tokenizes an expression, returning the tokens as a list of "type:text" strings
+     */
+    private static List<String> tokenize(String expression) throws ExpressionError {
+        Lexer lexer = new Lexer();
+        lexer.tokenize(expression, (token) -> token.equals("+") || token.equals("==") || token.equals("and") || token.equals("."));
+
+        List<String> tokens = new ArrayList<String>();
+        TokenType type;
+        while ((type = lexer.next()) != TokenType.EOS) tokens.add(type + ":" + lexer.text());
+        return tokens;
+    }
+
+
+    /**
+     * Test expressions are split into typed tokens
+     */
+    @Test public void testTokens() throws ExpressionError {
+
+        assertEquals("Tokens are correct",
+            java.util.Arrays.asList("TOKEN:x", "OPERATOR:+", "INTEGER:12", "OPERATOR:==", "FLOAT:3.5", "OPERATOR:and", "BOOL:True"),
+            tokenize("x+12==3.5 and True"));
+
+        assertEquals("Tokens are correct",
+            java.util.Arrays.asList("TOKEN:f", "BEGINPAREN:(", "STRING:\"a, (b)\"", "COMMA:,", "BEGINLIST:[", "NULL:null", "ENDLIST:]", "ENDPAREN:)"),
+            tokenize("f(\"a, (b)\",[null])"));
+
+        assertEquals("Unregistered symbols are tokens",
+            java.util.Arrays.asList("TOKEN:x", "TOKEN:-", "TOKEN:y", "TOKEN:!=", "TOKEN:a=b"),
+            tokenize("x-y != a=b"));
+    }
+
+
+    /**
+     * Test the '.' member operator is only split out between names
+     */
+    @Test public void testMembers() throws ExpressionError {
+
+        assertEquals("Member tokens are correct",
+            java.util.Arrays.asList("TOKEN:a", "OPERATOR:.", "TOKEN:b", "OPERATOR:.", "TOKEN:c"),
+            tokenize("a.b . c"));
+
+        assertEquals("Numbers are not split", java.util.Arrays.asList("FLOAT:3.25"), tokenize("3.25"));
+        assertEquals("Names followed by digits are not split", java.util.Arrays.asList("TOKEN:x.5"), tokenize("x.5"));
+    }
+
+
+    /**
+     * Test quoted strings may contain escaped quotes
+     */
+    @Test public void testStrings() throws ExpressionError {
+
+        assertEquals("String tokens are correct",
+            java.util.Arrays.asList("STRING:\"say \\\"hi\\\"\"", "OPERATOR:+", "STRING:\"\""),
+            tokenize("\"say \\\"hi\\\"\"+\"\""));
+
+        try {
+            tokenize("x == \"abc");
+            fail("Unterminated string should fail");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Unterminated string constant at position 5", x.getMessage());
+        }
+    }
+
+
+    /**
+     * Test spacing does not affect the parsed expression
+     */
+    @Test public void testSpacing() throws ExpressionError {
+
+        Functions.registerStringFunctions();
+
+        String[][] expressions = new String[][] {
+            { "(x+1)*2>=y-3", "( x + 1 ) * 2 >= y - 3" },
+            { "thing.member_1.member_2", "thing . member_1 . member_2" },
+            { "name=~\"a b\"", "name =~ \"a b\"" },
+            { "2^3", "2 ^ 3" },
+            { "concat(\"a\",\"b\")", "concat( \"a\" , \"b\" )" }
+        };
+
+        Parser parser = new Parser();
+
+        for (String[] expr : expressions) {
+            assertEquals("Parsed expression is correct: " + expr[0], parser.parse(expr[1]).toString(), parser.parse(expr[0]).toString());
+        }
+    }
+
+
+    /**
+     * Test expressions can be parsed while another parse is in progress on the same thread
+     */
+    @Test public void testReentrantParse() throws ExpressionError {
+
+        Parser parser = new Parser();
+        Parser.registerFunction(new Factory("parsed") {
+            @Override
+            public Expression create(Expression ...input) throws ExpressionError {
+                return parser.parse("(" + input[0].eval(null) + ") * 2");
+            }
+        });
+
+        assertEquals("Expression result value is correct", 10, parser.parse("parsed(\"2 + 3\") + 0").eval(null));
+    }
+}
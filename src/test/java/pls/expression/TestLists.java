@@ -1,10 +1,14 @@
 package pls.expression;
 
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
 
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class TestLists {
 
@@ -68,4 +72,120 @@ public class TestLists {
     }
 
 
-}
\ No newline at end of file
+
+    /**
+     * Test 'in' with a constant list gives the same results as searching the list
+     */
+    @Test public void testInConstantList() throws ExpressionError {
+
+        String[] lists = new String[] {
+            "[1, 5, -3, 12, 7]",
+            "[1.0, -0.0, 2.5, 1e10, 0.0 / 0.0]",
+            "[\"a\", \"b\", null, \"1\"]",
+            "[1, 1.0, \"1\", true, null, [1, 2]]",
+            "[]"
+        };
+        Object[] values = new Object[] {
+            1, 5, -3, 0, 13, 1.0, 0.0, -0.0, 2.5, 1e10, Double.NaN, "a", "c", "1", null, true, false
+        };
+
+        Parser parser = new Parser();
+        for (String list : lists) {
+            Expression e = parser.parse("x in " + list);
+            Object[] items = (Object[]) parser.parse(list).eval(null);
+
+            for (Object value : values) {
+                ExpressionContext context = new ExpressionContext();
+                context.set("x", value);
+
+                boolean expected = Arrays.asList(items).contains(value);
+                assertEquals("Result is correct: " + value + " in " + list, expected, e.eval(context));
+                assertEquals("Boolean result is correct: " + value + " in " + list, expected, e.evalBoolean(context));
+            }
+        }
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 3);
+        context.set("y", 4.5);
+        assertEquals("Typed integer result is correct", true, parser.parse("x + 2 in [1, 5, 9]").eval(context));
+        assertEquals("Typed integer result is correct", false, parser.parse("x * 2 in [1, 5, 9]").eval(context));
+        assertEquals("Typed float result is correct", true, parser.parse("y * 2 in [9.0, 1.5]").eval(context));
+        assertEquals("Integer is not found in float list", false, parser.parse("x in [3.0]").eval(context));
+        assertEquals("Float is not found in integer list", false, parser.parse("y - 1.5 in [3]").eval(context));
+        assertEquals("Non-constant list is searched", true, parser.parse("x in [1, y - 1.5, x]").eval(context));
+    }
+
+
+
+    /**
+     * Test a list of constants is only evaluated once
+     */
+    @Test public void testConstantList() throws ExpressionError {
+
+        Parser parser = new Parser();
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 1);
+
+        Expression e = parser.parse("[1, (2), [\"a\", 3.5]]");
+        assertSame("Constant list is reused", e.eval(context), e.eval(context));
+
+        e = parser.parse("[1, x]");
+        assertNotSame("Non-constant list is rebuilt", e.eval(context), e.eval(context));
+    }
+
+
+
+    /**
+     * Test 'in' with a large list of IDs
+     */
+    @Test public void testInLargeList() throws ExpressionError {
+
+        StringBuilder list = new StringBuilder("[");
+        for (int i = 0; i < 5000; ++i) list.append(i == 0 ? "" : ", ").append(i * 7);
+        list.append("]");
+
+        Expression ints = new Parser().parse("id in " + list);
+        Expression strings = new Parser().parse("name in " + list.toString().replaceAll("(\\d+)", "\"$1\""));
+
+        ExpressionContext context = new ExpressionContext();
+        for (int id = -10; id < 36000; id += 3) {
+            context.set("id", id);
+            context.set("name", String.valueOf(id));
+
+            boolean expected = id >= 0 && id < 35000 && id % 7 == 0;
+            assertEquals("Integer result is correct: " + id, expected, ints.evalBoolean(context));
+            assertEquals("String result is correct: " + id, expected, strings.evalBoolean(context));
+        }
+    }
+
+
+
+    /**
+     * Test 'in' with a constant list does not allocate when evaluated
+     */
+    @Test public void testInNoAllocation() throws ExpressionError {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+
+        Expression e = new Parser().parse("x * 2 in [2, 4, 8, 16, 32, 64] and name in [\"a\", \"b\", \"c\"]");
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 4);
+        context.set("name", "b");
+
+        boolean result = false;
+        for (int i = 0; i < 1000; ++i) result |= e.evalBoolean(context);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; ++i) result |= e.evalBoolean(context);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("Expression result is correct", result);
+        assertTrue("Evaluation does not allocate (" + allocated + " bytes)", allocated < 10000);
+    }
+}
@@ -16,6 +16,47 @@ public class TestMaps {
     }
 
 
+    /**
+     * A bean with getters
+     */
+    public static class Customer {
+        private String name;
+        private boolean active;
+        private Address address;
+
+        Customer(String name, boolean active, Address address) {
+            this.name = name;
+            this.active = active;
+            this.address = address;
+        }
+
+        public String getName() { return name; }
+        public boolean isActive() { return active; }
+        public Address getAddress() { return address; }
+        public void getNothing() { }
+        public String isNamed() { return name; }
+        public static String getType() { return "customer"; }
+    }
+
+
+    /**
+     * A record-style class, with accessors named after its components
+     */
+    private static final class Address {
+        private final String country;
+        public final int code;
+
+        Address(String country, int code) {
+            this.country = country;
+            this.code = code;
+        }
+
+        public String country() { return country; }
+        public Map<String, Object> extra() { return Map.of("zone", 12); }
+        public String getFailed() { throw new IllegalStateException("Not available"); }
+    }
+
+
     /**
      * Test dot '.' operator can be parsed and output again
      */
@@ -109,6 +150,115 @@ public class TestMaps {
     }
 
 
+    /**
+     * Test a chain of dot '.' operators gives the same results and errors as each operator in turn
+     */
+    @Test public void testPath() throws ExpressionError {
+
+        Map<String, Object> address = new java.util.TreeMap<String, Object>();
+        address.put("country", "NZ");
+        Map<String, Object> customer = new java.util.HashMap<String, Object>();
+        customer.put("address", address);
+        customer.put("name", null);
+        ExpressionContext order = new ExpressionContext();
+        order.set("customer", customer);
+        order.set("total", 10);
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("order", order);
+
+        Parser parser = new Parser();
+        String[][] expressions = new String[][] {
+            { "order.customer.address.country", "NZ" },
+            { "order.customer.address.city", "null" },
+            { "order.total + 1", "11" },
+            { "order.customer.name.first", "Expected map or object for left value in member operator - found null" },
+            { "order.total.value", "Unknown member 'value' for Integer" },
+            { "order.missing.address.country", "Expected map or object for left value in member operator - found null" },
+            { "tolower(order.customer.address.country)", "nz" }
+        };
+
+        for (String[] expression : expressions) {
+            Expression e = parser.parse(expression[0]);
+            Expression compiled = new ExpressionCompiler().compile(e);
+            for (Expression x : new Expression[] { e, compiled }) {
+                String result;
+                try {
+                    result = String.valueOf(x.eval(context));
+                }
+                catch (ExpressionError error) {
+                    result = error.getMessage();
+                }
+                assertEquals("Result is correct: " + expression[0], expression[1], result);
+            }
+        }
+
+        Expression e = parser.parse("order.customer.address.country");
+        assertEquals("Path is collapsed", "[customer, address, country]", java.util.Arrays.toString(((MemberOperator) e).getKeys()));
+        assertEquals("Left operand is a member operator", "order . customer . address", ((BinaryOperator) e).getLeft().toString());
+        assertEquals("Left operand evaluates alone", address, ((BinaryOperator) e).getLeft().eval(context));
+    }
+
+
+    /**
+     * Test dot '.' operator on objects that are not maps
+     */
+    @Test public void testObjects() throws ExpressionError {
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("customer", new Customer("Ann", true, new Address("NZ", 64)));
+        context.set("other", new Customer("Bob", false, null));
+        context.set("queue", new java.util.ArrayDeque<String>(java.util.Arrays.asList("a", "b")));
+
+        Parser parser = new Parser();
+        String[][] expressions = new String[][] {
+            { "customer.name", "Ann" },
+            { "customer.active and other.active == false", "true" },
+            { "customer.address.country", "NZ" },
+            { "customer.address.code + 1", "65" },
+            { "customer.address.extra", "Unknown member 'extra' for Address" },
+            { "customer.address.failed", "Failed to read member 'failed' of Address: java.lang.IllegalStateException: Not available" },
+            { "other.address.country", "Expected map or object for left value in member operator - found null" },
+            { "customer.nothing", "Unknown member 'nothing' for Customer" },
+            { "customer.named", "Unknown member 'named' for Customer" },
+            { "customer.type", "Unknown member 'type' for Customer" },
+            { "customer.class", "Unknown member 'class' for Customer" },
+            { "customer.hashCode", "Unknown member 'hashCode' for Customer" },
+            { "customer.address.length", "Unknown member 'length' for Address" },
+            { "customer.name.length", "Unknown member 'length' for String" },
+            { "queue.size", "Unknown member 'size' for ArrayDeque" },
+            { "queue.poll", "Unknown member 'poll' for ArrayDeque" },
+            { "queue.first", "a" }
+        };
+
+        for (String[] expression : expressions) {
+            Expression e = parser.parse(expression[0]);
+            for (int n = 0; n < 2; ++n) {
+                String result;
+                try {
+                    result = String.valueOf(e.eval(context));
+                }
+                catch (ExpressionError error) {
+                    result = error.getMessage();
+                }
+                assertEquals("Result is correct: " + expression[0], expression[1], result);
+            }
+        }
+
+        assertEquals("Members are read without side effects", 2, ((java.util.ArrayDeque<?>) context.get("queue")).size());
+
+        /* Paths remember the class of each object, and must look up the member again for other classes */
+
+        Expression e = parser.parse("value.name");
+        String[] results = new String[] { "Ann", "map", "Ann", "Bob" };
+        Object[] values = new Object[] { context.get("customer"), Map.of("name", "map"), context.get("customer"), context.get("other") };
+        for (int i = 0; i < values.length; ++i) {
+            context.set("value", values[i]);
+            assertEquals("Result is correct", results[i], e.eval(context));
+        }
+    }
+
+
     /**
      * Test dot '.' operator on a nested map
      */
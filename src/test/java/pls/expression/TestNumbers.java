@@ -0,0 +1,197 @@
+package pls.expression;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class TestNumbers {
+
+
+    static {
+        Functions.registerDefaultFunctions();
+    }
+
+
+    /**
+     * Creates the context used for testing
+     */
+    private static ExpressionContext context() {
+        ExpressionContext context = new ExpressionContext();
+        context.set("i", 5);
+        context.set("big", 3000000000L);
+        context.set("max", Long.MAX_VALUE);
+        context.set("min", Long.MIN_VALUE);
+        context.set("d", 2.5);
+        context.set("amount", new BigDecimal("19.99"));
+        context.set("rate", new BigDecimal("0.10"));
+        return context;
+    }
+
+
+
+    /**
+     * Evaluates an expression, returning the result and its type (or the error)
+     */
+    private static String eval(Expression e, ExpressionContext context) {
+        try {
+            Object value = e.eval(context);
+            return value.getClass().getSimpleName() + " " + value;
+        }
+        catch (ExpressionError x) {
+            return x.getMessage();
+        }
+    }
+
+
+
+    /**
+     * Test operands are converted to the narrowest type that holds both exactly
+     */
+    @Test public void testTypes() throws ExpressionError {
+
+        String[][] expressions = new String[][] {
+            { "i + 2", "Integer 7" },
+            { "i * d", "Double 12.5" },
+            { "big + 1", "Long 3000000001" },
+            { "big * i", "Long 15000000000" },
+            { "big / 7", "Long 428571428" },
+            { "big - 0.5", "Double 2.9999999995E9" },
+            { "3000000000 * 3", "Long 9000000000" },
+            { "-big", "Long -3000000000" },
+            { "long(i) * 1000000000", "Long 5000000000" },
+            { "long(3) ^ 39", "Long 4052555153018976267" },
+            { "big ^ 2", "Long 9000000000000000000" },
+            { "big ^ 3", "Arithmetic error: long overflow" },
+            { "long(2) ^ -1", "Long 0" },
+            { "max + 1", "Arithmetic error: long overflow" },
+            { "min - 1", "Arithmetic error: long overflow" },
+            { "max * 2", "Arithmetic error: long overflow" },
+            { "-min", "Arithmetic error: long overflow" },
+            { "max - 1 + 1", "Long 9223372036854775807" },
+            { "-max", "Long -9223372036854775807" },
+            { "2147483647 + 1", "Integer -2147483648" },
+            { "amount * 3", "BigDecimal 59.97" },
+            { "amount + decimal(\"0.01\")", "BigDecimal 20.00" },
+            { "amount * rate", "BigDecimal 1.9990" },
+            { "amount - big", "BigDecimal -2999999980.01" },
+            { "amount / 4", "BigDecimal 4.9975" },
+            { "amount / 3", "BigDecimal 6.663333333333333333333333333333333" },
+            { "amount ^ 2", "BigDecimal 399.6001" },
+            { "-amount", "BigDecimal -19.99" },
+            { "amount * d", "Double 49.974999999999994" },
+            { "decimal(0.1) + decimal(0.2)", "BigDecimal 0.3" },
+            { "amount > 19", "Boolean true" },
+            { "amount <= decimal(\"19.99\")", "Boolean true" },
+            { "big > 2147483647", "Boolean true" },
+            { "big + 1 > big", "Boolean true" },
+            { "big / 0", "Arithmetic error: / by zero" },
+            { "amount / 0", "Arithmetic error: Division by zero" },
+            { "amount + \"x\"", "Invalid type for arithmetic operator: (BigDecimal) 19.99 + (String) x" }
+        };
+
+        Parser parser = new Parser();
+        ExpressionContext context = context();
+        for (String[] expr : expressions) {
+            Expression e = parser.parse(expr[0]);
+            assertEquals("Result is correct: " + expr[0], expr[1], eval(e, context));
+            assertEquals("Compiled result is correct: " + expr[0], expr[1], eval(new ExpressionCompiler().compile(e), context));
+            assertEquals("Optimized result is correct: " + expr[0], expr[1], eval(new Optimizer().optimize(e), context));
+        }
+    }
+
+
+
+    /**
+     * Test primitive evaluation gives the same results as object evaluation
+     */
+    @Test public void testPrimitive() throws ExpressionError {
+
+        String[] expressions = new String[] {
+            "big + 1",
+            "big * 2.5",
+            "(big + 1) * 2",
+            "amount * 3 - 1",
+            "amount > 19.99",
+            "amount > 19",
+            "big - 1 >= 2999999999",
+            "9007199254740993 > 9007199254740992"
+        };
+
+        Parser parser = new Parser();
+        ExpressionContext context = context();
+        for (String expr : expressions) {
+            Expression e = parser.parse(expr);
+            Object expected = e.eval(context);
+            if (expected instanceof Boolean) {
+                assertEquals("Boolean result is correct: " + expr, expected, e.evalBoolean(context));
+            }
+            else {
+                assertEquals("Double result is correct: " + expr, ((Number) expected).doubleValue(), e.evalDouble(context), 0.0);
+            }
+        }
+    }
+
+
+
+    /**
+     * Test operators without long or decimal operations still use floating point
+     */
+    @Test public void testFloatingPoint() throws ExpressionError {
+
+        Registry registry = new Registry.Builder(new Parser().getRegistry())
+            .operator(Operators.createNumeric("%", (l, r) -> l % r, (l, r) -> l % r), 12)
+            .operator(Operators.createComparison("lt", (l, r) -> l < r, (l, r) -> l < r), 9)
+            .build();
+        Parser parser = new Parser(registry);
+        ExpressionContext context = context();
+
+        assertEquals("Result is correct", "Double 0.0", eval(parser.parse("big % 3"), context));
+        assertEquals("Result is correct", "Double 1.9899999999999984", eval(parser.parse("amount % 3"), context));
+        assertEquals("Result is correct", "Integer 2", eval(parser.parse("i % 3"), context));
+        assertEquals("Result is correct", "Boolean false", eval(parser.parse("9007199254740992 lt 9007199254740993"), context));
+        assertEquals("Result is correct", "Boolean true", eval(parser.parse("9007199254740992 < 9007199254740993"), context));
+    }
+
+
+
+    /**
+     * Test rules on long and decimal values match in the same way as evaluating each rule
+     */
+    @Test public void testRules() throws ExpressionError {
+
+        String[] rules = new String[] {
+            "big > 9007199254740992",
+            "big >= 9007199254740993",
+            "big < 9007199254740993",
+            "big == 9007199254740993",
+            "big > 100",
+            "big <= 9007199254740992.0",
+            "big > 9007199254740992.0"
+        };
+
+        Map<String, Expression> expressions = new LinkedHashMap<String, Expression>();
+        Parser parser = new Parser();
+        for (String rule : rules) expressions.put(rule, parser.parse(rule));
+        RuleMatcher matcher = new RuleMatcher(expressions);
+
+        Object[] values = new Object[] { 9007199254740993L, 9007199254740992L, new BigDecimal("9007199254740992.5"), 5L };
+        for (Object value : values) {
+            ExpressionContext context = new ExpressionContext();
+            context.set("big", value);
+
+            java.util.List<String> expected = new java.util.ArrayList<String>();
+            for (Map.Entry<String, Expression> entry : expressions.entrySet()) {
+                try {
+                    if (entry.getValue().evalBoolean(context)) expected.add(entry.getKey());
+                }
+                catch (ExpressionError x) {
+                    /* Rules that fail do not match */
+                }
+            }
+            assertEquals("Matches are correct: " + value, expected, matcher.match(context));
+        }
+    }
+}
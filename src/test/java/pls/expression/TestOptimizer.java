@@ -0,0 +1,205 @@
+package pls.expression;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestOptimizer {
+
+
+    static {
+        Functions.registerStringFunctions();
+        Functions.registerMathFunctions();
+    }
+
+
+    /**
+     * Test the optimized form of expressions
+     */
+    @Test public void testOptimizedForm() throws ExpressionError {
+
+        String[][] expressions = new String[][] {
+            { "2 * 3 + x", "6 + x" },
+            { "x > 2 * 3 and true", "x > 6" },
+            { "(x + 1) * (2 + 3)", "(x + 1) * 5" },
+            { "((x))", "x" },
+            { "(x > 1) and (y < 2)", "x > 1 and y < 2" },
+            { "-(4 + 1)", "-5" },
+            { "false and x", "false" },
+            { "true or x", "true" },
+            { "true and (x == 3)", "x == 3" },
+            { "false or !(x > 3)", "! (x > 3)" },
+            { "!(!(x > 3))", "x > 3" },
+            { "!(!x)", "! ! x" },
+            { "true and x", "true and x" },
+            { "x * 1", "x * 1" },
+            { "(x * 2.5) * 1", "x * 2.5" },
+            { "(x * 2.5) / 1.0 - 0", "x * 2.5" },
+            { "(x * 2.5) + 0", "x * 2.5 + 0" },
+            { "(x + y) * 1", "x + y" },
+            { "1 * (x / y) - 0", "x / y" },
+            { "-x - 0", "- x" },
+            { "(x * 2.5) - 0.0", "x * 2.5" },
+            { "(x * y) * 1.0", "x * y * 1.0" },
+            { "(x - y) / 1", "(x - y) / 1" },
+            { "(x * 2.5) / 1", "x * 2.5" },
+            { "(x * 2.5) - -0.0", "x * 2.5 - -0.0" },
+            { "(x != 1) and true", "x != 1" },
+            { "y in [1, 2 + 1, 4]", "y in [1,3,4]" },
+            { "2 in [1, 2]", "true" },
+            { "length(concat(\"a\", \"b\"))", "2" },
+            { "toupper(\"a\" + x)", "toupper(\"a\" + x)" },
+            { "tolower(\"ABC\")", "\"abc\"" },
+            { "1 / 0", "1 / 0" },
+            { "a.b", "a . b" }
+        };
+
+        Parser parser = new Parser();
+        Optimizer optimizer = new Optimizer();
+
+        for (String[] expr : expressions) {
+            Expression e = optimizer.optimize(parser.parse(expr[0]));
+            assertEquals("Optimized expression is correct: " + expr[0], expr[1], e.toString());
+        }
+    }
+
+
+    /**
+     * Test constant function calls are folded
+     */
+    @Test public void testFunctionFolding() throws ExpressionError {
+
+        Expression e = new Optimizer().optimize(new Parser().parse("cos(rad(45)) ^ 2"));
+
+        assertTrue("Expression is folded", e instanceof Constant);
+        assertEquals("Expression result value is correct", Math.pow(Math.cos(Math.toRadians(45)), 2), e.eval(null));
+    }
+
+
+    /**
+     * Test functions that are not pure are not folded
+     */
+    @Test public void testImpureFunction() throws ExpressionError {
+
+        int[] count = new int[1];
+        Parser.registerFunction(Functions.create("counter", (context, arg1) -> count[0]++ + Operators.toInt(arg1)));
+        Parser.registerFunction(Functions.create("plus1", (context, arg1) -> Operators.toInt(arg1) + 1).setPure(true));
+
+        Expression e = new Optimizer().optimize(new Parser().parse("counter(1) + plus1(1)"));
+
+        assertEquals("Optimized expression is correct", "counter(1) + 2", e.toString());
+        assertEquals("Expression result value is correct", 3, e.eval(null));
+        assertEquals("Expression result value is correct", 4, e.eval(null));
+        assertFalse("Factory is not pure", Parser.getDefaultRegistry().getFunction("counter").isPure());
+    }
+
+
+    /**
+     * Test operators are simplified by their operation rather than their name
+     */
+    @Test public void testCustomOperators() throws ExpressionError {
+
+        Registry registry = new Registry.Builder(new Parser().getRegistry())
+            .operator(Operators.createBinary("and", (c, l, r) -> r.evalBoolean(c)).setPure(true), 4)
+            .operator(Operators.createBinary("both", Operators.AND).setPure(true), 4)
+            .operator(Operators.createNumeric("*", (l, r) -> l * r * 2, (l, r) -> l * r * 2).setPure(true), 12)
+            .build();
+
+        String[][] expressions = new String[][] {
+            { "false and x", "false and x" },
+            { "false both x", "false" },
+            { "(x > 1) both true", "x > 1" },
+            { "(x - y) * 1", "(x - y) * 1" }
+        };
+
+        Parser parser = new Parser(registry);
+        Optimizer optimizer = new Optimizer(registry);
+
+        for (String[] expr : expressions) {
+            Expression e = optimizer.optimize(parser.parse(expr[0]));
+            assertEquals("Optimized expression is correct: " + expr[0], expr[1], e.toString());
+        }
+    }
+
+
+    /**
+     * Test optimized expressions evaluate identically to the original expression
+     */
+    @Test public void testOptimizedMatchesOriginal() throws ExpressionError {
+
+        String[] expressions = new String[] {
+            "3.2 * x / 2.2 * (y + 1.4) * 1",
+            "(10 + 100 / 5) * 3 + 10",
+            "x > 3 and true and y <= 2.5",
+            "false or x == 5",
+            "!(!(x < 2))",
+            "-(x) + 7 * 1",
+            "concat(name, \" \", tolower(\"SMITH\"))",
+            "x in [1, 2, 5, 7]",
+            "(x * 1.5) - 0",
+            "(x - y) * 1 - 0",
+            "-y / 1",
+            "name =~ tolower(\"RE\")"
+        };
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("y", 2.25);
+        context.set("name", "fred");
+
+        Parser parser = new Parser();
+        Optimizer optimizer = new Optimizer();
+
+        for (String expr : expressions) {
+            Expression e = parser.parse(expr);
+            Expression o = optimizer.optimize(e);
+
+            assertEquals("Optimized result value is correct: " + expr, e.eval(context), o.eval(context));
+            assertEquals("Optimized expression reparses: " + expr, o.toString(), optimizer.optimize(parser.parse(o.toString())).toString());
+        }
+    }
+
+
+    /**
+     * Test optimized expressions report the same errors as the original expression
+     */
+    @Test public void testOptimizedErrors() throws ExpressionError {
+
+        String[] expressions = new String[] {
+            "1 / 0",
+            "x * 1",
+            "\"a\" + 2",
+            "tolower(null)"
+        };
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", "hello");
+
+        Parser parser = new Parser();
+        Optimizer optimizer = new Optimizer();
+
+        for (String expr : expressions) {
+            Expression e = parser.parse(expr);
+            Expression o = optimizer.optimize(e);
+
+            String expected = null;
+            try {
+                e.eval(context);
+                fail("Expression should fail: " + expr);
+            }
+            catch (ExpressionError | RuntimeException x) {
+                expected = x.getMessage();
+            }
+
+            try {
+                o.eval(context);
+                fail("Optimized expression should fail: " + expr);
+            }
+            catch (ExpressionError | RuntimeException x) {
+                assertEquals("Optimized error is correct", expected, x.getMessage());
+            }
+        }
+    }
+}
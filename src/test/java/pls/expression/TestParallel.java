@@ -0,0 +1,121 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestParallel {
+
+
+    /**
+     * Creates contexts for testing
+     */
+    private static ExpressionContext[] contexts(int n) {
+        String[] names = new String[] { "Alice", "bob", "Carol", "dave" };
+        ExpressionContext[] contexts = new ExpressionContext[n];
+        for (int i = 0; i < n; ++i) {
+            contexts[i] = new ExpressionContext();
+            contexts[i].set("x", i % 7);
+            contexts[i].set("name", names[i % names.length]);
+            contexts[i].set("pattern", "^[a-" + (char) ('a' + i % 26) + "]");
+        }
+        return contexts;
+    }
+
+
+
+    /**
+     * Checks parallel results are the same as evaluating each context in turn
+     */
+    private static void check(Expression e, ExpressionContext[] contexts, ParallelEvaluator.Results results) {
+        assertEquals("Size is correct", contexts.length, results.size());
+
+        int errors = 0;
+        for (int i = 0; i < contexts.length; ++i) {
+            try {
+                Object expected = e.eval(contexts[i]);
+                assertEquals("Result is correct", expected, results.get(i));
+                assertNull("No error", results.getError(i));
+            }
+            catch (ExpressionError x) {
+                assertEquals("Error is correct", x.getMessage(), results.getError(i).getMessage());
+                assertNull("No result", results.get(i));
+                ++errors;
+            }
+        }
+        assertEquals("Error count is correct", errors, results.getErrorCount());
+    }
+
+
+
+    /**
+     * Test results are written in order, with errors recorded for each context
+     */
+    @Test public void testEvalAll() throws ExpressionError {
+
+        Functions.registerStringFunctions();
+        Expression e = new Parser().parse("tolower(name) =~ pattern and 60 / x > 12 or length(name) == 3");
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelEvaluator evaluator = new ParallelEvaluator(pool, 16);
+            ExpressionContext[] contexts = contexts(5000);
+
+            check(e, contexts, evaluator.evalAll(e, contexts));
+            check(e, contexts, evaluator.evalAll(e, Arrays.asList(contexts)));
+            check(e, contexts, evaluator.evalAll(e, new LinkedList<ExpressionContext>(Arrays.asList(contexts))));
+            check(e, contexts, evaluator.evalAll(e, Arrays.spliterator(contexts)));
+            check(e, contexts, evaluator.evalAll(e, IntStream.range(0, contexts.length).mapToObj((i) -> contexts[i]).filter((c) -> true).spliterator()));
+            check(e, contexts, evaluator.evalAll(new ExpressionCompiler().compile(e), contexts));
+
+            check(e, new ExpressionContext[0], evaluator.evalAll(e, new ExpressionContext[0]));
+            check(e, new ExpressionContext[0], evaluator.evalAll(e, new ArrayList<ExpressionContext>().spliterator()));
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        ExpressionContext[] contexts = contexts(100);
+        check(e, contexts, new ParallelEvaluator().evalAll(e, contexts));
+    }
+
+
+
+    /**
+     * Test other exceptions stop the evaluation
+     */
+    @Test public void testFailure() throws ExpressionError {
+
+        Registry registry = new Registry.Builder(Registry.getDefaults())
+            .function(Functions.create("check", (context, arg1) -> {
+                if (Operators.toBoolean(arg1)) throw new IllegalStateException("Check failed");
+                return arg1;
+            }))
+            .build();
+        Expression e = new Parser(registry).parse("check(x == 5)");
+
+        try {
+            new ParallelEvaluator(ForkJoinPool.commonPool(), 10).evalAll(e, contexts(1000));
+            fail("Evaluation should fail");
+        }
+        catch (IllegalStateException x) {
+            assertTrue("Exception is correct", x.getMessage().endsWith("Check failed"));
+        }
+
+        try {
+            new ParallelEvaluator(ForkJoinPool.commonPool(), 0);
+            fail("Threshold is checked");
+        }
+        catch (IllegalArgumentException x) {
+            assertEquals("Exception is correct", "Invalid threshold 0", x.getMessage());
+        }
+    }
+}
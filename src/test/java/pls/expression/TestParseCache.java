@@ -0,0 +1,127 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestParseCache {
+
+
+    /**
+     * Test repeated expressions are returned from the cache
+     */
+    @Test public void testCache() throws ExpressionError {
+
+        ParseCache cache = new ParseCache(new Parser(), 10);
+
+        Expression e = cache.parse("cost * count > 100");
+        assertSame("Cached expression is returned", e, cache.parse("cost * count > 100"));
+        assertSame("Cached expression is returned", e, cache.parse("cost * count > 100"));
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("cost", 10.0);
+        context.set("count", 103);
+        assertEquals("Expression result value is correct", true, e.eval(context));
+
+        assertEquals("Cache hits are correct", 2, cache.getHits());
+        assertEquals("Cache misses are correct", 1, cache.getMisses());
+        assertEquals("Cache size is correct", 1, cache.size());
+        assertTrue("Parse time saved is recorded", cache.getTimeSaved() > 0);
+    }
+
+
+    /**
+     * Test the least recently used expressions are discarded
+     */
+    @Test public void testEviction() throws ExpressionError {
+
+        ParseCache cache = new ParseCache(new Parser(), 2);
+
+        Expression a = cache.parse("a + 1");
+        Expression b = cache.parse("b + 1");
+        assertSame("Cached expression is returned", a, cache.parse("a + 1"));
+
+        cache.parse("c + 1"); /* Discards 'b + 1' */
+
+        assertEquals("Cache size is correct", 2, cache.size());
+        assertEquals("Cache evictions are correct", 1, cache.getEvictions());
+        assertSame("Cached expression is returned", a, cache.parse("a + 1"));
+        assertNotSame("Discarded expression is parsed again", b, cache.parse("b + 1"));
+
+        cache.clear();
+        assertEquals("Cache size is correct", 0, cache.size());
+        assertEquals("Cache statistics are reset", 0, cache.getHits() + cache.getMisses() + cache.getEvictions());
+    }
+
+
+    /**
+     * Test soft referenced expressions are returned from the cache
+     */
+    @Test public void testSoftValues() throws ExpressionError {
+
+        ParseCache cache = new ParseCache(new Parser(), 10, true);
+
+        Expression e = cache.parse("x in [1, 2, 3]");
+        assertSame("Cached expression is returned", e, cache.parse("x in [1, 2, 3]"));
+        assertEquals("Cache hits are correct", 1, cache.getHits());
+    }
+
+
+    /**
+     * Test expressions that fail to parse are not cached
+     */
+    @Test public void testParseError() {
+
+        ParseCache cache = new ParseCache(new Parser(), 10);
+
+        for (int i = 0; i < 2; ++i) {
+            try {
+                cache.parse("3 +* 4");
+                fail("Expression should fail to parse");
+            }
+            catch (ExpressionError x) {
+                /* Expected */
+            }
+        }
+        assertEquals("Failed expressions are not cached", 0, cache.size());
+        assertEquals("Cache misses are correct", 2, cache.getMisses());
+    }
+
+
+    /**
+     * Test the parse cache can be used from multiple threads
+     */
+    @Test public void testThreads() throws Exception {
+
+        ParseCache cache = new ParseCache(new Parser(), 8);
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Throwable> errors = new ArrayList<Throwable>();
+
+        for (int t = 0; t < 4; ++t) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2000; ++i) {
+                        int n = i % 16;
+                        if (!cache.parse(n + " + 1").eval(null).equals(n + 1)) throw new AssertionError("Wrong expression returned");
+                    }
+                }
+                catch (Throwable x) {
+                    synchronized (errors) { errors.add(x); }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals("No errors in threads", new ArrayList<Throwable>(), errors);
+        assertEquals("Cache size is bounded", 8, cache.size());
+        assertEquals("All requests are counted", 8000, cache.getHits() + cache.getMisses());
+    }
+}
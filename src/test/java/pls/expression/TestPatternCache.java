@@ -0,0 +1,143 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestPatternCache {
+
+
+    static {
+        Functions.registerStringFunctions();
+    }
+
+
+    /**
+     * Test constant regular expressions do not use the pattern cache
+     */
+    @Test public void testConstantPattern() throws ExpressionError {
+
+        PatternCache cache = Functions.getPatternCache();
+        Expression e = new Parser().parse("msg =~ \"^ERROR .*disk\"");
+
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+
+        ExpressionContext context = new ExpressionContext();
+        for (int i = 0; i < 100; ++i) {
+            context.set("msg", (i % 2 == 0) ? "ERROR writing to disk" : "INFO all good");
+            assertEquals("Expression result value is correct", i % 2 == 0, e.eval(context));
+        }
+
+        assertEquals("Pattern cache is not used", hits, cache.getHits());
+        assertEquals("Pattern cache is not used", misses, cache.getMisses());
+    }
+
+
+    /**
+     * Test regular expressions from the context use the pattern cache
+     */
+    @Test public void testContextPattern() throws ExpressionError {
+
+        PatternCache cache = Functions.getPatternCache();
+        Expression e = new Parser().parse("msg matches regex");
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("msg", "Casablanca");
+        context.set("regex", "b[a-z]a");
+
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+
+        for (int i = 0; i < 10; ++i) {
+            assertEquals("Expression result value is correct", true, e.eval(context));
+        }
+
+        assertEquals("Pattern cache hits are correct", hits + 9, cache.getHits());
+        assertEquals("Pattern cache misses are correct", misses + 1, cache.getMisses());
+    }
+
+
+    /**
+     * Test the least recently used patterns are discarded
+     */
+    @Test public void testEviction() {
+
+        PatternCache cache = new PatternCache(2);
+
+        Pattern a = cache.get("a");
+        Pattern b = cache.get("b");
+        assertSame("Cached pattern is returned", a, cache.get("a"));
+
+        cache.get("c"); /* Discards 'b' */
+
+        assertEquals("Cache size is correct", 2, cache.size());
+        assertSame("Cached pattern is returned", a, cache.get("a"));
+        assertNotSame("Discarded pattern is recompiled", b, cache.get("b"));
+
+        assertEquals("Pattern cache hits are correct", 2, cache.getHits());
+        assertEquals("Pattern cache misses are correct", 4, cache.getMisses());
+
+        cache.setCapacity(1);
+        assertEquals("Cache size is correct", 1, cache.size());
+
+        cache.clear();
+        assertEquals("Cache size is correct", 0, cache.size());
+        assertEquals("Pattern cache hits are reset", 0, cache.getHits());
+    }
+
+
+    /**
+     * Test invalid regular expressions are reported at evaluation time
+     */
+    @Test public void testInvalidPattern() throws ExpressionError {
+
+        Expression e = new Parser().parse("\"abc\" =~ \"[a-\"");
+
+        try {
+            e.eval(null);
+            fail("Invalid pattern should fail");
+        }
+        catch (java.util.regex.PatternSyntaxException x) {
+            /* Expected */
+        }
+    }
+
+
+    /**
+     * Test the pattern cache can be used from multiple threads
+     */
+    @Test public void testThreads() throws Exception {
+
+        PatternCache cache = new PatternCache(8);
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Throwable> errors = new ArrayList<Throwable>();
+
+        for (int t = 0; t < 4; ++t) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 10000; ++i) {
+                        String regex = "x" + (i % 16);
+                        if (!cache.get(regex).matcher(regex).matches()) throw new AssertionError("Wrong pattern returned");
+                    }
+                }
+                catch (Throwable x) {
+                    synchronized (errors) { errors.add(x); }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals("No errors in threads", new ArrayList<Throwable>(), errors);
+        assertEquals("Cache size is bounded", 8, cache.size());
+        assertEquals("All lookups are counted", 40000, cache.getHits() + cache.getMisses());
+    }
+}
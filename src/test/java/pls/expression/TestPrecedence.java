@@ -0,0 +1,140 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestPrecedence {
+
+
+    /** Binary operators used to build test expressions */
+
+    private static final String[] OPERATORS = { "+", "-", "*", "/", "^", ">", "<=", "==", "!=", "and", "or", "in", "." };
+
+
+    /**
+     * Returns the structure of an expression, with every binary operator wrapped in braces
+     */
+    private static String structure(Expression e) {
+        if (e instanceof BinaryOperator) {
+            BinaryOperator b = (BinaryOperator) e;
+            return "{" + structure(b.getLeft()) + " " + b.getName() + " " + structure(b.getRight()) + "}";
+        }
+        return e.toString();
+    }
+
+
+    /**
+     * Builds the expected structure of an operator sequence by repeatedly reducing the leftmost operator
+     * with a precedence higher than or equal to the operator that follows it.
+     */
+    private static String expected(List<String> exprs, List<String> ops) {
+        exprs = new ArrayList<String>(exprs);
+        ops = new ArrayList<String>(ops);
+
+        while (!ops.isEmpty()) {
+            for (int i = 0; i < ops.size(); ++i) {
+                int prec1 = Parser.getDefaultRegistry().getPrecedence(ops.get(i));
+                int prec2 = (i < ops.size() - 1) ? Parser.getDefaultRegistry().getPrecedence(ops.get(i + 1)) : -1;
+
+                if (prec1 >= prec2) {
+                    exprs.set(i, "{" + exprs.get(i) + " " + ops.get(i) + " " + exprs.get(i + 1) + "}");
+                    exprs.remove(i + 1);
+                    ops.remove(i);
+                    break;
+                }
+            }
+        }
+        return exprs.get(0);
+    }
+
+
+    /**
+     * Test operators are applied in precedence order, and left to right for equal precedence
+     */
+    @Test public void testPrecedence() throws ExpressionError {
+
+        String[][] expressions = new String[][] {
+            { "1 + 2 * 3", "{1 + {2 * 3}}" },
+            { "1 - 2 - 3", "{{1 - 2} - 3}" },
+            { "2 ^ 3 ^ 2", "{{2 ^ 3} ^ 2}" },
+            { "a or b and c or d", "{{a or {b and c}} or d}" },
+            { "1 + 2 * 3 - 4 / 5 > 6 and 7 < 8", "{{{{1 + {2 * 3}} - {4 / 5}} > 6} and {7 < 8}}" },
+            { "x.y.z + 1", "{{{x . y} . z} + 1}" }
+        };
+
+        Parser parser = new Parser();
+        for (String[] expr : expressions) {
+            assertEquals("Expression structure is correct: " + expr[0], expr[1], structure(parser.parse(expr[0])));
+        }
+    }
+
+
+    /**
+     * Test randomly generated operator sequences produce the expected trees
+     */
+    @Test public void testRandomExpressions() throws ExpressionError {
+
+        Random random = new Random(1234);
+        Parser parser = new Parser();
+
+        for (int n = 0; n < 500; ++n) {
+            List<String> exprs = new ArrayList<String>();
+            List<String> ops = new ArrayList<String>();
+            StringBuilder text = new StringBuilder();
+
+            int length = 1 + random.nextInt(12);
+            for (int i = 0; i < length; ++i) {
+                String value = "v" + i;
+                exprs.add(value);
+                text.append(value);
+
+                if (i < length - 1) {
+                    String op = OPERATORS[random.nextInt(OPERATORS.length)];
+                    ops.add(op);
+                    text.append(' ').append(op).append(' ');
+                }
+            }
+
+            Expression e = parser.parse(text.toString());
+            assertEquals("Expression structure is correct: " + text, expected(exprs, ops), structure(e));
+            assertEquals("Expression toString is correct", text.toString(), e.toString());
+        }
+    }
+
+
+    /**
+     * Test long expressions are parsed
+     */
+    @Test public void testLongExpression() throws ExpressionError {
+
+        StringBuilder text = new StringBuilder("x == 0");
+        for (int i = 1; i < 1000; ++i) text.append(" or x == ").append(i);
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 999);
+
+        Expression e = new Parser().parse(text.toString());
+        assertEquals("Expression toString is correct", text.toString(), e.toString());
+        assertEquals("Expression result value is correct", true, e.eval(context));
+    }
+
+
+    /**
+     * Test a missing operand is reported
+     */
+    @Test public void testMissingOperand() {
+
+        try {
+            new Parser().parse("1 + 2 *");
+            fail("Expression should fail to parse");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Missing expression following operator '*'", x.getMessage());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package pls.expression;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestPredicate {
+
+
+    /**
+     * Test predicates give the same results and errors as boolean evaluation
+     */
+    @Test public void testMatchesEvalBoolean() throws ExpressionError {
+
+        String[] expressions = new String[] {
+            "x > 3",
+            "x > 3 and y < 2.5",
+            "x > 3 and y < 2.5 and name == \"a\" and flag",
+            "x < 3 or y > 2.5 or (name == \"b\" or !flag)",
+            "(x > 3 and (y < 2.5 or !(name == \"a\"))) or flag and x",
+            "!!flag",
+            "name",
+            "missing or x",
+            "true and x > 1",
+            "0 or \"\"",
+            "x in [1, 5, 9] or name in [\"a\", \"b\"]",
+            "x / zero > 1 or true",
+            "flag or x / zero > 1",
+            "name > 1 and true"
+        };
+
+        Parser parser = new Parser();
+        Object[][] rows = new Object[][] {
+            { 5, 2.25, "a", true },
+            { 2, 3.5, "b", false },
+            { 0, 2.5, "", false },
+            { -1, 0.0, null, true }
+        };
+
+        for (String expression : expressions) {
+            Expression e = parser.parse(expression);
+            Predicate predicate = parser.parsePredicate(expression);
+
+            assertEquals("Predicate string is correct", e.toString(), predicate.toString());
+
+            for (Object[] row : rows) {
+                ExpressionContext context = new ExpressionContext();
+                context.set("x", row[0]);
+                context.set("y", row[1]);
+                context.set("name", row[2]);
+                context.set("flag", row[3]);
+                context.set("zero", 0);
+
+                String expected;
+                try {
+                    expected = String.valueOf(e.evalBoolean(context));
+                }
+                catch (ExpressionError x) {
+                    expected = x.getMessage();
+                }
+
+                String result;
+                try {
+                    result = String.valueOf(predicate.test(context));
+                }
+                catch (ExpressionError x) {
+                    result = x.getMessage();
+                }
+                assertEquals("Result is correct: " + expression + " " + context, expected, result);
+            }
+        }
+    }
+
+
+
+    /**
+     * Test operands are evaluated in order, and only as needed
+     */
+    @Test public void testShortCircuit() throws ExpressionError {
+
+        StringBuilder order = new StringBuilder();
+        Registry registry = new Registry.Builder(Registry.getDefaults())
+            .function(Functions.create("log", (context, arg1) -> { order.append(arg1); return arg1; }))
+            .build();
+        Parser parser = new Parser(registry);
+
+        assertEquals("Result is correct", true, parser.parsePredicate("log(0) or log(\"\") or log(1) or log(2)").test(null));
+        assertEquals("Operands are evaluated in order", "01", order.toString());
+
+        order.setLength(0);
+        assertEquals("Result is correct", false, parser.parsePredicate("log(1) and (log(2) and log(0)) and log(3)").test(null));
+        assertEquals("Operands are evaluated in order", "120", order.toString());
+    }
+
+
+
+    /**
+     * Test long chains of clauses
+     */
+    @Test public void testLongChain() throws ExpressionError {
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) text.append(i == 0 ? "" : " or ").append("x == ").append(i);
+
+        Predicate predicate = new Parser().parsePredicate(text.toString());
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 19999);
+        assertEquals("Last clause matches", true, predicate.test(context));
+
+        context.set("x", 20000);
+        assertEquals("No clause matches", false, predicate.test(context));
+    }
+
+
+
+    /**
+     * Test predicates from compiled expressions
+     */
+    @Test public void testCompiled() throws ExpressionError {
+
+        Expression e = new ExpressionCompiler().compile(new Parser().parse("x > 3 and name == \"a\""));
+        Predicate predicate = Predicate.of(e);
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("name", "a");
+        assertEquals("Result is correct", true, predicate.test(context));
+
+        context.set("name", 1);
+        try {
+            predicate.test(context);
+            fail("Evaluation should fail");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Type mismatch : (Integer) 1 == (String) a", x.getMessage());
+        }
+    }
+
+
+
+    /**
+     * Test predicates do not allocate
+     */
+    @Test public void testNoAllocation() throws ExpressionError {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+
+        Predicate predicate = new Parser().parsePredicate("(x > 10 or y < 3.5) and !(x == 7) and flag or x * y > 1000");
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("y", 2.25);
+        context.set("flag", true);
+
+        boolean result = false;
+        for (int i = 0; i < 1000; ++i) result |= predicate.test(context);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; ++i) result |= predicate.test(context);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("Predicate result is correct", result);
+        assertTrue("Evaluation does not allocate (" + allocated + " bytes)", allocated < 10000);
+    }
+}
@@ -0,0 +1,146 @@
+package pls.expression;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestPrimitiveEval {
+
+
+    /**
+     * Test primitive evaluation gives the same results as object evaluation
+     */
+    @Test public void testPrimitiveMatchesObject() throws ExpressionError {
+
+        String[] expressions = new String[] {
+            "3 + 2",
+            "7 / 2",
+            "7.0 / 2",
+            "3.2 * x / 2.2 * (y + 1.4)",
+            "(x + y) * (x - 2)",
+            "x ^ 2 - y",
+            "x / 2 + 0.5",
+            "2 ^ 10",
+            "x - 5"
+        };
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("y", 2.25);
+
+        Parser parser = new Parser();
+
+        for (String expr : expressions) {
+            Expression e = parser.parse(expr);
+            Number expected = (Number) e.eval(context);
+
+            assertEquals("Double result is correct: " + expr, expected.doubleValue(), e.evalDouble(context), 0.0);
+            assertEquals("Integer result is correct: " + expr, expected.intValue(), e.evalInt(context));
+            assertEquals("Boolean result is correct: " + expr, Operators.toBoolean(expected), e.evalBoolean(context));
+        }
+    }
+
+
+    /**
+     * Test primitive boolean evaluation of comparisons and logical operators
+     */
+    @Test public void testPrimitiveBoolean() throws ExpressionError {
+
+        String[] expressions = new String[] {
+            "x > 3",
+            "x <= 4.5",
+            "y >= 2.25 and x < 10",
+            "y > 3 or x == 5",
+            "!(x > 3)",
+            "name",
+            "\"\"",
+            "0"
+        };
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("y", 2.25);
+        context.set("name", "fred");
+
+        Parser parser = new Parser();
+
+        for (String expr : expressions) {
+            Expression e = parser.parse(expr);
+            assertEquals("Boolean result is correct: " + expr, Operators.toBoolean(e.eval(context)), e.evalBoolean(context));
+        }
+    }
+
+
+    /**
+     * Test primitive evaluation reports the same errors as object evaluation
+     */
+    @Test public void testPrimitiveErrors() throws ExpressionError {
+
+        String[] expressions = new String[] {
+            "1 / 0",
+            "x + 1.5",
+            "2.5 * missing",
+            "true + 1",
+            "(1 > 2) * 3"
+        };
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", "hello");
+
+        Parser parser = new Parser();
+
+        for (String expr : expressions) {
+            Expression e = parser.parse(expr);
+
+            String expected = null;
+            try {
+                e.eval(context);
+                fail("Expression should fail: " + expr);
+            }
+            catch (ExpressionError x) {
+                expected = x.getMessage();
+            }
+
+            try {
+                e.evalDouble(context);
+                fail("Expression should fail: " + expr);
+            }
+            catch (ExpressionError x) {
+                assertEquals("Error is correct", expected, x.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Test a numeric expression can be evaluated without allocation
+     */
+    @Test public void testNoAllocation() throws ExpressionError {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+
+        Expression e = new Parser().parse("3.2 * x / 2.2 * (y + 1.4) > 10 and x < 100");
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("y", 2.25);
+
+        boolean result = false;
+        for (int i = 0; i < 1000; ++i) result |= e.evalBoolean(context);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; ++i) result |= e.evalBoolean(context);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("Expression result is correct", result);
+        assertTrue("Evaluation does not allocate (" + allocated + " bytes)", allocated < 10000);
+    }
+}
@@ -0,0 +1,197 @@
+package pls.expression;
+
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestProfiler {
+
+
+    /**
+     * Test instrumented expressions give the same results as the original expressions
+     */
+    @Test public void testMatchesEval() throws ExpressionError {
+
+        Functions.registerStringFunctions();
+
+        String[] expressions = new String[] {
+            "3.2 * x / 2.2 * (y + 1.4)",
+            "x > 3 and (y < 2.5 or !flag)",
+            "x in [1, 5, 9] or name =~ \"^a\"",
+            "toupper(name) == \"A\" and length(name) > 0",
+            "-(x + 1) * 2",
+            "[x, y, 3]",
+            "x / zero"
+        };
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("y", 2.25);
+        context.set("flag", false);
+        context.set("name", "a");
+        context.set("zero", 0);
+
+        Parser parser = new Parser();
+        Profiler profiler = new Profiler();
+
+        for (String expression : expressions) {
+            Expression e = parser.parse(expression);
+            Profile profile = profiler.instrument(e);
+
+            assertEquals("String form is unchanged", e.toString(), profile.toString());
+
+            String expected;
+            try {
+                Object value = e.eval(context);
+                expected = value instanceof Object[] ? java.util.Arrays.toString((Object[]) value) : String.valueOf(value);
+            }
+            catch (ExpressionError x) {
+                expected = x.getMessage();
+            }
+
+            String result;
+            try {
+                Object value = profile.eval(context);
+                result = value instanceof Object[] ? java.util.Arrays.toString((Object[]) value) : String.valueOf(value);
+            }
+            catch (ExpressionError x) {
+                result = x.getMessage();
+            }
+            assertEquals("Result is correct: " + expression, expected, result);
+        }
+    }
+
+
+
+    /**
+     * Test node statistics
+     */
+    @Test public void testStatistics() throws ExpressionError {
+
+        Profile profile = new Profiler().instrument(new Parser().parse("x > 3 and (10 / y > 1 or x == 7)"));
+
+        List<Profile.Node> nodes = profile.getNodes();
+        assertEquals("Node count is correct", 9, nodes.size());
+        assertEquals("Root node is correct", "x > 3 and (10 / y > 1 or x == 7)", nodes.get(0).toString());
+        assertEquals("Depth is correct", 0, nodes.get(0).getDepth());
+        assertEquals("Operand is correct", "x > 3", nodes.get(1).toString());
+        assertEquals("Depth is correct", 1, nodes.get(1).getDepth());
+        assertEquals("Operand is correct", "10 / y > 1 or x == 7", nodes.get(3).toString());
+
+        int[][] rows = new int[][] { { 1, 1 }, { 5, 1 }, { 5, 20 }, { 7, 20 }, { 5, 0 } };
+        int errors = 0;
+        for (int[] row : rows) {
+            ExpressionContext context = new ExpressionContext();
+            context.set("x", row[0]);
+            context.set("y", row[1]);
+            try {
+                profile.evalBoolean(context);
+            }
+            catch (ExpressionError x) {
+                ++errors;
+            }
+        }
+        assertEquals("Errors are thrown", 1, errors);
+
+        Profile.Node and = nodes.get(0);
+        assertEquals("Count is correct", 5, and.getCount());
+        assertEquals("Errors are correct", 1, and.getErrors());
+        assertEquals("Short circuits are correct", 1, and.getShortCircuits());
+        assertTrue("Time is recorded", and.getNanos() > 0);
+
+        Profile.Node or = nodes.get(3);
+        assertEquals("Count is correct", 4, or.getCount());
+        assertEquals("Errors are correct", 1, or.getErrors());
+        assertEquals("Short circuits are correct", 1, or.getShortCircuits());
+
+        Profile.Node divide = nodes.get(5);
+        assertEquals("Operand is correct", "10 / y", divide.toString());
+        assertEquals("Count is correct", 4, divide.getCount());
+        assertEquals("Errors are correct", 1, divide.getErrors());
+        assertEquals("Short circuits are not recorded", -1, divide.getShortCircuits());
+
+        Profile.Node equals = nodes.get(7);
+        assertEquals("Operand is correct", "x == 7", equals.toString());
+        assertEquals("Count is correct", 2, equals.getCount());
+
+        String report = profile.report();
+        assertTrue("Report is correct", report.startsWith("x > 3 and (10 / y > 1 or x == 7)  [count 5, time "));
+        assertTrue("Report is correct", report.contains(", errors 1, short circuit 20.0%]\n  x > 3  [count 5, time "));
+        assertTrue("Report is correct", report.contains("\n        y  [count 4, time "));
+
+        profile.reset();
+        for (Profile.Node node : nodes) assertEquals("Count is reset", 0, node.getCount());
+    }
+
+
+
+    /**
+     * Test custom nodes are instrumented without their operands
+     */
+    @Test public void testUnregistered() throws ExpressionError {
+
+        Registry registry = new Registry.Builder(Registry.getDefaults())
+            .function(Functions.create("twice", (context, arg1) -> 2 * (Integer) arg1))
+            .build();
+        Expression e = new Parser(registry).parse("twice(x + 1) > 3");
+
+        Profile profile = new Profiler().instrument(e);
+        assertEquals("Unregistered function is not rebuilt", 2, profile.getNodes().size());
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 1);
+        assertEquals("Result is correct", true, profile.eval(context));
+
+        profile = new Profiler(registry).instrument(e);
+        assertEquals("Registered function is rebuilt", 4, profile.getNodes().size());
+        assertEquals("Result is correct", true, profile.eval(context));
+
+        try {
+            profile.getNodes().clear();
+            fail("Nodes cannot be modified");
+        }
+        catch (UnsupportedOperationException x) {
+            /* Expected */
+        }
+    }
+
+
+    /**
+     * Test a chain of member operators is instrumented as a single node
+     */
+    @Test public void testMembers() throws ExpressionError {
+
+        Expression e = new Parser().parse("order.customer.name == \"Ann\" and tolower(order.code) == \"x1\"");
+        assertEquals("String form is correct", "order . customer . name == \"Ann\" and tolower(order . code) == \"x1\"", e.toString());
+        Profile profile = new Profiler().instrument(e);
+
+        String[] expected = new String[] {
+            "order . customer . name == \"Ann\" and tolower(order . code) == \"x1\"",
+            "order . customer . name == \"Ann\"",
+            "order . customer . name",
+            "order",
+            "tolower(order . code) == \"x1\"",
+            "tolower(order . code)",
+            "order . code",
+            "order"
+        };
+        List<Profile.Node> nodes = profile.getNodes();
+        assertEquals("Node count is correct", expected.length, nodes.size());
+        for (int i = 0; i < expected.length; ++i) assertEquals("Node is correct", expected[i], nodes.get(i).toString());
+
+        java.util.Map<String, Object> customer = new java.util.HashMap<String, Object>();
+        customer.put("name", "Ann");
+        java.util.Map<String, Object> order = new java.util.HashMap<String, Object>();
+        order.put("customer", customer);
+        order.put("code", "X1");
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("order", order);
+        assertEquals("Result is correct", true, profile.eval(context));
+        assertEquals("Path is evaluated once", 1, nodes.get(2).getCount());
+        assertEquals("Root is evaluated once", 1, nodes.get(3).getCount());
+    }
+}
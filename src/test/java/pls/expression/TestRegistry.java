@@ -0,0 +1,118 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestRegistry {
+
+
+    /**
+     * Test a parser can be given a registry holding a subset of the default operators and functions
+     */
+    @Test public void testSubset() throws ExpressionError {
+
+        Registry.Builder builder = new Registry.Builder();
+        Operators.registerDefaultOperators(builder);
+        Parser parser = new Parser(builder.build());
+
+        assertEquals("Expression result value is correct", 7, parser.parse("1 + 2 * 3").eval(null));
+
+        try {
+            parser.parse("int(2.5)");
+            fail("Unregistered function should fail to parse");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Unsupported function 'int'", x.getMessage());
+        }
+        assertEquals("Default parser is unaffected", 2, new Parser().parse("int(2.5)").eval(null));
+    }
+
+
+    /**
+     * Test registries are not changed by builders created from them
+     */
+    @Test public void testImmutable() {
+
+        Registry registry = Registry.getDefaults();
+        Registry updated = new Registry.Builder(registry)
+            .function(Functions.create("twice", (context, arg1) -> Operators.toInt(arg1) * 2))
+            .operator(Operators.createNumeric("%", (l, r) -> l % r, (l, r) -> l % r), 12)
+            .build();
+
+        assertNull("Original registry is unchanged", registry.getFunction("twice"));
+        assertEquals("Original registry is unchanged", -1, registry.getPrecedence("%"));
+        assertEquals("Updated registry holds function", "twice", updated.getFunction("twice").getName());
+        assertEquals("Updated registry holds operator", 12, updated.getPrecedence("%"));
+        assertSame("Updated registry holds existing functions", registry.getFunction("int"), updated.getFunction("int"));
+    }
+
+
+    /**
+     * Test a parser's registry can be replaced
+     */
+    @Test public void testSetRegistry() throws ExpressionError {
+
+        Registry v1 = new Registry.Builder(Registry.getDefaults()).function(Functions.create("version", (context) -> 1)).build();
+        Registry v2 = new Registry.Builder(Registry.getDefaults()).function(Functions.create("version", (context) -> 2)).build();
+
+        Parser parser = new Parser(v1);
+        ParseCache cache = new ParseCache(parser, 10);
+        Expression e = cache.parse("version()");
+        assertEquals("Expression result value is correct", 1, e.eval(null));
+
+        parser.setRegistry(v2);
+        assertSame("Parser registry is correct", v2, parser.getRegistry());
+        assertEquals("Expression result value is correct", 2, parser.parse("version()").eval(null));
+        assertEquals("Cached expression is parsed again", 2, cache.parse("version()").eval(null));
+        assertNotSame("Cached expression is parsed again", e, cache.parse("version()"));
+        assertEquals("Parsed expression is unaffected", 1, e.eval(null));
+
+        parser.setRegistry(null);
+        assertSame("Parser uses default registry", Parser.getDefaultRegistry(), parser.getRegistry());
+    }
+
+
+    /**
+     * Test registries can be replaced while other threads are parsing
+     */
+    @Test public void testThreads() throws Exception {
+
+        Registry v1 = new Registry.Builder(Registry.getDefaults()).function(Functions.create("version", (context) -> 1)).build();
+        Registry v2 = new Registry.Builder(Registry.getDefaults()).function(Functions.create("version", (context) -> 2)).build();
+
+        Parser parser = new Parser(v1);
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Throwable> errors = new ArrayList<Throwable>();
+
+        for (int t = 0; t < 4; ++t) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 5000; ++i) {
+                        Object value = parser.parse("version() * 10 + " + i % 10).eval(null);
+                        if (!value.equals(10 + i % 10) && !value.equals(20 + i % 10)) throw new AssertionError("Wrong result: " + value);
+                    }
+                }
+                catch (Throwable x) {
+                    synchronized (errors) { errors.add(x); }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (int i = 0; i < 2000; ++i) {
+            parser.setRegistry((i % 2 == 0) ? v2 : v1);
+            Parser.registerFunction(Functions.create("unused" + i % 10, (context) -> null));
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals("No errors in threads", new ArrayList<Throwable>(), errors);
+    }
+}
@@ -0,0 +1,151 @@
+package pls.expression;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestResultCache {
+
+
+    /**
+     * Creates a parser with a registry holding the default operators and the supplied function.
+     */
+    private static Parser parser(Factory function) {
+        Parser parser = new Parser();
+        parser.setRegistry(new Registry.Builder(parser.getRegistry()).function(function).build());
+        return parser;
+    }
+
+
+
+    /**
+     * Test results are cached by argument value
+     */
+    @Test public void testFunction1() throws ExpressionError {
+
+        AtomicInteger calls = new AtomicInteger();
+        Factory f = Functions.create("twice", (context, v) -> {
+            calls.incrementAndGet();
+            return v instanceof Integer ? (Integer) v * 2 : null;
+        }).setCached(100);
+
+        assertTrue("Cached function is pure", f.isPure());
+
+        Parser parser = parser(f);
+        Expression e = parser.parse("twice(x)");
+        Expression compiled = new ExpressionCompiler().compile(e);
+        ExpressionContext context = new ExpressionContext();
+
+        Object[] values = new Object[] { 1, 2, 1, 2, 1.0, "a", null, null };
+        Object[] results = new Object[] { 2, 4, 2, 4, null, null, null, null };
+        for (int i = 0; i < values.length; ++i) {
+            context.set("x", values[i]);
+            assertEquals("Result is correct", results[i], e.eval(context));
+            assertEquals("Compiled result is correct", results[i], compiled.eval(context));
+        }
+
+        assertEquals("Function is called once for each distinct value", 5, calls.get());
+        assertEquals("Miss count is correct", 5, f.getCache().getMisses());
+        assertEquals("Hit count is correct", 11, f.getCache().getHits());
+        assertEquals("Hit rate is correct", 11.0 / 16, f.getCache().getHitRate(), 0.0);
+        assertEquals("Size is correct", 5, f.getCache().size());
+
+        f.getCache().clear();
+        assertEquals("Cache is cleared", 0, f.getCache().size());
+        assertEquals("Hit rate is reset", 0.0, f.getCache().getHitRate(), 0.0);
+    }
+
+
+
+    /**
+     * Test results of functions with lists and several arguments
+     */
+    @Test public void testFunction2() throws ExpressionError {
+
+        AtomicInteger calls = new AtomicInteger();
+        Factory f = Functions.create("pick", (context, l, i) -> {
+            calls.incrementAndGet();
+            return ((Object[]) l)[(Integer) i];
+        }).setCached(100);
+
+        Parser parser = parser(f);
+        ExpressionContext context = new ExpressionContext();
+        String[][] expressions = new String[][] {
+            { "pick([1, 2, 3], 0)", "1" },
+            { "pick([1, 2, 3], 2)", "3" },
+            { "pick([1, 2, 3], 0)", "1" },
+            { "pick([4, 5], 0)", "4" },
+            { "pick([1, 2, 3], 2)", "3" }
+        };
+        for (String[] expr : expressions) {
+            assertEquals("Result is correct: " + expr[0], expr[1], String.valueOf(parser.parse(expr[0]).eval(context)));
+        }
+        assertEquals("Function is called once for each distinct argument list", 3, calls.get());
+        assertEquals("Results are shared by all expressions", 2, f.getCache().getHits());
+    }
+
+
+
+    /**
+     * Test errors are not cached
+     */
+    @Test public void testErrors() throws ExpressionError {
+
+        AtomicInteger calls = new AtomicInteger();
+        Factory f = Functions.create("check", (context, v) -> {
+            calls.incrementAndGet();
+            if (v == null) throw new ExpressionError("Missing value");
+            return v;
+        }).setCached(100);
+
+        Expression e = parser(f).parse("check(x)");
+        for (int n = 0; n < 2; ++n) {
+            try {
+                e.eval(new ExpressionContext());
+                fail("Error is raised");
+            }
+            catch (ExpressionError x) {
+                assertEquals("Error is correct", "Missing value", x.getMessage());
+            }
+        }
+        assertEquals("Function is called each time", 2, calls.get());
+        assertEquals("Error is not cached", 0, f.getCache().size());
+    }
+
+
+
+    /**
+     * Test the cache holds no more than its capacity
+     */
+    @Test public void testCapacity() throws ExpressionError {
+
+        AtomicInteger calls = new AtomicInteger();
+        Factory f = Functions.create("next", (context) -> calls.incrementAndGet()).setCached(1);
+        Expression e = parser(f).parse("next()");
+        for (int n = 0; n < 3; ++n) {
+            assertEquals("Result is cached", 1, e.eval(new ExpressionContext()));
+        }
+
+        Factory g = Functions.create("twice", (context, v) -> (Integer) v * 2).setCached(10);
+        e = parser(g).parse("twice(x)");
+        ExpressionContext context = new ExpressionContext();
+        for (int i = 0; i < 100; ++i) {
+            context.set("x", i);
+            assertEquals("Result is correct", i * 2, e.eval(context));
+        }
+        assertEquals("Cache is full", 10, g.getCache().size());
+
+        assertNull("Caching can be stopped", g.setCached(0).getCache());
+        try {
+            new ResultCache(0);
+            fail("Capacity is refused");
+        }
+        catch (IllegalArgumentException x) {
+            assertEquals("Error is correct", "Invalid result cache capacity: 0", x.getMessage());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package pls.expression;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class TestRuleMatcher {
+
+
+    /** Rules covering indexable and unindexable tests */
+
+    private static final String[] RULES = new String[] {
+        "channel == \"email\"",
+        "channel == \"sms\" and priority > 3",
+        "\"sms\" == channel and priority <= 3",
+        "region in [\"eu\", \"uk\", \"eu\"] and amount > 100",
+        "priority == 2 and region in [\"us\"]",
+        "(channel == \"email\") and (region == \"eu\" or region == \"us\")",
+        "priority > 4 and channel in [\"email\", \"sms\", \"post\"] and region == \"uk\"",
+        "amount == 100.0",
+        "amount == 100",
+        "priority in [1, 2, 3.0]",
+        "channel == null",
+        "region in [null, \"eu\"]",
+        "order.customer.tier == 1 and channel != \"post\"",
+        "order.customer.tier in [2, 3]",
+        "channel == \"email\" or region == \"eu\"",
+        "priority > 2",
+        "region in [[\"eu\"], \"uk\"]",
+        "priority == \"2\"",
+        "channel == channel and amount > 50"
+    };
+
+
+
+    /**
+     * Finds the matching rules by evaluating every rule
+     */
+    private static java.util.List<String> match(Map<String, Expression> rules, ExpressionContext context) {
+        ArrayList<String> matches = new ArrayList<String>();
+        for (Map.Entry<String, Expression> entry : rules.entrySet()) {
+            try {
+                if (entry.getValue().evalBoolean(context)) matches.add(entry.getKey());
+            }
+            catch (ExpressionError x) {
+                /* Rules that fail do not match */
+            }
+        }
+        return matches;
+    }
+
+
+
+    /**
+     * Test matches are the same as evaluating every rule
+     */
+    @Test public void testMatchesEval() throws ExpressionError {
+
+        Map<String, Expression> rules = new LinkedHashMap<String, Expression>();
+        Parser parser = new Parser();
+        for (int i = 0; i < RULES.length; ++i) rules.put("r" + i, parser.parse(RULES[i]));
+
+        RuleMatcher matcher = new RuleMatcher(rules);
+        assertEquals("Size is correct", RULES.length, matcher.size());
+        assertEquals("Names are correct", "r0", matcher.getNames().get(0));
+        assertEquals("Indexed count is correct", RULES.length - 2, matcher.getIndexedCount());
+
+        Random random = new Random(17);
+        Object[] channels = new Object[] { "email", "sms", "post", null, 5 };
+        Object[] regions = new Object[] { "eu", "uk", "us", null };
+        Object[] priorities = new Object[] { 1, 2, 3, 4, 5, 3.0, "2" };
+        Object[] amounts = new Object[] { 50, 100, 100.0, 150, 150.0 };
+        Object[] tiers = new Object[] { 1, 2, 3, 4, null };
+
+        for (int n = 0; n < 500; ++n) {
+            ExpressionContext context = new ExpressionContext();
+            if (random.nextInt(10) > 0) context.set("channel", channels[random.nextInt(channels.length)]);
+            if (random.nextInt(10) > 0) context.set("region", regions[random.nextInt(regions.length)]);
+            context.set("priority", priorities[random.nextInt(priorities.length)]);
+            context.set("amount", amounts[random.nextInt(amounts.length)]);
+
+            if (random.nextInt(4) > 0) {
+                Map<String, Object> order = new HashMap<String, Object>();
+                if (random.nextInt(4) > 0) {
+                    Map<String, Object> customer = new HashMap<String, Object>();
+                    customer.put("tier", tiers[random.nextInt(tiers.length)]);
+                    order.put("customer", customer);
+                }
+                context.set("order", order);
+            }
+
+            assertEquals("Matches are correct", match(rules, context), matcher.match(context));
+        }
+    }
+
+
+
+    /**
+     * Test a large rule set only evaluates candidate rules
+     */
+    @Test public void testCandidates() throws ExpressionError {
+
+        int[] count = new int[1];
+        Registry registry = new Registry.Builder(Registry.getDefaults())
+            .function(Functions.create("counted", (context, arg1) -> { ++count[0]; return arg1; }))
+            .build();
+        Parser parser = new Parser(registry);
+
+        Map<String, Expression> rules = new LinkedHashMap<String, Expression>();
+        for (int i = 0; i < 1000; ++i) rules.put("route" + i, parser.parse("queue == \"q" + (i % 100) + "\" and counted(size) > " + i / 100));
+        rules.put("all", parser.parse("counted(size) > 8"));
+
+        RuleMatcher matcher = new RuleMatcher(rules);
+        assertEquals("Indexed count is correct", 1000, matcher.getIndexedCount());
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("queue", "q42");
+        context.set("size", 5);
+
+        java.util.List<String> matches = matcher.match(context);
+        assertEquals("Only candidate rules are evaluated", 11, count[0]);
+        assertEquals("Matches are correct", "[route42, route142, route242, route342, route442]", matches.toString());
+
+        count[0] = 0;
+        context.set("queue", 42);
+        assertEquals("Matches are correct", "[]", matcher.match(context).toString());
+        assertEquals("Only unindexed rules are evaluated", 1, count[0]);
+
+        rules.clear();
+        for (int i = 0; i < 1000; ++i) rules.put("band" + i, parser.parse("score >= " + 10 * i + " and score < " + (10 * i + 10) + " and counted(size) > 0"));
+        rules.put("low", parser.parse("-1 < score and score <= 15.5 and counted(size) > 0"));
+        matcher = new RuleMatcher(rules);
+
+        count[0] = 0;
+        context.set("score", 15);
+        assertEquals("Matches are correct", "[band1, low]", matcher.match(context).toString());
+        assertEquals("Only candidate rules are evaluated", 2, count[0]);
+
+        count[0] = 0;
+        context.set("score", 9995.5);
+        assertEquals("Matches are correct", "[band999]", matcher.match(context).toString());
+        assertEquals("Only candidate rules are evaluated", 1, count[0]);
+    }
+
+
+
+    /**
+     * Test range matches are the same as evaluating every rule
+     */
+    @Test public void testRanges() throws ExpressionError {
+
+        String[] bounds = new String[] { "0", "10", "-10", "2.5", "10.0", "-0.0", "0.0", "1000000.5" };
+        String[] operators = new String[] { "<", "<=", ">", ">=" };
+
+        Map<String, Expression> rules = new LinkedHashMap<String, Expression>();
+        Parser parser = new Parser();
+        Random random = new Random(11);
+        for (int i = 0; i < 300; ++i) {
+            StringBuilder rule = new StringBuilder();
+            int tests = 1 + random.nextInt(3);
+            for (int n = 0; n < tests; ++n) {
+                if (n > 0) rule.append(" and ");
+                String field = random.nextInt(4) == 0 ? "order.total" : "score";
+                String bound = bounds[random.nextInt(bounds.length)];
+                String operator = operators[random.nextInt(operators.length)];
+                if (random.nextBoolean())
+                    rule.append(field).append(' ').append(operator).append(' ').append(bound);
+                else
+                    rule.append(bound).append(' ').append(operator).append(' ').append(field);
+            }
+            rules.put("r" + i, parser.parse(rule.toString()));
+        }
+        rules.put("nan", parser.parse("score < nan and score > 1"));
+        rules.put("empty", parser.parse("score < 1 and score > 2"));
+        rules.put("none", parser.parse("score + 1 > 1"));
+
+        RuleMatcher matcher = new RuleMatcher(rules);
+        assertEquals("Indexed count is correct", rules.size() - 1, matcher.getIndexedCount());
+
+        Object[] values = new Object[] { 0, 10, -10, 2, 3, 11, 0.0, -0.0, 2.5, 10.0, 9.99, -10.0, 1000000.5, Double.NaN,
+                                         Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Integer.MAX_VALUE, "10", null };
+
+        for (int n = 0; n < 500; ++n) {
+            ExpressionContext context = new ExpressionContext();
+            context.set("nan", Double.NaN);
+            context.set("score", values[random.nextInt(values.length)]);
+            if (random.nextInt(4) > 0) {
+                Map<String, Object> order = new HashMap<String, Object>();
+                order.put("total", values[random.nextInt(values.length)]);
+                context.set("order", order);
+            }
+
+            assertEquals("Matches are correct", match(rules, context), matcher.match(context));
+        }
+    }
+}
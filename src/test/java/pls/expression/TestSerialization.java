@@ -0,0 +1,225 @@
+package pls.expression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSerialization {
+
+
+    /** Expressions covering each type of node */
+
+    private static final String[] EXPRESSIONS = new String[] {
+        "3 + 2 * 4",
+        "3.2 * x / 2.2 * (y + 1.4) > 10",
+        "-x + -(2.5 * y)",
+        "!flag or name == \"héllo \\u2603\" and name != null",
+        "x in [1, 2.5, \"three\", [true, false], null, y]",
+        "order.customer.tier > 1",
+        "tolower(concat(name, \"!\")) =~ \"^h\"",
+        "x > 1 and (y < 2 or (x == 5))",
+        "x * 3000000000 - 1",
+        "true",
+        "\"\""
+    };
+
+
+    /**
+     * Writes expressions to a byte array
+     */
+    private static byte[] write(Expression ...expressions) throws IOException, ExpressionError {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ExpressionWriter writer = new ExpressionWriter(bytes)) {
+            for (Expression e : expressions) writer.write(e);
+        }
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * Test expressions read back are the same as the expressions written
+     */
+    @Test public void testRoundTrip() throws IOException, ExpressionError {
+
+        Functions.registerStringFunctions();
+        Parser parser = new Parser();
+
+        Expression[] expressions = new Expression[EXPRESSIONS.length];
+        for (int i = 0; i < EXPRESSIONS.length; ++i) expressions[i] = parser.parse(EXPRESSIONS[i]);
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", 5);
+        context.set("y", 2.5);
+        context.set("flag", false);
+        context.set("name", "héllo");
+        java.util.Map<String, Object> order = new java.util.HashMap<String, Object>();
+        java.util.Map<String, Object> customer = new java.util.HashMap<String, Object>();
+        customer.put("tier", 2);
+        order.put("customer", customer);
+        context.set("order", order);
+
+        try (ExpressionReader reader = new ExpressionReader(new ByteArrayInputStream(write(expressions)))) {
+            for (Expression expected : expressions) {
+                Expression e = reader.read();
+                assertEquals("Expression is correct", expected.toString(), e.toString());
+                assertEquals("Expression class is correct", expected.getClass(), e.getClass());
+
+                Object value = e.eval(context);
+                if (value instanceof Object[])
+                    assertEquals("Result is correct", java.util.Arrays.deepToString((Object[]) expected.eval(context)), java.util.Arrays.deepToString((Object[]) value));
+                else
+                    assertEquals("Result is correct", expected.eval(context), value);
+            }
+            assertNull("End of stream", reader.read());
+        }
+    }
+
+
+
+    /**
+     * Test repeated names are only written once
+     */
+    @Test public void testStringTable() throws IOException, ExpressionError {
+
+        Parser parser = new Parser();
+        Expression e = parser.parse("customer_identifier > 10 and customer_identifier < 20");
+
+        int one = write(e).length;
+        int two = write(e, e).length;
+        assertTrue("Second expression is smaller (" + one + ", " + two + ")", two - one < one - 5 - "customer_identifier".length());
+    }
+
+
+
+    /**
+     * Test optimized expressions can be written
+     */
+    @Test public void testOptimized() throws IOException, ExpressionError {
+
+        Expression e = new Optimizer().optimize(new Parser().parse("x * -2 + 1.5 * -3 > -1"));
+
+        ExpressionContext context = new ExpressionContext();
+        context.set("x", -4);
+
+        Expression read = new ExpressionReader(new ByteArrayInputStream(write(e))).read();
+        assertEquals("Expression is correct", e.toString(), read.toString());
+        assertEquals("Result is correct", true, read.eval(context));
+    }
+
+
+
+    /**
+     * Test context values are bound to a symbol table
+     */
+    @Test public void testSymbols() throws IOException, ExpressionError {
+
+        SymbolTable symbols = new SymbolTable();
+        Expression e = new Parser(symbols).parse("x + order.total");
+
+        SymbolTable other = new SymbolTable();
+        other.define("y");
+        Expression read = new ExpressionReader(new ByteArrayInputStream(write(e)), other, null).read();
+
+        assertEquals("Variable is bound", 1, other.indexOf("x"));
+        assertEquals("Member name is not bound", -1, other.indexOf("total"));
+
+        java.util.Map<String, Object> order = new java.util.HashMap<String, Object>();
+        order.put("total", 10);
+        IndexedContext context = new IndexedContext(other);
+        context.set("x", 5);
+        context.set("order", order);
+        assertEquals("Result is correct", 15, read.eval(context));
+    }
+
+
+
+    /**
+     * Test expressions using unregistered operators and functions are refused
+     */
+    @Test public void testUnregistered() throws IOException, ExpressionError {
+
+        Registry registry = new Registry.Builder(Registry.getDefaults())
+            .function(Functions.create("twice", (context, arg1) -> 2 * (Integer) arg1))
+            .operator(Operators.createNumeric("%", (l, r) -> l % r, (l, r) -> l % r), 12)
+            .build();
+        Parser parser = new Parser(registry);
+
+        byte[] bytes = write(parser.parse("twice(3) > 5"));
+        assertEquals("Result is correct", true, new ExpressionReader(new ByteArrayInputStream(bytes), registry).read().eval(null));
+
+        try {
+            new ExpressionReader(new ByteArrayInputStream(bytes)).read();
+            fail("Unregistered function is refused");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Unsupported function 'twice'", x.getMessage());
+        }
+
+        try {
+            new ExpressionReader(new ByteArrayInputStream(write(parser.parse("7 % 4")))).read();
+            fail("Unregistered operator is refused");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Unsupported operator '%'", x.getMessage());
+        }
+    }
+
+
+
+    /**
+     * Test invalid data is refused
+     */
+    @Test public void testInvalid() throws IOException, ExpressionError {
+
+        try {
+            new ExpressionReader(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }));
+            fail("Invalid header is refused");
+        }
+        catch (IOException x) {
+            assertEquals("Error is correct", "Invalid expression data - missing header", x.getMessage());
+        }
+
+        byte[] bytes = write(new Parser().parse("1 + 2"));
+        bytes[4] = 99;
+        try {
+            new ExpressionReader(new ByteArrayInputStream(bytes));
+            fail("Unknown version is refused");
+        }
+        catch (IOException x) {
+            assertEquals("Error is correct", "Unsupported expression data version 99", x.getMessage());
+        }
+
+        bytes = write(new Parser().parse("1 + 2"));
+        bytes[5] = 42;
+        try {
+            new ExpressionReader(new ByteArrayInputStream(bytes)).read();
+            fail("Unknown node is refused");
+        }
+        catch (IOException x) {
+            assertEquals("Error is correct", "Invalid expression data - unknown node type 42", x.getMessage());
+        }
+
+        bytes = write(new Parser().parse("1 + 2"));
+        try {
+            new ExpressionReader(new ByteArrayInputStream(bytes, 0, bytes.length - 1)).read();
+            fail("Truncated data is refused");
+        }
+        catch (java.io.EOFException x) {
+            /* Expected */
+        }
+
+        try {
+            write(new ExpressionCompiler().compile(new Parser().parse("x + 1")));
+            fail("Compiled expression is refused");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Cannot write expression 'x + 1'", x.getMessage());
+        }
+    }
+}
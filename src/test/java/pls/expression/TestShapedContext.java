@@ -0,0 +1,290 @@
+package pls.expression;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestShapedContext {
+
+
+    /** The shape used for testing */
+
+    private static final Shape SHAPE = new Shape.Builder()
+        .value("name")
+        .intValue("quantity")
+        .doubleValue("price")
+        .value("order")
+        .build();
+
+
+
+    /**
+     * Test the shape layout
+     */
+    @Test public void testShape() {
+
+        assertEquals("Size is correct", 4, SHAPE.size());
+        assertEquals("Slot is correct", 2, SHAPE.indexOf("price"));
+        assertEquals("Missing name has no slot", -1, SHAPE.indexOf("total"));
+        assertEquals("Name is correct", "quantity", SHAPE.getName(1));
+        assertEquals("Type is correct", int.class, SHAPE.getType(1));
+        assertEquals("Type is correct", double.class, SHAPE.getType(2));
+        assertEquals("Type is correct", Object.class, SHAPE.getType(3));
+
+        try {
+            new Shape.Builder().value("x").doubleValue("x");
+            fail("Duplicate name is refused");
+        }
+        catch (IllegalArgumentException x) {
+            assertEquals("Error is correct", "Duplicate variable 'x'", x.getMessage());
+        }
+    }
+
+
+
+    /**
+     * Test values are read from slots, and other names from the map
+     */
+    @Test public void testValues() throws ExpressionError {
+
+        ShapedContext context = new ShapedContext(SHAPE)
+            .setSlot(0, "widget")
+            .setInt(1, 4)
+            .setDouble(2, 2.5);
+        context.set("discount", 1);
+
+        assertEquals("Value is correct", "widget", context.get("name"));
+        assertEquals("Value is correct", 4, context.get("quantity"));
+        assertEquals("Value is correct", 2.5, context.get("price"));
+        assertEquals("Value is correct", 1, context.get("discount"));
+        assertNull("Unset value is null", context.get("order"));
+        assertTrue("Primitive slot is set", context.containsKey("quantity"));
+        assertFalse("Object slot is not set", context.containsKey("order"));
+        assertEquals("Size includes primitive slots and set object slots", 4, context.size());
+
+        Parser parser = new Parser();
+        assertEquals("Result is correct", 9, parser.parse("quantity * 2 + discount").eval(context));
+        assertEquals("Result is correct", 9.0, parser.parse("quantity * price - discount").eval(context));
+        assertEquals("Result is correct", true, parser.parse("name == \"widget\" and price > 2").eval(context));
+        assertEquals("Result is correct", 2, parser.parse("quantity / 2").eval(context));
+
+        context.set("quantity", 6);
+        context.set("price", 1.5);
+        assertEquals("Value is set by name", 6, context.get("quantity"));
+        assertEquals("Result is correct", 9.0, parser.parse("quantity * price").eval(context));
+
+        context.clear();
+        assertEquals("Primitive slot is cleared", 0, context.get("quantity"));
+        assertNull("Object slot is cleared", context.get("name"));
+        assertNull("Map is cleared", context.get("discount"));
+    }
+
+
+
+    /**
+     * Test primitive slots only accept values of their type
+     */
+    @Test public void testInvalid() {
+
+        ShapedContext context = new ShapedContext(SHAPE);
+        try {
+            context.set("quantity", 2.5);
+            fail("Double value is refused");
+        }
+        catch (IllegalArgumentException x) {
+            assertEquals("Error is correct", "Invalid value for int slot 'quantity': 2.5", x.getMessage());
+        }
+
+        try {
+            context.setSlot(2, null);
+            fail("Null value is refused");
+        }
+        catch (IllegalArgumentException x) {
+            assertEquals("Error is correct", "Invalid value for double slot 'price': null", x.getMessage());
+        }
+
+        try {
+            context.setDouble(1, 2.5);
+            fail("Double value is refused");
+        }
+        catch (IllegalArgumentException x) {
+            assertEquals("Error is correct", "Invalid value for int slot 'quantity': 2.5", x.getMessage());
+        }
+    }
+
+
+
+    /**
+     * Test expressions evaluated with contexts of different shapes, and other contexts
+     */
+    @Test public void testShapes() throws ExpressionError {
+
+        Shape other = new Shape.Builder().doubleValue("price").value("name").build();
+        SymbolTable symbols = new SymbolTable();
+        symbols.define("price");
+
+        Expression[] expressions = new Expression[] {
+            new Parser().parse("price * 2"),
+            new Parser(symbols).parse("price * 2"),
+            new ExpressionCompiler().compile(new Parser().parse("price * 2")),
+            new ExpressionCompiler().compile(new Parser(symbols).parse("price * 2"))
+        };
+
+        ShapedContext first = new ShapedContext(SHAPE).setDouble(2, 1.5);
+        ShapedContext second = new ShapedContext(other).setDouble(0, 4.0);
+        ExpressionContext plain = new ExpressionContext().set("price", 3);
+
+        for (Expression e : expressions) {
+            for (int n = 0; n < 2; ++n) {
+                assertEquals("Result is correct: " + e, 3.0, e.eval(first));
+                assertEquals("Result is correct: " + e, 8.0, e.eval(second));
+                assertEquals("Result is correct: " + e, 6, e.eval(plain));
+            }
+        }
+
+        ShapedContext order = new ShapedContext(SHAPE);
+        java.util.Map<String, Object> value = new java.util.HashMap<String, Object>();
+        value.put("total", 10);
+        order.set("order", value);
+        assertEquals("Member is correct", 10, new Parser().parse("order.total").eval(order));
+    }
+
+
+
+    /**
+     * Test primitive slots are read as primitive values
+     */
+    @Test public void testPrimitive() throws ExpressionError {
+
+        ShapedContext context = new ShapedContext(SHAPE).setSlot(0, "widget").setInt(1, 4).setDouble(2, 2.5);
+        context.set("discount", 1);
+
+        assertEquals("Int slot is correct", 4, context.getInt(1));
+        assertEquals("Double slot is correct", 2.5, context.getDouble(2), 0.0);
+        try {
+            context.getInt(2);
+            fail("Double slot is not read as an int");
+        }
+        catch (IllegalArgumentException x) {
+            assertEquals("Error is correct", "Not an int slot: 'price'", x.getMessage());
+        }
+
+        Parser parser = new Parser();
+        assertEquals("Int result is correct", 4, parser.parse("quantity").evalInt(context));
+        assertEquals("Int result is correct", 2, parser.parse("price").evalInt(context));
+        assertEquals("Double result is correct", 4.0, parser.parse("quantity").evalDouble(context), 0.0);
+        assertEquals("Double result is correct", 2.5, parser.parse("price").evalDouble(context), 0.0);
+        assertEquals("Double result is correct", 1.0, parser.parse("discount").evalDouble(context), 0.0);
+        try {
+            parser.parse("name").evalDouble(context);
+            fail("Object slot is not numeric");
+        }
+        catch (ExpressionError x) {
+            assertEquals("Error is correct", "Expected numeric result - found widget", x.getMessage());
+        }
+    }
+
+
+
+    /**
+     * Test the Map methods read and write slots
+     */
+    @Test public void testMap() {
+
+        ShapedContext context = new ShapedContext(SHAPE);
+        java.util.Map<String, Object> values = new java.util.HashMap<String, Object>();
+        values.put("name", "widget");
+        values.put("quantity", 4);
+        values.put("discount", 1);
+        context.putAll(values);
+
+        assertEquals("Value is set by putAll", "widget", context.getSlot(0));
+        assertEquals("Value is set by putAll", 4, context.getInt(1));
+        assertEquals("Size includes primitive slots and set object slots", 4, context.size());
+
+        assertEquals("Value is correct", "widget", context.getOrDefault("name", "none"));
+        assertEquals("Default is used for an unset slot", "none", context.getOrDefault("order", "none"));
+        assertEquals("Default is not used for a primitive slot", 0.0, context.getOrDefault("price", 1.0));
+
+        assertEquals("Value is computed", 5, context.compute("quantity", (k, v) -> (Integer) v + 1));
+        assertEquals("Value is merged", 7, context.merge("quantity", 2, (v1, v2) -> (Integer) v1 + (Integer) v2));
+        assertEquals("Value is present", 7, context.computeIfAbsent("quantity", k -> 1));
+        assertEquals("Value is computed if absent", "new", context.computeIfAbsent("order", k -> "new"));
+        assertEquals("Value is computed if present", "NEW", context.computeIfPresent("order", (k, v) -> "NEW"));
+        assertEquals("Value is set if absent", "NEW", context.putIfAbsent("order", "other"));
+        assertEquals("Value is replaced", "widget", context.replace("name", "gadget"));
+        assertEquals("Value is replaced", true, context.replace("price", 0.0, 1.5));
+        assertEquals("Value is read from the slot", 1.5, context.getDouble(2), 0.0);
+
+        assertEquals("Value is removed", "NEW", context.remove("order"));
+        assertNull("Object slot is cleared", context.getSlot(3));
+        assertEquals("Value is removed", 7, context.remove("quantity"));
+        assertEquals("Primitive slot is reset", 0, context.getInt(1));
+        assertEquals("Value is removed by compute", null, context.compute("name", (k, v) -> null));
+        assertNull("Object slot is cleared", context.getSlot(0));
+        assertEquals("Other names use the map", 1, context.remove("discount"));
+        assertEquals("Only the primitive slots are left", 2, context.size());
+        assertFalse("Context is not empty", context.isEmpty());
+
+        try {
+            context.merge("price", 1, (v1, v2) -> v2);
+            fail("Integer value is refused");
+        }
+        catch (IllegalArgumentException x) {
+            assertEquals("Error is correct", "Invalid value for double slot 'price': 1", x.getMessage());
+        }
+    }
+
+
+
+    /**
+     * Test the map views, iteration, and copies include the slot values
+     */
+    @Test public void testViews() {
+
+        ShapedContext context = new ShapedContext(SHAPE);
+        context.setSlot(0, "widget").setInt(1, 4).setDouble(2, 2.5);
+        context.put("discount", 1);
+
+        java.util.Map<String, Object> expected = new java.util.HashMap<String, Object>();
+        expected.put("name", "widget");
+        expected.put("quantity", 4);
+        expected.put("price", 2.5);
+        expected.put("discount", 1);
+        assertEquals("Context is equal to a map holding the same values", expected, context);
+        assertEquals("Map is equal to the context", expected, new java.util.HashMap<String, Object>(context));
+        assertEquals("Keys include slots", expected.keySet(), context.keySet());
+        assertEquals("String lists slots first", "{name=widget, quantity=4, price=2.5, discount=1}", context.toString());
+        assertTrue("Values include slots", context.containsValue(2.5));
+
+        java.util.Map<String, Object> seen = new java.util.HashMap<String, Object>();
+        context.forEach(seen::put);
+        assertEquals("Each value includes slots", expected, seen);
+
+        context.replaceAll((k, v) -> v instanceof Integer ? (Integer) v * 10 : v);
+        assertEquals("Primitive slot is replaced", 40, context.getInt(1));
+        assertEquals("Value is replaced", 10, context.get("discount"));
+
+        for (java.util.Map.Entry<String, Object> entry : context.entrySet()) {
+            if (entry.getKey().equals("price")) entry.setValue(3.5);
+        }
+        assertEquals("Slot is set through its entry", 3.5, context.getDouble(2), 0.0);
+
+        context.keySet().remove("quantity");
+        assertEquals("Primitive slot is reset through the view", 0, context.getInt(1));
+
+        ShapedContext copy = context.clone();
+        copy.put("name", "gadget");
+        copy.setInt(1, 9);
+        copy.setDouble(2, 1.0);
+        copy.put("discount", 5);
+        assertEquals("Copy holds the slot value", "gadget", copy.get("name"));
+        assertEquals("Original object slot is unchanged", "widget", context.get("name"));
+        assertEquals("Original int slot is unchanged", 0, context.getInt(1));
+        assertEquals("Original double slot is unchanged", 3.5, context.getDouble(2), 0.0);
+        assertEquals("Original value is unchanged", 10, context.get("discount"));
+    }
+}